@@ -0,0 +1,53 @@
+package com.revolut.admission;
+
+/**
+ * Result of asking the admission controller to let a request through.
+ * An admitted request must be released once it completes.
+ * @author josh
+ *
+ */
+public class Admission {
+
+	private final AdmissionController controller;
+	private final boolean admitted;
+	private final long retryAfterSeconds;
+	private final String reason;
+	private final long startNanos;
+
+	Admission(AdmissionController controller, long startNanos) {
+		this.controller = controller;
+		this.admitted = true;
+		this.retryAfterSeconds = 0;
+		this.reason = null;
+		this.startNanos = startNanos;
+	}
+
+	Admission(long retryAfterSeconds, String reason) {
+		this.controller = null;
+		this.admitted = false;
+		this.retryAfterSeconds = retryAfterSeconds;
+		this.reason = reason;
+		this.startNanos = 0;
+	}
+
+	public boolean isAdmitted() {
+		return admitted;
+	}
+
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	/**
+	 * Releases the concurrency slot held by an admitted request
+	 */
+	public void release() {
+		if (controller != null) {
+			controller.release(System.nanoTime() - startNanos);
+		}
+	}
+}
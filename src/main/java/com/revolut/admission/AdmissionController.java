@@ -0,0 +1,107 @@
+package com.revolut.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.revolut.metrics.Metrics;
+
+/**
+ * Decides whether a transfer may proceed before any database work is done. A transfer must get a
+ * slot under the adaptive concurrency limit, then a token from the bucket of the client sending it
+ * and of the account being debited. A transfer turned away for its rate gives its slot back, one
+ * turned away for concurrency takes no tokens. Rate limits are disabled by setting their rate to 0.
+ *
+ * Configured with system properties:
+ * transfermoney.admission.accountRate / accountBurst : transfers per second per debited account (default 0, off)
+ * transfermoney.admission.clientRate / clientBurst : transfers per second per client (default 0, off)
+ * transfermoney.admission.initialLimit / minLimit / maxLimit : concurrent transfers (default 20 / 2 / 200)
+ * @author josh
+ *
+ */
+public class AdmissionController {
+
+	private static final AdmissionController instance = new AdmissionController(
+			Integer.getInteger("transfermoney.admission.accountRate", 0),
+			Integer.getInteger("transfermoney.admission.accountBurst", 0),
+			Integer.getInteger("transfermoney.admission.clientRate", 0),
+			Integer.getInteger("transfermoney.admission.clientBurst", 0),
+			new ConcurrencyLimit(Integer.getInteger("transfermoney.admission.initialLimit", 20),
+					Integer.getInteger("transfermoney.admission.minLimit", 2),
+					Integer.getInteger("transfermoney.admission.maxLimit", 200)));
+
+	public static final String ACCOUNT_RATE = "account rate";
+	public static final String CLIENT_RATE = "client rate";
+	public static final String CONCURRENCY = "concurrency";
+
+	private final RateLimiter accountLimiter;
+	private final RateLimiter clientLimiter;
+	private final ConcurrencyLimit concurrencyLimit;
+	private final LongAdder admitted = new LongAdder();
+	private final LongAdder rejectedAccount = new LongAdder();
+	private final LongAdder rejectedClient = new LongAdder();
+	private final LongAdder rejectedConcurrency = new LongAdder();
+
+	public AdmissionController(int accountRate, int accountBurst, int clientRate, int clientBurst,
+			ConcurrencyLimit concurrencyLimit) {
+		this.accountLimiter = accountRate > 0 ? new RateLimiter(accountRate, accountBurst) : null;
+		this.clientLimiter = clientRate > 0 ? new RateLimiter(clientRate, clientBurst) : null;
+		this.concurrencyLimit = concurrencyLimit;
+	}
+
+	/**
+	 * Returns the controller shared by all transfer endpoints
+	 * @return
+	 */
+	public static AdmissionController getInstance() {
+		return instance;
+	}
+
+	static {
+		Metrics.register("admission.admitted", instance.admitted::sum);
+		Metrics.register("admission.rejected.account", instance.rejectedAccount::sum);
+		Metrics.register("admission.rejected.client", instance.rejectedClient::sum);
+		Metrics.register("admission.rejected.concurrency", instance.rejectedConcurrency::sum);
+		Metrics.register("admission.concurrency.limit", instance.concurrencyLimit::getLimit);
+		Metrics.register("admission.concurrency.inFlight", instance.concurrencyLimit::getInFlight);
+	}
+
+	/**
+	 * Asks to admit a transfer from a client debiting an account, either of which may be null
+	 * @param clientId
+	 * @param accountName
+	 * @return
+	 */
+	public Admission tryAdmit(String clientId, String accountName) {
+		long now = System.nanoTime();
+		if (!concurrencyLimit.tryAcquire()) {
+			rejectedConcurrency.increment();
+			return new Admission(1, CONCURRENCY);
+		}
+		if (clientLimiter != null && clientId != null) {
+			long waitNanos = clientLimiter.tryAcquire(clientId, now);
+			if (waitNanos > 0) {
+				concurrencyLimit.cancel();
+				rejectedClient.increment();
+				return new Admission(toRetrySeconds(waitNanos), CLIENT_RATE);
+			}
+		}
+		if (accountLimiter != null && accountName != null) {
+			long waitNanos = accountLimiter.tryAcquire(accountName, now);
+			if (waitNanos > 0) {
+				concurrencyLimit.cancel();
+				rejectedAccount.increment();
+				return new Admission(toRetrySeconds(waitNanos), ACCOUNT_RATE);
+			}
+		}
+		admitted.increment();
+		return new Admission(this, now);
+	}
+
+	void release(long latencyNanos) {
+		concurrencyLimit.release(latencyNanos);
+	}
+
+	private long toRetrySeconds(long waitNanos) {
+		return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+	}
+}
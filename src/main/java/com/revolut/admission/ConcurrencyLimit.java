@@ -0,0 +1,92 @@
+package com.revolut.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit that adapts to measured latency. The limit is compared against a slowly
+ * moving average of latency: while recent latency stays close to the long term average the limit
+ * grows, when it rises above it (requests are queueing somewhere) the limit shrinks in proportion.
+ * Acquiring is a lock free compare and set, only the occasional limit update synchronises.
+ * @author josh
+ *
+ */
+public class ConcurrencyLimit {
+
+	/** Latency may rise this far above the long term average before the limit is cut */
+	private static final double TOLERANCE = 2.0;
+	private static final double LONG_WINDOW_WEIGHT = 0.01;
+	private static final double SMOOTHING = 0.2;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile int limit;
+	private double estimatedLimit;
+	private double longLatencyNanos;
+
+	public ConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = initialLimit;
+		this.estimatedLimit = initialLimit;
+	}
+
+	/**
+	 * Returns true and takes a slot if fewer than limit requests are in flight
+	 * @return
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= limit) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases a slot taken by tryAcquire, recording how long the request held it
+	 * @param latencyNanos
+	 */
+	public void release(long latencyNanos) {
+		int concurrent = inFlight.getAndDecrement();
+		update(latencyNanos, concurrent);
+	}
+
+	/**
+	 * Releases a slot taken by tryAcquire for a request that was turned away before it ran, without
+	 * counting its latency
+	 */
+	public void cancel() {
+		inFlight.decrementAndGet();
+	}
+
+	private synchronized void update(long latencyNanos, int concurrent) {
+		if (longLatencyNanos == 0) {
+			longLatencyNanos = latencyNanos;
+		} else {
+			longLatencyNanos += (latencyNanos - longLatencyNanos) * LONG_WINDOW_WEIGHT;
+		}
+		// Only grow when the limit is actually being used, otherwise it drifts to the max while idle
+		if (latencyNanos <= longLatencyNanos && concurrent * 2 < estimatedLimit) {
+			return;
+		}
+		double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatencyNanos / Math.max(latencyNanos, 1)));
+		double queueAllowance = Math.sqrt(estimatedLimit);
+		double newLimit = estimatedLimit * gradient + queueAllowance;
+		estimatedLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit));
+		limit = (int) estimatedLimit;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+}
@@ -0,0 +1,59 @@
+package com.revolut.admission;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket per key. Idle buckets are full, so they are dropped periodically to stop
+ * the map growing with every key ever seen.
+ * @author josh
+ *
+ */
+public class RateLimiter {
+
+	private static final int SWEEP_INTERVAL = 4096;
+
+	private final double ratePerSecond;
+	private final int burst;
+	private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+	private final AtomicLong calls = new AtomicLong();
+
+	public RateLimiter(double ratePerSecond, int burst) {
+		this.ratePerSecond = ratePerSecond;
+		this.burst = burst;
+	}
+
+	/**
+	 * Takes a token for the key.
+	 * Returns 0 if a token was taken, otherwise the nanoseconds until one will be available.
+	 * @param key
+	 * @param nowNanos
+	 * @return
+	 */
+	public long tryAcquire(String key, long nowNanos) {
+		if (calls.incrementAndGet() % SWEEP_INTERVAL == 0) {
+			sweep(nowNanos);
+		}
+		TokenBucket bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(ratePerSecond, burst, nowNanos));
+		}
+		return bucket.tryAcquire(nowNanos);
+	}
+
+	private void sweep(long nowNanos) {
+		Iterator<Map.Entry<String, TokenBucket>> entries = buckets.entrySet().iterator();
+		while (entries.hasNext()) {
+			if (entries.next().getValue().isIdle(nowNanos)) {
+				entries.remove();
+			}
+		}
+	}
+
+	public int size() {
+		return buckets.size();
+	}
+}
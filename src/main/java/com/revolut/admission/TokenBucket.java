@@ -0,0 +1,57 @@
+package com.revolut.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free token bucket. Rather than counting tokens the bucket tracks the theoretical arrival
+ * time of the next request (the generic cell rate algorithm) in a single atomic long, so taking
+ * a token is one compare and set with no refill thread.
+ * @author josh
+ *
+ */
+public class TokenBucket {
+
+	private final long nanosPerToken;
+	private final long burstNanos;
+	private final AtomicLong theoreticalArrival;
+
+	/**
+	 * @param ratePerSecond tokens added per second
+	 * @param burst maximum tokens that can be taken at once after the bucket has been idle
+	 * @param nowNanos current time
+	 */
+	public TokenBucket(double ratePerSecond, int burst, long nowNanos) {
+		this.nanosPerToken = (long) (1_000_000_000L / ratePerSecond);
+		this.burstNanos = nanosPerToken * burst;
+		this.theoreticalArrival = new AtomicLong(nowNanos);
+	}
+
+	/**
+	 * Takes a token if one is available.
+	 * Returns 0 if a token was taken, otherwise the nanoseconds until one will be available.
+	 * @param nowNanos
+	 * @return
+	 */
+	public long tryAcquire(long nowNanos) {
+		while (true) {
+			long current = theoreticalArrival.get();
+			long next = Math.max(current, nowNanos) + nanosPerToken;
+			long waitNanos = next - nowNanos - burstNanos;
+			if (waitNanos > 0) {
+				return waitNanos;
+			}
+			if (theoreticalArrival.compareAndSet(current, next)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the bucket is full, in which case it is indistinguishable from a new bucket
+	 * @param nowNanos
+	 * @return
+	 */
+	public boolean isIdle(long nowNanos) {
+		return theoreticalArrival.get() <= nowNanos;
+	}
+}
@@ -7,6 +7,8 @@ public class Account {
 	private Long id;
 	private String accountName;
 	private BigDecimal balance;
+	private Long version;
+	private String currency;
 
 	public Long getId() {
 		return id;
@@ -27,5 +29,17 @@ public class Account {
 	public void setBalance(BigDecimal balance) {
 		this.balance = balance;
 	}
+	public Long getVersion() {
+		return version;
+	}
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+	public String getCurrency() {
+		return currency;
+	}
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
 
 }
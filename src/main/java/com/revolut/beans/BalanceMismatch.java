@@ -0,0 +1,44 @@
+package com.revolut.beans;
+
+import java.math.BigDecimal;
+
+public class BalanceMismatch {
+
+	private Long accountId;
+	private String accountName;
+	private BigDecimal balance;
+	private BigDecimal expectedBalance;
+
+	public Long getAccountId() {
+		return accountId;
+	}
+
+	public void setAccountId(Long accountId) {
+		this.accountId = accountId;
+	}
+
+	public String getAccountName() {
+		return accountName;
+	}
+
+	public void setAccountName(String accountName) {
+		this.accountName = accountName;
+	}
+
+	public BigDecimal getBalance() {
+		return balance;
+	}
+
+	public void setBalance(BigDecimal balance) {
+		this.balance = balance;
+	}
+
+	public BigDecimal getExpectedBalance() {
+		return expectedBalance;
+	}
+
+	public void setExpectedBalance(BigDecimal expectedBalance) {
+		this.expectedBalance = expectedBalance;
+	}
+
+}
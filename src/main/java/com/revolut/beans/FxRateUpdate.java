@@ -0,0 +1,17 @@
+package com.revolut.beans;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+public class FxRateUpdate {
+	private Map<String, BigDecimal> rates;
+
+	public Map<String, BigDecimal> getRates() {
+		return rates;
+	}
+
+	public void setRates(Map<String, BigDecimal> rates) {
+		this.rates = rates;
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.revolut.beans;
+
+import java.util.List;
+
+public class ImportReport {
+
+	private long accepted;
+	private long rejected;
+	private List<ImportReject> rejects;
+
+	public long getAccepted() {
+		return accepted;
+	}
+
+	public void setAccepted(long accepted) {
+		this.accepted = accepted;
+	}
+
+	public long getRejected() {
+		return rejected;
+	}
+
+	public void setRejected(long rejected) {
+		this.rejected = rejected;
+	}
+
+	public List<ImportReject> getRejects() {
+		return rejects;
+	}
+
+	public void setRejects(List<ImportReject> rejects) {
+		this.rejects = rejects;
+	}
+
+}
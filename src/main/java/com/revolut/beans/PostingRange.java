@@ -0,0 +1,71 @@
+package com.revolut.beans;
+
+import java.math.BigDecimal;
+
+public class PostingRange {
+
+	private Long firstAccountId;
+	private Long lastAccountId;
+	private Long checkpoint;
+	private Long posted;
+	private Long skipped;
+	private BigDecimal total;
+
+	public Long getFirstAccountId() {
+		return firstAccountId;
+	}
+
+	public void setFirstAccountId(Long firstAccountId) {
+		this.firstAccountId = firstAccountId;
+	}
+
+	public Long getLastAccountId() {
+		return lastAccountId;
+	}
+
+	public void setLastAccountId(Long lastAccountId) {
+		this.lastAccountId = lastAccountId;
+	}
+
+	/**
+	 * Highest account id posted to so far, one below the first account id before any are
+	 */
+	public Long getCheckpoint() {
+		return checkpoint;
+	}
+
+	public void setCheckpoint(Long checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	public boolean isFinished() {
+		return checkpoint >= lastAccountId;
+	}
+
+	public Long getPosted() {
+		return posted;
+	}
+
+	public void setPosted(Long posted) {
+		this.posted = posted;
+	}
+
+	/**
+	 * Accounts a fee was due from that could not cover it
+	 */
+	public Long getSkipped() {
+		return skipped;
+	}
+
+	public void setSkipped(Long skipped) {
+		this.skipped = skipped;
+	}
+
+	public BigDecimal getTotal() {
+		return total;
+	}
+
+	public void setTotal(BigDecimal total) {
+		this.total = total;
+	}
+}
@@ -0,0 +1,143 @@
+package com.revolut.beans;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+public class PostingRun {
+	public static final String RUNNING = "Running";
+	public static final String COMPLETE = "Complete";
+	public static final String FAILED = "Failed";
+
+	private Long id;
+	private String houseAccountName;
+	private String currency;
+	private String rule;
+	private BigDecimal parameter;
+	private String status;
+	private Long started;
+	private Long finished;
+	private Long posted;
+	private Long skipped;
+	private BigDecimal total;
+	private List<PostingRange> ranges;
+	private transient long houseAccountId;
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	/**
+	 * Account every posting is paid from or to
+	 */
+	public String getHouseAccountName() {
+		return houseAccountName;
+	}
+
+	public void setHouseAccountName(String houseAccountName) {
+		this.houseAccountName = houseAccountName;
+	}
+
+	/**
+	 * Currency of the house account, only accounts in it are posted to
+	 */
+	public String getCurrency() {
+		return currency;
+	}
+
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
+
+	public String getRule() {
+		return rule;
+	}
+
+	public void setRule(String rule) {
+		this.rule = rule;
+	}
+
+	public BigDecimal getParameter() {
+		return parameter;
+	}
+
+	public void setParameter(BigDecimal parameter) {
+		this.parameter = parameter;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	/**
+	 * Time the run was created in milliseconds since the epoch
+	 */
+	public Long getStarted() {
+		return started;
+	}
+
+	public void setStarted(Long started) {
+		this.started = started;
+	}
+
+	/**
+	 * Time the run last completed or failed in milliseconds since the epoch, null while running
+	 */
+	public Long getFinished() {
+		return finished;
+	}
+
+	public void setFinished(Long finished) {
+		this.finished = finished;
+	}
+
+	public Long getPosted() {
+		return posted;
+	}
+
+	public void setPosted(Long posted) {
+		this.posted = posted;
+	}
+
+	public Long getSkipped() {
+		return skipped;
+	}
+
+	public void setSkipped(Long skipped) {
+		this.skipped = skipped;
+	}
+
+	/**
+	 * Net amount posted to accounts, negative for fees
+	 */
+	public BigDecimal getTotal() {
+		return total;
+	}
+
+	public void setTotal(BigDecimal total) {
+		this.total = total;
+	}
+
+	public List<PostingRange> getRanges() {
+		return ranges;
+	}
+
+	public void setRanges(List<PostingRange> ranges) {
+		this.ranges = ranges;
+	}
+
+	public long getHouseAccountId() {
+		return houseAccountId;
+	}
+
+	public void setHouseAccountId(long houseAccountId) {
+		this.houseAccountId = houseAccountId;
+	}
+}
@@ -0,0 +1,93 @@
+package com.revolut.beans;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+public class ReconciliationReport {
+	public static final String RUNNING = "Running";
+	public static final String COMPLETE = "Complete";
+	public static final String FAILED = "Failed";
+
+	private String state;
+	private Timestamp startDate;
+	private Timestamp endDate;
+	private long accountsChecked;
+	private long transactionsChecked;
+	private long mismatchCount;
+	private long orphanCount;
+	private List<BalanceMismatch> mismatches;
+	private List<Long> orphanedTransactionIds;
+
+	public String getState() {
+		return state;
+	}
+
+	public void setState(String state) {
+		this.state = state;
+	}
+
+	public Timestamp getStartDate() {
+		return startDate;
+	}
+
+	public void setStartDate(Timestamp startDate) {
+		this.startDate = startDate;
+	}
+
+	public Timestamp getEndDate() {
+		return endDate;
+	}
+
+	public void setEndDate(Timestamp endDate) {
+		this.endDate = endDate;
+	}
+
+	public long getAccountsChecked() {
+		return accountsChecked;
+	}
+
+	public void setAccountsChecked(long accountsChecked) {
+		this.accountsChecked = accountsChecked;
+	}
+
+	public long getTransactionsChecked() {
+		return transactionsChecked;
+	}
+
+	public void setTransactionsChecked(long transactionsChecked) {
+		this.transactionsChecked = transactionsChecked;
+	}
+
+	public long getMismatchCount() {
+		return mismatchCount;
+	}
+
+	public void setMismatchCount(long mismatchCount) {
+		this.mismatchCount = mismatchCount;
+	}
+
+	public long getOrphanCount() {
+		return orphanCount;
+	}
+
+	public void setOrphanCount(long orphanCount) {
+		this.orphanCount = orphanCount;
+	}
+
+	public List<BalanceMismatch> getMismatches() {
+		return mismatches;
+	}
+
+	public void setMismatches(List<BalanceMismatch> mismatches) {
+		this.mismatches = mismatches;
+	}
+
+	public List<Long> getOrphanedTransactionIds() {
+		return orphanedTransactionIds;
+	}
+
+	public void setOrphanedTransactionIds(List<Long> orphanedTransactionIds) {
+		this.orphanedTransactionIds = orphanedTransactionIds;
+	}
+
+}
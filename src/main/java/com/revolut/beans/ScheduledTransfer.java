@@ -0,0 +1,112 @@
+package com.revolut.beans;
+
+import java.math.BigDecimal;
+
+public class ScheduledTransfer {
+
+	private Long id;
+	private String fromAccountName;
+	private String toAccountName;
+	private BigDecimal amount;
+	private Long nextRun;
+	private Long intervalSeconds;
+	private Long runs;
+	private String lastOutcome;
+	private Boolean active;
+	private transient long fromAccountId;
+	private transient long toAccountId;
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public String getFromAccountName() {
+		return fromAccountName;
+	}
+
+	public void setFromAccountName(String fromAccountName) {
+		this.fromAccountName = fromAccountName;
+	}
+
+	public String getToAccountName() {
+		return toAccountName;
+	}
+
+	public void setToAccountName(String toAccountName) {
+		this.toAccountName = toAccountName;
+	}
+
+	public BigDecimal getAmount() {
+		return amount;
+	}
+
+	public void setAmount(BigDecimal amount) {
+		this.amount = amount;
+	}
+
+	/**
+	 * Time of the next run in milliseconds since the epoch
+	 */
+	public Long getNextRun() {
+		return nextRun;
+	}
+
+	public void setNextRun(Long nextRun) {
+		this.nextRun = nextRun;
+	}
+
+	/**
+	 * Time between runs of a standing order, 0 or null for a transfer that runs once
+	 */
+	public Long getIntervalSeconds() {
+		return intervalSeconds;
+	}
+
+	public void setIntervalSeconds(Long intervalSeconds) {
+		this.intervalSeconds = intervalSeconds;
+	}
+
+	public Long getRuns() {
+		return runs;
+	}
+
+	public void setRuns(Long runs) {
+		this.runs = runs;
+	}
+
+	public String getLastOutcome() {
+		return lastOutcome;
+	}
+
+	public void setLastOutcome(String lastOutcome) {
+		this.lastOutcome = lastOutcome;
+	}
+
+	public Boolean getActive() {
+		return active;
+	}
+
+	public void setActive(Boolean active) {
+		this.active = active;
+	}
+
+	public long getFromAccountId() {
+		return fromAccountId;
+	}
+
+	public void setFromAccountId(long fromAccountId) {
+		this.fromAccountId = fromAccountId;
+	}
+
+	public long getToAccountId() {
+		return toAccountId;
+	}
+
+	public void setToAccountId(long toAccountId) {
+		this.toAccountId = toAccountId;
+	}
+}
@@ -9,6 +9,10 @@ public class Transaction {
 	private String fromAccountName;
 	private String toAccountName;
 	private BigDecimal amount;
+	private String currency;
+	private BigDecimal toAmount;
+	private String toCurrency;
+	private BigDecimal rate;
 	private Date transactionDate;
 
 	public Long getId() {
@@ -41,6 +45,30 @@ public class Transaction {
 	public void setAmount(BigDecimal amount) {
 		this.amount = amount;
 	}
+	public String getCurrency() {
+		return currency;
+	}
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
+	public BigDecimal getToAmount() {
+		return toAmount;
+	}
+	public void setToAmount(BigDecimal toAmount) {
+		this.toAmount = toAmount;
+	}
+	public String getToCurrency() {
+		return toCurrency;
+	}
+	public void setToCurrency(String toCurrency) {
+		this.toCurrency = toCurrency;
+	}
+	public BigDecimal getRate() {
+		return rate;
+	}
+	public void setRate(BigDecimal rate) {
+		this.rate = rate;
+	}
 	public Date getTransactionDate() {
 		return transactionDate;
 	}
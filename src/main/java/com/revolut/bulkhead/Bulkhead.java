@@ -0,0 +1,220 @@
+package com.revolut.bulkhead;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.revolut.metrics.Metrics;
+import com.revolut.tracing.Tracer;
+
+/**
+ * An isolated slice of the server's resources for one kind of work. Work runs on the bulkhead's own
+ * threads with a bounded queue, once both are full further work is rejected straight away rather than
+ * holding a request thread. Database connections opened by those threads count against the bulkhead's
+ * own quota and then against the permits shared by every bulkhead, which are handed out by priority.
+ *
+ * A thread counts once however many connections it has open, so nested lookups inside a
+ * transaction can't deadlock against the quota.
+ * @author josh
+ *
+ */
+public class Bulkhead {
+
+	private static final ThreadLocal<Bulkhead> current = new ThreadLocal<>();
+	private static final ThreadLocal<int[]> held = ThreadLocal.withInitial(() -> new int[1]);
+
+	private final String name;
+	private final int priority;
+	private final int connectionQuota;
+	private final long connectionWaitMillis;
+	private final ThreadPoolExecutor executor;
+	private final Semaphore connections;
+	private final PriorityPermits shared;
+	private final AtomicInteger threads = new AtomicInteger();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder connectionTimeouts = new LongAdder();
+
+	public Bulkhead(String name, int priority, int threadCount, int queueSize, int connectionQuota,
+			long connectionWaitMillis, PriorityPermits shared) {
+		this.name = name;
+		this.priority = priority;
+		this.connectionQuota = connectionQuota;
+		this.connectionWaitMillis = connectionWaitMillis;
+		this.connections = new Semaphore(connectionQuota, true);
+		this.shared = shared;
+		this.executor = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueSize), runnable -> {
+					Thread thread = new Thread(() -> {
+						current.set(this);
+						runnable.run();
+					}, "bulkhead-" + name + "-" + threads.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Registers the bulkhead's metrics under bulkhead.name
+	 */
+	public void registerMetrics() {
+		Metrics.register("bulkhead." + name + ".active", this::getActive);
+		Metrics.register("bulkhead." + name + ".queued", this::getQueued);
+		Metrics.register("bulkhead." + name + ".rejected", rejected::sum);
+		Metrics.register("bulkhead." + name + ".connections", () -> connectionQuota - connections.availablePermits());
+		Metrics.register("bulkhead." + name + ".connectionTimeouts", connectionTimeouts::sum);
+	}
+
+	/**
+	 * Returns the bulkhead the current thread works for, or null for threads outside any bulkhead
+	 * @return
+	 */
+	public static Bulkhead current() {
+		return current.get();
+	}
+
+	/**
+	 * Runs a task on the bulkhead's threads and waits for its result. Work already running in this
+	 * bulkhead runs in place. The current thread's trace, if it has one, follows the task.
+	 * @param task
+	 * @return
+	 * @throws RejectedExecutionException if the bulkhead's threads and queue are full
+	 * @throws Exception thrown by the task
+	 */
+	public <T> T call(Callable<T> task) throws Exception {
+		if (current.get() == this) {
+			return task.call();
+		}
+		Future<T> future;
+		try {
+			future = executor.submit(Tracer.carry(task));
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			throw e;
+		}
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw (Exception) cause;
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw e;
+		}
+	}
+
+	/**
+	 * Takes a connection slot for the current thread from the bulkhead's quota and then the shared
+	 * permits, if the thread doesn't already hold one. Each call must be matched by releaseConnection.
+	 * @throws SQLException if no slot came free within the connection wait
+	 */
+	public void acquireConnection() throws SQLException {
+		int[] count = held.get();
+		if (count[0] > 0) {
+			count[0]++;
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			if (!connections.tryAcquire(connectionWaitMillis, TimeUnit.MILLISECONDS)) {
+				connectionTimeouts.increment();
+				throw new SQLException(String.format("No connection free in the %s bulkhead", name));
+			}
+			long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			if (!shared.acquire(priority, Math.max(0, connectionWaitMillis - waited))) {
+				connections.release();
+				connectionTimeouts.increment();
+				throw new SQLException(String.format("No shared connection free for the %s bulkhead", name));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a connection", e);
+		}
+		count[0]++;
+	}
+
+	/**
+	 * Gives back a slot taken by acquireConnection, once the thread has closed all its connections
+	 */
+	public void releaseConnection() {
+		int[] count = held.get();
+		if (--count[0] == 0) {
+			shared.release();
+			connections.release();
+		}
+	}
+
+	/**
+	 * Wraps a connection taken under acquireConnection so closing it releases the slot
+	 * @param connection
+	 * @return
+	 */
+	public Connection wrap(Connection connection) {
+		return (Connection) Proxy.newProxyInstance(Bulkhead.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new QuotaConnection(connection));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public int getActive() {
+		return executor.getActiveCount();
+	}
+
+	public int getQueued() {
+		return executor.getQueue().size();
+	}
+
+	public int getConnectionQuota() {
+		return connectionQuota;
+	}
+
+	private class QuotaConnection implements InvocationHandler {
+		private final Connection connection;
+		private boolean closed;
+
+		private QuotaConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("close") && !closed) {
+				closed = true;
+				try {
+					return method.invoke(connection, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				} finally {
+					releaseConnection();
+				}
+			}
+			try {
+				return method.invoke(connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.revolut.bulkhead;
+
+import com.revolut.metrics.Metrics;
+
+/**
+ * The server's bulkheads: transfers, account lookups and transaction history. Each is sized with system
+ * properties transfermoney.bulkhead.name.threads / queue / connections, and together they share
+ * transfermoney.bulkhead.connections database connections, with transfers first in line when those run out.
+ * @author josh
+ *
+ */
+public final class Bulkheads {
+
+	private static final long CONNECTION_WAIT_MILLIS = Long.getLong("transfermoney.bulkhead.connectionWaitMillis", 5000);
+
+	private static final PriorityPermits connections =
+			new PriorityPermits(Integer.getInteger("transfermoney.bulkhead.connections", 12), 3);
+	private static final Bulkhead transfers = load("transfers", 0, 16, 128, 8);
+	private static final Bulkhead lookups = load("lookups", 1, 8, 64, 4);
+	private static final Bulkhead history = load("history", 2, 4, 16, 2);
+
+	static {
+		Metrics.register("bulkhead.connections.available", connections::getAvailable);
+	}
+
+	private Bulkheads() {
+	}
+
+	private static Bulkhead load(String name, int priority, int threads, int queue, int quota) {
+		String prefix = "transfermoney.bulkhead." + name + ".";
+		Bulkhead bulkhead = new Bulkhead(name, priority, Integer.getInteger(prefix + "threads", threads),
+				Integer.getInteger(prefix + "queue", queue), Integer.getInteger(prefix + "connections", quota),
+				CONNECTION_WAIT_MILLIS, connections);
+		bulkhead.registerMetrics();
+		return bulkhead;
+	}
+
+	/**
+	 * Transfers, served first when the shared connections run out
+	 * @return
+	 */
+	public static Bulkhead transfers() {
+		return transfers;
+	}
+
+	/**
+	 * Account lookups by name
+	 * @return
+	 */
+	public static Bulkhead lookups() {
+		return lookups;
+	}
+
+	/**
+	 * Transaction history searches, which can be large and are served last
+	 * @return
+	 */
+	public static Bulkhead history() {
+		return history;
+	}
+}
@@ -0,0 +1,76 @@
+package com.revolut.bulkhead;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed number of permits shared between bulkheads. Waiters are served in priority order, 0 first,
+ * so while every permit is taken the next one released goes to the most important waiting work
+ * rather than to whichever thread asked first.
+ * @author josh
+ *
+ */
+public class PriorityPermits {
+
+	private final int permits;
+	private final int[] waiting;
+	private int available;
+
+	public PriorityPermits(int permits, int priorities) {
+		this.permits = permits;
+		this.available = permits;
+		this.waiting = new int[priorities];
+	}
+
+	/**
+	 * Takes a permit, waiting up to timeoutMillis while none is free or one is waited for at a higher priority
+	 * @param priority
+	 * @param timeoutMillis
+	 * @return false if the wait timed out
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean acquire(int priority, long timeoutMillis) throws InterruptedException {
+		if (available > 0 && !waitingAhead(priority)) {
+			available--;
+			return true;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		waiting[priority]++;
+		try {
+			while (available == 0 || waitingAhead(priority)) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					return false;
+				}
+				wait(remaining);
+			}
+			available--;
+			return true;
+		} finally {
+			waiting[priority]--;
+			// Lower priority waiters may have been held back behind this one
+			notifyAll();
+		}
+	}
+
+	public synchronized void release() {
+		available++;
+		notifyAll();
+	}
+
+	private boolean waitingAhead(int priority) {
+		for (int i = 0; i < priority; i++) {
+			if (waiting[i] > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getPermits() {
+		return permits;
+	}
+
+	public synchronized int getAvailable() {
+		return available;
+	}
+}
@@ -5,36 +5,89 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.revolut.beans.Account;
+import com.revolut.events.AccountEvents;
+import com.revolut.fx.FxRates;
+import com.revolut.replication.Journal;
+import com.revolut.replication.JournalEvent;
 import com.revolut.rest.Response;
+import com.revolut.search.AccountNameIndex;
 
 /**
- * DAO for performing Account related tasks
+ * DAO for performing Account related tasks.
+ * When the off heap account table is enabled lookups are answered from it first, and every change
+ * made here or by a transfer is copied into it once committed.
  * @author josh
  *
  */
 public class AccountDAO {
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
+	private static final SingleFlight<String, Account> accountLookups = new SingleFlight<>("account.lookup");
+	private static final int INSERT_BATCH_SIZE = 1000;
+
+	private Journal journal = Journal.getInstance();
+	private AccountTable accountTable = AccountTable.getInstance();
+	private AccountEvents events = AccountEvents.getInstance();
+	private AccountNameIndex nameIndex = AccountNameIndex.getInstance();
+
 	/**
-	 * Creates a new account with a given name and opening balance
+	 * Creates a new account in the base currency with a given name and opening balance
 	 * @param accountName
 	 * @param initialBalance
 	 * @return
 	 */
 	public String createAccount(String accountName, BigDecimal initialBalance) {
+		return createAccount(accountName, initialBalance, FxRates.getInstance().getBaseCurrency());
+	}
+
+	/**
+	 * Creates a new account with a given name, opening balance and currency
+	 * @param accountName
+	 * @param initialBalance
+	 * @param currency
+	 * @return
+	 */
+	public String createAccount(String accountName, BigDecimal initialBalance, String currency) {
 		String status = Response.ERROR;
 		Connection con = null;
 		PreparedStatement ps = null;
 		try {
 			con = DBConnection.getConnection();
-			ps = con.prepareStatement("INSERT INTO ACCOUNT(ACCOUNTNAME, BALANCE) VALUES (?, ?)");
+			con.setAutoCommit(false);
+			ps = con.prepareStatement("INSERT INTO ACCOUNT(ACCOUNTNAME, BALANCE, OPENINGBALANCE, CURRENCY) VALUES (?, ?, ?, ?)",
+					Statement.RETURN_GENERATED_KEYS);
 			ps.setString(1, accountName);
 			ps.setBigDecimal(2, initialBalance);
+			ps.setBigDecimal(3, initialBalance);
+			ps.setString(4, currency);
 			ps.executeUpdate();
+			long accountId = journal.isEnabled() || accountTable.isEnabled() ? DBConnection.getGeneratedId(ps) : 0;
+			journal.commit(con, journal.isEnabled() ? JournalEvent.accountCreated(accountId, accountName, initialBalance, currency) : null);
+			if (accountTable.isEnabled()) {
+				Account account = new Account();
+				account.setId(accountId);
+				account.setAccountName(accountName);
+				account.setBalance(initialBalance);
+				account.setVersion(0L);
+				account.setCurrency(currency);
+				accountTable.put(account);
+			}
+			AccountVersions.changed(accountName);
+			events.balanceChanged(accountName);
+			nameIndex.add(accountName);
 			status = Response.SUCCESS;
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Exception caught in Create Account", e);
@@ -59,6 +112,127 @@ public class AccountDAO {
 		return status;
 	}
 
+	/**
+	 * Creates the given accounts in batches, committing once for all of them.
+	 * Names are not checked, callers must ensure they are not already in use. Accounts with no currency are opened in the base currency.
+	 * @param accounts
+	 * @return
+	 */
+	public String createAccounts(List<Account> accounts) {
+		String status = Response.ERROR;
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			ps = con.prepareStatement("INSERT INTO ACCOUNT(ACCOUNTNAME, BALANCE, OPENINGBALANCE, CURRENCY) VALUES (?, ?, ?, ?)");
+			String baseCurrency = FxRates.getInstance().getBaseCurrency();
+			int batched = 0;
+			for (Account account : accounts) {
+				ps.setString(1, account.getAccountName());
+				ps.setBigDecimal(2, account.getBalance());
+				ps.setBigDecimal(3, account.getBalance());
+				ps.setString(4, account.getCurrency() != null ? account.getCurrency() : baseCurrency);
+				ps.addBatch();
+				if (++batched % INSERT_BATCH_SIZE == 0) {
+					ps.executeBatch();
+				}
+			}
+			ps.executeBatch();
+			journal.commit(con, journal.isEnabled() ? journalCreatedAccounts(con, accounts) : null);
+			String[] accountNames = new String[accounts.size()];
+			for (int i = 0; i < accountNames.length; i++) {
+				accountNames[i] = accounts.get(i).getAccountName();
+			}
+			AccountVersions.changed(accountNames);
+			events.balanceChanged(accountNames);
+			for (String accountName : accountNames) {
+				nameIndex.add(accountName);
+			}
+			status = Response.SUCCESS;
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Create Accounts", e);
+			try {
+				if (con != null) {
+					logger.log(Level.SEVERE, "Rolling back Create Accounts", e);
+					con.rollback();
+				}
+			} catch (SQLException e1) {
+				logger.log(Level.WARNING, "Unable to Roll back", e1);
+			}
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}	
+			} catch (SQLException e) {}
+		}
+		return status;
+	}
+
+	/**
+	 * Builds the journal entries for accounts just inserted on the connection, looking up the ids they were given
+	 */
+	private byte[] journalCreatedAccounts(Connection con, List<Account> accounts) throws SQLException {
+		String[] names = new String[accounts.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = accounts.get(i).getAccountName();
+		}
+		Map<String, Account> created = new HashMap<>();
+		try (PreparedStatement ps = con.prepareStatement("SELECT * FROM ACCOUNT WHERE ACCOUNTNAME IN (SELECT * FROM TABLE(NAME VARCHAR = ?))")) {
+			ps.setObject(1, names);
+			try (ResultSet result = ps.executeQuery()) {
+				while (result.next()) {
+					Account account = toAccount(result);
+					created.put(account.getAccountName(), account);
+				}
+			}
+		}
+		byte[][] entries = new byte[accounts.size()][];
+		for (int i = 0; i < entries.length; i++) {
+			Account account = created.get(accounts.get(i).getAccountName());
+			entries[i] = JournalEvent.accountCreated(account.getId(), account.getAccountName(), account.getBalance(), account.getCurrency());
+		}
+		return JournalEvent.concat(entries);
+	}
+
+	/**
+	 * Returns which of the given names already belong to an account, using one query for all of them.
+	 * Returns null if the check could not be made.
+	 * @param accountNames
+	 * @return
+	 */
+	public Set<String> getExistingAccountNames(Collection<String> accountNames) {
+		Set<String> existing = new HashSet<>();
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			ps = con.prepareStatement("SELECT ACCOUNTNAME FROM ACCOUNT WHERE ACCOUNTNAME IN (SELECT * FROM TABLE(NAME VARCHAR = ?))");
+			ps.setObject(1, accountNames.toArray(new String[accountNames.size()]));
+			ResultSet result = ps.executeQuery();
+			while (result.next()) {
+				existing.add(result.getString("AccountName"));
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Get Existing Account Names", e);
+			existing = null;
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}	
+			} catch (SQLException e) {}
+		}
+		return existing;
+	}
+
 	/**
 	 * Updates the name on an account
 	 * @param accountName
@@ -70,10 +244,17 @@ public class AccountDAO {
 		PreparedStatement ps = null;
 		try {
 			con = DBConnection.getConnection();
-			ps = con.prepareStatement("UPDATE ACCOUNT set ACCOUNTNAME = ? WHERE ACCOUNTNAME = ?");
+			con.setAutoCommit(false);
+			ps = con.prepareStatement("UPDATE ACCOUNT set ACCOUNTNAME = ?, VERSION = VERSION + 1 WHERE ACCOUNTNAME = ?");
 			ps.setString(1, newAccountName);
 			ps.setString(2, accountName);
 			ps.executeUpdate();
+			List<Account> renamed = accountTable.isEnabled() ? readAccounts(con, newAccountName) : Collections.emptyList();
+			journal.commit(con, journal.isEnabled() ? JournalEvent.accountRenamed(accountName, newAccountName) : null);
+			renamed.forEach(accountTable::put);
+			AccountVersions.renamed(accountName, newAccountName);
+			events.renamed(accountName, newAccountName);
+			nameIndex.renamed(accountName, newAccountName);
 			status = Response.SUCCESS;
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Exception caught in Update Account", e);
@@ -110,9 +291,18 @@ public class AccountDAO {
 		PreparedStatement ps = null;
 		try {
 			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			List<Account> deleted = accountTable.isEnabled() ? readAccounts(con, accountName) : Collections.emptyList();
 			ps = con.prepareStatement("DELETE FROM ACCOUNT WHERE ACCOUNTNAME = ?");
 			ps.setString(1, accountName);
 			ps.executeUpdate();
+			journal.commit(con, journal.isEnabled() ? JournalEvent.accountDeleted(accountName) : null);
+			for (Account account : deleted) {
+				accountTable.remove(account.getId());
+			}
+			AccountVersions.deleted(accountName);
+			events.deleted(accountName);
+			nameIndex.remove(accountName);
 			status = Response.SUCCESS;
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Exception caught in Delete Account", e);
@@ -140,10 +330,30 @@ public class AccountDAO {
 	/**
 	 * Returns the account matching the name provided.
 	 * Returns null if no match.
+	 * Concurrent lookups for the same name share a single query, as long as the account
+	 * has not changed since that query started.
 	 * @param accountName
 	 * @return
 	 */
 	public Account getAccount(String accountName) {
+		if (accountName == null) {
+			return null;
+		}
+		if (accountTable.isEnabled()) {
+			Account account = accountTable.get(accountName);
+			if (account != null) {
+				return account;
+			}
+		}
+		String key = accountName + '\0' + AccountVersions.getVersion(accountName);
+		Account account = accountLookups.execute(key, () -> loadAccount(accountName));
+		if (account != null && accountTable.isEnabled()) {
+			accountTable.put(account);
+		}
+		return account;
+	}
+
+	private Account loadAccount(String accountName) {
 		Account account = null;
 		Connection con = null;
 		PreparedStatement ps = null;
@@ -153,10 +363,7 @@ public class AccountDAO {
 			ps.setString(1, accountName);
 			ResultSet result = ps.executeQuery();
 			if (result.next()) {
-				account = new Account();
-				account.setId(result.getLong("Id"));
-				account.setAccountName(result.getString("AccountName"));
-				account.setBalance(result.getBigDecimal("Balance"));
+				account = toAccount(result);
 			}
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Exception caught in Get Account", e);
@@ -172,4 +379,168 @@ public class AccountDAO {
 		}
 		return account;		
 	}
+
+	/**
+	 * Returns the account matching the id provided.
+	 * Returns null if no match.
+	 * @param accountId
+	 * @return
+	 */
+	public Account getAccount(long accountId) {
+		if (accountTable.isEnabled()) {
+			Account account = accountTable.get(accountId);
+			if (account != null) {
+				return account;
+			}
+		}
+		Account account = null;
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			ps = con.prepareStatement("SELECT * FROM ACCOUNT WHERE ID = ?");
+			ps.setLong(1, accountId);
+			ResultSet result = ps.executeQuery();
+			if (result.next()) {
+				account = toAccount(result);
+			}
+			if (account != null && accountTable.isEnabled()) {
+				accountTable.put(account);
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Get Account By Id", e);
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}	
+			} catch (SQLException e) {}
+		}
+		return account;
+	}
+
+	/**
+	 * Returns the accounts with the given ids, with only their names and currencies, using one query for all of them.
+	 * Ids with no account are left out.
+	 * @param accountIds
+	 * @return
+	 */
+	public Map<Long, Account> getAccounts(Collection<Long> accountIds) {
+		Map<Long, Account> accounts = new HashMap<>();
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			ps = con.prepareStatement("SELECT ID, ACCOUNTNAME, CURRENCY FROM ACCOUNT WHERE ID IN (SELECT * FROM TABLE(ID BIGINT = ?))");
+			ps.setObject(1, accountIds.toArray(new Long[accountIds.size()]));
+			ResultSet result = ps.executeQuery();
+			while (result.next()) {
+				Account account = new Account();
+				account.setId(result.getLong("Id"));
+				account.setAccountName(result.getString("AccountName"));
+				account.setCurrency(result.getString("Currency"));
+				accounts.put(account.getId(), account);
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Get Account Names", e);
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}	
+			} catch (SQLException e) {}
+		}
+		return accounts;
+	}
+
+	/**
+	 * Reads the accounts with the given ids on a connection in the middle of a transaction, so the rows are
+	 * exactly as the transaction will commit them
+	 */
+	static List<Account> readAccounts(Connection con, Collection<Long> accountIds) throws SQLException {
+		List<Account> accounts = new ArrayList<>(accountIds.size());
+		if (accountIds.isEmpty()) {
+			return accounts;
+		}
+		try (PreparedStatement ps = con.prepareStatement("SELECT * FROM ACCOUNT WHERE ID IN (SELECT * FROM TABLE(ID BIGINT = ?))")) {
+			ps.setObject(1, accountIds.toArray(new Long[accountIds.size()]));
+			try (ResultSet result = ps.executeQuery()) {
+				while (result.next()) {
+					accounts.add(toAccount(result));
+				}
+			}
+		}
+		return accounts;
+	}
+
+	static List<Account> readAccounts(Connection con, String accountName) throws SQLException {
+		List<Account> accounts = new ArrayList<>();
+		try (PreparedStatement ps = con.prepareStatement("SELECT * FROM ACCOUNT WHERE ACCOUNTNAME = ?")) {
+			ps.setString(1, accountName);
+			try (ResultSet result = ps.executeQuery()) {
+				while (result.next()) {
+					accounts.add(toAccount(result));
+				}
+			}
+		}
+		return accounts;
+	}
+
+	/**
+	 * Reads up to limit accounts in the given currency with ids above afterId and no higher than lastId, in id order
+	 */
+	static List<Account> readAccounts(Connection con, long afterId, long lastId, String currency, int limit) throws SQLException {
+		List<Account> accounts = new ArrayList<>();
+		try (PreparedStatement ps = con.prepareStatement("SELECT * FROM ACCOUNT WHERE ID > ? AND ID <= ? AND CURRENCY = ? "
+				+ "ORDER BY ID LIMIT ?")) {
+			ps.setLong(1, afterId);
+			ps.setLong(2, lastId);
+			ps.setString(3, currency);
+			ps.setInt(4, limit);
+			try (ResultSet result = ps.executeQuery()) {
+				while (result.next()) {
+					accounts.add(toAccount(result));
+				}
+			}
+		}
+		return accounts;
+	}
+
+	/**
+	 * Locks and reads the accounts in the given currency with ids above afterId and no higher than lastId, along
+	 * with the account with the given id, taking their row locks in id order
+	 */
+	static List<Account> lockAccounts(Connection con, long afterId, long lastId, String currency, long accountId)
+			throws SQLException {
+		List<Account> accounts = new ArrayList<>();
+		try (PreparedStatement ps = con.prepareStatement("SELECT * FROM ACCOUNT WHERE (ID > ? AND ID <= ? AND CURRENCY = ?) "
+				+ "OR ID = ? ORDER BY ID FOR UPDATE")) {
+			ps.setLong(1, afterId);
+			ps.setLong(2, lastId);
+			ps.setString(3, currency);
+			ps.setLong(4, accountId);
+			try (ResultSet result = ps.executeQuery()) {
+				while (result.next()) {
+					accounts.add(toAccount(result));
+				}
+			}
+		}
+		return accounts;
+	}
+
+	private static Account toAccount(ResultSet result) throws SQLException {
+		Account account = new Account();
+		account.setId(result.getLong("Id"));
+		account.setAccountName(result.getString("AccountName"));
+		account.setBalance(result.getBigDecimal("Balance"));
+		account.setVersion(result.getLong("Version"));
+		account.setCurrency(result.getString("Currency"));
+		return account;
+	}
 }
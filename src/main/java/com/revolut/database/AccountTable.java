@@ -0,0 +1,574 @@
+package com.revolut.database;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+import com.revolut.beans.Account;
+import com.revolut.metrics.Metrics;
+
+/**
+ * Off heap copy of the ACCOUNT table, enabled with the transfermoney.accounts.offHeap system property, that account
+ * lookups are answered from before going to the database. Accounts are kept as fixed width records in direct
+ * buffers, id, balance in hundredths, version, the position of the name in an append only name arena and the currency,
+ * with open addressing indexes from name and from id to record. Nothing is kept on the heap per account.
+ *
+ * Reads take no locks. Records are guarded by striped StampedLocks read optimistically and the indexes, arena and
+ * record chunks by a single StampedLock, also read optimistically, readers only fall back to a read lock when a
+ * write overlapped them. A record only takes a change with a newer version than it has, so copies of a row read
+ * or written in any order leave the latest. Deleted accounts keep their record, marked as deleted, so a late copy
+ * of the row can't bring them back. Balances that don't fit a long in hundredths are not kept.
+ * @author josh
+ *
+ */
+public class AccountTable {
+
+	private static final int RECORD_BYTES = 40;
+	private static final int ID = 0;
+	private static final int BALANCE = 8;
+	private static final int VERSION = 16;
+	private static final int NAME = 24;
+	private static final int CURRENCY = 32;
+	private static final int RECORD_CHUNK_SHIFT = 16;
+	private static final int RECORDS_PER_CHUNK = 1 << RECORD_CHUNK_SHIFT;
+	private static final int ARENA_CHUNK_BYTES = 1 << 22;
+	private static final int LOCK_STRIPES = 1024;
+	private static final long DELETED = -1;
+
+	private static final AccountTable instance = load();
+
+	private final boolean enabled;
+	private final StampedLock[] recordLocks = new StampedLock[LOCK_STRIPES];
+	// Guards everything below, records are only added, renamed or deleted holding its write lock
+	private final StampedLock structureLock = new StampedLock();
+	private ByteBuffer[] records = new ByteBuffer[0];
+	private int recordCount;
+	private ByteBuffer[] arena = new ByteBuffer[0];
+	private long arenaEnd;
+	private Index byName;
+	private Index byId;
+	private long offHeapBytes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param enabled
+	 * @param initialCapacity accounts the indexes are first sized for
+	 */
+	public AccountTable(boolean enabled, int initialCapacity) {
+		this.enabled = enabled;
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			recordLocks[i] = new StampedLock();
+		}
+		if (enabled) {
+			int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) * 2 - 1);
+			byName = new Index(capacity);
+			byId = new Index(capacity);
+			offHeapBytes = 2L * capacity * Index.ENTRY_BYTES;
+		}
+	}
+
+	public static AccountTable getInstance() {
+		return instance;
+	}
+
+	private static AccountTable load() {
+		AccountTable table = new AccountTable(Boolean.getBoolean("transfermoney.accounts.offHeap"),
+				Integer.getInteger("transfermoney.accounts.offHeapCapacity", 1 << 16));
+		Metrics.register("accountTable.accounts", table::size);
+		Metrics.register("accountTable.bytes", table::getOffHeapBytes);
+		Metrics.register("accountTable.hits", table.hits::sum);
+		Metrics.register("accountTable.misses", table.misses::sum);
+		return table;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the number of records, deleted accounts included
+	 */
+	public long size() {
+		long stamp = structureLock.readLock();
+		try {
+			return recordCount;
+		} finally {
+			structureLock.unlockRead(stamp);
+		}
+	}
+
+	public long getOffHeapBytes() {
+		long stamp = structureLock.readLock();
+		try {
+			return offHeapBytes;
+		} finally {
+			structureLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Returns the account with the given name, or null if it is not in the table
+	 * @param accountName
+	 * @return
+	 */
+	public Account get(String accountName) {
+		byte[] name = accountName.getBytes(StandardCharsets.UTF_8);
+		int hash = Arrays.hashCode(name);
+		int slot;
+		long stamp = structureLock.tryOptimisticRead();
+		try {
+			slot = findByName(name, hash);
+		} catch (RuntimeException e) {
+			// Read part way through a change, validation below will fail
+			slot = -1;
+		}
+		if (!structureLock.validate(stamp)) {
+			stamp = structureLock.readLock();
+			try {
+				slot = findByName(name, hash);
+			} finally {
+				structureLock.unlockRead(stamp);
+			}
+		}
+		return read(slot);
+	}
+
+	/**
+	 * Returns the account with the given id, or null if it is not in the table or was deleted
+	 * @param accountId
+	 * @return
+	 */
+	public Account get(long accountId) {
+		int slot;
+		long stamp = structureLock.tryOptimisticRead();
+		try {
+			slot = findById(accountId);
+		} catch (RuntimeException e) {
+			slot = -1;
+		}
+		if (!structureLock.validate(stamp)) {
+			stamp = structureLock.readLock();
+			try {
+				slot = findById(accountId);
+			} finally {
+				structureLock.unlockRead(stamp);
+			}
+		}
+		return read(slot);
+	}
+
+	/**
+	 * Adds the account, or updates it if the table has an older version of it
+	 * @param account
+	 */
+	public void put(Account account) {
+		long balance;
+		try {
+			balance = account.getBalance().movePointRight(2).longValueExact();
+		} catch (ArithmeticException e) {
+			remove(account.getId());
+			return;
+		}
+		byte[] name = account.getAccountName().getBytes(StandardCharsets.UTF_8);
+		int slot;
+		long stamp = structureLock.tryOptimisticRead();
+		try {
+			slot = findById(account.getId());
+		} catch (RuntimeException e) {
+			slot = -1;
+		}
+		if (structureLock.validate(stamp) && slot >= 0 && update(slot, name, balance, account.getVersion())) {
+			return;
+		}
+		// New account, or a rename which changes the name index
+		stamp = structureLock.writeLock();
+		try {
+			slot = findById(account.getId());
+			if (slot < 0) {
+				add(account.getId(), name, balance, account.getVersion(), encodeCurrency(account.getCurrency()));
+				return;
+			}
+			StampedLock recordLock = recordLock(slot);
+			long recordStamp = recordLock.writeLock();
+			try {
+				ByteBuffer chunk = chunk(slot);
+				int offset = offset(slot);
+				long nameRef = chunk.getLong(offset + NAME);
+				if (nameRef == DELETED || chunk.getLong(offset + VERSION) >= account.getVersion()) {
+					return;
+				}
+				if (!nameEquals(nameRef, name)) {
+					byName.remove(Arrays.hashCode(readName(nameRef)), slot);
+					chunk.putLong(offset + NAME, appendName(name));
+					indexName(name, slot);
+				}
+				chunk.putLong(offset + BALANCE, balance);
+				chunk.putLong(offset + VERSION, account.getVersion());
+			} finally {
+				recordLock.unlockWrite(recordStamp);
+			}
+		} finally {
+			structureLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Marks the account with the given id as deleted, adding a deleted record if it isn't in the table
+	 * @param accountId
+	 */
+	public void remove(long accountId) {
+		long stamp = structureLock.writeLock();
+		try {
+			int slot = findById(accountId);
+			if (slot < 0) {
+				add(accountId, null, 0, Long.MAX_VALUE, 0);
+				return;
+			}
+			StampedLock recordLock = recordLock(slot);
+			long recordStamp = recordLock.writeLock();
+			try {
+				ByteBuffer chunk = chunk(slot);
+				int offset = offset(slot);
+				long nameRef = chunk.getLong(offset + NAME);
+				if (nameRef != DELETED) {
+					byName.remove(Arrays.hashCode(readName(nameRef)), slot);
+					chunk.putLong(offset + NAME, DELETED);
+				}
+			} finally {
+				recordLock.unlockWrite(recordStamp);
+			}
+		} finally {
+			structureLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Updates the balance and version of a record if the name is unchanged, returns false if the name changed
+	 */
+	private boolean update(int slot, byte[] name, long balance, long version) {
+		StampedLock recordLock = recordLock(slot);
+		long stamp = recordLock.writeLock();
+		try {
+			ByteBuffer chunk = chunk(slot);
+			int offset = offset(slot);
+			long nameRef = chunk.getLong(offset + NAME);
+			if (nameRef == DELETED || chunk.getLong(offset + VERSION) >= version) {
+				return true;
+			}
+			if (!nameEquals(nameRef, name)) {
+				return false;
+			}
+			chunk.putLong(offset + BALANCE, balance);
+			chunk.putLong(offset + VERSION, version);
+			return true;
+		} finally {
+			recordLock.unlockWrite(stamp);
+		}
+	}
+
+	private Account read(int slot) {
+		if (slot < 0) {
+			misses.increment();
+			return null;
+		}
+		ByteBuffer chunk;
+		long stamp = structureLock.tryOptimisticRead();
+		chunk = records[slot >>> RECORD_CHUNK_SHIFT];
+		if (!structureLock.validate(stamp)) {
+			stamp = structureLock.readLock();
+			try {
+				chunk = chunk(slot);
+			} finally {
+				structureLock.unlockRead(stamp);
+			}
+		}
+		int offset = offset(slot);
+		StampedLock recordLock = recordLock(slot);
+		stamp = recordLock.tryOptimisticRead();
+		long id = chunk.getLong(offset + ID);
+		// Like the id, an account's currency never changes once it has a record
+		long currency = chunk.getLong(offset + CURRENCY);
+		long balance = chunk.getLong(offset + BALANCE);
+		long version = chunk.getLong(offset + VERSION);
+		long nameRef = chunk.getLong(offset + NAME);
+		if (!recordLock.validate(stamp)) {
+			stamp = recordLock.readLock();
+			try {
+				balance = chunk.getLong(offset + BALANCE);
+				version = chunk.getLong(offset + VERSION);
+				nameRef = chunk.getLong(offset + NAME);
+			} finally {
+				recordLock.unlockRead(stamp);
+			}
+		}
+		if (nameRef == DELETED) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		Account account = new Account();
+		account.setId(id);
+		account.setAccountName(new String(readName(nameRef), StandardCharsets.UTF_8));
+		account.setBalance(BigDecimal.valueOf(balance, 2));
+		account.setVersion(version);
+		account.setCurrency(decodeCurrency(currency));
+		return account;
+	}
+
+	/**
+	 * Adds a record, or a deleted one if the name is null
+	 */
+	private void add(long accountId, byte[] name, long balance, long version, long currency) {
+		int slot = recordCount;
+		if (slot >>> RECORD_CHUNK_SHIFT == records.length) {
+			ByteBuffer[] grown = Arrays.copyOf(records, records.length + 1);
+			grown[records.length] = ByteBuffer.allocateDirect(RECORDS_PER_CHUNK * RECORD_BYTES).order(ByteOrder.nativeOrder());
+			records = grown;
+			offHeapBytes += RECORDS_PER_CHUNK * RECORD_BYTES;
+		}
+		ByteBuffer chunk = chunk(slot);
+		int offset = offset(slot);
+		chunk.putLong(offset + ID, accountId);
+		chunk.putLong(offset + BALANCE, balance);
+		chunk.putLong(offset + VERSION, version);
+		chunk.putLong(offset + NAME, name != null ? appendName(name) : DELETED);
+		chunk.putLong(offset + CURRENCY, currency);
+		recordCount++;
+		if (byId.isFull()) {
+			byId = rehash(byId, s -> Long.hashCode(chunk(s).getLong(offset(s) + ID)));
+		}
+		byId.add(Long.hashCode(accountId), slot);
+		if (name != null) {
+			indexName(name, slot);
+		}
+	}
+
+	/**
+	 * Indexes the name unless another account already has it, in which case lookups by that name keep going to the database
+	 */
+	private void indexName(byte[] name, int slot) {
+		int hash = Arrays.hashCode(name);
+		if (findByName(name, hash) >= 0) {
+			return;
+		}
+		if (byName.isFull()) {
+			// Deleted records are never in the name index
+			byName = rehash(byName, s -> Arrays.hashCode(readName(chunk(s).getLong(offset(s) + NAME))));
+		}
+		byName.add(hash, slot);
+	}
+
+	private Index rehash(Index index, SlotHash slotHash) {
+		Index grown = new Index(index.capacity() * 2);
+		for (int i = 0; i < index.capacity(); i++) {
+			int slot = index.slot(i);
+			if (slot >= 0) {
+				grown.add(slotHash.hash(slot), slot);
+			}
+		}
+		offHeapBytes += (long) (grown.capacity() - index.capacity()) * Index.ENTRY_BYTES;
+		return grown;
+	}
+
+	private int findByName(byte[] name, int hash) {
+		Index index = byName;
+		for (int i = index.start(hash), probes = 0; probes < index.capacity(); i = index.next(i), probes++) {
+			long entry = index.entry(i);
+			if (entry == Index.EMPTY) {
+				return -1;
+			}
+			int slot = Index.slot(entry);
+			if (slot >= 0 && Index.hash(entry) == hash && nameEquals(chunk(slot).getLong(offset(slot) + NAME), name)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private int findById(long accountId) {
+		Index index = byId;
+		int hash = Long.hashCode(accountId);
+		for (int i = index.start(hash), probes = 0; probes < index.capacity(); i = index.next(i), probes++) {
+			long entry = index.entry(i);
+			if (entry == Index.EMPTY) {
+				return -1;
+			}
+			int slot = Index.slot(entry);
+			if (slot >= 0 && Index.hash(entry) == hash && chunk(slot).getLong(offset(slot) + ID) == accountId) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Appends a name to the arena, a 2 byte length then the UTF-8 bytes, never spanning two chunks
+	 */
+	private long appendName(byte[] name) {
+		int length = 2 + name.length;
+		if (arenaEnd % ARENA_CHUNK_BYTES + length > ARENA_CHUNK_BYTES || arenaEnd == (long) arena.length * ARENA_CHUNK_BYTES) {
+			arena = Arrays.copyOf(arena, arena.length + 1);
+			arena[arena.length - 1] = ByteBuffer.allocateDirect(ARENA_CHUNK_BYTES);
+			arenaEnd = (long) (arena.length - 1) * ARENA_CHUNK_BYTES;
+			offHeapBytes += ARENA_CHUNK_BYTES;
+		}
+		long nameRef = arenaEnd;
+		ByteBuffer chunk = arena[(int) (nameRef / ARENA_CHUNK_BYTES)];
+		int offset = (int) (nameRef % ARENA_CHUNK_BYTES);
+		chunk.putShort(offset, (short) name.length);
+		for (int i = 0; i < name.length; i++) {
+			chunk.put(offset + 2 + i, name[i]);
+		}
+		arenaEnd += length;
+		return nameRef;
+	}
+
+	private byte[] readName(long nameRef) {
+		ByteBuffer chunk = arena[(int) (nameRef / ARENA_CHUNK_BYTES)];
+		int offset = (int) (nameRef % ARENA_CHUNK_BYTES);
+		byte[] name = new byte[chunk.getShort(offset) & 0xFFFF];
+		for (int i = 0; i < name.length; i++) {
+			name[i] = chunk.get(offset + 2 + i);
+		}
+		return name;
+	}
+
+	private boolean nameEquals(long nameRef, byte[] name) {
+		if (nameRef == DELETED) {
+			return false;
+		}
+		ByteBuffer chunk = arena[(int) (nameRef / ARENA_CHUNK_BYTES)];
+		int offset = (int) (nameRef % ARENA_CHUNK_BYTES);
+		if ((chunk.getShort(offset) & 0xFFFF) != name.length) {
+			return false;
+		}
+		for (int i = 0; i < name.length; i++) {
+			if (chunk.get(offset + 2 + i) != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Packs a currency code of up to 8 ascii characters into a long, 0 for none
+	 */
+	private static long encodeCurrency(String currency) {
+		long packed = 0;
+		if (currency != null) {
+			for (int i = 0; i < currency.length(); i++) {
+				packed = packed << 8 | (currency.charAt(i) & 0xFF);
+			}
+		}
+		return packed;
+	}
+
+	private static String decodeCurrency(long packed) {
+		if (packed == 0) {
+			return null;
+		}
+		StringBuilder currency = new StringBuilder(3);
+		for (; packed != 0; packed >>>= 8) {
+			currency.insert(0, (char) (packed & 0xFF));
+		}
+		return currency.toString();
+	}
+
+	private ByteBuffer chunk(int slot) {
+		return records[slot >>> RECORD_CHUNK_SHIFT];
+	}
+
+	private static int offset(int slot) {
+		return (slot & (RECORDS_PER_CHUNK - 1)) * RECORD_BYTES;
+	}
+
+	private StampedLock recordLock(int slot) {
+		return recordLocks[slot & (LOCK_STRIPES - 1)];
+	}
+
+	private interface SlotHash {
+		int hash(int slot);
+	}
+
+	/**
+	 * Open addressing hash table of 8 byte entries held in a direct buffer, the key's hash in the high half
+	 * and the record slot plus one in the low half. Keys are compared against the record itself.
+	 * Removed entries are left as tombstones until the index is next grown.
+	 */
+	private static class Index {
+		private static final int ENTRY_BYTES = 8;
+		private static final long EMPTY = 0;
+		private static final long REMOVED = -1;
+
+		private final ByteBuffer entries;
+		private final int mask;
+		private int used;
+
+		private Index(int capacity) {
+			entries = ByteBuffer.allocateDirect(capacity * ENTRY_BYTES).order(ByteOrder.nativeOrder());
+			mask = capacity - 1;
+		}
+
+		private int capacity() {
+			return mask + 1;
+		}
+
+		private boolean isFull() {
+			// Tombstones count, they lengthen probes just the same
+			return used + 1 > capacity() * 3 / 4;
+		}
+
+		private int start(int hash) {
+			return (hash * 0x9E3779B9) & mask;
+		}
+
+		private int next(int i) {
+			return (i + 1) & mask;
+		}
+
+		private long entry(int i) {
+			return entries.getLong(i * ENTRY_BYTES);
+		}
+
+		private int slot(int i) {
+			return slot(entry(i));
+		}
+
+		private static int slot(long entry) {
+			return entry == REMOVED ? -1 : (int) entry - 1;
+		}
+
+		private static int hash(long entry) {
+			return (int) (entry >>> 32);
+		}
+
+		private void add(int hash, int slot) {
+			int i = start(hash);
+			while (entry(i) != EMPTY) {
+				i = next(i);
+			}
+			entries.putLong(i * ENTRY_BYTES, ((long) hash << 32) | (slot + 1L));
+			used++;
+		}
+
+		private void remove(int hash, int slot) {
+			long target = ((long) hash << 32) | (slot + 1L);
+			for (int i = start(hash), probes = 0; probes < capacity(); i = next(i), probes++) {
+				long entry = entry(i);
+				if (entry == EMPTY) {
+					return;
+				}
+				if (entry == target) {
+					entries.putLong(i * ENTRY_BYTES, REMOVED);
+					return;
+				}
+			}
+		}
+	}
+}
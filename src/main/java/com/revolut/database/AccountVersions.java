@@ -0,0 +1,112 @@
+package com.revolut.database;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * In memory versions of accounts, keyed by account name. Every committed change to an account
+ * takes the next value of a single clock so versions only ever increase, both per account and
+ * overall. Versions are bumped after the change commits, readers must read the version before
+ * querying so a tag can only ever be older than the data it is sent with, never newer.
+ * Names that have never changed since startup have version 0, the startup time is part of every
+ * tag so tags from a previous run never match.
+ *
+ * Deleted names are forgotten, and once more than MAX_NAMES names are held they are all forgotten.
+ * A name that isn't held has the version of the last time names were forgotten, which is newer than
+ * any version it had, so its old tags stop matching.
+ * @author josh
+ *
+ */
+public final class AccountVersions {
+
+	private static final long EPOCH = System.currentTimeMillis();
+	private static final int MAX_NAMES = 100000;
+	private static final AtomicLong clock = new AtomicLong();
+	private static final AtomicLong structureVersion = new AtomicLong();
+	private static final AtomicLong forgottenVersion = new AtomicLong();
+	private static final ConcurrentMap<String, Long> versions = new ConcurrentHashMap<>();
+
+	private AccountVersions() {
+	}
+
+	/**
+	 * Records a committed change to the balance or existence of the given accounts
+	 * @param accountNames
+	 */
+	public static void changed(String... accountNames) {
+		long version = clock.incrementAndGet();
+		for (String accountName : accountNames) {
+			versions.merge(accountName, version, Math::max);
+		}
+		if (versions.size() > MAX_NAMES) {
+			forget();
+		}
+	}
+
+	/**
+	 * Records a committed change to the name of an account. As transactions are returned with the
+	 * names of both accounts this also invalidates every transaction search.
+	 * @param accountNames
+	 */
+	public static void renamed(String... accountNames) {
+		changed(accountNames);
+		structureVersion.accumulateAndGet(clock.get(), Math::max);
+	}
+
+	/**
+	 * Records the committed removal of an account and forgets its name. As transactions are returned
+	 * with the names of both accounts this also invalidates every transaction search.
+	 * @param accountName
+	 */
+	public static void deleted(String accountName) {
+		long version = clock.incrementAndGet();
+		forgottenVersion.accumulateAndGet(version, Math::max);
+		versions.remove(accountName);
+		structureVersion.accumulateAndGet(version, Math::max);
+	}
+
+	/**
+	 * Forgets every name changed before now. The version given to names that aren't held moves on
+	 * first, so a name never reads an older version than it had.
+	 */
+	private static void forget() {
+		long version = clock.incrementAndGet();
+		forgottenVersion.accumulateAndGet(version, Math::max);
+		versions.values().removeIf(changed -> changed < version);
+	}
+
+	public static long getVersion(String accountName) {
+		Long version = accountName != null ? versions.get(accountName) : null;
+		return version != null ? version : forgottenVersion.get();
+	}
+
+	public static long getGlobalVersion() {
+		return clock.get();
+	}
+
+	/**
+	 * Returns the entity tag for the account with the given name
+	 * @param accountName
+	 * @return
+	 */
+	public static String accountTag(String accountName) {
+		return String.format("\"%d-%d\"", EPOCH, getVersion(accountName));
+	}
+
+	/**
+	 * Returns the entity tag for a transaction search with the given criteria, either of which may be blank
+	 * @param fromAccountName
+	 * @param toAccountName
+	 * @return
+	 */
+	public static String transactionTag(String fromAccountName, String toAccountName) {
+		if (StringUtils.isAllBlank(fromAccountName, toAccountName)) {
+			return String.format("\"%d-%d\"", EPOCH, getGlobalVersion());
+		}
+		return String.format("\"%d-%d-%d-%d\"", EPOCH, structureVersion.get(), getVersion(fromAccountName),
+				getVersion(toAccountName));
+	}
+}
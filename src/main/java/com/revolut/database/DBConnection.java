@@ -1,17 +1,104 @@
 package com.revolut.database;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import com.revolut.bulkhead.Bulkhead;
+import com.revolut.metrics.Metrics;
+import com.revolut.tracing.Span;
+import com.revolut.tracing.TracedConnection;
+import com.revolut.tracing.Tracer;
+
+/**
+ * Hands out connections from a pool of up to transfermoney.db.maxConnections. The schema is created once,
+ * when the pool is, rather than every time a connection is opened. Closing a connection returns it to the
+ * pool, rolled back and in auto commit mode.
+ * @author josh
+ *
+ */
 public class DBConnection {
 
+	// In memory DB kept open until server stops by using DB_CLOSE_DELAY
+	private static final String URL = "jdbc:h2:mem:TransferMoney;DB_CLOSE_DELAY=-1";
+	//private static final String URL = "jdbc:h2:~/TransferMoney";
+
+	private static final JdbcConnectionPool pool = createPool();
+
+	private static JdbcConnectionPool createPool() {
+		JdbcConnectionPool pool = JdbcConnectionPool.create(URL, "sa", "");
+		pool.setMaxConnections(Integer.getInteger("transfermoney.db.maxConnections", 64));
+		try (Connection con = pool.getConnection(); Statement st = con.createStatement()) {
+			st.execute("RUNSCRIPT FROM 'classpath:createSchema.sql'");
+		} catch (SQLException e) {
+			throw new IllegalStateException("Unable to create the schema", e);
+		}
+		Metrics.register("db.connections.active", pool::getActiveConnections);
+		return pool;
+	}
+
 	public static Connection getConnection() throws ClassNotFoundException, SQLException {
-		Class.forName("org.h2.Driver");
-		// In memory DB connection kept open until server stops by using DB_CLOSE_DELAY. Script creates schema on connection.
-		String url = "jdbc:h2:mem:TransferMoney;DB_CLOSE_DELAY=-1;INIT=RUNSCRIPT FROM 'classpath:createSchema.sql'";
-		//String url = "jdbc:h2:~/TransferMoney;INIT=RUNSCRIPT FROM 'classpath:createSchema.sql'";
-		Connection connection = DriverManager.getConnection(url, "sa", "");
-		return connection;
+		// Threads working for a bulkhead wait for a connection within its quota
+		Bulkhead bulkhead = Bulkhead.current();
+		if (bulkhead != null) {
+			try (Span span = Tracer.span("bulkhead wait")) {
+				bulkhead.acquireConnection();
+			}
+		}
+		Connection connection;
+		try (Span span = Tracer.span("jdbc connect")) {
+			connection = pool.getConnection();
+		} catch (SQLException | RuntimeException e) {
+			if (bulkhead != null) {
+				bulkhead.releaseConnection();
+			}
+			throw e;
+		}
+		if (bulkhead != null) {
+			connection = bulkhead.wrap(connection);
+		}
+		// Sampled requests get a connection that adds a span for each statement
+		return Tracer.isActive() ? TracedConnection.wrap(connection) : connection;
+	}
+
+	/**
+	 * Opens the given number of connections at once and returns them to the pool, so the first
+	 * requests find them ready. Returns the number opened.
+	 * @param connections
+	 * @return
+	 * @throws SQLException
+	 */
+	public static int warmUp(int connections) throws SQLException {
+		Connection[] opened = new Connection[Math.min(connections, pool.getMaxConnections())];
+		try {
+			for (int i = 0; i < opened.length; i++) {
+				opened[i] = pool.getConnection();
+			}
+		} finally {
+			for (Connection con : opened) {
+				if (con != null) {
+					con.close();
+				}
+			}
+		}
+		return opened.length;
+	}
+
+	/**
+	 * Returns the id generated by a statement prepared with Statement.RETURN_GENERATED_KEYS
+	 * @param statement
+	 * @return
+	 * @throws SQLException
+	 */
+	public static long getGeneratedId(Statement statement) throws SQLException {
+		try (ResultSet keys = statement.getGeneratedKeys()) {
+			if (!keys.next()) {
+				throw new SQLException("No id was generated");
+			}
+			return keys.getLong(1);
+		}
 	}
 }
@@ -0,0 +1,107 @@
+package com.revolut.database;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.replication.Journal;
+import com.revolut.replication.JournalEvent;
+import com.revolut.rest.Response;
+
+/**
+ * DAO for the FX_RATE table, which holds the value of one unit of each currency in the base currency
+ * @author josh
+ *
+ */
+public class FxRateDAO {
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private Journal journal = Journal.getInstance();
+
+	/**
+	 * Returns every rate by currency, or null if they could not be read
+	 * @return
+	 */
+	public Map<String, BigDecimal> getRates() {
+		Map<String, BigDecimal> rates = new HashMap<>();
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			ps = con.prepareStatement("SELECT CURRENCY, RATE FROM FX_RATE");
+			ResultSet result = ps.executeQuery();
+			while (result.next()) {
+				rates.put(result.getString("Currency"), result.getBigDecimal("Rate"));
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Get Rates", e);
+			rates = null;
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {
+			}
+		}
+		return rates;
+	}
+
+	/**
+	 * Adds or replaces the rates of the given currencies
+	 * @param rates
+	 * @return
+	 */
+	public String saveRates(Map<String, BigDecimal> rates) {
+		String status = Response.ERROR;
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			ps = con.prepareStatement("MERGE INTO FX_RATE (CURRENCY, RATE) KEY (CURRENCY) VALUES (?, ?)");
+			writeRates(ps, rates);
+			journal.commit(con, journal.isEnabled() ? JournalEvent.ratesPublished(rates) : null);
+			status = Response.SUCCESS;
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Save Rates", e);
+			try {
+				if (con != null) {
+					logger.log(Level.SEVERE, "Rolling back Save Rates", e);
+					con.rollback();
+				}
+			} catch (SQLException e1) {
+				logger.log(Level.WARNING, "Unable to Roll back", e1);
+			}
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {
+			}
+		}
+		return status;
+	}
+
+	static void writeRates(PreparedStatement ps, Map<String, BigDecimal> rates) throws SQLException {
+		for (Map.Entry<String, BigDecimal> rate : rates.entrySet()) {
+			ps.setString(1, rate.getKey());
+			ps.setBigDecimal(2, rate.getValue());
+			ps.addBatch();
+		}
+		ps.executeBatch();
+	}
+}
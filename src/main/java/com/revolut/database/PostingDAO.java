@@ -0,0 +1,501 @@
+package com.revolut.database;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.beans.Account;
+import com.revolut.beans.PostingRange;
+import com.revolut.beans.PostingRun;
+import com.revolut.events.AccountEvents;
+import com.revolut.posting.PostingRule;
+import com.revolut.replication.Journal;
+import com.revolut.replication.JournalEvent;
+import com.revolut.rest.Response;
+
+/**
+ * DAO for bulk posting runs. A run's accounts are split into ranges of ids, each range is posted a chunk of
+ * accounts at a time and its checkpoint is moved on in the same database transaction as the chunk's postings,
+ * so a run stopped part way through carries on from the first account not yet posted to. Runs, their status and
+ * checkpoints are journaled with the postings, so a promoted follower can resume a run from where the leader got to.
+ * @author josh
+ *
+ */
+public class PostingDAO {
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+	private Journal journal = Journal.getInstance();
+	private AccountTable accountTable = AccountTable.getInstance();
+	private AccountEvents events = AccountEvents.getInstance();
+
+	private static final String SELECT_RUNS = "SELECT run.*, house.ACCOUNTNAME AS HOUSEACCOUNTNAME FROM POSTING_RUN run "
+			+ "LEFT JOIN ACCOUNT house ON house.ID = run.HOUSEACCOUNTID ";
+
+	/**
+	 * Creates a running posting run paying from or to the house account, over every other account in its currency
+	 * that exists now, split into up to the given number of ranges. Returns the run created, or null on error.
+	 * @param houseAccount
+	 * @param rule
+	 * @param parameter
+	 * @param ranges
+	 * @return
+	 */
+	public PostingRun createRun(Account houseAccount, String rule, BigDecimal parameter, int ranges) {
+		PostingRun run = null;
+		Connection con = null;
+		PreparedStatement idsPs = null;
+		PreparedStatement runPs = null;
+		PreparedStatement rangePs = null;
+		try {
+			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			idsPs = con.prepareStatement("SELECT MIN(ID), MAX(ID) FROM ACCOUNT WHERE CURRENCY = ? AND ID <> ?");
+			idsPs.setString(1, houseAccount.getCurrency());
+			idsPs.setLong(2, houseAccount.getId());
+			long minId = 0;
+			long maxId = -1;
+			try (ResultSet result = idsPs.executeQuery()) {
+				if (result.next() && result.getObject(1) != null) {
+					minId = result.getLong(1);
+					maxId = result.getLong(2);
+				}
+			}
+
+			long started = Calendar.getInstance().getTimeInMillis();
+			runPs = con.prepareStatement("INSERT INTO POSTING_RUN(HOUSEACCOUNTID, CURRENCY, RULE, PARAMETER, STATUS, STARTED) "
+					+ "VALUES (?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+			runPs.setLong(1, houseAccount.getId());
+			runPs.setString(2, houseAccount.getCurrency());
+			runPs.setString(3, rule);
+			runPs.setBigDecimal(4, parameter);
+			runPs.setString(5, PostingRun.RUNNING);
+			runPs.setTimestamp(6, new Timestamp(started));
+			runPs.executeUpdate();
+			long runId = DBConnection.getGeneratedId(runPs);
+
+			// Split the ids evenly, gaps left by deleted accounts make some ranges lighter than others
+			List<PostingRange> created = new ArrayList<>();
+			long accountIds = maxId - minId + 1;
+			long count = Math.min(ranges, accountIds);
+			rangePs = con.prepareStatement("INSERT INTO POSTING_RANGE(RUNID, FIRSTACCOUNTID, LASTACCOUNTID, CHECKPOINT) VALUES (?, ?, ?, ?)");
+			for (long i = 0; i < count; i++) {
+				PostingRange range = new PostingRange();
+				range.setFirstAccountId(minId + accountIds * i / count);
+				range.setLastAccountId(minId + accountIds * (i + 1) / count - 1);
+				range.setCheckpoint(range.getFirstAccountId() - 1);
+				range.setPosted(0L);
+				range.setSkipped(0L);
+				range.setTotal(BigDecimal.ZERO.setScale(2));
+				rangePs.setLong(1, runId);
+				rangePs.setLong(2, range.getFirstAccountId());
+				rangePs.setLong(3, range.getLastAccountId());
+				rangePs.setLong(4, range.getCheckpoint());
+				rangePs.addBatch();
+				created.add(range);
+			}
+			rangePs.executeBatch();
+
+			PostingRun createdRun = new PostingRun();
+			createdRun.setId(runId);
+			createdRun.setHouseAccountId(houseAccount.getId());
+			createdRun.setHouseAccountName(houseAccount.getAccountName());
+			createdRun.setCurrency(houseAccount.getCurrency());
+			createdRun.setRule(rule);
+			createdRun.setParameter(parameter);
+			createdRun.setStatus(PostingRun.RUNNING);
+			createdRun.setStarted(started);
+			createdRun.setRanges(created);
+			summarise(createdRun);
+			journal.commit(con, journal.isEnabled() ? JournalEvent.postingRunCreated(createdRun) : null);
+			run = createdRun;
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Create Posting Run", e);
+			try {
+				if (con != null) {
+					logger.log(Level.SEVERE, "Rolling back Create Posting Run", e);
+					con.rollback();
+				}
+			} catch (SQLException e1) {
+				logger.log(Level.WARNING, "Unable to Roll back", e1);
+			}
+		} finally {
+			try {
+				if (idsPs != null) {
+					idsPs.close();
+				}
+				if (runPs != null) {
+					runPs.close();
+				}
+				if (rangePs != null) {
+					rangePs.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {}
+		}
+		return run;
+	}
+
+	/**
+	 * Returns the posting run with the given id and its ranges, or null if there is none
+	 * @param id
+	 * @return
+	 */
+	public PostingRun getRun(long id) {
+		List<PostingRun> runs = query(SELECT_RUNS + "WHERE run.ID = ?", id, null);
+		return runs.isEmpty() ? null : runs.get(0);
+	}
+
+	/**
+	 * Returns the posting runs with the given status and their ranges, oldest first
+	 * @param status
+	 * @return
+	 */
+	public List<PostingRun> getRuns(String status) {
+		return query(SELECT_RUNS + "WHERE run.STATUS = ? ORDER BY run.ID", null, status);
+	}
+
+	private List<PostingRun> query(String sql, Long id, String status) {
+		List<PostingRun> runs = new ArrayList<>();
+		Connection con = null;
+		PreparedStatement ps = null;
+		PreparedStatement rangePs = null;
+		try {
+			con = DBConnection.getConnection();
+			ps = con.prepareStatement(sql);
+			if (id != null) {
+				ps.setLong(1, id);
+			} else {
+				ps.setString(1, status);
+			}
+			ResultSet result = ps.executeQuery();
+			while (result.next()) {
+				PostingRun run = new PostingRun();
+				run.setId(result.getLong("Id"));
+				run.setHouseAccountId(result.getLong("HouseAccountId"));
+				run.setHouseAccountName(result.getString("HouseAccountName"));
+				run.setCurrency(result.getString("Currency"));
+				run.setRule(result.getString("Rule"));
+				run.setParameter(result.getBigDecimal("Parameter"));
+				run.setStatus(result.getString("Status"));
+				run.setStarted(result.getTimestamp("Started").getTime());
+				Timestamp finished = result.getTimestamp("Finished");
+				run.setFinished(finished != null ? finished.getTime() : null);
+				runs.add(run);
+			}
+
+			rangePs = con.prepareStatement("SELECT * FROM POSTING_RANGE WHERE RUNID = ? ORDER BY FIRSTACCOUNTID");
+			for (PostingRun run : runs) {
+				List<PostingRange> ranges = new ArrayList<>();
+				rangePs.setLong(1, run.getId());
+				ResultSet rangeResult = rangePs.executeQuery();
+				while (rangeResult.next()) {
+					PostingRange range = new PostingRange();
+					range.setFirstAccountId(rangeResult.getLong("FirstAccountId"));
+					range.setLastAccountId(rangeResult.getLong("LastAccountId"));
+					range.setCheckpoint(rangeResult.getLong("Checkpoint"));
+					range.setPosted(rangeResult.getLong("Posted"));
+					range.setSkipped(rangeResult.getLong("Skipped"));
+					range.setTotal(rangeResult.getBigDecimal("Total"));
+					ranges.add(range);
+				}
+				run.setRanges(ranges);
+				summarise(run);
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Get Posting Runs", e);
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (rangePs != null) {
+					rangePs.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {}
+		}
+		return runs;
+	}
+
+	/**
+	 * Sets the status of a posting run, recording when it finished unless it is running again
+	 * @param id
+	 * @param status
+	 * @return SUCCESS, or ERROR if there is no such run
+	 */
+	public String setStatus(long id, String status) {
+		String result = Response.ERROR;
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			Long finished = PostingRun.RUNNING.equals(status) ? null : Calendar.getInstance().getTimeInMillis();
+			ps = con.prepareStatement("UPDATE POSTING_RUN SET STATUS = ?, FINISHED = ? WHERE ID = ?");
+			ps.setString(1, status);
+			ps.setTimestamp(2, finished != null ? new Timestamp(finished) : null);
+			ps.setLong(3, id);
+			if (ps.executeUpdate() == 1) {
+				journal.commit(con, journal.isEnabled() ? JournalEvent.postingRunStatus(id, status, finished) : null);
+				result = Response.SUCCESS;
+			} else {
+				con.rollback();
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Set Posting Run Status", e);
+			try {
+				if (con != null) {
+					logger.log(Level.SEVERE, "Rolling back Set Posting Run Status", e);
+					con.rollback();
+				}
+			} catch (SQLException e1) {
+				logger.log(Level.WARNING, "Unable to Roll back", e1);
+			}
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {}
+		}
+		return result;
+	}
+
+	/**
+	 * Posts to the next chunk of up to chunkSize accounts after the range's checkpoint in one transaction. The
+	 * chunk's accounts and the house account are locked in id order, the order transfers update their two
+	 * accounts in, and read under the locks so they can't change before they are posted to. Each account's
+	 * balance update is made in one JDBC batch, a fee only if the account can cover it. The house account is
+	 * then updated once for the whole chunk, a TRANSACTION row is written in a second batch for each posting and
+	 * the checkpoint is moved on past the chunk. The range passed in is updated to match on success.
+	 * Returns SUCCESS, or ERROR, having changed nothing, so the caller can try the chunk again.
+	 * @param run
+	 * @param range
+	 * @param rule
+	 * @param chunkSize
+	 * @return
+	 */
+	public String postChunk(PostingRun run, PostingRange range, PostingRule rule, int chunkSize) {
+		String status = Response.ERROR;
+		Connection con = null;
+		PreparedStatement accountPs = null;
+		PreparedStatement housePs = null;
+		PreparedStatement transPs = null;
+		PreparedStatement rangePs = null;
+		try {
+			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			List<Account> found = AccountDAO.readAccounts(con, range.getCheckpoint(), range.getLastAccountId(),
+					run.getCurrency(), chunkSize);
+			long checkpoint = found.size() < chunkSize ? range.getLastAccountId() : found.get(found.size() - 1).getId();
+			// Every row the chunk updates is locked here, the house account in its place among the others
+			Account houseAccount = null;
+			List<Account> accounts = new ArrayList<>();
+			for (Account account : AccountDAO.lockAccounts(con, range.getCheckpoint(), checkpoint, run.getCurrency(),
+					run.getHouseAccountId())) {
+				if (account.getId().longValue() == run.getHouseAccountId()) {
+					houseAccount = account;
+				} else {
+					accounts.add(account);
+				}
+			}
+			if (houseAccount == null) {
+				logger.log(Level.SEVERE, "House account of posting run {0} no longer exists", String.valueOf(run.getId()));
+				con.rollback();
+				return Response.ERROR;
+			}
+
+			accountPs = con.prepareStatement("UPDATE ACCOUNT SET BALANCE = BALANCE + ?, VERSION = VERSION + 1 "
+					+ "WHERE ID = ? AND BALANCE + ? >= 0");
+			List<Account> batch = new ArrayList<>();
+			List<BigDecimal> amounts = new ArrayList<>();
+			for (Account account : accounts) {
+				BigDecimal amount = rule.amount(account);
+				if (amount.signum() != 0) {
+					accountPs.setBigDecimal(1, amount);
+					accountPs.setLong(2, account.getId());
+					accountPs.setBigDecimal(3, amount);
+					accountPs.addBatch();
+					batch.add(account);
+					amounts.add(amount);
+				}
+			}
+			List<Account> posted = new ArrayList<>();
+			List<BigDecimal> postedAmounts = new ArrayList<>();
+			long skipped = 0;
+			int[] counts = batch.isEmpty() ? new int[0] : accountPs.executeBatch();
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 1) {
+					posted.add(batch.get(i));
+					postedAmounts.add(amounts.get(i));
+				} else {
+					// Locked since it was read, so it couldn't cover the fee
+					skipped++;
+				}
+			}
+
+			BigDecimal total = BigDecimal.ZERO.setScale(2);
+			for (BigDecimal amount : postedAmounts) {
+				total = total.add(amount);
+			}
+			if (total.signum() != 0) {
+				// Already locked with the chunk's accounts
+				housePs = con.prepareStatement("UPDATE ACCOUNT SET BALANCE = BALANCE + ?, VERSION = VERSION + 1 "
+						+ "WHERE ID = ? AND BALANCE + ? >= 0");
+				housePs.setBigDecimal(1, total.negate());
+				housePs.setLong(2, houseAccount.getId());
+				housePs.setBigDecimal(3, total.negate());
+				if (housePs.executeUpdate() != 1) {
+					logger.log(Level.WARNING, "House account {0} can not cover posting run {1}",
+							new Object[] { houseAccount.getAccountName(), String.valueOf(run.getId()) });
+					con.rollback();
+					return Response.ERROR;
+				}
+			}
+
+			long transactionTime = Calendar.getInstance().getTimeInMillis();
+			transPs = con.prepareStatement("INSERT INTO TRANSACTION (FromAccountId, ToAccountId, Amount, TransactionDate) "
+					+ "VALUES (?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+			for (int i = 0; i < posted.size(); i++) {
+				BigDecimal amount = postedAmounts.get(i);
+				// Credits are paid by the house account, debits paid to it
+				Account fromAccount = amount.signum() > 0 ? houseAccount : posted.get(i);
+				Account toAccount = amount.signum() > 0 ? posted.get(i) : houseAccount;
+				transPs.setLong(1, fromAccount.getId());
+				transPs.setLong(2, toAccount.getId());
+				transPs.setBigDecimal(3, amount.abs());
+				transPs.setTimestamp(4, new Timestamp(transactionTime));
+				transPs.addBatch();
+			}
+			transPs.executeBatch();
+			// The chunk's transfers, followed by the range's checkpoint
+			byte[][] entries = new byte[journal.isEnabled() ? posted.size() + 1 : 0][];
+			if (journal.isEnabled()) {
+				try (ResultSet keys = transPs.getGeneratedKeys()) {
+					for (int i = 0; i < posted.size(); i++) {
+						if (!keys.next()) {
+							throw new SQLException("No id was generated");
+						}
+						BigDecimal amount = postedAmounts.get(i);
+						Account fromAccount = amount.signum() > 0 ? houseAccount : posted.get(i);
+						Account toAccount = amount.signum() > 0 ? posted.get(i) : houseAccount;
+						entries[i] = JournalEvent.transfer(keys.getLong(1), fromAccount.getId(), fromAccount.getAccountName(),
+								toAccount.getId(), toAccount.getAccountName(), amount.abs(), transactionTime);
+					}
+				}
+			}
+
+			rangePs = con.prepareStatement("UPDATE POSTING_RANGE SET CHECKPOINT = ?, POSTED = POSTED + ?, SKIPPED = SKIPPED + ?, "
+					+ "TOTAL = TOTAL + ? WHERE RUNID = ? AND FIRSTACCOUNTID = ? AND CHECKPOINT = ?");
+			rangePs.setLong(1, checkpoint);
+			rangePs.setLong(2, posted.size());
+			rangePs.setLong(3, skipped);
+			rangePs.setBigDecimal(4, total);
+			rangePs.setLong(5, run.getId());
+			rangePs.setLong(6, range.getFirstAccountId());
+			rangePs.setLong(7, range.getCheckpoint());
+			if (rangePs.executeUpdate() != 1) {
+				logger.log(Level.WARNING, "Posting run {0} range {1} was moved on by another poster",
+						new Object[] { String.valueOf(run.getId()), String.valueOf(range.getFirstAccountId()) });
+				con.rollback();
+				return Response.ERROR;
+			}
+
+			PostingRange moved = new PostingRange();
+			moved.setFirstAccountId(range.getFirstAccountId());
+			moved.setLastAccountId(range.getLastAccountId());
+			moved.setCheckpoint(checkpoint);
+			moved.setPosted(range.getPosted() + posted.size());
+			moved.setSkipped(range.getSkipped() + skipped);
+			moved.setTotal(range.getTotal().add(total));
+			if (journal.isEnabled()) {
+				entries[posted.size()] = JournalEvent.postingCheckpoint(run.getId(), moved);
+			}
+
+			List<Long> changedIds = new ArrayList<>();
+			String[] changedNames = new String[posted.size() + 1];
+			for (int i = 0; i < posted.size(); i++) {
+				changedIds.add(posted.get(i).getId());
+				changedNames[i] = posted.get(i).getAccountName();
+			}
+			changedIds.add(houseAccount.getId());
+			changedNames[posted.size()] = houseAccount.getAccountName();
+			List<Account> changed = accountTable.isEnabled() && !posted.isEmpty()
+					? AccountDAO.readAccounts(con, changedIds) : Collections.emptyList();
+			journal.commit(con, journal.isEnabled() ? JournalEvent.concat(entries) : null);
+			changed.forEach(accountTable::put);
+			if (!posted.isEmpty()) {
+				AccountVersions.changed(changedNames);
+				events.balanceChanged(changedNames);
+			}
+
+			range.setCheckpoint(moved.getCheckpoint());
+			range.setPosted(moved.getPosted());
+			range.setSkipped(moved.getSkipped());
+			range.setTotal(moved.getTotal());
+			status = Response.SUCCESS;
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Post Chunk", e);
+			try {
+				if (con != null) {
+					logger.log(Level.SEVERE, "Rolling back Post Chunk", e);
+					con.rollback();
+				}
+			} catch (SQLException e1) {
+				logger.log(Level.WARNING, "Unable to Roll back", e1);
+			}
+		} finally {
+			try {
+				if (accountPs != null) {
+					accountPs.close();
+				}
+				if (housePs != null) {
+					housePs.close();
+				}
+				if (transPs != null) {
+					transPs.close();
+				}
+				if (rangePs != null) {
+					rangePs.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {}
+		}
+		return status;
+	}
+
+	/**
+	 * Totals the run's ranges into the run
+	 */
+	private static void summarise(PostingRun run) {
+		long posted = 0;
+		long skipped = 0;
+		BigDecimal total = BigDecimal.ZERO.setScale(2);
+		for (PostingRange range : run.getRanges()) {
+			posted += range.getPosted();
+			skipped += range.getSkipped();
+			total = total.add(range.getTotal());
+		}
+		run.setPosted(posted);
+		run.setSkipped(skipped);
+		run.setTotal(total);
+	}
+}
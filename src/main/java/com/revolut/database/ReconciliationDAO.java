@@ -0,0 +1,148 @@
+package com.revolut.database;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import com.revolut.beans.BalanceMismatch;
+
+/**
+ * DAO for the queries behind ledger reconciliation. Each check covers one range of ids so the
+ * caller decides how much is read at once. Unlike the other DAOs failures are thrown, a
+ * reconciliation that silently skipped a range would report a clean ledger it never checked.
+ * @author josh
+ *
+ */
+public class ReconciliationDAO {
+
+	/**
+	 * Returns the lowest and highest id in the ACCOUNT or TRANSACTION table, or null if it is empty
+	 * @param table
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 */
+	public long[] getIdRange(String table) throws ClassNotFoundException, SQLException {
+		if (!"ACCOUNT".equals(table) && !"TRANSACTION".equals(table)) {
+			throw new IllegalArgumentException(table);
+		}
+		try (Connection con = DBConnection.getConnection(); Statement st = con.createStatement();
+				ResultSet result = st.executeQuery("SELECT MIN(ID), MAX(ID) FROM " + table)) {
+			result.next();
+			BigDecimal min = result.getBigDecimal(1);
+			return min == null ? null : new long[] { min.longValue(), result.getLong(2) };
+		}
+	}
+
+	/**
+	 * Recomputes the balance of every account with an id in the range as its opening balance
+	 * plus credits minus debits, reporting any account whose balance differs. Credits converted from another
+	 * currency count as the amount credited. Credits minus debits
+	 * already moved to the cold store are given by account id, in hundredths.
+	 * Returns the number of accounts checked.
+	 * @param fromId inclusive
+	 * @param toId exclusive
+	 * @param coldNetAmounts
+	 * @param mismatches
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 */
+	public int checkAccounts(long fromId, long toId, Map<Long, Long> coldNetAmounts, Consumer<BalanceMismatch> mismatches)
+			throws ClassNotFoundException, SQLException {
+		int checked = 0;
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("SELECT acc.ID, acc.ACCOUNTNAME, acc.BALANCE, "
+						+ "acc.OPENINGBALANCE + COALESCE((SELECT SUM(COALESCE(TOAMOUNT, AMOUNT)) FROM TRANSACTION WHERE TOACCOUNTID = acc.ID), 0) "
+						+ "- COALESCE((SELECT SUM(AMOUNT) FROM TRANSACTION WHERE FROMACCOUNTID = acc.ID), 0) AS EXPECTEDBALANCE "
+						+ "FROM ACCOUNT acc WHERE acc.ID >= ? AND acc.ID < ?")) {
+			ps.setLong(1, fromId);
+			ps.setLong(2, toId);
+			try (ResultSet result = ps.executeQuery()) {
+				while (result.next()) {
+					checked++;
+					BigDecimal balance = result.getBigDecimal("Balance");
+					BigDecimal expectedBalance = result.getBigDecimal("ExpectedBalance");
+					Long coldNetAmount = coldNetAmounts.get(result.getLong("Id"));
+					if (coldNetAmount != null && expectedBalance != null) {
+						expectedBalance = expectedBalance.add(BigDecimal.valueOf(coldNetAmount, 2));
+					}
+					if (expectedBalance == null || balance.compareTo(expectedBalance) != 0) {
+						BalanceMismatch mismatch = new BalanceMismatch();
+						mismatch.setAccountId(result.getLong("Id"));
+						mismatch.setAccountName(result.getString("AccountName"));
+						mismatch.setBalance(balance);
+						mismatch.setExpectedBalance(expectedBalance);
+						mismatches.accept(mismatch);
+					}
+				}
+			}
+		}
+		return checked;
+	}
+
+	/**
+	 * Returns which of the given account ids still exist
+	 * @param accountIds
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 */
+	public Set<Long> getExistingAccountIds(long[] accountIds) throws ClassNotFoundException, SQLException {
+		Long[] ids = new Long[accountIds.length];
+		for (int i = 0; i < accountIds.length; i++) {
+			ids[i] = accountIds[i];
+		}
+		Set<Long> existing = new HashSet<>();
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("SELECT ID FROM ACCOUNT WHERE ID IN (SELECT * FROM TABLE(ID BIGINT = ?))")) {
+			ps.setObject(1, ids);
+			try (ResultSet result = ps.executeQuery()) {
+				while (result.next()) {
+					existing.add(result.getLong("Id"));
+				}
+			}
+		}
+		return existing;
+	}
+
+	/**
+	 * Reports every transaction with an id in the range whose from or to account no longer exists.
+	 * Returns the number of transactions checked.
+	 * @param fromId inclusive
+	 * @param toId exclusive
+	 * @param orphans
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 */
+	public int checkTransactions(long fromId, long toId, LongConsumer orphans)
+			throws ClassNotFoundException, SQLException {
+		int checked = 0;
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("SELECT trans.ID, "
+						+ "CASE WHEN NOT EXISTS (SELECT 1 FROM ACCOUNT WHERE ID = trans.FROMACCOUNTID) "
+						+ "OR NOT EXISTS (SELECT 1 FROM ACCOUNT WHERE ID = trans.TOACCOUNTID) THEN TRUE ELSE FALSE END AS ORPHANED "
+						+ "FROM TRANSACTION trans WHERE trans.ID >= ? AND trans.ID < ?")) {
+			ps.setLong(1, fromId);
+			ps.setLong(2, toId);
+			try (ResultSet result = ps.executeQuery()) {
+				while (result.next()) {
+					checked++;
+					if (result.getBoolean("Orphaned")) {
+						orphans.accept(result.getLong("Id"));
+					}
+				}
+			}
+		}
+		return checked;
+	}
+}
@@ -0,0 +1,270 @@
+package com.revolut.database;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.revolut.beans.Account;
+import com.revolut.beans.PostingRange;
+import com.revolut.beans.PostingRun;
+import com.revolut.beans.ScheduledTransfer;
+import com.revolut.events.AccountEvents;
+import com.revolut.fx.FxRates;
+import com.revolut.limits.TransferLimits;
+import com.revolut.replication.JournalApplier;
+import com.revolut.search.AccountNameIndex;
+
+/**
+ * Applies changes received from the leader. Accounts and transactions keep the ids they were given on
+ * the leader so later entries, and a promoted follower, refer to the same rows.
+ * @author josh
+ *
+ */
+public class ReplicaDAO implements JournalApplier {
+
+	private AccountTable accountTable = AccountTable.getInstance();
+	private AccountEvents events = AccountEvents.getInstance();
+	private AccountNameIndex nameIndex = AccountNameIndex.getInstance();
+
+	@Override
+	public void accountCreated(long accountId, String accountName, BigDecimal balance, String currency)
+			throws ClassNotFoundException, SQLException {
+		if (currency == null) {
+			currency = FxRates.getInstance().getBaseCurrency();
+		}
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("INSERT INTO ACCOUNT(ID, ACCOUNTNAME, BALANCE, OPENINGBALANCE, CURRENCY) VALUES (?, ?, ?, ?, ?)")) {
+			ps.setLong(1, accountId);
+			ps.setString(2, accountName);
+			ps.setBigDecimal(3, balance);
+			ps.setBigDecimal(4, balance);
+			ps.setString(5, currency);
+			ps.executeUpdate();
+		}
+		if (accountTable.isEnabled()) {
+			Account account = new Account();
+			account.setId(accountId);
+			account.setAccountName(accountName);
+			account.setBalance(balance);
+			account.setVersion(0L);
+			account.setCurrency(currency);
+			accountTable.put(account);
+		}
+		AccountVersions.changed(accountName);
+		events.balanceChanged(accountName);
+		nameIndex.add(accountName);
+	}
+
+	@Override
+	public void accountRenamed(String accountName, String newAccountName) throws ClassNotFoundException, SQLException {
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("UPDATE ACCOUNT set ACCOUNTNAME = ?, VERSION = VERSION + 1 WHERE ACCOUNTNAME = ?")) {
+			ps.setString(1, newAccountName);
+			ps.setString(2, accountName);
+			ps.executeUpdate();
+			if (accountTable.isEnabled()) {
+				AccountDAO.readAccounts(con, newAccountName).forEach(accountTable::put);
+			}
+		}
+		AccountVersions.renamed(accountName, newAccountName);
+		events.renamed(accountName, newAccountName);
+		nameIndex.renamed(accountName, newAccountName);
+	}
+
+	@Override
+	public void accountDeleted(String accountName) throws ClassNotFoundException, SQLException {
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("DELETE FROM ACCOUNT WHERE ACCOUNTNAME = ?")) {
+			List<Account> deleted = accountTable.isEnabled() ? AccountDAO.readAccounts(con, accountName) : Collections.emptyList();
+			ps.setString(1, accountName);
+			ps.executeUpdate();
+			for (Account account : deleted) {
+				accountTable.remove(account.getId());
+			}
+		}
+		AccountVersions.deleted(accountName);
+		events.deleted(accountName);
+		nameIndex.remove(accountName);
+	}
+
+	@Override
+	public void transfer(long transactionId, long fromAccountId, String fromAccountName, long toAccountId,
+			String toAccountName, BigDecimal amount, BigDecimal toAmount, BigDecimal rate, long transactionTime)
+			throws ClassNotFoundException, SQLException {
+		List<Account> changed;
+		try (Connection con = DBConnection.getConnection()) {
+			con.setAutoCommit(false);
+			try (PreparedStatement accountPs = con.prepareStatement(
+					"UPDATE ACCOUNT SET BALANCE = BALANCE + ?, VERSION = VERSION + 1 WHERE ID = ?");
+					PreparedStatement transPs = con.prepareStatement("INSERT INTO TRANSACTION (Id, FromAccountId, ToAccountId, Amount, ToAmount, Rate, TransactionDate) "
+							+ "VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+				// The leader already checked the balance, the debit is applied as it was made there
+				accountPs.setBigDecimal(1, amount.negate());
+				accountPs.setLong(2, fromAccountId);
+				accountPs.addBatch();
+				accountPs.setBigDecimal(1, rate != null ? toAmount : amount);
+				accountPs.setLong(2, toAccountId);
+				accountPs.addBatch();
+				accountPs.executeBatch();
+				transPs.setLong(1, transactionId);
+				transPs.setLong(2, fromAccountId);
+				transPs.setLong(3, toAccountId);
+				transPs.setBigDecimal(4, amount);
+				transPs.setBigDecimal(5, rate != null ? toAmount : null);
+				transPs.setBigDecimal(6, rate);
+				transPs.setTimestamp(7, new Timestamp(transactionTime));
+				transPs.executeUpdate();
+				changed = accountTable.isEnabled() ? AccountDAO.readAccounts(con, Arrays.asList(fromAccountId, toAccountId))
+						: Collections.emptyList();
+				con.commit();
+			} catch (SQLException e) {
+				con.rollback();
+				throw e;
+			}
+		}
+		changed.forEach(accountTable::put);
+		AccountVersions.changed(fromAccountName, toAccountName);
+		events.balanceChanged(fromAccountName, toAccountName);
+		// Keep limits current so they hold from the moment this server is promoted
+		TransferLimits limits = TransferLimits.getInstance();
+		if (limits.isEnabled()) {
+			limits.record(fromAccountId, amount.movePointRight(2).longValue(), transactionTime, System.currentTimeMillis());
+		}
+	}
+
+	@Override
+	public void ratesPublished(Map<String, BigDecimal> rates) throws ClassNotFoundException, SQLException {
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("MERGE INTO FX_RATE (CURRENCY, RATE) KEY (CURRENCY) VALUES (?, ?)")) {
+			FxRateDAO.writeRates(ps, rates);
+		}
+		FxRates.getInstance().apply(rates);
+	}
+
+	@Override
+	public void postingRunCreated(PostingRun run) throws ClassNotFoundException, SQLException {
+		try (Connection con = DBConnection.getConnection()) {
+			con.setAutoCommit(false);
+			try (PreparedStatement runPs = con.prepareStatement("INSERT INTO POSTING_RUN(ID, HOUSEACCOUNTID, CURRENCY, RULE, PARAMETER, STATUS, STARTED) "
+					+ "VALUES (?, ?, ?, ?, ?, ?, ?)");
+					PreparedStatement rangePs = con.prepareStatement("INSERT INTO POSTING_RANGE(RUNID, FIRSTACCOUNTID, LASTACCOUNTID, CHECKPOINT) VALUES (?, ?, ?, ?)")) {
+				runPs.setLong(1, run.getId());
+				runPs.setLong(2, run.getHouseAccountId());
+				runPs.setString(3, run.getCurrency());
+				runPs.setString(4, run.getRule());
+				runPs.setBigDecimal(5, run.getParameter());
+				runPs.setString(6, run.getStatus());
+				runPs.setTimestamp(7, new Timestamp(run.getStarted()));
+				runPs.executeUpdate();
+				for (PostingRange range : run.getRanges()) {
+					rangePs.setLong(1, run.getId());
+					rangePs.setLong(2, range.getFirstAccountId());
+					rangePs.setLong(3, range.getLastAccountId());
+					rangePs.setLong(4, range.getCheckpoint());
+					rangePs.addBatch();
+				}
+				rangePs.executeBatch();
+				con.commit();
+			} catch (SQLException e) {
+				con.rollback();
+				throw e;
+			}
+		}
+	}
+
+	@Override
+	public void postingRunStatus(long runId, String status, Long finished) throws ClassNotFoundException, SQLException {
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("UPDATE POSTING_RUN SET STATUS = ?, FINISHED = ? WHERE ID = ?")) {
+			ps.setString(1, status);
+			ps.setTimestamp(2, finished != null ? new Timestamp(finished) : null);
+			ps.setLong(3, runId);
+			ps.executeUpdate();
+		}
+	}
+
+	@Override
+	public void postingCheckpoint(long runId, PostingRange range) throws ClassNotFoundException, SQLException {
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("UPDATE POSTING_RANGE SET CHECKPOINT = ?, POSTED = ?, SKIPPED = ?, TOTAL = ? "
+						+ "WHERE RUNID = ? AND FIRSTACCOUNTID = ?")) {
+			ps.setLong(1, range.getCheckpoint());
+			ps.setLong(2, range.getPosted());
+			ps.setLong(3, range.getSkipped());
+			ps.setBigDecimal(4, range.getTotal());
+			ps.setLong(5, runId);
+			ps.setLong(6, range.getFirstAccountId());
+			ps.executeUpdate();
+		}
+	}
+
+	@Override
+	public void scheduleCreated(ScheduledTransfer schedule) throws ClassNotFoundException, SQLException {
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("INSERT INTO SCHEDULED_TRANSFER(ID, FROMACCOUNTID, TOACCOUNTID, AMOUNT, NEXTRUN, INTERVALSECONDS) "
+						+ "VALUES (?, ?, ?, ?, ?, ?)")) {
+			ps.setLong(1, schedule.getId());
+			ps.setLong(2, schedule.getFromAccountId());
+			ps.setLong(3, schedule.getToAccountId());
+			ps.setBigDecimal(4, schedule.getAmount());
+			ps.setTimestamp(5, new Timestamp(schedule.getNextRun()));
+			ps.setLong(6, schedule.getIntervalSeconds());
+			ps.executeUpdate();
+		}
+	}
+
+	@Override
+	public void scheduleCancelled(long scheduleId) throws ClassNotFoundException, SQLException {
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("UPDATE SCHEDULED_TRANSFER SET ACTIVE = FALSE WHERE ID = ?")) {
+			ps.setLong(1, scheduleId);
+			ps.executeUpdate();
+		}
+	}
+
+	@Override
+	public void scheduleRunsClaimed(List<ScheduledTransfer> schedules) throws ClassNotFoundException, SQLException {
+		try (Connection con = DBConnection.getConnection()) {
+			con.setAutoCommit(false);
+			try (PreparedStatement ps = con.prepareStatement("UPDATE SCHEDULED_TRANSFER SET NEXTRUN = ?, ACTIVE = ?, RUNS = RUNS + 1 WHERE ID = ?")) {
+				for (ScheduledTransfer schedule : schedules) {
+					ps.setTimestamp(1, new Timestamp(schedule.getNextRun()));
+					ps.setBoolean(2, schedule.getActive());
+					ps.setLong(3, schedule.getId());
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				con.commit();
+			} catch (SQLException e) {
+				con.rollback();
+				throw e;
+			}
+		}
+	}
+
+	@Override
+	public void scheduleOutcomes(List<ScheduledTransfer> schedules) throws ClassNotFoundException, SQLException {
+		try (Connection con = DBConnection.getConnection()) {
+			con.setAutoCommit(false);
+			try (PreparedStatement ps = con.prepareStatement("UPDATE SCHEDULED_TRANSFER SET LASTOUTCOME = ?, ACTIVE = ACTIVE AND ? WHERE ID = ?")) {
+				for (ScheduledTransfer schedule : schedules) {
+					ps.setString(1, schedule.getLastOutcome());
+					ps.setBoolean(2, schedule.getActive());
+					ps.setLong(3, schedule.getId());
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				con.commit();
+			} catch (SQLException e) {
+				con.rollback();
+				throw e;
+			}
+		}
+	}
+}
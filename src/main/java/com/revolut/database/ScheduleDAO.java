@@ -0,0 +1,332 @@
+package com.revolut.database;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.beans.Account;
+import com.revolut.beans.ScheduledTransfer;
+import com.revolut.replication.Journal;
+import com.revolut.replication.JournalEvent;
+import com.revolut.rest.Response;
+
+/**
+ * DAO for scheduled transfers and standing orders. A run is claimed by moving the schedule on to its
+ * next run before the transfer is made, so a run is never made twice, even by a scheduler restarted
+ * part way through a batch. Schedules, claims and outcomes are journaled, so a promoted follower has every
+ * standing order where the leader left it.
+ * @author josh
+ *
+ */
+public class ScheduleDAO {
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+	private Journal journal = Journal.getInstance();
+
+	public ScheduleDAO() {
+	}
+
+	/**
+	 * Journals changes to the given journal rather than this server's
+	 * @param journal
+	 */
+	public ScheduleDAO(Journal journal) {
+		this.journal = journal;
+	}
+
+	private static final String SELECT_SCHEDULES = "SELECT sched.ID, sched.FROMACCOUNTID, sched.TOACCOUNTID, "
+			+ "fromAcc.ACCOUNTNAME AS FROMACCOUNTNAME, toAcc.ACCOUNTNAME AS TOACCOUNTNAME, sched.AMOUNT, sched.NEXTRUN, "
+			+ "sched.INTERVALSECONDS, sched.RUNS, sched.LASTOUTCOME, sched.ACTIVE FROM SCHEDULED_TRANSFER sched "
+			+ "LEFT JOIN ACCOUNT fromAcc ON fromAcc.ID = sched.FROMACCOUNTID "
+			+ "LEFT JOIN ACCOUNT toAcc ON toAcc.ID = sched.TOACCOUNTID ";
+
+	/**
+	 * Schedules a transfer from one account to another, first made at nextRun and then every
+	 * intervalSeconds if that is above 0. Returns the schedule created, or null on error.
+	 * @param fromAccount
+	 * @param toAccount
+	 * @param amount
+	 * @param nextRun
+	 * @param intervalSeconds
+	 * @return
+	 */
+	public ScheduledTransfer createSchedule(Account fromAccount, Account toAccount, BigDecimal amount, long nextRun,
+			long intervalSeconds) {
+		ScheduledTransfer schedule = null;
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			ps = con.prepareStatement("INSERT INTO SCHEDULED_TRANSFER(FROMACCOUNTID, TOACCOUNTID, AMOUNT, NEXTRUN, INTERVALSECONDS) "
+					+ "VALUES (?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+			ps.setLong(1, fromAccount.getId());
+			ps.setLong(2, toAccount.getId());
+			ps.setBigDecimal(3, amount);
+			ps.setTimestamp(4, new Timestamp(nextRun));
+			ps.setLong(5, intervalSeconds);
+			ps.executeUpdate();
+			ScheduledTransfer created = new ScheduledTransfer();
+			created.setId(DBConnection.getGeneratedId(ps));
+			created.setFromAccountId(fromAccount.getId());
+			created.setToAccountId(toAccount.getId());
+			created.setFromAccountName(fromAccount.getAccountName());
+			created.setToAccountName(toAccount.getAccountName());
+			created.setAmount(amount);
+			created.setNextRun(nextRun);
+			created.setIntervalSeconds(intervalSeconds);
+			created.setRuns(0L);
+			created.setActive(true);
+			journal.commit(con, journal.isEnabled() ? JournalEvent.scheduleCreated(created) : null);
+			schedule = created;
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Create Schedule", e);
+			try {
+				if (con != null) {
+					logger.log(Level.SEVERE, "Rolling back Create Schedule", e);
+					con.rollback();
+				}
+			} catch (SQLException e1) {
+				logger.log(Level.WARNING, "Unable to Roll back", e1);
+			}
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {}
+		}
+		return schedule;
+	}
+
+	/**
+	 * Returns the schedules paying from or to the named account
+	 * @param accountName
+	 * @return
+	 */
+	public List<ScheduledTransfer> getSchedules(String accountName) {
+		return query(SELECT_SCHEDULES + "WHERE fromAcc.ACCOUNTNAME = ? OR toAcc.ACCOUNTNAME = ? ORDER BY sched.ID", accountName);
+	}
+
+	/**
+	 * Returns every schedule still to run, including runs missed while the server was down
+	 * @return
+	 */
+	public List<ScheduledTransfer> getActiveSchedules() {
+		return query(SELECT_SCHEDULES + "WHERE sched.ACTIVE = TRUE ORDER BY sched.NEXTRUN", null);
+	}
+
+	private List<ScheduledTransfer> query(String sql, String accountName) {
+		List<ScheduledTransfer> schedules = new ArrayList<>();
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			ps = con.prepareStatement(sql);
+			if (accountName != null) {
+				ps.setString(1, accountName);
+				ps.setString(2, accountName);
+			}
+			ResultSet result = ps.executeQuery();
+			while (result.next()) {
+				ScheduledTransfer schedule = new ScheduledTransfer();
+				schedule.setId(result.getLong("Id"));
+				schedule.setFromAccountId(result.getLong("FromAccountId"));
+				schedule.setToAccountId(result.getLong("ToAccountId"));
+				schedule.setFromAccountName(result.getString("FromAccountName"));
+				schedule.setToAccountName(result.getString("ToAccountName"));
+				schedule.setAmount(result.getBigDecimal("Amount"));
+				schedule.setNextRun(result.getTimestamp("NextRun").getTime());
+				schedule.setIntervalSeconds(result.getLong("IntervalSeconds"));
+				schedule.setRuns(result.getLong("Runs"));
+				schedule.setLastOutcome(result.getString("LastOutcome"));
+				schedule.setActive(result.getBoolean("Active"));
+				schedules.add(schedule);
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Get Schedules", e);
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {}
+		}
+		return schedules;
+	}
+
+	/**
+	 * Stops a schedule making any more transfers
+	 * @param id
+	 * @return SUCCESS, or ERROR if there is no such schedule still active
+	 */
+	public String cancelSchedule(long id) {
+		String status = Response.ERROR;
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			ps = con.prepareStatement("UPDATE SCHEDULED_TRANSFER SET ACTIVE = FALSE WHERE ID = ? AND ACTIVE = TRUE");
+			ps.setLong(1, id);
+			if (ps.executeUpdate() == 1) {
+				journal.commit(con, journal.isEnabled() ? JournalEvent.scheduleCancelled(id) : null);
+				status = Response.SUCCESS;
+			} else {
+				con.rollback();
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Cancel Schedule", e);
+			try {
+				if (con != null) {
+					logger.log(Level.SEVERE, "Rolling back Cancel Schedule", e);
+					con.rollback();
+				}
+			} catch (SQLException e1) {
+				logger.log(Level.WARNING, "Unable to Roll back", e1);
+			}
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {}
+		}
+		return status;
+	}
+
+	/**
+	 * Claims the due run of each schedule in one transaction, moving it on to its next run, or making it
+	 * inactive if it runs once. Schedules cancelled or already moved on since they were read are left out.
+	 * Returns the schedules claimed with their next run set, or null on error, when nothing is claimed.
+	 * @param schedules
+	 * @return
+	 */
+	public List<ScheduledTransfer> claimRuns(List<ScheduledTransfer> schedules) {
+		List<ScheduledTransfer> claimed = null;
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			ps = con.prepareStatement("UPDATE SCHEDULED_TRANSFER SET NEXTRUN = ?, ACTIVE = ?, RUNS = RUNS + 1 "
+					+ "WHERE ID = ? AND NEXTRUN = ? AND ACTIVE = TRUE");
+			for (ScheduledTransfer schedule : schedules) {
+				long intervalSeconds = schedule.getIntervalSeconds() != null ? schedule.getIntervalSeconds() : 0;
+				ps.setTimestamp(1, new Timestamp(schedule.getNextRun() + TimeUnit.SECONDS.toMillis(intervalSeconds)));
+				ps.setBoolean(2, intervalSeconds > 0);
+				ps.setLong(3, schedule.getId());
+				ps.setTimestamp(4, new Timestamp(schedule.getNextRun()));
+				ps.addBatch();
+			}
+			int[] counts = ps.executeBatch();
+			// Followers are sent where each claimed schedule was moved on to
+			List<ScheduledTransfer> claims = new ArrayList<>();
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 1) {
+					ScheduledTransfer schedule = schedules.get(i);
+					long intervalSeconds = schedule.getIntervalSeconds() != null ? schedule.getIntervalSeconds() : 0;
+					ScheduledTransfer claim = new ScheduledTransfer();
+					claim.setId(schedule.getId());
+					claim.setNextRun(schedule.getNextRun() + TimeUnit.SECONDS.toMillis(intervalSeconds));
+					claim.setActive(intervalSeconds > 0);
+					claims.add(claim);
+				}
+			}
+			journal.commit(con, journal.isEnabled() && !claims.isEmpty() ? JournalEvent.scheduleRunsClaimed(claims) : null);
+			claimed = new ArrayList<>();
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 1) {
+					ScheduledTransfer schedule = schedules.get(i);
+					long intervalSeconds = schedule.getIntervalSeconds() != null ? schedule.getIntervalSeconds() : 0;
+					schedule.setNextRun(schedule.getNextRun() + TimeUnit.SECONDS.toMillis(intervalSeconds));
+					schedule.setActive(intervalSeconds > 0);
+					schedule.setRuns(schedule.getRuns() != null ? schedule.getRuns() + 1 : 1);
+					claimed.add(schedule);
+				}
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Claim Runs", e);
+			try {
+				if (con != null) {
+					logger.log(Level.SEVERE, "Rolling back Claim Runs", e);
+					con.rollback();
+				}
+			} catch (SQLException e1) {
+				logger.log(Level.WARNING, "Unable to Roll back", e1);
+			}
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {}
+		}
+		return claimed;
+	}
+
+	/**
+	 * Records the outcome of each schedule's last run, making inactive any schedule set inactive since it was claimed
+	 * @param schedules
+	 * @return
+	 */
+	public String recordOutcomes(List<ScheduledTransfer> schedules) {
+		String status = Response.ERROR;
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			ps = con.prepareStatement("UPDATE SCHEDULED_TRANSFER SET LASTOUTCOME = ?, ACTIVE = ACTIVE AND ? WHERE ID = ?");
+			for (ScheduledTransfer schedule : schedules) {
+				ps.setString(1, schedule.getLastOutcome());
+				ps.setBoolean(2, Boolean.TRUE.equals(schedule.getActive()));
+				ps.setLong(3, schedule.getId());
+				ps.addBatch();
+			}
+			ps.executeBatch();
+			journal.commit(con, journal.isEnabled() && !schedules.isEmpty() ? JournalEvent.scheduleOutcomes(schedules) : null);
+			status = Response.SUCCESS;
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Record Outcomes", e);
+			try {
+				if (con != null) {
+					logger.log(Level.SEVERE, "Rolling back Record Outcomes", e);
+					con.rollback();
+				}
+			} catch (SQLException e1) {
+				logger.log(Level.WARNING, "Unable to Roll back", e1);
+			}
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {}
+		}
+		return status;
+	}
+}
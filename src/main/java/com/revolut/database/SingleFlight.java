@@ -0,0 +1,73 @@
+package com.revolut.database;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.revolut.metrics.Metrics;
+
+/**
+ * Coalesces concurrent identical lookups. While a load for a key is in flight any other caller
+ * asking for the same key waits for it and shares its result instead of running its own query.
+ * Nothing is cached, the key is forgotten as soon as the load completes.
+ * Shared results are handed to every waiter so must be treated as read only.
+ * @author josh
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder collapsed = new LongAdder();
+
+	/**
+	 * @param name prefix used when registering the calls and collapsed metrics
+	 */
+	public SingleFlight(String name) {
+		Metrics.register(name + ".calls", calls::sum);
+		Metrics.register(name + ".collapsed", collapsed::sum);
+	}
+
+	/**
+	 * Returns the result of the in flight load for the key, starting one if there is none
+	 * @param key
+	 * @param loader
+	 * @return
+	 */
+	public V execute(K key, Supplier<V> loader) {
+		calls.increment();
+		CompletableFuture<V> future = new CompletableFuture<>();
+		CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+		if (existing != null) {
+			collapsed.increment();
+			try {
+				return existing.join();
+			} catch (CompletionException e) {
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+			}
+		}
+		try {
+			V value = loader.get();
+			future.complete(value);
+			return value;
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	public long getCollapsed() {
+		return collapsed.sum();
+	}
+}
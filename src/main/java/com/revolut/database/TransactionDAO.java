@@ -4,24 +4,87 @@ import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Date;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.revolut.beans.Account;
 import com.revolut.beans.Transaction;
+import com.revolut.events.AccountEvents;
+import com.revolut.limits.TransferRecorder;
+import com.revolut.netting.NettedTransfer;
+import com.revolut.replication.Journal;
+import com.revolut.replication.JournalEvent;
 import com.revolut.rest.Response;
+import com.revolut.tiering.ColdStore;
+import com.revolut.tiering.ColdTransaction;
+import com.revolut.tiering.TransactionArchiver;
 
 
 public class TransactionDAO {
 	private Logger logger = Logger.getLogger(this.getClass().getName());
+	private AccountDAO accountDAO = new AccountDAO();
+	private Journal journal = Journal.getInstance();
+	private AccountTable accountTable = AccountTable.getInstance();
+	private AccountEvents events = AccountEvents.getInstance();
+	private ColdStore coldStore = ColdStore.getInstance();
 
-	public String doTransfer(String fromAccountName, String toAccountName, BigDecimal amount) {
+	private static final SingleFlight<String, List<Transaction>> transactionLookups = new SingleFlight<>("transaction.lookup");
+
+	public TransactionDAO() {
+	}
+
+	/**
+	 * Reads history older than the TRANSACTION table from the given cold store rather than this server's
+	 * @param coldStore
+	 */
+	public TransactionDAO(ColdStore coldStore) {
+		this.coldStore = coldStore;
+	}
+
+	/**
+	 * Moves an amount between two accounts in the same currency and records the transaction
+	 * @param fromAccount
+	 * @param toAccount
+	 * @param amount
+	 * @return
+	 */
+	public String doTransfer(Account fromAccount, Account toAccount, BigDecimal amount) {
+		return doTransfer(fromAccount, toAccount, amount, amount, null);
+	}
+
+	/**
+	 * Moves an amount between two accounts and records the transaction. The from account is debited the amount
+	 * and the to account credited the to amount, which for accounts in different currencies is the amount converted
+	 * at the rate given. Both amounts and the rate are recorded on the transaction, the rate is null when no
+	 * conversion was made.
+	 * The from account is only debited if it still has the version it was read with and enough
+	 * money, no locks are held between reading the account and calling this. Returns
+	 * Response.CONFLICT, having changed nothing, if the from account changed in the meantime
+	 * so the caller can re-read it and try again.
+	 * @param fromAccount
+	 * @param toAccount
+	 * @param amount
+	 * @param toAmount
+	 * @param rate
+	 * @return
+	 */
+	public String doTransfer(Account fromAccount, Account toAccount, BigDecimal amount, BigDecimal toAmount, BigDecimal rate) {
 		String status = Response.ERROR;
 		Connection con = null;
 		PreparedStatement fromPs = null;
@@ -30,27 +93,50 @@ public class TransactionDAO {
 		try {
 			con = DBConnection.getConnection();
 			con.setAutoCommit(false);
-			// First update the from account balance
-			fromPs = con.prepareStatement("UPDATE ACCOUNT SET BALANCE = BALANCE - ? WHERE ACCOUNTNAME = ?");
+			fromPs = con.prepareStatement("UPDATE ACCOUNT SET BALANCE = BALANCE - ?, VERSION = VERSION + 1 "
+					+ "WHERE ID = ? AND VERSION = ? AND BALANCE >= ?");
 			fromPs.setBigDecimal(1, amount);
-			fromPs.setString(2, fromAccountName);
-			fromPs.executeUpdate();
+			fromPs.setLong(2, fromAccount.getId());
+			fromPs.setLong(3, fromAccount.getVersion());
+			fromPs.setBigDecimal(4, amount);
+			toPs = con.prepareStatement("UPDATE ACCOUNT SET BALANCE = BALANCE + ?, VERSION = VERSION + 1 WHERE ID = ?");
+			toPs.setBigDecimal(1, toAmount);
+			toPs.setLong(2, toAccount.getId());
 
-			// Then update the to account balance
-			toPs = con.prepareStatement("UPDATE ACCOUNT SET BALANCE = BALANCE + ? WHERE ACCOUNTNAME = ?");
-			toPs.setBigDecimal(1, amount);
-			toPs.setString(2, toAccountName);
-			toPs.executeUpdate();
+			// Update the rows in id order so two opposing transfers can't deadlock
+			int fromRows;
+			int toRows;
+			if (fromAccount.getId() <= toAccount.getId()) {
+				fromRows = fromPs.executeUpdate();
+				toRows = toPs.executeUpdate();
+			} else {
+				toRows = toPs.executeUpdate();
+				fromRows = fromPs.executeUpdate();
+			}
+			if (fromRows != 1 || toRows != 1) {
+				con.rollback();
+				// Only a changed from account is worth retrying, a missing to account won't come back
+				return toRows == 1 ? Response.CONFLICT : Response.ERROR;
+			}
 
 			// Then create a new transaction entry
-			transPs = con.prepareStatement("INSERT INTO TRANSACTION (FromAccountId, ToAccountId, Amount, TransactionDate) "
-					+ "VALUES (SELECT ID FROM ACCOUNT WHERE ACCOUNTNAME = ?, SELECT ID FROM ACCOUNT WHERE ACCOUNTNAME = ?, ?, ?)");
-			transPs.setString(1, fromAccountName);
-			transPs.setString(2, toAccountName);
+			transPs = con.prepareStatement("INSERT INTO TRANSACTION (FromAccountId, ToAccountId, Amount, ToAmount, Rate, TransactionDate) "
+					+ "VALUES (?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+			long transactionTime = Calendar.getInstance().getTimeInMillis();
+			transPs.setLong(1, fromAccount.getId());
+			transPs.setLong(2, toAccount.getId());
 			transPs.setBigDecimal(3, amount);
-			transPs.setTimestamp(4, new Timestamp(Calendar.getInstance().getTimeInMillis()));
+			transPs.setBigDecimal(4, rate != null ? toAmount : null);
+			transPs.setBigDecimal(5, rate);
+			transPs.setTimestamp(6, new Timestamp(transactionTime));
 			transPs.executeUpdate();
-			con.commit();
+			List<Account> changed = accountTable.isEnabled()
+					? AccountDAO.readAccounts(con, Arrays.asList(fromAccount.getId(), toAccount.getId())) : Collections.emptyList();
+			journal.commit(con, journal.isEnabled() ? journalTransfer(DBConnection.getGeneratedId(transPs), fromAccount, toAccount,
+					amount, toAmount, rate, transactionTime) : null);
+			changed.forEach(accountTable::put);
+			AccountVersions.changed(fromAccount.getAccountName(), toAccount.getAccountName());
+			events.balanceChanged(fromAccount.getAccountName(), toAccount.getAccountName());
 			status = Response.SUCCESS;
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Exception caught in Do Transfer", e);
@@ -81,14 +167,151 @@ public class TransactionDAO {
 		return status;
 	}
 
+	/**
+	 * Records a window of netted transfers in one transaction. Every transfer gets its own row but each
+	 * account's balance is updated once, by the net of its transfers. Accounts are updated in id order and
+	 * only if the net leaves them with no less than zero. Returns the version each updated account has
+	 * afterwards, or null, having changed nothing, if any account is missing or would be overdrawn, in which
+	 * case every such account is added to rejectedAccountIds.
+	 * @param transfers
+	 * @param rejectedAccountIds
+	 * @return
+	 */
+	public Map<Long, Long> doNettedTransfers(List<NettedTransfer> transfers, Set<Long> rejectedAccountIds) {
+		Map<Long, Long> versions = null;
+		Connection con = null;
+		PreparedStatement transPs = null;
+		PreparedStatement accountPs = null;
+		try {
+			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			Map<Long, BigDecimal> netAmounts = new TreeMap<>();
+			Set<String> accountNames = new HashSet<>();
+			byte[][] entries = new byte[journal.isEnabled() ? transfers.size() : 0][];
+			transPs = con.prepareStatement("INSERT INTO TRANSACTION (FromAccountId, ToAccountId, Amount, ToAmount, Rate, TransactionDate) "
+					+ "VALUES (?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+			for (int i = 0; i < transfers.size(); i++) {
+				NettedTransfer transfer = transfers.get(i);
+				Account fromAccount = transfer.getFromAccount();
+				Account toAccount = transfer.getToAccount();
+				netAmounts.merge(fromAccount.getId(), transfer.getAmount().negate(), BigDecimal::add);
+				netAmounts.merge(toAccount.getId(), transfer.getToAmount(), BigDecimal::add);
+				accountNames.add(fromAccount.getAccountName());
+				accountNames.add(toAccount.getAccountName());
+				transPs.setLong(1, fromAccount.getId());
+				transPs.setLong(2, toAccount.getId());
+				transPs.setBigDecimal(3, transfer.getAmount());
+				transPs.setBigDecimal(4, transfer.getRate() != null ? transfer.getToAmount() : null);
+				transPs.setBigDecimal(5, transfer.getRate());
+				transPs.setTimestamp(6, new Timestamp(transfer.getTransactionTime()));
+				transPs.executeUpdate();
+				if (journal.isEnabled()) {
+					entries[i] = journalTransfer(DBConnection.getGeneratedId(transPs), fromAccount, toAccount, transfer.getAmount(),
+							transfer.getToAmount(), transfer.getRate(), transfer.getTransactionTime());
+				}
+			}
 
+			accountPs = con.prepareStatement("UPDATE ACCOUNT SET BALANCE = BALANCE + ?, VERSION = VERSION + 1 "
+					+ "WHERE ID = ? AND BALANCE + ? >= 0");
+			List<Long> updatedIds = new ArrayList<>();
+			for (Map.Entry<Long, BigDecimal> net : netAmounts.entrySet()) {
+				// Transfers that cancel out leave the account as it is
+				if (net.getValue().signum() == 0) {
+					continue;
+				}
+				accountPs.setBigDecimal(1, net.getValue());
+				accountPs.setLong(2, net.getKey());
+				accountPs.setBigDecimal(3, net.getValue());
+				if (accountPs.executeUpdate() != 1) {
+					// Carry on to find every account that can't take its net
+					logger.log(Level.WARNING, "Netted transfers for account {0} could not be applied", String.valueOf(net.getKey()));
+					rejectedAccountIds.add(net.getKey());
+					continue;
+				}
+				updatedIds.add(net.getKey());
+			}
+			if (!rejectedAccountIds.isEmpty()) {
+				con.rollback();
+				return null;
+			}
+			List<Account> updated = AccountDAO.readAccounts(con, updatedIds);
+			journal.commit(con, journal.isEnabled() ? JournalEvent.concat(entries) : null);
+			Map<Long, Long> updatedVersions = new HashMap<>();
+			for (Account account : updated) {
+				updatedVersions.put(account.getId(), account.getVersion());
+				if (accountTable.isEnabled()) {
+					accountTable.put(account);
+				}
+			}
+			String[] changedNames = accountNames.toArray(new String[accountNames.size()]);
+			AccountVersions.changed(changedNames);
+			events.balanceChanged(changedNames);
+			versions = updatedVersions;
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Do Netted Transfers", e);
+			try {
+				if (con != null) {
+					logger.log(Level.SEVERE, "Rolling back Netted Transfers", e);
+					con.rollback();
+				}
+			} catch (SQLException e1) {
+				logger.log(Level.WARNING, "Unable to Roll back", e1);
+			}
+		} finally {
+			try {
+				if (transPs != null) {
+					transPs.close();
+				}
+				if (accountPs != null) {
+					accountPs.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {
+			}
+		}
+		return versions;
+	}
+
+	/**
+	 * Builds the journal entry for a transfer, in the original form unless the amount was converted
+	 */
+	private static byte[] journalTransfer(long transactionId, Account fromAccount, Account toAccount, BigDecimal amount,
+			BigDecimal toAmount, BigDecimal rate, long transactionTime) {
+		if (rate == null) {
+			return JournalEvent.transfer(transactionId, fromAccount.getId(), fromAccount.getAccountName(), toAccount.getId(),
+					toAccount.getAccountName(), amount, transactionTime);
+		}
+		return JournalEvent.transfer(transactionId, fromAccount.getId(), fromAccount.getAccountName(), toAccount.getId(),
+				toAccount.getAccountName(), amount, toAmount, rate, transactionTime);
+	}
+
+	/**
+	 * Returns the transactions matching the given account names, either of which may be blank.
+	 * Concurrent filtered searches with the same criteria share a single query, as long as
+	 * neither account has changed since that query started.
+	 * @param fromAccountName
+	 * @param toAccountName
+	 * @return
+	 */
 	public List<Transaction> getAccountTransactions(String fromAccountName, String toAccountName) {
+		if (StringUtils.isAllBlank(fromAccountName, toAccountName)) {
+			return loadAccountTransactions(fromAccountName, toAccountName);
+		}
+		String key = AccountVersions.transactionTag(fromAccountName, toAccountName) + StringUtils.defaultString(fromAccountName)
+				+ '\0' + StringUtils.defaultString(toAccountName);
+		return transactionLookups.execute(key, () -> loadAccountTransactions(fromAccountName, toAccountName));
+	}
+
+	private List<Transaction> loadAccountTransactions(String fromAccountName, String toAccountName) {
 		List<Transaction> transactions = new ArrayList<>();
 		Connection con = null;
 		PreparedStatement ps = null;
 		try {
 			con = DBConnection.getConnection();
-			String SQL_BASE = "SELECT trans.*, toAccount.ACCOUNTNAME AS TOACCOUNTNAME, fromAccount.ACCOUNTNAME AS FROMACCOUNTNAME FROM TRANSACTION trans "
+			String SQL_BASE = "SELECT trans.*, toAccount.ACCOUNTNAME AS TOACCOUNTNAME, fromAccount.ACCOUNTNAME AS FROMACCOUNTNAME, "
+					+ "toAccount.CURRENCY AS TOCURRENCY, fromAccount.CURRENCY AS FROMCURRENCY FROM TRANSACTION trans "
 					+ "INNER JOIN ACCOUNT toAccount on toAccount.ID = trans.TOACCOUNTID "
 					+ "INNER JOIN ACCOUNT fromAccount on fromAccount.ID = trans.FROMACCOUNTID";
 			if (StringUtils.isAllBlank(fromAccountName, toAccountName)) {
@@ -114,9 +337,18 @@ public class TransactionDAO {
 				trans.setFromAccountName(result.getString("FROMACCOUNTNAME"));
 				trans.setToAccountName(result.getString("TOACCOUNTNAME"));
 				trans.setAmount(result.getBigDecimal("Amount"));
+				trans.setCurrency(result.getString("FromCurrency"));
+				// Transfers made without converting only record the one amount
+				BigDecimal toAmount = result.getBigDecimal("ToAmount");
+				trans.setToAmount(toAmount != null ? toAmount : trans.getAmount());
+				trans.setToCurrency(result.getString("ToCurrency"));
+				trans.setRate(result.getBigDecimal("Rate"));
 				trans.setTransactionDate(result.getDate("TransactionDate"));
 				transactions.add(trans);
 			}
+			if (!coldStore.isEmpty()) {
+				transactions = withColdTransactions(transactions, fromAccountName, toAccountName);
+			}
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Exception caught in Get Transactions", e);
 		} finally {
@@ -133,6 +365,207 @@ public class TransactionDAO {
 		return transactions;
 	}
 
+	/**
+	 * Moves up to maxRows of the oldest transactions made before the cutoff out of the TRANSACTION table.
+	 * The rows are handed to the archiver in id order and only deleted if it succeeds.
+	 * Returns the number of rows moved, 0 once there are none left, or -1 on error.
+	 * @param cutoff
+	 * @param maxRows
+	 * @param archiver
+	 * @return
+	 */
+	public int archiveTransactions(Timestamp cutoff, int maxRows, TransactionArchiver archiver) {
+		int moved = -1;
+		Connection con = null;
+		PreparedStatement selectPs = null;
+		PreparedStatement deletePs = null;
+		try {
+			con = DBConnection.getConnection();
+			con.setAutoCommit(false);
+			selectPs = con.prepareStatement("SELECT ID, FROMACCOUNTID, TOACCOUNTID, AMOUNT, COALESCE(TOAMOUNT, AMOUNT) AS TOAMOUNT, RATE, "
+					+ "TRANSACTIONDATE FROM TRANSACTION WHERE TRANSACTIONDATE < ? ORDER BY ID LIMIT ?");
+			selectPs.setTimestamp(1, cutoff);
+			selectPs.setInt(2, maxRows);
+			List<ColdTransaction> rows = new ArrayList<>();
+			ResultSet result = selectPs.executeQuery();
+			while (result.next()) {
+				BigDecimal rate = result.getBigDecimal("Rate");
+				rows.add(new ColdTransaction(result.getLong("Id"), result.getLong("FromAccountId"), result.getLong("ToAccountId"),
+						result.getBigDecimal("Amount").setScale(2).unscaledValue().longValueExact(),
+						result.getBigDecimal("ToAmount").setScale(2).unscaledValue().longValueExact(),
+						rate != null ? rate.setScale(10).unscaledValue().longValueExact() : 0,
+						result.getTimestamp("TransactionDate").getTime()));
+			}
+			if (!rows.isEmpty()) {
+				archiver.archive(rows);
+				// Every row up to the last id moved that is older than the cutoff was selected
+				deletePs = con.prepareStatement("DELETE FROM TRANSACTION WHERE ID <= ? AND TRANSACTIONDATE < ?");
+				deletePs.setLong(1, rows.get(rows.size() - 1).getId());
+				deletePs.setTimestamp(2, cutoff);
+				deletePs.executeUpdate();
+			}
+			con.commit();
+			moved = rows.size();
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Archive Transactions", e);
+			try {
+				if (con != null) {
+					logger.log(Level.SEVERE, "Rolling back Archive Transactions", e);
+					con.rollback();
+				}
+			} catch (SQLException e1) {
+				logger.log(Level.WARNING, "Unable to Roll back", e1);
+			}
+		} finally {
+			try {
+				if (selectPs != null) {
+					selectPs.close();
+				}
+				if (deletePs != null) {
+					deletePs.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Passes every transaction made after the given time to the recorder, returning how many there were or -1 on error
+	 * @param since
+	 * @param recorder
+	 * @return
+	 */
+	public int getTransfersSince(Timestamp since, TransferRecorder recorder) {
+		int count = -1;
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			ps = con.prepareStatement("SELECT FROMACCOUNTID, AMOUNT, TRANSACTIONDATE FROM TRANSACTION WHERE TRANSACTIONDATE > ?");
+			ps.setTimestamp(1, since);
+			ResultSet result = ps.executeQuery();
+			int found = 0;
+			while (result.next()) {
+				recorder.record(result.getLong("FromAccountId"), result.getBigDecimal("Amount").movePointRight(2).longValue(),
+						result.getTimestamp("TransactionDate").getTime());
+				found++;
+			}
+			count = found;
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Get Transfers Since", e);
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Deletes transactions from the table which have already been archived to a segment covering
+	 * the given ids. Only rows no later than the segment's newest row can belong to it.
+	 * @param minId
+	 * @param maxId
+	 * @param maxTime
+	 * @return
+	 */
+	public String deleteArchivedTransactions(long minId, long maxId, long maxTime) {
+		String status = Response.ERROR;
+		Connection con = null;
+		PreparedStatement ps = null;
+		try {
+			con = DBConnection.getConnection();
+			ps = con.prepareStatement("DELETE FROM TRANSACTION WHERE ID BETWEEN ? AND ? AND TRANSACTIONDATE <= ?");
+			ps.setLong(1, minId);
+			ps.setLong(2, maxId);
+			ps.setTimestamp(3, new Timestamp(maxTime));
+			ps.executeUpdate();
+			status = Response.SUCCESS;
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Delete Archived Transactions", e);
+		} finally {
+			try {
+				if (ps != null) {
+					ps.close();
+				}
+				if (con != null) {
+					con.close();
+				}
+			} catch (SQLException e) {
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Adds matching transactions from the cold store, older than anything in the table, ahead of
+	 * those found in the table. As with the table, transactions with an account that no longer exists are left out.
+	 */
+	private List<Transaction> withColdTransactions(List<Transaction> transactions, String fromAccountName, String toAccountName) {
+		Long fromAccountId = null;
+		Long toAccountId = null;
+		if (StringUtils.isNotBlank(fromAccountName)) {
+			Account fromAccount = accountDAO.getAccount(fromAccountName);
+			if (fromAccount == null) {
+				return transactions;
+			}
+			fromAccountId = fromAccount.getId();
+		}
+		if (StringUtils.isNotBlank(toAccountName)) {
+			Account toAccount = accountDAO.getAccount(toAccountName);
+			if (toAccount == null) {
+				return transactions;
+			}
+			toAccountId = toAccount.getId();
+		}
+		List<ColdTransaction> coldTransactions = coldStore.find(fromAccountId, toAccountId);
+		if (coldTransactions.isEmpty()) {
+			return transactions;
+		}
+		// Rows may briefly be in both tiers while they are being moved
+		Set<Long> hotIds = new HashSet<>();
+		for (Transaction trans : transactions) {
+			hotIds.add(trans.getId());
+		}
+		Set<Long> accountIds = new HashSet<>();
+		for (ColdTransaction cold : coldTransactions) {
+			accountIds.add(cold.getFromAccountId());
+			accountIds.add(cold.getToAccountId());
+		}
+		Map<Long, Account> accounts = accountDAO.getAccounts(accountIds);
+		List<Transaction> merged = new ArrayList<>(coldTransactions.size() + transactions.size());
+		for (ColdTransaction cold : coldTransactions) {
+			Account from = accounts.get(cold.getFromAccountId());
+			Account to = accounts.get(cold.getToAccountId());
+			if (hotIds.contains(cold.getId()) || from == null || to == null) {
+				continue;
+			}
+			Transaction trans = new Transaction();
+			trans.setId(cold.getId());
+			trans.setFromAccountName(from.getAccountName());
+			trans.setToAccountName(to.getAccountName());
+			trans.setAmount(BigDecimal.valueOf(cold.getAmount(), 2));
+			trans.setCurrency(from.getCurrency());
+			trans.setToAmount(BigDecimal.valueOf(cold.getToAmount(), 2));
+			trans.setToCurrency(to.getCurrency());
+			trans.setRate(cold.getRate() != 0 ? BigDecimal.valueOf(cold.getRate(), 10) : null);
+			trans.setTransactionDate(new Date(cold.getTransactionTime()));
+			merged.add(trans);
+		}
+		merged.addAll(transactions);
+		return merged;
+	}
+
 	//DELETE
 	public void reverseTransaction(long transactionId) {
 
@@ -0,0 +1,312 @@
+package com.revolut.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+import com.revolut.beans.Account;
+import com.revolut.beans.AccountUpdate;
+import com.revolut.database.AccountDAO;
+import com.revolut.metrics.Metrics;
+
+/**
+ * Fans committed account changes out to subscribers as Server-Sent Events. DAOs report changes after they
+ * commit, which costs nothing unless someone is watching one of the accounts, and a single dispatcher thread
+ * turns them into events. Balance changes reported together are looked up once per account, so a subscriber
+ * may skip intermediate balances but always gets the latest, events carry the account version for ordering.
+ * Each subscriber has its own bounded buffer, one that falls behind is dropped and can reconnect.
+ *
+ * Events are "balance" with the account, "renamed" with the old and new names, after which the subscriber
+ * follows the new name, and "deleted" with the name. A comment is sent to every subscriber when nothing
+ * has happened for a while so dead connections are noticed.
+ * @author josh
+ *
+ */
+public class AccountEvents implements Runnable {
+	private static final Logger logger = Logger.getLogger(AccountEvents.class.getName());
+
+	private static final AccountEvents instance = load();
+
+	private final Function<String, Account> lookup;
+	private final long heartbeatMillis;
+	private final int maxSubscribers;
+	private final ConcurrentMap<String, Set<Subscriber>> subscriptions = new ConcurrentHashMap<>();
+	private final BlockingQueue<Change> changes = new LinkedBlockingQueue<>();
+	private final AtomicInteger subscribers = new AtomicInteger();
+	private final Set<Subscriber> all = ConcurrentHashMap.newKeySet();
+	private final Gson gson = new Gson();
+
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * @param lookup returns the current state of an account by name
+	 * @param heartbeatMillis quiet time after which a comment is sent to every subscriber
+	 * @param maxSubscribers most subscribers at once
+	 */
+	public AccountEvents(Function<String, Account> lookup, long heartbeatMillis, int maxSubscribers) {
+		this.lookup = lookup;
+		this.heartbeatMillis = heartbeatMillis;
+		this.maxSubscribers = maxSubscribers;
+	}
+
+	public static AccountEvents getInstance() {
+		return instance;
+	}
+
+	private static AccountEvents load() {
+		AccountDAO accountDAO = new AccountDAO();
+		AccountEvents events = new AccountEvents(accountDAO::getAccount,
+				TimeUnit.SECONDS.toMillis(Integer.getInteger("transfermoney.events.heartbeatSeconds", 15)),
+				Integer.getInteger("transfermoney.events.maxSubscribers", 1000));
+		Metrics.register("events.subscribers", events.subscribers::get);
+		Metrics.register("events.sent", events.sent::sum);
+		Metrics.register("events.dropped", events.dropped::sum);
+		events.start();
+		return events;
+	}
+
+	/**
+	 * Starts the dispatcher thread
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "account-events");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Registers a subscriber and queues the current state of each of its accounts for it.
+	 * Returns false if there are already as many subscribers as allowed.
+	 * @param subscriber
+	 * @return
+	 */
+	public boolean subscribe(Subscriber subscriber) {
+		if (subscribers.incrementAndGet() > maxSubscribers) {
+			subscribers.decrementAndGet();
+			return false;
+		}
+		all.add(subscriber);
+		for (String accountName : subscriber.getAccountNames()) {
+			subscriptions.computeIfAbsent(accountName, name -> ConcurrentHashMap.newKeySet()).add(subscriber);
+			changes.add(new Change(Change.BALANCE, accountName, null, subscriber));
+		}
+		return true;
+	}
+
+	/**
+	 * Removes a subscriber, does nothing if it was already removed
+	 * @param subscriber
+	 */
+	public void unsubscribe(Subscriber subscriber) {
+		if (!all.remove(subscriber)) {
+			return;
+		}
+		subscribers.decrementAndGet();
+		for (String accountName : subscriber.getAccountNames()) {
+			subscriptions.computeIfPresent(accountName, (name, watching) -> {
+				watching.remove(subscriber);
+				return watching.isEmpty() ? null : watching;
+			});
+		}
+	}
+
+	/**
+	 * Reports committed changes to the balances of the given accounts
+	 * @param accountNames
+	 */
+	public void balanceChanged(String... accountNames) {
+		if (subscriptions.isEmpty()) {
+			return;
+		}
+		for (String accountName : accountNames) {
+			if (subscriptions.containsKey(accountName)) {
+				changes.add(new Change(Change.BALANCE, accountName, null, null));
+			}
+		}
+	}
+
+	/**
+	 * Reports a committed rename
+	 * @param accountName
+	 * @param newAccountName
+	 */
+	public void renamed(String accountName, String newAccountName) {
+		if (subscriptions.containsKey(accountName)) {
+			changes.add(new Change(Change.RENAMED, accountName, newAccountName, null));
+		}
+	}
+
+	/**
+	 * Reports a committed delete
+	 * @param accountName
+	 */
+	public void deleted(String accountName) {
+		if (subscriptions.containsKey(accountName)) {
+			changes.add(new Change(Change.DELETED, accountName, null, null));
+		}
+	}
+
+	@Override
+	public void run() {
+		List<Change> batch = new ArrayList<>();
+		while (true) {
+			try {
+				Change first = changes.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					heartbeat();
+					continue;
+				}
+				batch.add(first);
+				changes.drainTo(batch);
+				dispatch(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (RuntimeException e) {
+				logger.log(Level.SEVERE, "Exception caught dispatching account events", e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void dispatch(List<Change> batch) {
+		Set<String> looked = new HashSet<>();
+		Set<Subscriber> touched = new LinkedHashSet<>();
+		for (Change change : batch) {
+			switch (change.kind) {
+			case Change.BALANCE:
+				// Later balance changes in the batch are covered by the lookup made for the first
+				if (change.target == null && !looked.add(change.accountName)) {
+					continue;
+				}
+				Account account = lookup.apply(change.accountName);
+				if (account == null) {
+					continue;
+				}
+				String event = event("balance", gson.toJson(account));
+				if (change.target != null) {
+					deliver(change.target, event, touched);
+				} else {
+					for (Subscriber subscriber : watching(change.accountName)) {
+						deliver(subscriber, event, touched);
+					}
+				}
+				break;
+			case Change.RENAMED:
+				AccountUpdate update = new AccountUpdate();
+				update.setAccountName(change.accountName);
+				update.setNewAccountName(change.newAccountName);
+				String renamed = event("renamed", gson.toJson(update));
+				for (Subscriber subscriber : watching(change.accountName)) {
+					if (deliver(subscriber, renamed, touched)) {
+						follow(subscriber, change.accountName, change.newAccountName);
+					}
+				}
+				looked.remove(change.newAccountName);
+				break;
+			case Change.DELETED:
+				Account deleted = new Account();
+				deleted.setAccountName(change.accountName);
+				String deletedEvent = event("deleted", gson.toJson(deleted));
+				for (Subscriber subscriber : watching(change.accountName)) {
+					if (deliver(subscriber, deletedEvent, touched)) {
+						follow(subscriber, change.accountName, null);
+					}
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		for (Subscriber subscriber : touched) {
+			subscriber.send();
+		}
+	}
+
+	private void heartbeat() {
+		Set<Subscriber> touched = new LinkedHashSet<>();
+		for (Subscriber subscriber : all) {
+			deliver(subscriber, ": ping\n\n", touched);
+		}
+		for (Subscriber subscriber : touched) {
+			subscriber.send();
+		}
+	}
+
+	private List<Subscriber> watching(String accountName) {
+		Set<Subscriber> watching = subscriptions.get(accountName);
+		return watching != null ? new ArrayList<>(watching) : Collections.emptyList();
+	}
+
+	/**
+	 * Buffers an event for a subscriber, dropping the subscriber if its buffer is full
+	 */
+	private boolean deliver(Subscriber subscriber, String event, Set<Subscriber> touched) {
+		if (subscriber.offer(event)) {
+			sent.increment();
+			touched.add(subscriber);
+			return true;
+		}
+		dropped.increment();
+		touched.remove(subscriber);
+		unsubscribe(subscriber);
+		subscriber.close();
+		return false;
+	}
+
+	/**
+	 * Moves a subscriber from one account name to another, or just stops it watching the name if the new one is null
+	 */
+	private void follow(Subscriber subscriber, String accountName, String newAccountName) {
+		subscriber.getAccountNames().remove(accountName);
+		subscriptions.computeIfPresent(accountName, (name, watching) -> {
+			watching.remove(subscriber);
+			return watching.isEmpty() ? null : watching;
+		});
+		if (newAccountName != null && subscriber.getAccountNames().add(newAccountName)) {
+			subscriptions.computeIfAbsent(newAccountName, name -> ConcurrentHashMap.newKeySet()).add(subscriber);
+			// Unsubscribed meanwhile, don't leave it watching the new name
+			if (!all.contains(subscriber)) {
+				follow(subscriber, newAccountName, null);
+			}
+		}
+	}
+
+	private static String event(String name, String data) {
+		return "event: " + name + "\ndata: " + data + "\n\n";
+	}
+
+	private static class Change {
+		private static final int BALANCE = 0;
+		private static final int RENAMED = 1;
+		private static final int DELETED = 2;
+
+		private final int kind;
+		private final String accountName;
+		private final String newAccountName;
+		private final Subscriber target;
+
+		private Change(int kind, String accountName, String newAccountName, Subscriber target) {
+			this.kind = kind;
+			this.accountName = accountName;
+			this.newAccountName = newAccountName;
+			this.target = target;
+		}
+	}
+}
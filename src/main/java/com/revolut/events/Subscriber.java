@@ -0,0 +1,59 @@
+package com.revolut.events;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A client watching a set of accounts. Events waiting to be sent are held in a bounded buffer, the
+ * dispatcher drops the subscriber rather than wait when it is full.
+ * @author josh
+ *
+ */
+public abstract class Subscriber {
+
+	private final Set<String> accountNames = ConcurrentHashMap.newKeySet();
+	private final Queue<String> pending;
+	private final int capacity;
+
+	protected Subscriber(Collection<String> accountNames, int capacity) {
+		this.accountNames.addAll(accountNames);
+		this.pending = new ArrayDeque<>(capacity);
+		this.capacity = capacity;
+	}
+
+	public Set<String> getAccountNames() {
+		return accountNames;
+	}
+
+	/**
+	 * Adds an event to the buffer, returning false if it is full
+	 */
+	protected synchronized boolean offer(String event) {
+		if (pending.size() >= capacity) {
+			return false;
+		}
+		pending.add(event);
+		return true;
+	}
+
+	/**
+	 * Removes the next event to send, or returns null if there are none
+	 * @return
+	 */
+	protected synchronized String poll() {
+		return pending.poll();
+	}
+
+	/**
+	 * Called by the dispatcher after adding events, starts sending them without blocking
+	 */
+	protected abstract void send();
+
+	/**
+	 * Called by the dispatcher when the subscriber is dropped for falling behind
+	 */
+	protected abstract void close();
+}
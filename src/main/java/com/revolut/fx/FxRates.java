@@ -0,0 +1,112 @@
+package com.revolut.fx;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.revolut.database.FxRateDAO;
+import com.revolut.metrics.Metrics;
+import com.revolut.rest.Response;
+
+/**
+ * Publishes the exchange rates used by transfers between accounts in different currencies. Readers take
+ * the current {@link FxSnapshot} with a single volatile read and convert with no locking, however often
+ * rates change. Publishing saves the changed rates to the FX_RATE table and then swaps in a new snapshot
+ * built from a copy of the current rates, publishers are serialised so no change is lost.
+ *
+ * Rates are loaded from the FX_RATE table when first used. Accounts are opened in the base currency,
+ * transfermoney.fx.baseCurrency, unless another is given.
+ * @author josh
+ *
+ */
+public class FxRates {
+
+	private static final Pattern CURRENCY_CODE = Pattern.compile("[A-Z]{3}");
+
+	private static final FxRates instance = load();
+
+	private final FxRateDAO rateDAO;
+	private volatile FxSnapshot snapshot;
+
+	public FxRates(FxRateDAO rateDAO, String baseCurrency, Map<String, BigDecimal> rates) {
+		this.rateDAO = rateDAO;
+		this.snapshot = new FxSnapshot(baseCurrency, rates, 0);
+	}
+
+	public static FxRates getInstance() {
+		return instance;
+	}
+
+	private static FxRates load() {
+		FxRateDAO rateDAO = new FxRateDAO();
+		Map<String, BigDecimal> rates = rateDAO.getRates();
+		FxRates fxRates = new FxRates(rateDAO, System.getProperty("transfermoney.fx.baseCurrency", "GBP"),
+				rates != null ? rates : new HashMap<>());
+		Metrics.register("fx.currencies", () -> fxRates.snapshot.getRates().size());
+		Metrics.register("fx.version", () -> fxRates.snapshot.getVersion());
+		return fxRates;
+	}
+
+	/**
+	 * Returns the rates as last published
+	 */
+	public FxSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public String getBaseCurrency() {
+		return snapshot.getBaseCurrency();
+	}
+
+	/**
+	 * Saves the given rates, each the value of one unit of the currency in the base currency, and publishes
+	 * them with the rest of the current rates. Rates are kept to {@link FxSnapshot#RATE_SCALE} decimal places.
+	 * Nothing is published if they can't be saved.
+	 * @param rates
+	 * @return
+	 */
+	public synchronized String publish(Map<String, BigDecimal> rates) {
+		Map<String, BigDecimal> scaled = new HashMap<>();
+		for (Map.Entry<String, BigDecimal> rate : rates.entrySet()) {
+			scaled.put(rate.getKey(), toScale(rate.getValue()));
+		}
+		String status = rateDAO.saveRates(scaled);
+		if (StringUtils.equals(status, Response.SUCCESS)) {
+			apply(scaled);
+		}
+		return status;
+	}
+
+	/**
+	 * Publishes rates which have already been saved, as when they are received from the leader
+	 * @param rates
+	 */
+	public synchronized void apply(Map<String, BigDecimal> rates) {
+		FxSnapshot current = snapshot;
+		Map<String, BigDecimal> changed = new HashMap<>(current.getRates());
+		changed.putAll(rates);
+		snapshot = new FxSnapshot(current.getBaseCurrency(), changed, current.getVersion() + 1);
+	}
+
+	/**
+	 * Rounds a rate to the scale it is kept to
+	 * @param rate
+	 * @return
+	 */
+	public static BigDecimal toScale(BigDecimal rate) {
+		return rate.setScale(FxSnapshot.RATE_SCALE, RoundingMode.HALF_EVEN);
+	}
+
+	/**
+	 * Returns true if the code is three upper case letters, as ISO 4217 codes are
+	 * @param currency
+	 * @return
+	 */
+	public static boolean isCurrencyCode(String currency) {
+		return currency != null && CURRENCY_CODE.matcher(currency).matches();
+	}
+}
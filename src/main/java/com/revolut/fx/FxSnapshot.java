@@ -0,0 +1,95 @@
+package com.revolut.fx;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable set of exchange rates. Each rate is the value of one unit of a currency in the base currency,
+ * the rate between every pair of currencies is worked out once when the snapshot is built so a conversion
+ * is a single map lookup and a multiply. Snapshots are never changed, publishing rates builds a new one.
+ * @author josh
+ *
+ */
+public final class FxSnapshot {
+
+	/** Scale cross rates are kept to, matching the Rate column of the TRANSACTION table */
+	public static final int RATE_SCALE = 10;
+
+	private final String baseCurrency;
+	private final long version;
+	private final Map<String, BigDecimal> rates;
+	// Keyed by the from currency followed by the to currency
+	private final Map<String, BigDecimal> crossRates;
+
+	FxSnapshot(String baseCurrency, Map<String, BigDecimal> rates, long version) {
+		Map<String, BigDecimal> all = new TreeMap<>(rates);
+		all.put(baseCurrency, BigDecimal.ONE);
+		Map<String, BigDecimal> cross = new HashMap<>(all.size() * all.size() * 2);
+		for (Map.Entry<String, BigDecimal> from : all.entrySet()) {
+			for (Map.Entry<String, BigDecimal> to : all.entrySet()) {
+				if (!from.getKey().equals(to.getKey())) {
+					cross.put(from.getKey() + to.getKey(), from.getValue().divide(to.getValue(), RATE_SCALE, RoundingMode.HALF_EVEN));
+				}
+			}
+		}
+		this.baseCurrency = baseCurrency;
+		this.version = version;
+		this.rates = Collections.unmodifiableMap(all);
+		this.crossRates = cross;
+	}
+
+	public String getBaseCurrency() {
+		return baseCurrency;
+	}
+
+	/**
+	 * Returns how many times the snapshot has been replaced since the rates were loaded
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the value of one unit of each currency in the base currency, ordered by currency
+	 */
+	public Map<String, BigDecimal> getRates() {
+		return rates;
+	}
+
+	public boolean isSupported(String currency) {
+		return currency != null && rates.containsKey(currency);
+	}
+
+	/**
+	 * Returns the number of units of the to currency one unit of the from currency buys, or null if either has no rate
+	 * @param fromCurrency
+	 * @param toCurrency
+	 * @return
+	 */
+	public BigDecimal getRate(String fromCurrency, String toCurrency) {
+		if (fromCurrency == null || toCurrency == null) {
+			return null;
+		}
+		if (fromCurrency.equals(toCurrency)) {
+			return rates.containsKey(fromCurrency) ? BigDecimal.ONE : null;
+		}
+		return crossRates.get(fromCurrency + toCurrency);
+	}
+
+	/**
+	 * Converts an amount between currencies, rounded to 2 decimal places as given. Returns null if either currency has no rate.
+	 * @param amount
+	 * @param fromCurrency
+	 * @param toCurrency
+	 * @param rounding
+	 * @return
+	 */
+	public BigDecimal convert(BigDecimal amount, String fromCurrency, String toCurrency, RoundingMode rounding) {
+		BigDecimal rate = getRate(fromCurrency, toCurrency);
+		return rate == null ? null : amount.multiply(rate).setScale(2, rounding);
+	}
+}
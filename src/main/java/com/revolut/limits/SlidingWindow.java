@@ -0,0 +1,75 @@
+package com.revolut.limits;
+
+import java.util.Arrays;
+
+/**
+ * Running total of amounts over a sliding period, kept as a ring of fixed width buckets. Moving the window
+ * on clears only the buckets that have fallen out of it, so adding and reading are O(1) however many
+ * transfers the period holds. An amount leaves the total when its whole bucket has left the period, so the
+ * total errs on the high side by at most one bucket's width. Not thread safe.
+ * @author josh
+ *
+ */
+public class SlidingWindow {
+
+	private final long bucketMillis;
+	private final long[] buckets;
+	private long total;
+	private long currentBucket;
+
+	public SlidingWindow(long periodMillis, int bucketCount) {
+		this.bucketMillis = periodMillis / bucketCount;
+		this.buckets = new long[bucketCount];
+	}
+
+	/**
+	 * Returns the total of the amounts added within the period ending now
+	 * @param nowMillis
+	 * @return
+	 */
+	public long getTotal(long nowMillis) {
+		advance(nowMillis / bucketMillis);
+		return total;
+	}
+
+	/**
+	 * Adds an amount made at the given time, ignored if already outside the period ending now
+	 * @param nowMillis
+	 * @param timeMillis
+	 * @param amount
+	 */
+	public void add(long nowMillis, long timeMillis, long amount) {
+		advance(nowMillis / bucketMillis);
+		long bucket = timeMillis / bucketMillis;
+		if (bucket > currentBucket - buckets.length && bucket <= currentBucket) {
+			buckets[(int) (bucket % buckets.length)] += amount;
+			total += amount;
+		}
+	}
+
+	/**
+	 * Returns true if nothing within the period ending now has been added
+	 * @param nowMillis
+	 * @return
+	 */
+	public boolean isEmpty(long nowMillis) {
+		return getTotal(nowMillis) == 0;
+	}
+
+	private void advance(long bucket) {
+		if (bucket <= currentBucket) {
+			return;
+		}
+		if (bucket - currentBucket >= buckets.length) {
+			Arrays.fill(buckets, 0);
+			total = 0;
+		} else {
+			for (long expired = currentBucket + 1; expired <= bucket; expired++) {
+				int index = (int) (expired % buckets.length);
+				total -= buckets[index];
+				buckets[index] = 0;
+			}
+		}
+		currentBucket = bucket;
+	}
+}
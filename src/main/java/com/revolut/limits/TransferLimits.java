@@ -0,0 +1,168 @@
+package com.revolut.limits;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.database.TransactionDAO;
+import com.revolut.metrics.Metrics;
+
+/**
+ * Hourly and daily limits on the amount each account may send, set by the transfermoney.limits.hourly and
+ * transfermoney.limits.daily system properties. Amounts sent are kept in memory in a pair of sliding windows
+ * per account, a transfer reserves its amount before it is made and releases it again if it fails, so
+ * concurrent transfers can't pass the limit between them. Windows are rebuilt from the last day of
+ * transactions when first used and dropped once empty.
+ *
+ * Amounts are in hundredths.
+ * @author josh
+ *
+ */
+public class TransferLimits {
+	private static final Logger logger = Logger.getLogger(TransferLimits.class.getName());
+
+	private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	private static final int HOURLY_BUCKETS = 12;
+	private static final int DAILY_BUCKETS = 24;
+	private static final int SWEEP_INTERVAL = 4096;
+
+	private static final TransferLimits instance = load();
+
+	private final long hourlyLimit;
+	private final long dailyLimit;
+	private final ConcurrentMap<Long, AccountWindows> windows = new ConcurrentHashMap<>();
+	private final AtomicLong calls = new AtomicLong();
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * @param hourlyLimit most an account may send in an hour, Long.MAX_VALUE for no limit
+	 * @param dailyLimit most an account may send in a day, Long.MAX_VALUE for no limit
+	 */
+	public TransferLimits(long hourlyLimit, long dailyLimit) {
+		this.hourlyLimit = hourlyLimit;
+		this.dailyLimit = dailyLimit;
+	}
+
+	public static TransferLimits getInstance() {
+		return instance;
+	}
+
+	private static TransferLimits load() {
+		TransferLimits limits = new TransferLimits(toHundredths(System.getProperty("transfermoney.limits.hourly")),
+				toHundredths(System.getProperty("transfermoney.limits.daily")));
+		Metrics.register("limits.rejected", limits.rejected::sum);
+		Metrics.register("limits.accounts", limits.windows::size);
+		if (limits.isEnabled()) {
+			long now = System.currentTimeMillis();
+			int transfers = new TransactionDAO().getTransfersSince(new Timestamp(now - DAY_MILLIS),
+					(accountId, amount, time) -> limits.record(accountId, amount, time, now));
+			logger.log(Level.INFO, "Transfer limits rebuilt from {0} transfers", String.valueOf(transfers));
+		}
+		return limits;
+	}
+
+	private static long toHundredths(String limit) {
+		return limit != null ? new BigDecimal(limit).movePointRight(2).longValueExact() : Long.MAX_VALUE;
+	}
+
+	public boolean isEnabled() {
+		return hourlyLimit != Long.MAX_VALUE || dailyLimit != Long.MAX_VALUE;
+	}
+
+	/**
+	 * Reserves an amount against the account's limits, returning false without reserving if either would be exceeded
+	 * @param accountId
+	 * @param amount
+	 * @param nowMillis
+	 * @return
+	 */
+	public boolean tryReserve(long accountId, long amount, long nowMillis) {
+		if (calls.incrementAndGet() % SWEEP_INTERVAL == 0) {
+			sweep(nowMillis);
+		}
+		boolean[] reserved = new boolean[1];
+		windows.compute(accountId, (id, account) -> {
+			if (account == null) {
+				account = new AccountWindows();
+			}
+			if (account.hourly.getTotal(nowMillis) + amount <= hourlyLimit
+					&& account.daily.getTotal(nowMillis) + amount <= dailyLimit) {
+				account.hourly.add(nowMillis, nowMillis, amount);
+				account.daily.add(nowMillis, nowMillis, amount);
+				reserved[0] = true;
+			}
+			return account;
+		});
+		if (!reserved[0]) {
+			rejected.increment();
+		}
+		return reserved[0];
+	}
+
+	/**
+	 * Gives back an amount reserved at the given time for a transfer that didn't happen
+	 * @param accountId
+	 * @param amount
+	 * @param reservedAtMillis
+	 * @param nowMillis
+	 */
+	public void release(long accountId, long amount, long reservedAtMillis, long nowMillis) {
+		windows.computeIfPresent(accountId, (id, account) -> {
+			account.hourly.add(nowMillis, reservedAtMillis, -amount);
+			account.daily.add(nowMillis, reservedAtMillis, -amount);
+			return account;
+		});
+	}
+
+	/**
+	 * Counts a transfer made elsewhere, such as one replayed from history or received from a leader
+	 * @param accountId
+	 * @param amount
+	 * @param timeMillis
+	 * @param nowMillis
+	 */
+	public void record(long accountId, long amount, long timeMillis, long nowMillis) {
+		windows.compute(accountId, (id, account) -> {
+			if (account == null) {
+				account = new AccountWindows();
+			}
+			account.hourly.add(nowMillis, timeMillis, amount);
+			account.daily.add(nowMillis, timeMillis, amount);
+			return account;
+		});
+	}
+
+	/**
+	 * Returns the amounts the account has sent in the last hour and day
+	 * @param accountId
+	 * @param nowMillis
+	 * @return
+	 */
+	public long[] getTotals(long accountId, long nowMillis) {
+		long[] totals = new long[2];
+		windows.computeIfPresent(accountId, (id, account) -> {
+			totals[0] = account.hourly.getTotal(nowMillis);
+			totals[1] = account.daily.getTotal(nowMillis);
+			return account;
+		});
+		return totals;
+	}
+
+	private void sweep(long nowMillis) {
+		for (Long accountId : windows.keySet()) {
+			windows.computeIfPresent(accountId, (id, account) -> account.daily.isEmpty(nowMillis) ? null : account);
+		}
+	}
+
+	private static class AccountWindows {
+		private final SlidingWindow hourly = new SlidingWindow(HOUR_MILLIS, HOURLY_BUCKETS);
+		private final SlidingWindow daily = new SlidingWindow(DAY_MILLIS, DAILY_BUCKETS);
+	}
+}
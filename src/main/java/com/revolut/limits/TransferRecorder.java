@@ -0,0 +1,11 @@
+package com.revolut.limits;
+
+/**
+ * Receives past transfers when rebuilding transfer limits, amounts in hundredths
+ * @author josh
+ *
+ */
+public interface TransferRecorder {
+
+	void record(long fromAccountId, long amount, long transactionTime);
+}
@@ -0,0 +1,41 @@
+package com.revolut.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of named counters and gauges exposed through the Metrics servlet.
+ * Components register a supplier once and the current values are read on demand.
+ * @author josh
+ *
+ */
+public final class Metrics {
+
+	private static final Map<String, LongSupplier> metrics = new ConcurrentHashMap<>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * Registers a metric, replacing any existing metric with the same name
+	 * @param name
+	 * @param supplier
+	 */
+	public static void register(String name, LongSupplier supplier) {
+		metrics.put(name, supplier);
+	}
+
+	/**
+	 * Returns the current value of every registered metric ordered by name
+	 * @return
+	 */
+	public static Map<String, Long> snapshot() {
+		Map<String, Long> snapshot = new TreeMap<>();
+		for (Map.Entry<String, LongSupplier> metric : metrics.entrySet()) {
+			snapshot.put(metric.getKey(), metric.getValue().getAsLong());
+		}
+		return snapshot;
+	}
+}
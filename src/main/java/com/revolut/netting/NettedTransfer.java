@@ -0,0 +1,76 @@
+package com.revolut.netting;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+
+import com.revolut.beans.Account;
+
+/**
+ * A transfer accepted into the netting window, waiting for the window to be applied
+ * @author josh
+ *
+ */
+public class NettedTransfer {
+
+	private final Account fromAccount;
+	private final Account toAccount;
+	private final BigDecimal amount;
+	private final BigDecimal toAmount;
+	private final BigDecimal rate;
+	private final long transactionTime;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile boolean applied;
+
+	NettedTransfer(Account fromAccount, Account toAccount, BigDecimal amount, BigDecimal toAmount, BigDecimal rate,
+			long transactionTime) {
+		this.fromAccount = fromAccount;
+		this.toAccount = toAccount;
+		this.amount = amount;
+		this.toAmount = toAmount;
+		this.rate = rate;
+		this.transactionTime = transactionTime;
+	}
+
+	public Account getFromAccount() {
+		return fromAccount;
+	}
+
+	public Account getToAccount() {
+		return toAccount;
+	}
+
+	public BigDecimal getAmount() {
+		return amount;
+	}
+
+	/**
+	 * Returns the amount credited to the to account, in its currency
+	 */
+	public BigDecimal getToAmount() {
+		return toAmount;
+	}
+
+	/**
+	 * Returns the rate the amount was converted at, or null if both accounts are in the same currency
+	 */
+	public BigDecimal getRate() {
+		return rate;
+	}
+
+	public long getTransactionTime() {
+		return transactionTime;
+	}
+
+	void complete(boolean applied) {
+		this.applied = applied;
+		done.countDown();
+	}
+
+	/**
+	 * Waits for the window holding this transfer to be applied, returning whether it was
+	 */
+	boolean await() {
+		NettingWindow.awaitUninterruptibly(done);
+		return applied;
+	}
+}
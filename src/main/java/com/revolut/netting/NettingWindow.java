@@ -0,0 +1,339 @@
+package com.revolut.netting;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.beans.Account;
+import com.revolut.database.TransactionDAO;
+import com.revolut.metrics.Metrics;
+import com.revolut.service.TransferOutcome;
+
+/**
+ * Collects transfers for a short window, set by the transfermoney.netting.windowMillis system property, then
+ * records them all in one database transaction with a single balance update per account for the net amount.
+ * Mutual transfers between the same accounts within a window cost one update per account instead of one
+ * per transfer. Callers wait for their window to be applied, so a transfer is only reported successful once
+ * it has committed.
+ *
+ * Each account's position is its committed balance plus the net of its transfers waiting in the window,
+ * debits are checked against it as they are accepted so the window can never take an account below zero.
+ * While an account's net is being applied its committed balance is unknown, a transfer from it waits for
+ * the window to finish and is retried against the new balance. If an account can no longer take its net,
+ * because its balance was changed outside the window, the transfers to and from it are failed and the rest
+ * of the window is applied without them. If a window can't be applied at all every transfer waiting is
+ * failed with it, as later ones may have been accepted against its credits.
+ * @author josh
+ *
+ */
+public class NettingWindow {
+	private static final Logger logger = Logger.getLogger(NettingWindow.class.getName());
+
+	private static final long SWEEP_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	private static final CountDownLatch APPLIED = new CountDownLatch(0);
+
+	private static final NettingWindow instance = load();
+
+	private final TransactionDAO transDAO;
+	private final long windowMillis;
+	// Accepting transfers takes the read lock, taking a window to apply and finishing it take the write lock
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final ConcurrentMap<Long, Position> positions = new ConcurrentHashMap<>();
+	private final Queue<NettedTransfer> waiting = new ConcurrentLinkedQueue<>();
+	private CountDownLatch applying = APPLIED;
+	private long lastSweep;
+	private ScheduledExecutorService scheduler;
+
+	private final LongAdder transfers = new LongAdder();
+	private final LongAdder windows = new LongAdder();
+	private final LongAdder accountUpdates = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	/**
+	 * @param transDAO
+	 * @param windowMillis time between windows being applied, 0 to disable netting
+	 */
+	public NettingWindow(TransactionDAO transDAO, long windowMillis) {
+		this.transDAO = transDAO;
+		this.windowMillis = windowMillis;
+	}
+
+	public static NettingWindow getInstance() {
+		return instance;
+	}
+
+	private static NettingWindow load() {
+		NettingWindow netting = new NettingWindow(new TransactionDAO(), Long.getLong("transfermoney.netting.windowMillis", 0));
+		Metrics.register("netting.transfers", netting.transfers::sum);
+		Metrics.register("netting.windows", netting.windows::sum);
+		Metrics.register("netting.accountUpdates", netting.accountUpdates::sum);
+		Metrics.register("netting.failed", netting.failed::sum);
+		Metrics.register("netting.waiting", netting::getWaiting);
+		if (netting.isEnabled()) {
+			netting.start();
+		}
+		return netting;
+	}
+
+	public boolean isEnabled() {
+		return windowMillis > 0;
+	}
+
+	/**
+	 * Returns the number of transfers accepted and waiting for the window to be applied
+	 */
+	public int getWaiting() {
+		return waiting.size();
+	}
+
+	/**
+	 * Starts applying a window every windowMillis
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "netting-window");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::apply, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops applying windows, applying any transfers still waiting first
+	 */
+	public synchronized void stop() {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(windowMillis + TimeUnit.SECONDS.toMillis(10), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		scheduler = null;
+		apply();
+	}
+
+	/**
+	 * Adds a transfer to the current window and waits for it to be applied. The amount must already have 2 decimal places.
+	 * Returns null, having waited for the from account's last window to be applied, if the account was read before
+	 * that window changed it. The caller should read it again and retry.
+	 * @param fromAccount
+	 * @param toAccount
+	 * @param amount
+	 * @return
+	 */
+	public TransferOutcome transfer(Account fromAccount, Account toAccount, BigDecimal amount) {
+		return transfer(fromAccount, toAccount, amount, amount, null);
+	}
+
+	/**
+	 * As {@link #transfer(Account, Account, BigDecimal)} for a transfer between accounts in different currencies,
+	 * crediting the to account with the amount converted at the given rate
+	 * @param fromAccount
+	 * @param toAccount
+	 * @param amount
+	 * @param toAmount
+	 * @param rate
+	 * @return
+	 */
+	public TransferOutcome transfer(Account fromAccount, Account toAccount, BigDecimal amount, BigDecimal toAmount, BigDecimal rate) {
+		long hundredths = amount.unscaledValue().longValueExact();
+		long toHundredths = toAmount.unscaledValue().longValueExact();
+		long balance = fromAccount.getBalance().movePointRight(2).longValue();
+		NettedTransfer transfer = new NettedTransfer(fromAccount, toAccount, amount, toAmount, rate, System.currentTimeMillis());
+		CountDownLatch[] stale = new CountDownLatch[1];
+		boolean[] accepted = new boolean[1];
+		lock.readLock().lock();
+		try {
+			positions.compute(fromAccount.getId(), (id, position) -> {
+				if (position == null) {
+					position = new Position();
+				}
+				if (position.applying) {
+					stale[0] = applying;
+				} else if (fromAccount.getVersion() < position.appliedVersion) {
+					stale[0] = APPLIED;
+				} else if (balance + position.net >= hundredths) {
+					position.net -= hundredths;
+					accepted[0] = true;
+				}
+				position.lastUsed = transfer.getTransactionTime();
+				return position;
+			});
+			if (accepted[0]) {
+				positions.compute(toAccount.getId(), (id, position) -> {
+					if (position == null) {
+						position = new Position();
+					}
+					position.net += toHundredths;
+					position.lastUsed = transfer.getTransactionTime();
+					return position;
+				});
+				waiting.add(transfer);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (stale[0] != null) {
+			awaitUninterruptibly(stale[0]);
+			return null;
+		}
+		if (!accepted[0]) {
+			return TransferOutcome.INSUFFICIENT_FUNDS;
+		}
+		transfers.increment();
+		return transfer.await() ? TransferOutcome.SUCCESS : TransferOutcome.FAILED;
+	}
+
+	/**
+	 * Applies every transfer waiting in one database transaction and tells their callers the outcome
+	 */
+	public void apply() {
+		List<NettedTransfer> window = new ArrayList<>();
+		Set<Long> accountIds = new HashSet<>();
+		CountDownLatch applied = new CountDownLatch(1);
+		lock.writeLock().lock();
+		try {
+			NettedTransfer transfer;
+			while ((transfer = waiting.poll()) != null) {
+				window.add(transfer);
+				accountIds.add(transfer.getFromAccount().getId());
+				accountIds.add(transfer.getToAccount().getId());
+			}
+			if (window.isEmpty()) {
+				sweep();
+				return;
+			}
+			// Every accepted transfer is in the window, so it holds each account's whole net
+			for (Long accountId : accountIds) {
+				Position position = positions.get(accountId);
+				position.applying = true;
+				position.net = 0;
+			}
+			applying = applied;
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		List<NettedTransfer> failedTransfers = new ArrayList<>();
+		Set<Long> rejectedIds = new HashSet<>();
+		Map<Long, Long> versions = transDAO.doNettedTransfers(window, rejectedIds);
+		while (versions == null && !rejectedIds.isEmpty()) {
+			// Drop the transfers of the accounts that were rejected and apply the rest again
+			List<NettedTransfer> remaining = new ArrayList<>();
+			for (NettedTransfer transfer : window) {
+				if (rejectedIds.contains(transfer.getFromAccount().getId()) || rejectedIds.contains(transfer.getToAccount().getId())) {
+					failedTransfers.add(transfer);
+				} else {
+					remaining.add(transfer);
+				}
+			}
+			window = remaining;
+			rejectedIds.clear();
+			versions = window.isEmpty() ? Collections.<Long, Long>emptyMap() : transDAO.doNettedTransfers(window, rejectedIds);
+		}
+		lock.writeLock().lock();
+		try {
+			for (Long accountId : accountIds) {
+				Position position = positions.get(accountId);
+				position.applying = false;
+				if (versions != null && versions.containsKey(accountId)) {
+					position.appliedVersion = versions.get(accountId);
+				}
+			}
+			if (versions == null) {
+				failedTransfers.addAll(window);
+				NettedTransfer transfer;
+				while ((transfer = waiting.poll()) != null) {
+					failedTransfers.add(transfer);
+				}
+				for (Position position : positions.values()) {
+					position.net = 0;
+				}
+			}
+			applying = APPLIED;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		applied.countDown();
+
+		windows.increment();
+		if (versions == null) {
+			logger.log(Level.SEVERE, "Unable to apply netting window, failing {0} transfers", String.valueOf(failedTransfers.size()));
+		} else if (!failedTransfers.isEmpty()) {
+			logger.log(Level.WARNING, "Failing {0} netted transfers of accounts that could not take their net",
+					String.valueOf(failedTransfers.size()));
+		}
+		failed.add(failedTransfers.size());
+		for (NettedTransfer transfer : failedTransfers) {
+			transfer.complete(false);
+		}
+		if (versions == null) {
+			return;
+		}
+		accountUpdates.add(versions.size());
+		for (NettedTransfer transfer : window) {
+			transfer.complete(true);
+		}
+	}
+
+	/**
+	 * Drops positions unused for a while, a transfer from an account read before its last window was
+	 * applied is rejected by the database as long as the account can't cover it
+	 */
+	private void sweep() {
+		long now = System.currentTimeMillis();
+		if (now - lastSweep < SWEEP_AFTER_MILLIS) {
+			return;
+		}
+		lastSweep = now;
+		positions.values().removeIf(position -> position.net == 0 && now - position.lastUsed > SWEEP_AFTER_MILLIS);
+	}
+
+	static void awaitUninterruptibly(CountDownLatch latch) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				latch.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * An account's net amount waiting in the window, in hundredths, and the version it had after its last window was applied
+	 */
+	private static class Position {
+		private long net;
+		private long appliedVersion;
+		private boolean applying;
+		private long lastUsed;
+	}
+}
@@ -0,0 +1,149 @@
+package com.revolut.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.service.TransferOutcome;
+
+/**
+ * Reference client for the binary transfer protocol. Transfers are pipelined on a single
+ * connection, at most window requests are outstanding at once and callers are handed a
+ * future completed when the matching response arrives.
+ *
+ * Can also be run as a simple benchmark:
+ * java com.revolut.nio.TransferClient host port fromAccountId toAccountId amount count [window]
+ * @author josh
+ *
+ */
+public class TransferClient implements Closeable {
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private final SocketChannel channel;
+	private final Semaphore window;
+	private final Map<Long, CompletableFuture<TransferOutcome>> outstanding = new ConcurrentHashMap<>();
+	private final AtomicLong nextRequestId = new AtomicLong();
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(TransferProtocol.REQUEST_FRAME_BYTES);
+	private final Thread readerThread;
+	private volatile boolean closed;
+
+	public TransferClient(String host, int port, int window) throws IOException {
+		this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+		this.channel.socket().setTcpNoDelay(true);
+		this.window = new Semaphore(window);
+		this.readerThread = new Thread(this::readResponses, "transfer-client-reader");
+		this.readerThread.setDaemon(true);
+		this.readerThread.start();
+	}
+
+	/**
+	 * Sends a transfer, blocking only while the window is full
+	 * @param fromAccountId
+	 * @param toAccountId
+	 * @param amount
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public CompletableFuture<TransferOutcome> transfer(long fromAccountId, long toAccountId, BigDecimal amount)
+			throws IOException, InterruptedException {
+		window.acquire();
+		long requestId = nextRequestId.incrementAndGet();
+		CompletableFuture<TransferOutcome> future = new CompletableFuture<>();
+		outstanding.put(requestId, future);
+		try {
+			synchronized (writeBuffer) {
+				writeBuffer.clear();
+				TransferProtocol.writeRequest(writeBuffer, requestId, fromAccountId, toAccountId,
+						TransferProtocol.toMinorUnits(amount));
+				writeBuffer.flip();
+				while (writeBuffer.hasRemaining()) {
+					channel.write(writeBuffer);
+				}
+			}
+		} catch (IOException e) {
+			outstanding.remove(requestId);
+			window.release();
+			throw e;
+		}
+		return future;
+	}
+
+	private void readResponses() {
+		ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+		try {
+			while (channel.read(readBuffer) >= 0) {
+				readBuffer.flip();
+				while (readBuffer.remaining() >= TransferProtocol.RESPONSE_FRAME_BYTES) {
+					readBuffer.getInt();
+					long requestId = readBuffer.getLong();
+					TransferOutcome outcome = TransferOutcome.fromCode(readBuffer.get());
+					CompletableFuture<TransferOutcome> future = outstanding.remove(requestId);
+					if (future != null) {
+						window.release();
+						future.complete(outcome);
+					}
+				}
+				readBuffer.compact();
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				logger.log(Level.WARNING, "Binary transfer connection failed", e);
+			}
+		}
+		// Fail anything still waiting on a response
+		IOException failure = new IOException("Connection closed");
+		for (Long requestId : outstanding.keySet()) {
+			CompletableFuture<TransferOutcome> future = outstanding.remove(requestId);
+			if (future != null) {
+				future.completeExceptionally(failure);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		channel.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 6) {
+			System.err.println("Usage: TransferClient host port fromAccountId toAccountId amount count [window]");
+			System.exit(1);
+		}
+		String host = args[0];
+		int port = Integer.parseInt(args[1]);
+		long fromAccountId = Long.parseLong(args[2]);
+		long toAccountId = Long.parseLong(args[3]);
+		BigDecimal amount = new BigDecimal(args[4]);
+		int count = Integer.parseInt(args[5]);
+		int window = args.length > 6 ? Integer.parseInt(args[6]) : 256;
+
+		try (TransferClient client = new TransferClient(host, port, window)) {
+			Map<TransferOutcome, AtomicLong> outcomes = new ConcurrentHashMap<>();
+			CompletableFuture<?>[] futures = new CompletableFuture<?>[count];
+			long start = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				futures[i] = client.transfer(fromAccountId, toAccountId, amount).thenAccept(
+						outcome -> outcomes.computeIfAbsent(outcome, o -> new AtomicLong()).incrementAndGet());
+			}
+			CompletableFuture.allOf(futures).get(10, TimeUnit.MINUTES);
+			long elapsedNanos = System.nanoTime() - start;
+			System.out.println(String.format("%d transfers in %.1f ms (%.0f/sec) with window %d", count,
+					elapsedNanos / 1e6, count / (elapsedNanos / 1e9), window));
+			System.out.println(String.format("Outcomes %s", outcomes));
+		}
+	}
+}
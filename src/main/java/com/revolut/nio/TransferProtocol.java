@@ -0,0 +1,57 @@
+package com.revolut.nio;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format of the binary transfer protocol. Every frame starts with a 4 byte length
+ * giving the number of bytes that follow.
+ *
+ * Request  : length, opcode (byte), requestId (long), fromAccountId (long), toAccountId (long), amount (long)
+ * Response : length, requestId (long), outcome code (byte)
+ *
+ * Amounts are sent in minor units (hundredths) so 10.50 is sent as 1050. Requests can be
+ * pipelined, responses carry the request id they answer and may arrive in any order.
+ * @author josh
+ *
+ */
+public final class TransferProtocol {
+
+	public static final byte OP_TRANSFER = 1;
+
+	public static final int LENGTH_BYTES = 4;
+	public static final int REQUEST_BODY_BYTES = 1 + 8 + 8 + 8 + 8;
+	public static final int RESPONSE_BODY_BYTES = 8 + 1;
+	public static final int REQUEST_FRAME_BYTES = LENGTH_BYTES + REQUEST_BODY_BYTES;
+	public static final int RESPONSE_FRAME_BYTES = LENGTH_BYTES + RESPONSE_BODY_BYTES;
+
+	/** Amounts are exchanged in hundredths */
+	public static final int AMOUNT_SCALE = 2;
+
+	private TransferProtocol() {
+	}
+
+	public static void writeRequest(ByteBuffer buffer, long requestId, long fromAccountId, long toAccountId, long amount) {
+		buffer.putInt(REQUEST_BODY_BYTES);
+		buffer.put(OP_TRANSFER);
+		buffer.putLong(requestId);
+		buffer.putLong(fromAccountId);
+		buffer.putLong(toAccountId);
+		buffer.putLong(amount);
+	}
+
+	public static void writeResponse(ByteBuffer buffer, long requestId, byte outcome) {
+		buffer.putInt(RESPONSE_BODY_BYTES);
+		buffer.putLong(requestId);
+		buffer.put(outcome);
+	}
+
+	public static BigDecimal toAmount(long minorUnits) {
+		return BigDecimal.valueOf(minorUnits, AMOUNT_SCALE);
+	}
+
+	public static long toMinorUnits(BigDecimal amount) {
+		return amount.setScale(AMOUNT_SCALE, RoundingMode.DOWN).unscaledValue().longValueExact();
+	}
+}
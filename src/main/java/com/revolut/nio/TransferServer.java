@@ -0,0 +1,296 @@
+package com.revolut.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.service.TransferOutcome;
+import com.revolut.service.TransferService;
+
+/**
+ * Non blocking listener for the binary transfer protocol described in {@link TransferProtocol}.
+ * A single selector thread does all socket I/O, decoded transfers are handed to a worker pool
+ * because the DAO layer is blocking. Each connection may have up to maxInFlight transfers
+ * outstanding, once that is reached the connection stops being read until responses drain.
+ * @author josh
+ *
+ */
+public class TransferServer {
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private static final int READ_BUFFER_BYTES = 64 * 1024;
+	private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+
+	private final TransferService transferService;
+	private final int requestedPort;
+	private final int workers;
+	private final int maxInFlight;
+
+	private final Queue<Session> pendingWrites = new ConcurrentLinkedQueue<>();
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private ExecutorService workerPool;
+	private Thread selectorThread;
+	private volatile boolean running;
+
+	public TransferServer(TransferService transferService, int port, int workers, int maxInFlight) {
+		this.transferService = transferService;
+		this.requestedPort = port;
+		this.workers = workers;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Binds the listening socket and starts the selector thread
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.bind(new InetSocketAddress(requestedPort));
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		workerPool = Executors.newFixedThreadPool(workers, r -> {
+			Thread thread = new Thread(r, "transfer-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		running = true;
+		selectorThread = new Thread(this::run, "transfer-selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+		logger.log(Level.INFO, "Binary transfer listener started on port {0}", String.valueOf(getPort()));
+	}
+
+	/**
+	 * Stops accepting connections, closes open ones and waits briefly for in flight transfers
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		selector.wakeup();
+		try {
+			selectorThread.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workerPool.shutdown();
+		try {
+			workerPool.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the port actually bound, useful when started on port 0
+	 * @return
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	private void run() {
+		try {
+			while (running) {
+				selector.select();
+				Session session;
+				while ((session = pendingWrites.poll()) != null) {
+					session.writeScheduled.set(false);
+					session.updateInterest();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept();
+						} else {
+							Session keySession = (Session) key.attachment();
+							if (key.isReadable()) {
+								keySession.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								keySession.write();
+							}
+						}
+					} catch (IOException e) {
+						logger.log(Level.FINE, "Closing binary transfer connection", e);
+						close(key);
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			logger.log(Level.SEVERE, "Binary transfer listener stopped unexpectedly", e);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new Session(key, channel));
+		}
+	}
+
+	private void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * State for a single client connection. The read and write buffers are only touched by the
+	 * selector thread, workers hand their responses over through the completed queue.
+	 */
+	private class Session {
+		private final SelectionKey key;
+		private final SocketChannel channel;
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+		private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+		private final Queue<Completion> completed = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+		private Session(SelectionKey key, SocketChannel channel) {
+			this.key = key;
+			this.channel = channel;
+			// Write buffer is kept in read mode, empty until responses are drained into it
+			writeBuffer.flip();
+		}
+
+		private void read() throws IOException {
+			if (channel.read(readBuffer) < 0) {
+				throw new IOException("Connection closed by client");
+			}
+			readBuffer.flip();
+			while (readBuffer.remaining() >= TransferProtocol.LENGTH_BYTES && inFlight.get() < maxInFlight) {
+				int length = readBuffer.getInt(readBuffer.position());
+				if (length != TransferProtocol.REQUEST_BODY_BYTES) {
+					throw new IOException(String.format("Unexpected frame length %d", length));
+				}
+				if (readBuffer.remaining() < TransferProtocol.LENGTH_BYTES + length) {
+					break;
+				}
+				readBuffer.getInt();
+				byte opcode = readBuffer.get();
+				long requestId = readBuffer.getLong();
+				long fromAccountId = readBuffer.getLong();
+				long toAccountId = readBuffer.getLong();
+				long amount = readBuffer.getLong();
+				inFlight.incrementAndGet();
+				if (opcode == TransferProtocol.OP_TRANSFER) {
+					dispatch(requestId, fromAccountId, toAccountId, amount);
+				} else {
+					complete(requestId, TransferOutcome.INVALID_REQUEST);
+				}
+			}
+			readBuffer.compact();
+			updateInterest();
+		}
+
+		private void dispatch(long requestId, long fromAccountId, long toAccountId, long amount) {
+			workerPool.execute(() -> {
+				TransferOutcome outcome;
+				try {
+					outcome = transferService.transfer(fromAccountId, toAccountId, TransferProtocol.toAmount(amount));
+				} catch (RuntimeException e) {
+					logger.log(Level.SEVERE, "Exception caught in binary transfer", e);
+					outcome = TransferOutcome.FAILED;
+				}
+				complete(requestId, outcome);
+			});
+		}
+
+		private void complete(long requestId, TransferOutcome outcome) {
+			completed.add(new Completion(requestId, outcome.getCode()));
+			if (Thread.currentThread() != selectorThread && writeScheduled.compareAndSet(false, true)) {
+				pendingWrites.add(this);
+				selector.wakeup();
+			}
+		}
+
+		private void write() throws IOException {
+			while (true) {
+				if (!writeBuffer.hasRemaining()) {
+					writeBuffer.clear();
+					Completion completion;
+					while (writeBuffer.remaining() >= TransferProtocol.RESPONSE_FRAME_BYTES
+							&& (completion = completed.poll()) != null) {
+						TransferProtocol.writeResponse(writeBuffer, completion.requestId, completion.outcome);
+						inFlight.decrementAndGet();
+					}
+					writeBuffer.flip();
+					if (!writeBuffer.hasRemaining()) {
+						break;
+					}
+				}
+				channel.write(writeBuffer);
+				if (writeBuffer.hasRemaining()) {
+					// Socket buffer is full, wait to be told it is writable again
+					break;
+				}
+			}
+			updateInterest();
+			// Requests may have been left unread while the connection was at its in flight limit
+			if (readBuffer.position() > 0 && inFlight.get() < maxInFlight) {
+				read();
+			}
+		}
+
+		private void updateInterest() {
+			if (!key.isValid()) {
+				return;
+			}
+			int ops = 0;
+			if (inFlight.get() < maxInFlight) {
+				ops |= SelectionKey.OP_READ;
+			}
+			if (writeBuffer.hasRemaining() || !completed.isEmpty()) {
+				ops |= SelectionKey.OP_WRITE;
+			}
+			key.interestOps(ops);
+		}
+	}
+
+	private static final class Completion {
+		private final long requestId;
+		private final byte outcome;
+
+		private Completion(long requestId, byte outcome) {
+			this.requestId = requestId;
+			this.outcome = outcome;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.revolut.nio;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import com.revolut.replication.Replication;
+import com.revolut.service.TransferService;
+
+/**
+ * Starts the optional binary transfer listener alongside the web application.
+ * The listener is only started when the transfermoney.binary.port system property is set.
+ * Worker count and per connection in flight limit can be tuned with
+ * transfermoney.binary.workers and transfermoney.binary.maxInFlight.
+ * @author josh
+ *
+ */
+public class TransferServerListener implements ServletContextListener {
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private TransferServer server;
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		Integer port = Integer.getInteger("transfermoney.binary.port");
+		// Followers don't accept transfers
+		if (port == null || Replication.isFollower()) {
+			return;
+		}
+		int workers = Integer.getInteger("transfermoney.binary.workers", Runtime.getRuntime().availableProcessors() * 2);
+		int maxInFlight = Integer.getInteger("transfermoney.binary.maxInFlight", 1024);
+		server = new TransferServer(new TransferService(), port, workers, maxInFlight);
+		try {
+			server.start();
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Unable to start binary transfer listener", e);
+			server = null;
+		}
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		if (server != null) {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package com.revolut.posting;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import com.revolut.beans.Account;
+
+/**
+ * Takes the same fee from every account, accounts that can't cover it are skipped
+ * @author josh
+ *
+ */
+public class FlatFee implements PostingRule {
+
+	private final BigDecimal fee;
+
+	public FlatFee(BigDecimal fee) {
+		this.fee = fee.setScale(2, RoundingMode.DOWN);
+	}
+
+	@Override
+	public BigDecimal amount(Account account) {
+		return fee.negate();
+	}
+}
@@ -0,0 +1,28 @@
+package com.revolut.posting;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import com.revolut.beans.Account;
+
+/**
+ * Pays each account with money in it its balance times the rate, rounded down to the penny
+ * @author josh
+ *
+ */
+public class Interest implements PostingRule {
+
+	private final BigDecimal rate;
+
+	public Interest(BigDecimal rate) {
+		this.rate = rate;
+	}
+
+	@Override
+	public BigDecimal amount(Account account) {
+		if (account.getBalance().signum() <= 0) {
+			return BigDecimal.ZERO;
+		}
+		return account.getBalance().multiply(rate).setScale(2, RoundingMode.DOWN);
+	}
+}
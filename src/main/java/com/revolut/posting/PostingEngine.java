@@ -0,0 +1,268 @@
+package com.revolut.posting;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.beans.Account;
+import com.revolut.beans.PostingRange;
+import com.revolut.beans.PostingRun;
+import com.revolut.database.PostingDAO;
+import com.revolut.metrics.Metrics;
+import com.revolut.replication.Replication;
+import com.revolut.rest.Response;
+
+/**
+ * Posts fees and interest to every account in a currency, paid to or from a house account, with the amounts
+ * worked out by a {@link PostingRule}. A run's accounts are split into ranges of ids posted in parallel, one
+ * range per thread, each a chunk of accounts per database transaction with the balance updates and TRANSACTION
+ * rows written in JDBC batches. Every chunk moves its range's checkpoint on as it commits, so a run stopped by
+ * a crash or restart carries on from where it got to, runs still running are resumed when the server starts.
+ *
+ * Transfers carry on during a run. A chunk only holds its accounts' rows for its own short transaction, the
+ * threads take connections outside the bulkheads' quotas, and an account changed by a transfer after the chunk
+ * read it is read again and posted to from its new balance. A chunk that can't be posted is retried after a
+ * back off, up to transfermoney.transfer.maxAttempts times, before its run is failed. A failed run can be
+ * resumed. Followers don't post.
+ * @author josh
+ *
+ */
+public class PostingEngine {
+	private static final Logger logger = Logger.getLogger(PostingEngine.class.getName());
+
+	private static final long BACKOFF_MILLIS = 50;
+
+	private static final PostingEngine instance = load();
+
+	private final PostingDAO postingDAO;
+	private final int threads;
+	private final int chunkSize;
+	private final int maxAttempts;
+	private ExecutorService pool;
+	// Runs being posted, so a run is never posted by two sets of threads at once
+	private final ConcurrentMap<Long, CompletableFuture<String>> active = new ConcurrentHashMap<>();
+	private volatile boolean stopped;
+
+	private final LongAdder posted = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder chunks = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+
+	/**
+	 * @param postingDAO
+	 * @param threads ranges a run is split into and posted in parallel
+	 * @param chunkSize most accounts posted to in one transaction
+	 * @param maxAttempts times a chunk is tried before its run is failed
+	 */
+	public PostingEngine(PostingDAO postingDAO, int threads, int chunkSize, int maxAttempts) {
+		this.postingDAO = postingDAO;
+		this.threads = threads;
+		this.chunkSize = chunkSize;
+		this.maxAttempts = maxAttempts;
+	}
+
+	public static PostingEngine getInstance() {
+		return instance;
+	}
+
+	private static PostingEngine load() {
+		PostingEngine engine = new PostingEngine(new PostingDAO(), Integer.getInteger("transfermoney.posting.threads", 4),
+				Integer.getInteger("transfermoney.posting.chunkSize", 1000),
+				Integer.getInteger("transfermoney.transfer.maxAttempts", 8));
+		Metrics.register("posting.running", () -> engine.active.size());
+		Metrics.register("posting.posted", engine.posted::sum);
+		Metrics.register("posting.skipped", engine.skipped::sum);
+		Metrics.register("posting.chunks", engine.chunks::sum);
+		Metrics.register("posting.retries", engine.retries::sum);
+		return engine;
+	}
+
+	/**
+	 * Starts the posting threads and resumes every run left running when the server last stopped
+	 */
+	public synchronized void start() {
+		if (pool != null) {
+			return;
+		}
+		stopped = false;
+		pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "posting");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (!Replication.isFollower()) {
+			for (PostingRun run : postingDAO.getRuns(PostingRun.RUNNING)) {
+				logger.log(Level.INFO, "Resuming posting run {0}", String.valueOf(run.getId()));
+				post(run);
+			}
+		}
+	}
+
+	/**
+	 * Stops posting, chunks being posted finish or roll back and their runs resume from their checkpoints next time
+	 */
+	public synchronized void stop() {
+		if (pool == null) {
+			return;
+		}
+		stopped = true;
+		pool.shutdownNow();
+		try {
+			pool.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		pool = null;
+		// Ranges that never got a thread leave their runs unfinished, they are posted again on the next start
+		active.clear();
+	}
+
+	/**
+	 * Creates a run posting to every other account in the house account's currency with the named rule and starts
+	 * posting it. Returns the run as created, or null if it could not be, or this server is a follower.
+	 * @param houseAccount
+	 * @param rule
+	 * @param parameter
+	 * @return
+	 */
+	public PostingRun startRun(Account houseAccount, String rule, BigDecimal parameter) {
+		if (Replication.isFollower() || !PostingRules.isRegistered(rule)) {
+			return null;
+		}
+		PostingRun run = postingDAO.createRun(houseAccount, rule, parameter, threads);
+		if (run != null) {
+			post(run);
+		}
+		return run;
+	}
+
+	/**
+	 * Carries on posting a run that failed or was stopped. Returns the run as it was resumed, or null if there is
+	 * no such run, it is complete, or this server is a follower.
+	 * @param runId
+	 * @return
+	 */
+	public PostingRun resumeRun(long runId) {
+		if (Replication.isFollower()) {
+			return null;
+		}
+		PostingRun run = postingDAO.getRun(runId);
+		if (run == null || PostingRun.COMPLETE.equals(run.getStatus())) {
+			return null;
+		}
+		if (!active.containsKey(runId)) {
+			postingDAO.setStatus(runId, PostingRun.RUNNING);
+			run.setStatus(PostingRun.RUNNING);
+			run.setFinished(null);
+			post(run);
+		}
+		return run;
+	}
+
+	/**
+	 * Waits for a run being posted to finish and returns its status, straight away for a run not being posted,
+	 * or null if there is no such run
+	 * @param runId
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 * @throws InterruptedException
+	 * @throws TimeoutException
+	 */
+	public String await(long runId, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		CompletableFuture<String> run = active.get(runId);
+		if (run == null) {
+			PostingRun stored = postingDAO.getRun(runId);
+			return stored != null ? stored.getStatus() : null;
+		}
+		try {
+			return run.get(timeout, unit);
+		} catch (ExecutionException e) {
+			return PostingRun.FAILED;
+		}
+	}
+
+	private synchronized void post(PostingRun run) {
+		if (pool == null) {
+			// Left running, it is picked up when the engine starts
+			return;
+		}
+		CompletableFuture<String> finished = new CompletableFuture<>();
+		if (active.putIfAbsent(run.getId(), finished) != null) {
+			return;
+		}
+		PostingRule rule = PostingRules.create(run.getRule(), run.getParameter());
+		if (rule == null) {
+			logger.log(Level.SEVERE, "Posting run {0} uses unknown rule {1}", new Object[] { String.valueOf(run.getId()), run.getRule() });
+			finish(run, false, finished);
+			return;
+		}
+		List<CompletableFuture<Boolean>> ranges = new ArrayList<>();
+		for (PostingRange range : run.getRanges()) {
+			if (!range.isFinished()) {
+				ranges.add(CompletableFuture.supplyAsync(() -> postRange(run, range, rule), pool));
+			}
+		}
+		CompletableFuture.allOf(ranges.toArray(new CompletableFuture<?>[ranges.size()])).whenComplete((result, e) -> {
+			boolean complete = e == null && ranges.stream().allMatch(CompletableFuture::join);
+			if (e != null) {
+				logger.log(Level.SEVERE, "Exception caught in Posting Run", e);
+			}
+			finish(run, complete, finished);
+		});
+	}
+
+	private void finish(PostingRun run, boolean complete, CompletableFuture<String> finished) {
+		String status = complete ? PostingRun.COMPLETE : PostingRun.FAILED;
+		// A run stopped with the server is left running, to be resumed when it starts again
+		if (complete || !stopped) {
+			postingDAO.setStatus(run.getId(), status);
+		}
+		logger.log(complete ? Level.INFO : Level.SEVERE, "Posting run {0} {1}", new Object[] { String.valueOf(run.getId()), status });
+		active.remove(run.getId(), finished);
+		finished.complete(status);
+	}
+
+	private boolean postRange(PostingRun run, PostingRange range, PostingRule rule) {
+		int attempts = 0;
+		while (!range.isFinished()) {
+			if (stopped) {
+				return false;
+			}
+			long postedBefore = range.getPosted();
+			long skippedBefore = range.getSkipped();
+			String status = postingDAO.postChunk(run, range, rule, chunkSize);
+			if (Response.SUCCESS.equals(status)) {
+				chunks.increment();
+				posted.add(range.getPosted() - postedBefore);
+				skipped.add(range.getSkipped() - skippedBefore);
+				attempts = 0;
+				continue;
+			}
+			if (++attempts >= maxAttempts) {
+				logger.log(Level.SEVERE, "Posting run {0} gave up on accounts after {1}",
+						new Object[] { String.valueOf(run.getId()), String.valueOf(range.getCheckpoint()) });
+				return false;
+			}
+			retries.increment();
+			try {
+				Thread.sleep(BACKOFF_MILLIS * attempts);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+}
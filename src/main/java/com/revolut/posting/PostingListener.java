@@ -0,0 +1,24 @@
+package com.revolut.posting;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Starts the posting engine with the server, resuming any run left running when it last stopped.
+ * transfermoney.posting.threads : ranges a run is split into and posted in parallel (default 4)
+ * transfermoney.posting.chunkSize : most accounts posted to in one transaction (default 1000)
+ * @author josh
+ *
+ */
+public class PostingListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		PostingEngine.getInstance().start();
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		PostingEngine.getInstance().stop();
+	}
+}
@@ -0,0 +1,23 @@
+package com.revolut.posting;
+
+import java.math.BigDecimal;
+
+import com.revolut.beans.Account;
+
+/**
+ * Works out what a bulk posting run posts to each account. Rules are created by name through {@link PostingRules},
+ * from the parameter the run was started with, so a run resumed after a restart posts the same way.
+ * @author josh
+ *
+ */
+public interface PostingRule {
+
+	/**
+	 * Returns the amount to post to the account as it is now, with 2 decimal places. A positive amount is paid
+	 * to the account from the house account, a negative one is taken from the account and paid to the house
+	 * account, zero leaves the account as it is.
+	 * @param account
+	 * @return
+	 */
+	BigDecimal amount(Account account);
+}
@@ -0,0 +1,47 @@
+package com.revolut.posting;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Posting rules by name, each created from the parameter a run is started with.
+ * fee : takes the parameter from every account, see {@link FlatFee}
+ * interest : pays every account in credit its balance times the parameter, see {@link Interest}
+ * @author josh
+ *
+ */
+public class PostingRules {
+
+	private static final Map<String, Function<BigDecimal, PostingRule>> rules = new ConcurrentHashMap<>();
+
+	static {
+		register("fee", FlatFee::new);
+		register("interest", Interest::new);
+	}
+
+	/**
+	 * Adds or replaces the rule with the given name. Register rules before runs using them are resumed.
+	 * @param name
+	 * @param factory
+	 */
+	public static void register(String name, Function<BigDecimal, PostingRule> factory) {
+		rules.put(name, factory);
+	}
+
+	public static boolean isRegistered(String name) {
+		return name != null && rules.containsKey(name);
+	}
+
+	/**
+	 * Returns the named rule created from the parameter, or null if there is no such rule
+	 * @param name
+	 * @param parameter
+	 * @return
+	 */
+	public static PostingRule create(String name, BigDecimal parameter) {
+		Function<BigDecimal, PostingRule> factory = name != null ? rules.get(name) : null;
+		return factory != null ? factory.apply(parameter) : null;
+	}
+}
@@ -0,0 +1,271 @@
+package com.revolut.reconciliation;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.beans.BalanceMismatch;
+import com.revolut.beans.ReconciliationReport;
+import com.revolut.database.ReconciliationDAO;
+import com.revolut.tiering.ColdStore;
+import com.revolut.tiering.Segment;
+
+/**
+ * Checks ACCOUNT balances against TRANSACTION history, including history moved to cold segments,
+ * and reports transactions whose account no longer exists. The account and transaction id ranges are
+ * split in half with fork/join until each piece is at most one page, pages are then checked in
+ * parallel each with its own query. Only counts and the first few problems found are kept, so
+ * memory does not grow with the size of the ledger.
+ *
+ * Balances are checked by a single statement per page, transfers committed while a run is in
+ * progress do not cause false mismatches. Moves to the cold store wait for the run to finish, so no
+ * transaction is counted both in the table and in a segment, or in neither.
+ *
+ * Configured with system properties:
+ * transfermoney.reconciliation.parallelism : pages checked at once (default number of cores)
+ * transfermoney.reconciliation.pageSize : ids covered by each query (default 1000)
+ * @author josh
+ *
+ */
+public class ReconciliationJob {
+	private static final Logger logger = Logger.getLogger(ReconciliationJob.class.getName());
+
+	/** Problems listed in the report, beyond this they are only counted */
+	private static final int MAX_REPORTED = 1000;
+
+	private static final AtomicReference<ReconciliationJob> latest = new AtomicReference<>();
+
+	private final ReconciliationDAO reconciliationDAO;
+	private final ColdStore coldStore;
+	private final int parallelism;
+	private final int pageSize;
+
+	private final Timestamp startDate = new Timestamp(System.currentTimeMillis());
+	private volatile Timestamp endDate;
+	private volatile String state = ReconciliationReport.RUNNING;
+	private final LongAdder accountsChecked = new LongAdder();
+	private final LongAdder transactionsChecked = new LongAdder();
+	private final LongAdder mismatchCount = new LongAdder();
+	private final LongAdder orphanCount = new LongAdder();
+	private final List<BalanceMismatch> mismatches = new ArrayList<>();
+	private final List<Long> orphanedTransactionIds = new ArrayList<>();
+
+	public ReconciliationJob(ReconciliationDAO reconciliationDAO, ColdStore coldStore, int parallelism, int pageSize) {
+		this.reconciliationDAO = reconciliationDAO;
+		this.coldStore = coldStore;
+		this.parallelism = parallelism;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Starts a reconciliation in the background unless one is already running.
+	 * Returns the job that is running.
+	 * @return
+	 */
+	public static ReconciliationJob start() {
+		while (true) {
+			ReconciliationJob current = latest.get();
+			if (current != null && current.isRunning()) {
+				return current;
+			}
+			ReconciliationJob job = new ReconciliationJob(new ReconciliationDAO(), ColdStore.getInstance(),
+					Integer.getInteger("transfermoney.reconciliation.parallelism", Runtime.getRuntime().availableProcessors()),
+					Integer.getInteger("transfermoney.reconciliation.pageSize", 1000));
+			if (latest.compareAndSet(current, job)) {
+				Thread thread = new Thread(job::run, "reconciliation");
+				thread.setDaemon(true);
+				thread.start();
+				return job;
+			}
+		}
+	}
+
+	/**
+	 * Returns the most recently started reconciliation, or null if none has been run
+	 * @return
+	 */
+	public static ReconciliationJob getLatest() {
+		return latest.get();
+	}
+
+	/**
+	 * Runs the reconciliation on the calling thread and returns the final report
+	 * @return
+	 */
+	public ReconciliationReport run() {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		Lock readLock = coldStore.getReadLock();
+		readLock.lock();
+		try {
+			long[] accountIds = reconciliationDAO.getIdRange("ACCOUNT");
+			if (accountIds != null) {
+				pool.invoke(new AccountRange(accountIds[0], accountIds[1] + 1));
+			}
+			long[] transactionIds = reconciliationDAO.getIdRange("TRANSACTION");
+			if (transactionIds != null) {
+				pool.invoke(new TransactionRange(transactionIds[0], transactionIds[1] + 1));
+			}
+			List<SegmentCheck> segmentChecks = new ArrayList<>();
+			for (Segment segment : coldStore.getSegments()) {
+				segmentChecks.add(new SegmentCheck(segment));
+			}
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(segmentChecks);
+				}
+			});
+			state = ReconciliationReport.COMPLETE;
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception caught in Reconciliation", e);
+			state = ReconciliationReport.FAILED;
+		} finally {
+			readLock.unlock();
+			pool.shutdown();
+			endDate = new Timestamp(System.currentTimeMillis());
+		}
+		ReconciliationReport report = getReport();
+		logger.log(Level.INFO, "Reconciliation {0}: {1} accounts, {2} mismatches, {3} orphaned transactions",
+				new Object[] { report.getState(), report.getAccountsChecked(), report.getMismatchCount(), report.getOrphanCount() });
+		return report;
+	}
+
+	public boolean isRunning() {
+		return ReconciliationReport.RUNNING.equals(state);
+	}
+
+	/**
+	 * Returns the progress so far, or the final result once complete
+	 * @return
+	 */
+	public ReconciliationReport getReport() {
+		ReconciliationReport report = new ReconciliationReport();
+		report.setState(state);
+		report.setStartDate(startDate);
+		report.setEndDate(endDate);
+		report.setAccountsChecked(accountsChecked.sum());
+		report.setTransactionsChecked(transactionsChecked.sum());
+		report.setMismatchCount(mismatchCount.sum());
+		report.setOrphanCount(orphanCount.sum());
+		synchronized (this) {
+			report.setMismatches(new ArrayList<>(mismatches));
+			report.setOrphanedTransactionIds(new ArrayList<>(orphanedTransactionIds));
+		}
+		return report;
+	}
+
+	private void mismatch(BalanceMismatch mismatch) {
+		mismatchCount.increment();
+		synchronized (this) {
+			if (mismatches.size() < MAX_REPORTED) {
+				mismatches.add(mismatch);
+			}
+		}
+	}
+
+	private void orphan(long transactionId) {
+		orphanCount.increment();
+		synchronized (this) {
+			if (orphanedTransactionIds.size() < MAX_REPORTED) {
+				orphanedTransactionIds.add(transactionId);
+			}
+		}
+	}
+
+	/**
+	 * Range of account ids, from inclusive to exclusive
+	 */
+	private class AccountRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final long fromId;
+		private final long toId;
+
+		private AccountRange(long fromId, long toId) {
+			this.fromId = fromId;
+			this.toId = toId;
+		}
+
+		@Override
+		protected void compute() {
+			if (toId - fromId > pageSize) {
+				long middle = fromId + (toId - fromId) / 2;
+				invokeAll(new AccountRange(fromId, middle), new AccountRange(middle, toId));
+				return;
+			}
+			try {
+				accountsChecked.add(reconciliationDAO.checkAccounts(fromId, toId, coldStore.getNetAmounts(fromId, toId),
+						ReconciliationJob.this::mismatch));
+			} catch (Exception e) {
+				throw new IllegalStateException(String.format("Unable to check accounts %d to %d", fromId, toId), e);
+			}
+		}
+	}
+
+	/**
+	 * Transactions in one cold segment. Rows are only decoded if the segment mentions an account that no longer exists.
+	 */
+	private class SegmentCheck extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Segment segment;
+
+		private SegmentCheck(Segment segment) {
+			this.segment = segment;
+		}
+
+		@Override
+		protected void compute() {
+			Set<Long> existing;
+			try {
+				existing = reconciliationDAO.getExistingAccountIds(segment.getAccountIds());
+			} catch (Exception e) {
+				throw new IllegalStateException(String.format("Unable to check segment %s", segment.getPath()), e);
+			}
+			if (existing.size() < segment.getAccountIds().length) {
+				segment.scan(row -> {
+					if (!existing.contains(row.getFromAccountId()) || !existing.contains(row.getToAccountId())) {
+						orphan(row.getId());
+					}
+				});
+			}
+			transactionsChecked.add(segment.getRowCount());
+		}
+	}
+
+	/**
+	 * Range of transaction ids, from inclusive to exclusive
+	 */
+	private class TransactionRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final long fromId;
+		private final long toId;
+
+		private TransactionRange(long fromId, long toId) {
+			this.fromId = fromId;
+			this.toId = toId;
+		}
+
+		@Override
+		protected void compute() {
+			if (toId - fromId > pageSize) {
+				long middle = fromId + (toId - fromId) / 2;
+				invokeAll(new TransactionRange(fromId, middle), new TransactionRange(middle, toId));
+				return;
+			}
+			try {
+				transactionsChecked.add(reconciliationDAO.checkTransactions(fromId, toId, ReconciliationJob.this::orphan));
+			} catch (Exception e) {
+				throw new IllegalStateException(String.format("Unable to check transactions %d to %d", fromId, toId), e);
+			}
+		}
+	}
+}
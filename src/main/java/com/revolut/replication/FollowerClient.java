@@ -0,0 +1,134 @@
+package com.revolut.replication;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Follows a leader, applying its journal entries in order and keeping a copy of them in the local journal.
+ * The local journal's end is always the offset applied so far, so after a disconnect the client reconnects
+ * every reconnectMillis and resumes from there.
+ * @author josh
+ *
+ */
+public class FollowerClient {
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private static final int RECEIVE_BUFFER_BYTES = 64 * 1024;
+
+	private final String host;
+	private final int port;
+	private final Journal journal;
+	private final JournalApplier applier;
+	private final long reconnectMillis;
+	private volatile boolean running;
+	private volatile boolean connected;
+	private volatile Socket socket;
+	private Thread thread;
+
+	public FollowerClient(String host, int port, Journal journal, JournalApplier applier, long reconnectMillis) {
+		this.host = host;
+		this.port = port;
+		this.journal = journal;
+		this.applier = applier;
+		this.reconnectMillis = reconnectMillis;
+	}
+
+	public synchronized void start() {
+		running = true;
+		thread = new Thread(this::run, "replication-follower");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops following, waiting for any entry being applied to finish
+	 */
+	public synchronized void stop() {
+		running = false;
+		Socket current = socket;
+		try {
+			if (current != null) {
+				current.close();
+			}
+		} catch (IOException e) {
+		}
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	public String getLeader() {
+		return host + ":" + port;
+	}
+
+	private void run() {
+		while (running) {
+			try (Socket current = new Socket()) {
+				socket = current;
+				current.connect(new InetSocketAddress(host, port));
+				current.setTcpNoDelay(true);
+				connected = true;
+				logger.log(Level.INFO, "Following {0} from offset {1}", new Object[] { getLeader(), String.valueOf(journal.getEnd()) });
+				follow(current);
+			} catch (IOException e) {
+				if (running) {
+					logger.log(Level.WARNING, "Lost leader {0}: {1}", new Object[] { getLeader(), e.getMessage() });
+				}
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Unable to apply journal entry at offset " + journal.getEnd(), e);
+			} finally {
+				connected = false;
+				socket = null;
+			}
+			if (running) {
+				try {
+					Thread.sleep(reconnectMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void follow(Socket current) throws Exception {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(current.getInputStream(), RECEIVE_BUFFER_BYTES));
+		DataOutputStream out = new DataOutputStream(current.getOutputStream());
+		out.writeLong(journal.getEnd());
+		out.flush();
+		byte[] entry = new byte[256];
+		while (running) {
+			int length = in.readInt();
+			if (entry.length < length + 4) {
+				entry = new byte[Math.max(length + 4, entry.length * 2)];
+			}
+			entry[0] = (byte) (length >>> 24);
+			entry[1] = (byte) (length >>> 16);
+			entry[2] = (byte) (length >>> 8);
+			entry[3] = (byte) length;
+			in.readFully(entry, 4, length);
+			JournalEvent.apply(new DataInputStream(new ByteArrayInputStream(entry, 4, length)), applier);
+			// Only recorded once applied, so the journal end is where to resume from
+			journal.append(entry, 0, length + 4);
+			if (in.available() == 0) {
+				out.writeLong(journal.getEnd());
+				out.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package com.revolut.replication;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.metrics.Metrics;
+
+/**
+ * In memory, append only log of committed changes shipped to followers. Entries are kept as the bytes
+ * sent on the wire and an offset is a byte position in the log, so a follower resumes by asking for
+ * everything from the end of what it has applied. Followers keep a copy of the log they receive, which
+ * lets a promoted follower serve the others from the same offsets.
+ *
+ * A change takes its place in the log before its database commit, while it still holds its row locks, and is
+ * appended once committed, after any change placed before it. Changes to the same rows are therefore logged
+ * in commit order without holding a lock across the commit. In sync mode the committing thread then waits
+ * for transfermoney.replication.syncFollowers followers to acknowledge the entry, for at most
+ * transfermoney.replication.syncTimeoutMillis.
+ *
+ * Whole chunks that every connected follower has acknowledged are dropped, as are the oldest chunks once the
+ * log holds more than transfermoney.replication.journalBytes. A follower asking for a dropped offset is refused.
+ * @author josh
+ *
+ */
+public class Journal {
+	private static final Logger logger = Logger.getLogger(Journal.class.getName());
+
+	private static final int CHUNK_BYTES = 1 << 20;
+
+	private static final Journal instance = new Journal(
+			System.getProperty("transfermoney.replication.port") != null
+					|| System.getProperty("transfermoney.replication.leader") != null,
+			"sync".equalsIgnoreCase(System.getProperty("transfermoney.replication.ack", "async")),
+			Integer.getInteger("transfermoney.replication.syncFollowers", 1),
+			Long.getLong("transfermoney.replication.syncTimeoutMillis", 1000),
+			Long.getLong("transfermoney.replication.journalBytes", 256L << 20));
+
+	static {
+		Metrics.register("replication.journal.bytes", instance::getEnd);
+		Metrics.register("replication.journal.retainedBytes", () -> instance.getEnd() - instance.getStart());
+		Metrics.register("replication.sync.timeouts", instance.syncTimeouts::sum);
+	}
+
+	private final boolean enabled;
+	private final boolean sync;
+	private final int syncFollowers;
+	private final long syncTimeoutMillis;
+	private final long retainBytes;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition appended = lock.newCondition();
+	private final Condition acknowledged = lock.newCondition();
+	private final List<byte[]> chunks = new ArrayList<>();
+	private final Deque<Placed> placed = new ArrayDeque<>();
+	private long firstChunk;
+	private volatile long start;
+	private volatile long end;
+	private final ConcurrentMap<Object, Long> acknowledgedOffsets = new ConcurrentHashMap<>();
+	private final LongAdder syncTimeouts = new LongAdder();
+
+	public Journal(boolean enabled, boolean sync, int syncFollowers, long syncTimeoutMillis) {
+		this(enabled, sync, syncFollowers, syncTimeoutMillis, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param enabled
+	 * @param sync
+	 * @param syncFollowers
+	 * @param syncTimeoutMillis
+	 * @param retainBytes bytes kept for followers that have not acknowledged them, rounded up to whole chunks
+	 */
+	public Journal(boolean enabled, boolean sync, int syncFollowers, long syncTimeoutMillis, long retainBytes) {
+		this.enabled = enabled;
+		this.sync = sync;
+		this.syncFollowers = syncFollowers;
+		this.syncTimeoutMillis = syncTimeoutMillis;
+		this.retainBytes = retainBytes;
+	}
+
+	/**
+	 * Returns the journal of this server, enabled when it leads or follows
+	 * @return
+	 */
+	public static Journal getInstance() {
+		return instance;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the offset following the last entry
+	 * @return
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * Returns the offset of the oldest byte still held
+	 * @return
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Commits the connection and, if the journal is enabled, appends the entry in the same order as the commit.
+	 * In sync mode this then waits for followers to acknowledge the entry.
+	 * @param con
+	 * @param entry built by {@link JournalEvent}, null when the journal is disabled or the commit changed nothing
+	 *            followers need
+	 * @throws SQLException
+	 */
+	public void commit(Connection con, byte[] entry) throws SQLException {
+		if (!enabled || entry == null) {
+			con.commit();
+			return;
+		}
+		Placed change = new Placed();
+		lock.lock();
+		try {
+			placed.add(change);
+		} finally {
+			lock.unlock();
+		}
+		boolean committed = false;
+		long offset = -1;
+		try {
+			con.commit();
+			committed = true;
+		} finally {
+			lock.lock();
+			try {
+				// A failed commit gives up its place so the changes behind it are not held back
+				change.entry = committed ? entry : null;
+				change.ready = true;
+				appendPlacedLocked();
+				if (committed && sync) {
+					while (change.offset < 0) {
+						appended.awaitUninterruptibly();
+					}
+					offset = change.offset;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		if (sync && !awaitAcknowledged(offset, syncTimeoutMillis)) {
+			syncTimeouts.increment();
+			logger.log(Level.WARNING, "Followers did not acknowledge journal offset {0} in time", String.valueOf(offset));
+		}
+	}
+
+	/**
+	 * Appends entries, returning the offset following them
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public long append(byte[] bytes, int offset, int length) {
+		lock.lock();
+		try {
+			return appendLocked(bytes, offset, length);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void appendPlacedLocked() {
+		while (!placed.isEmpty() && placed.peek().ready) {
+			Placed change = placed.poll();
+			if (change.entry != null) {
+				change.offset = appendLocked(change.entry, 0, change.entry.length);
+			}
+		}
+	}
+
+	private long appendLocked(byte[] bytes, int offset, int length) {
+		long position = end;
+		while (length > 0) {
+			int chunkOffset = (int) (position % CHUNK_BYTES);
+			if (chunkOffset == 0 && firstChunk + chunks.size() == position / CHUNK_BYTES) {
+				chunks.add(new byte[CHUNK_BYTES]);
+			}
+			int copied = Math.min(length, CHUNK_BYTES - chunkOffset);
+			System.arraycopy(bytes, offset, chunk(position), chunkOffset, copied);
+			position += copied;
+			offset += copied;
+			length -= copied;
+		}
+		end = position;
+		dropLocked();
+		appended.signalAll();
+		return position;
+	}
+
+	private byte[] chunk(long position) {
+		return chunks.get((int) (position / CHUNK_BYTES - firstChunk));
+	}
+
+	private void dropLocked() {
+		long keep = end - retainBytes;
+		if (!acknowledgedOffsets.isEmpty()) {
+			long acknowledgedByAll = Long.MAX_VALUE;
+			for (long acknowledgedOffset : acknowledgedOffsets.values()) {
+				acknowledgedByAll = Math.min(acknowledgedByAll, acknowledgedOffset);
+			}
+			keep = Math.max(keep, acknowledgedByAll);
+		}
+		long dropped = Math.min(keep / CHUNK_BYTES - firstChunk, chunks.size());
+		if (dropped > 0) {
+			chunks.subList(0, (int) dropped).clear();
+			firstChunk += dropped;
+			start = firstChunk * CHUNK_BYTES;
+		}
+	}
+
+	/**
+	 * Copies bytes from the offset into the buffer, waiting up to the timeout for any to be appended.
+	 * Returns the number of bytes copied, 0 if none arrived in time.
+	 * @param offset
+	 * @param buffer
+	 * @param timeoutMillis
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public int read(long offset, byte[] buffer, long timeoutMillis) throws InterruptedException {
+		lock.lock();
+		try {
+			if (offset > end) {
+				throw new IllegalArgumentException(String.format("Offset %d is beyond the end of the journal %d", offset, end));
+			}
+			if (offset < start) {
+				throw new IllegalArgumentException(String.format("Offset %d has been dropped, the journal starts at %d", offset, start));
+			}
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			while (end == offset) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return 0;
+				}
+				appended.awaitNanos(remaining);
+			}
+			if (offset < start) {
+				throw new IllegalArgumentException(String.format("Offset %d has been dropped, the journal starts at %d", offset, start));
+			}
+			int length = (int) Math.min(buffer.length, end - offset);
+			int copied = 0;
+			while (copied < length) {
+				long position = offset + copied;
+				int chunkOffset = (int) (position % CHUNK_BYTES);
+				int count = Math.min(length - copied, CHUNK_BYTES - chunkOffset);
+				System.arraycopy(chunk(position), chunkOffset, buffer, copied, count);
+				copied += count;
+			}
+			return length;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records how far a follower has applied the journal
+	 * @param follower
+	 * @param offset
+	 */
+	public void acknowledge(Object follower, long offset) {
+		acknowledgedOffsets.put(follower, offset);
+		lock.lock();
+		try {
+			dropLocked();
+			acknowledged.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forgets a follower that has disconnected
+	 * @param follower
+	 */
+	public void removeFollower(Object follower) {
+		acknowledgedOffsets.remove(follower);
+	}
+
+	/**
+	 * Returns the acknowledged offset of each connected follower
+	 * @return
+	 */
+	public ConcurrentMap<Object, Long> getAcknowledgedOffsets() {
+		return acknowledgedOffsets;
+	}
+
+	/**
+	 * Waits until syncFollowers followers have acknowledged the offset, returning false on timeout
+	 * @param offset
+	 * @param timeoutMillis
+	 * @return
+	 */
+	public boolean awaitAcknowledged(long offset, long timeoutMillis) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		lock.lock();
+		try {
+			while (countAcknowledged(offset) < syncFollowers) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				acknowledged.awaitNanos(remaining);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int countAcknowledged(long offset) {
+		int count = 0;
+		for (long acknowledgedOffset : acknowledgedOffsets.values()) {
+			if (acknowledgedOffset >= offset) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * A change's place in the log, taken before its commit and filled once it is committed
+	 */
+	private static class Placed {
+		private byte[] entry;
+		private boolean ready;
+		private long offset = -1;
+	}
+}
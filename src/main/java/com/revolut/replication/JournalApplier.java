@@ -0,0 +1,46 @@
+package com.revolut.replication;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import com.revolut.beans.PostingRange;
+import com.revolut.beans.PostingRun;
+import com.revolut.beans.ScheduledTransfer;
+
+/**
+ * Applies journal entries received from the leader, in journal order.
+ * A null currency is the base currency, a transfer with a null rate was made between accounts in the same currency.
+ * A posting run arrives with its ranges at their first checkpoints, a checkpoint with the range's values once moved on.
+ * Claimed schedules carry their id, next run and whether they are active, outcomes their id, last outcome and whether
+ * they are active.
+ * @author josh
+ *
+ */
+public interface JournalApplier {
+
+	void accountCreated(long accountId, String accountName, BigDecimal balance, String currency) throws Exception;
+
+	void accountRenamed(String accountName, String newAccountName) throws Exception;
+
+	void accountDeleted(String accountName) throws Exception;
+
+	void transfer(long transactionId, long fromAccountId, String fromAccountName, long toAccountId, String toAccountName,
+			BigDecimal amount, BigDecimal toAmount, BigDecimal rate, long transactionTime) throws Exception;
+
+	void ratesPublished(Map<String, BigDecimal> rates) throws Exception;
+
+	void postingRunCreated(PostingRun run) throws Exception;
+
+	void postingRunStatus(long runId, String status, Long finished) throws Exception;
+
+	void postingCheckpoint(long runId, PostingRange range) throws Exception;
+
+	void scheduleCreated(ScheduledTransfer schedule) throws Exception;
+
+	void scheduleCancelled(long scheduleId) throws Exception;
+
+	void scheduleRunsClaimed(List<ScheduledTransfer> schedules) throws Exception;
+
+	void scheduleOutcomes(List<ScheduledTransfer> schedules) throws Exception;
+}
@@ -0,0 +1,425 @@
+package com.revolut.replication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.revolut.beans.PostingRange;
+import com.revolut.beans.PostingRun;
+import com.revolut.beans.ScheduledTransfer;
+
+/**
+ * Encodes and decodes journal entries.
+ *
+ * Entry : length of what follows (int), type (byte), fields
+ * Account created : account id (long), name (UTF), opening balance (UTF decimal)
+ * Account renamed : name (UTF), new name (UTF)
+ * Account deleted : name (UTF)
+ * Transfer : transaction id (long), from account id (long), from name (UTF), to account id (long),
+ *            to name (UTF), amount (UTF decimal), transaction time in millis (long)
+ * Currency account created : as account created, followed by currency (UTF)
+ * Converted transfer : as transfer with to amount and rate (UTF decimals) before the transaction time
+ * Rates published : rate count (int), then per rate currency (UTF) and rate (UTF decimal)
+ * Posting run created : run id (long), house account id (long), currency (UTF), rule (UTF), parameter (UTF decimal),
+ *            started in millis (long), range count (int), then per range first and last account ids (long)
+ * Posting run status : run id (long), status (UTF), finished in millis (long), 0 while running
+ * Posting checkpoint : run id (long), range's first account id (long), then the range's checkpoint, posted and
+ *            skipped (long) and total (UTF decimal) as they stand once the chunk is committed
+ * Schedule created : schedule id, from account id, to account id (longs), amount (UTF decimal), next run in millis,
+ *            interval seconds (longs)
+ * Schedule cancelled : schedule id (long)
+ * Schedule runs claimed : schedule count (int), then per schedule its id, next run in millis (longs) and whether it
+ *            is still active (boolean)
+ * Schedule outcomes : schedule count (int), then per schedule its id (long), last outcome (UTF) and whether it is
+ *            still active (boolean)
+ *
+ * Accounts in the base currency and transfers between accounts in the same currency may use either form.
+ * Decimals are sent as plain strings so any DECIMAL(20,2) value is carried exactly.
+ * @author josh
+ *
+ */
+public final class JournalEvent {
+
+	static final byte ACCOUNT_CREATED = 1;
+	static final byte ACCOUNT_RENAMED = 2;
+	static final byte ACCOUNT_DELETED = 3;
+	static final byte TRANSFER = 4;
+	static final byte CURRENCY_ACCOUNT_CREATED = 5;
+	static final byte CONVERTED_TRANSFER = 6;
+	static final byte RATES_PUBLISHED = 7;
+	static final byte POSTING_RUN_CREATED = 8;
+	static final byte POSTING_RUN_STATUS = 9;
+	static final byte POSTING_CHECKPOINT = 10;
+	static final byte SCHEDULE_CREATED = 11;
+	static final byte SCHEDULE_CANCELLED = 12;
+	static final byte SCHEDULE_RUNS_CLAIMED = 13;
+	static final byte SCHEDULE_OUTCOMES = 14;
+
+	private JournalEvent() {
+	}
+
+	public static byte[] accountCreated(long accountId, String accountName, BigDecimal balance) {
+		Encoder encoder = new Encoder(ACCOUNT_CREATED);
+		try {
+			encoder.out.writeLong(accountId);
+			encoder.out.writeUTF(accountName);
+			encoder.out.writeUTF(balance.toPlainString());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] accountCreated(long accountId, String accountName, BigDecimal balance, String currency) {
+		Encoder encoder = new Encoder(CURRENCY_ACCOUNT_CREATED);
+		try {
+			encoder.out.writeLong(accountId);
+			encoder.out.writeUTF(accountName);
+			encoder.out.writeUTF(balance.toPlainString());
+			encoder.out.writeUTF(currency);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] accountRenamed(String accountName, String newAccountName) {
+		Encoder encoder = new Encoder(ACCOUNT_RENAMED);
+		try {
+			encoder.out.writeUTF(accountName);
+			encoder.out.writeUTF(newAccountName);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] accountDeleted(String accountName) {
+		Encoder encoder = new Encoder(ACCOUNT_DELETED);
+		try {
+			encoder.out.writeUTF(accountName);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] transfer(long transactionId, long fromAccountId, String fromAccountName, long toAccountId,
+			String toAccountName, BigDecimal amount, long transactionTime) {
+		Encoder encoder = new Encoder(TRANSFER);
+		try {
+			encoder.out.writeLong(transactionId);
+			encoder.out.writeLong(fromAccountId);
+			encoder.out.writeUTF(fromAccountName);
+			encoder.out.writeLong(toAccountId);
+			encoder.out.writeUTF(toAccountName);
+			encoder.out.writeUTF(amount.toPlainString());
+			encoder.out.writeLong(transactionTime);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] transfer(long transactionId, long fromAccountId, String fromAccountName, long toAccountId,
+			String toAccountName, BigDecimal amount, BigDecimal toAmount, BigDecimal rate, long transactionTime) {
+		Encoder encoder = new Encoder(CONVERTED_TRANSFER);
+		try {
+			encoder.out.writeLong(transactionId);
+			encoder.out.writeLong(fromAccountId);
+			encoder.out.writeUTF(fromAccountName);
+			encoder.out.writeLong(toAccountId);
+			encoder.out.writeUTF(toAccountName);
+			encoder.out.writeUTF(amount.toPlainString());
+			encoder.out.writeUTF(toAmount.toPlainString());
+			encoder.out.writeUTF(rate.toPlainString());
+			encoder.out.writeLong(transactionTime);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] ratesPublished(Map<String, BigDecimal> rates) {
+		Encoder encoder = new Encoder(RATES_PUBLISHED);
+		try {
+			encoder.out.writeInt(rates.size());
+			for (Map.Entry<String, BigDecimal> rate : rates.entrySet()) {
+				encoder.out.writeUTF(rate.getKey());
+				encoder.out.writeUTF(rate.getValue().toPlainString());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] postingRunCreated(PostingRun run) {
+		Encoder encoder = new Encoder(POSTING_RUN_CREATED);
+		try {
+			encoder.out.writeLong(run.getId());
+			encoder.out.writeLong(run.getHouseAccountId());
+			encoder.out.writeUTF(run.getCurrency());
+			encoder.out.writeUTF(run.getRule());
+			encoder.out.writeUTF(run.getParameter().toPlainString());
+			encoder.out.writeLong(run.getStarted());
+			encoder.out.writeInt(run.getRanges().size());
+			for (PostingRange range : run.getRanges()) {
+				encoder.out.writeLong(range.getFirstAccountId());
+				encoder.out.writeLong(range.getLastAccountId());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] postingRunStatus(long runId, String status, Long finished) {
+		Encoder encoder = new Encoder(POSTING_RUN_STATUS);
+		try {
+			encoder.out.writeLong(runId);
+			encoder.out.writeUTF(status);
+			encoder.out.writeLong(finished != null ? finished : 0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] postingCheckpoint(long runId, PostingRange range) {
+		Encoder encoder = new Encoder(POSTING_CHECKPOINT);
+		try {
+			encoder.out.writeLong(runId);
+			encoder.out.writeLong(range.getFirstAccountId());
+			encoder.out.writeLong(range.getCheckpoint());
+			encoder.out.writeLong(range.getPosted());
+			encoder.out.writeLong(range.getSkipped());
+			encoder.out.writeUTF(range.getTotal().toPlainString());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] scheduleCreated(ScheduledTransfer schedule) {
+		Encoder encoder = new Encoder(SCHEDULE_CREATED);
+		try {
+			encoder.out.writeLong(schedule.getId());
+			encoder.out.writeLong(schedule.getFromAccountId());
+			encoder.out.writeLong(schedule.getToAccountId());
+			encoder.out.writeUTF(schedule.getAmount().toPlainString());
+			encoder.out.writeLong(schedule.getNextRun());
+			encoder.out.writeLong(schedule.getIntervalSeconds());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] scheduleCancelled(long scheduleId) {
+		Encoder encoder = new Encoder(SCHEDULE_CANCELLED);
+		try {
+			encoder.out.writeLong(scheduleId);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] scheduleRunsClaimed(List<ScheduledTransfer> schedules) {
+		Encoder encoder = new Encoder(SCHEDULE_RUNS_CLAIMED);
+		try {
+			encoder.out.writeInt(schedules.size());
+			for (ScheduledTransfer schedule : schedules) {
+				encoder.out.writeLong(schedule.getId());
+				encoder.out.writeLong(schedule.getNextRun());
+				encoder.out.writeBoolean(Boolean.TRUE.equals(schedule.getActive()));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	public static byte[] scheduleOutcomes(List<ScheduledTransfer> schedules) {
+		Encoder encoder = new Encoder(SCHEDULE_OUTCOMES);
+		try {
+			encoder.out.writeInt(schedules.size());
+			for (ScheduledTransfer schedule : schedules) {
+				encoder.out.writeLong(schedule.getId());
+				encoder.out.writeUTF(schedule.getLastOutcome());
+				encoder.out.writeBoolean(Boolean.TRUE.equals(schedule.getActive()));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return encoder.toByteArray();
+	}
+
+	/**
+	 * Concatenates entries so several changes committed together are appended as one
+	 * @param entries
+	 * @return
+	 */
+	public static byte[] concat(byte[]... entries) {
+		int length = 0;
+		for (byte[] entry : entries) {
+			length += entry.length;
+		}
+		byte[] all = new byte[length];
+		int offset = 0;
+		for (byte[] entry : entries) {
+			System.arraycopy(entry, 0, all, offset, entry.length);
+			offset += entry.length;
+		}
+		return all;
+	}
+
+	/**
+	 * Reads the body of one entry, after its length, and passes it to the applier
+	 * @param in
+	 * @param applier
+	 * @throws Exception
+	 */
+	static void apply(DataInput in, JournalApplier applier) throws Exception {
+		byte type = in.readByte();
+		switch (type) {
+		case ACCOUNT_CREATED:
+			applier.accountCreated(in.readLong(), in.readUTF(), new BigDecimal(in.readUTF()), null);
+			break;
+		case CURRENCY_ACCOUNT_CREATED:
+			applier.accountCreated(in.readLong(), in.readUTF(), new BigDecimal(in.readUTF()), in.readUTF());
+			break;
+		case ACCOUNT_RENAMED:
+			applier.accountRenamed(in.readUTF(), in.readUTF());
+			break;
+		case ACCOUNT_DELETED:
+			applier.accountDeleted(in.readUTF());
+			break;
+		case TRANSFER:
+			applier.transfer(in.readLong(), in.readLong(), in.readUTF(), in.readLong(), in.readUTF(),
+					new BigDecimal(in.readUTF()), null, null, in.readLong());
+			break;
+		case CONVERTED_TRANSFER:
+			applier.transfer(in.readLong(), in.readLong(), in.readUTF(), in.readLong(), in.readUTF(),
+					new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF()), in.readLong());
+			break;
+		case RATES_PUBLISHED:
+			int count = in.readInt();
+			Map<String, BigDecimal> rates = new LinkedHashMap<>();
+			for (int i = 0; i < count; i++) {
+				rates.put(in.readUTF(), new BigDecimal(in.readUTF()));
+			}
+			applier.ratesPublished(rates);
+			break;
+		case POSTING_RUN_CREATED:
+			PostingRun run = new PostingRun();
+			run.setId(in.readLong());
+			run.setHouseAccountId(in.readLong());
+			run.setCurrency(in.readUTF());
+			run.setRule(in.readUTF());
+			run.setParameter(new BigDecimal(in.readUTF()));
+			run.setStarted(in.readLong());
+			run.setStatus(PostingRun.RUNNING);
+			int rangeCount = in.readInt();
+			List<PostingRange> ranges = new ArrayList<>();
+			for (int i = 0; i < rangeCount; i++) {
+				PostingRange range = new PostingRange();
+				range.setFirstAccountId(in.readLong());
+				range.setLastAccountId(in.readLong());
+				range.setCheckpoint(range.getFirstAccountId() - 1);
+				ranges.add(range);
+			}
+			run.setRanges(ranges);
+			applier.postingRunCreated(run);
+			break;
+		case POSTING_RUN_STATUS:
+			long runId = in.readLong();
+			String status = in.readUTF();
+			long finished = in.readLong();
+			applier.postingRunStatus(runId, status, finished != 0 ? finished : null);
+			break;
+		case POSTING_CHECKPOINT:
+			runId = in.readLong();
+			PostingRange range = new PostingRange();
+			range.setFirstAccountId(in.readLong());
+			range.setCheckpoint(in.readLong());
+			range.setPosted(in.readLong());
+			range.setSkipped(in.readLong());
+			range.setTotal(new BigDecimal(in.readUTF()));
+			applier.postingCheckpoint(runId, range);
+			break;
+		case SCHEDULE_CREATED:
+			ScheduledTransfer schedule = new ScheduledTransfer();
+			schedule.setId(in.readLong());
+			schedule.setFromAccountId(in.readLong());
+			schedule.setToAccountId(in.readLong());
+			schedule.setAmount(new BigDecimal(in.readUTF()));
+			schedule.setNextRun(in.readLong());
+			schedule.setIntervalSeconds(in.readLong());
+			schedule.setRuns(0L);
+			schedule.setActive(true);
+			applier.scheduleCreated(schedule);
+			break;
+		case SCHEDULE_CANCELLED:
+			applier.scheduleCancelled(in.readLong());
+			break;
+		case SCHEDULE_RUNS_CLAIMED:
+			count = in.readInt();
+			List<ScheduledTransfer> claimed = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				ScheduledTransfer claim = new ScheduledTransfer();
+				claim.setId(in.readLong());
+				claim.setNextRun(in.readLong());
+				claim.setActive(in.readBoolean());
+				claimed.add(claim);
+			}
+			applier.scheduleRunsClaimed(claimed);
+			break;
+		case SCHEDULE_OUTCOMES:
+			count = in.readInt();
+			List<ScheduledTransfer> outcomes = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				ScheduledTransfer outcome = new ScheduledTransfer();
+				outcome.setId(in.readLong());
+				outcome.setLastOutcome(in.readUTF());
+				outcome.setActive(in.readBoolean());
+				outcomes.add(outcome);
+			}
+			applier.scheduleOutcomes(outcomes);
+			break;
+		default:
+			throw new IOException(String.format("Unknown journal entry type %d", type));
+		}
+	}
+
+	private static class Encoder {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		private final DataOutputStream out = new DataOutputStream(bytes);
+
+		private Encoder(byte type) {
+			try {
+				out.writeInt(0);
+				out.writeByte(type);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private byte[] toByteArray() {
+			byte[] entry = bytes.toByteArray();
+			int length = entry.length - 4;
+			entry[0] = (byte) (length >>> 24);
+			entry[1] = (byte) (length >>> 16);
+			entry[2] = (byte) (length >>> 8);
+			entry[3] = (byte) length;
+			return entry;
+		}
+	}
+}
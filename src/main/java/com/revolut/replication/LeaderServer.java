@@ -0,0 +1,138 @@
+package com.revolut.replication;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams the journal to followers. A follower connects, sends the offset it wants to start from and
+ * then receives every entry from there on as it is appended, sending back the offset it has applied
+ * after each batch. Each follower has a thread sending and a thread reading acknowledgements.
+ * @author josh
+ *
+ */
+public class LeaderServer {
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private static final int SEND_BUFFER_BYTES = 64 * 1024;
+	private static final long POLL_MILLIS = 500;
+
+	private final Journal journal;
+	private final int requestedPort;
+	private ServerSocket serverSocket;
+	private volatile boolean running;
+
+	public LeaderServer(Journal journal, int port) {
+		this.journal = journal;
+		this.requestedPort = port;
+	}
+
+	/**
+	 * Binds the listening socket and starts accepting followers
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException {
+		serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(requestedPort));
+		running = true;
+		Thread acceptor = new Thread(this::accept, "replication-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		logger.log(Level.INFO, "Replication listener started on port {0}", String.valueOf(getPort()));
+	}
+
+	public synchronized void stop() {
+		running = false;
+		try {
+			if (serverSocket != null) {
+				serverSocket.close();
+			}
+		} catch (IOException e) {
+		}
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Thread sender = new Thread(() -> follow(socket), "replication-sender-" + socket.getRemoteSocketAddress());
+				sender.setDaemon(true);
+				sender.start();
+			} catch (IOException e) {
+				if (running) {
+					logger.log(Level.WARNING, "Unable to accept follower", e);
+				}
+			}
+		}
+	}
+
+	private void follow(Socket socket) {
+		Object follower = socket.getRemoteSocketAddress();
+		try (Socket closing = socket) {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), SEND_BUFFER_BYTES));
+			long offset = in.readLong();
+			if (offset > journal.getEnd()) {
+				logger.log(Level.SEVERE, "Follower {0} asked for offset {1} beyond the end of the journal {2}",
+						new Object[] { follower, String.valueOf(offset), String.valueOf(journal.getEnd()) });
+				return;
+			}
+			if (offset < journal.getStart()) {
+				logger.log(Level.SEVERE, "Follower {0} asked for offset {1} dropped from the journal, which starts at {2}",
+						new Object[] { follower, String.valueOf(offset), String.valueOf(journal.getStart()) });
+				return;
+			}
+			logger.log(Level.INFO, "Follower {0} connected from offset {1}", new Object[] { follower, String.valueOf(offset) });
+			journal.acknowledge(follower, offset);
+			Thread acknowledgements = new Thread(() -> readAcknowledgements(follower, in), "replication-acks-" + follower);
+			acknowledgements.setDaemon(true);
+			acknowledgements.start();
+
+			byte[] buffer = new byte[SEND_BUFFER_BYTES];
+			while (running && !socket.isClosed()) {
+				int length = journal.read(offset, buffer, POLL_MILLIS);
+				if (length > 0) {
+					out.write(buffer, 0, length);
+					offset += length;
+					// Keep writing while there is more, flush once caught up
+					if (offset < journal.getEnd()) {
+						continue;
+					}
+				}
+				out.flush();
+			}
+		} catch (EOFException e) {
+			logger.log(Level.INFO, "Follower {0} disconnected", follower);
+		} catch (IOException e) {
+			logger.log(Level.INFO, "Follower {0} disconnected: {1}", new Object[] { follower, e.getMessage() });
+		} catch (IllegalArgumentException e) {
+			logger.log(Level.SEVERE, "Follower {0} fell behind the journal: {1}", new Object[] { follower, e.getMessage() });
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			journal.removeFollower(follower);
+		}
+	}
+
+	private void readAcknowledgements(Object follower, DataInputStream in) {
+		try {
+			while (true) {
+				journal.acknowledge(follower, in.readLong());
+			}
+		} catch (IOException e) {
+			// The sender notices the closed socket and cleans up
+		}
+	}
+}
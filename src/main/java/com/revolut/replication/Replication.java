@@ -0,0 +1,91 @@
+package com.revolut.replication;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.database.ReplicaDAO;
+
+/**
+ * This server's part in replication. With transfermoney.replication.port set it streams its journal to
+ * followers on that port, with transfermoney.replication.leader=host:port set it follows that leader and
+ * refuses writes until promoted. A follower may do both to pass the journal on to further followers.
+ * @author josh
+ *
+ */
+public final class Replication {
+	private static final Logger logger = Logger.getLogger(Replication.class.getName());
+
+	private static final String LEADER = System.getProperty("transfermoney.replication.leader");
+
+	private static volatile boolean following = LEADER != null;
+	private static LeaderServer leaderServer;
+	private static FollowerClient followerClient;
+
+	private Replication() {
+	}
+
+	/**
+	 * Returns true while this server follows a leader and so must not accept writes
+	 * @return
+	 */
+	public static boolean isFollower() {
+		return following;
+	}
+
+	public static String getLeader() {
+		return following ? LEADER : null;
+	}
+
+	public static boolean isConnected() {
+		FollowerClient client = followerClient;
+		return client != null && client.isConnected();
+	}
+
+	static synchronized void start() {
+		Integer port = Integer.getInteger("transfermoney.replication.port");
+		if (port != null) {
+			leaderServer = new LeaderServer(Journal.getInstance(), port);
+			try {
+				leaderServer.start();
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Unable to start replication listener", e);
+				leaderServer = null;
+			}
+		}
+		if (following) {
+			int separator = LEADER.lastIndexOf(':');
+			followerClient = new FollowerClient(LEADER.substring(0, separator), Integer.parseInt(LEADER.substring(separator + 1)),
+					Journal.getInstance(), new ReplicaDAO(), Long.getLong("transfermoney.replication.reconnectMillis", 1000));
+			followerClient.start();
+		}
+	}
+
+	static synchronized void stop() {
+		if (followerClient != null) {
+			followerClient.stop();
+		}
+		if (leaderServer != null) {
+			leaderServer.stop();
+		}
+	}
+
+	/**
+	 * Stops following and starts accepting writes, returning false if this server wasn't a follower.
+	 * Changes from here on are journaled from the end of what was received, so other followers of the
+	 * old leader can follow this server instead as long as they have not received more.
+	 * @return
+	 */
+	public static synchronized boolean promote() {
+		if (!following) {
+			return false;
+		}
+		if (followerClient != null) {
+			followerClient.stop();
+			followerClient = null;
+		}
+		following = false;
+		logger.log(Level.INFO, "Promoted to leader at journal offset {0}", String.valueOf(Journal.getInstance().getEnd()));
+		return true;
+	}
+}
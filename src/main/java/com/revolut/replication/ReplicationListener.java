@@ -0,0 +1,23 @@
+package com.revolut.replication;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Starts replication alongside the web application when transfermoney.replication.port or
+ * transfermoney.replication.leader is set.
+ * @author josh
+ *
+ */
+public class ReplicationListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		Replication.start();
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		Replication.stop();
+	}
+}
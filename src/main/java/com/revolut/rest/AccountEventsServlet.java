@@ -0,0 +1,76 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.gson.Gson;
+import com.revolut.events.AccountEvents;
+
+/**
+ * Account Events Servlet
+ * @author josh
+ *
+ */
+public class AccountEventsServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	private static final int BUFFER_EVENTS = Integer.getInteger("transfermoney.events.bufferSize", 64);
+	private static final int MAX_ACCOUNTS = 100;
+
+	/**
+	 * Title : Streams the balance of the given accounts, and any rename or delete, as Server-Sent Events
+	 * URL : TransferMoney/AccountEvents?accountName=
+	 * Method : GET
+	 * URL Params :  Required: accountName=[String], repeated for each account up to 100
+	 * Response Codes: Success (200 OK, text/event-stream), Bad Request (400), Service Unavailable (503)
+	 * Example: TransferMoney/AccountEvents?accountName=TestAccount1&accountName=TestAccount2
+	 * 
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		Response eventsResponse = new Response();
+		Gson gson = new Gson();
+		Set<String> accountNames = new LinkedHashSet<>();
+		String[] names = request.getParameterValues("accountName");
+		if (names != null) {
+			for (String name : names) {
+				if (StringUtils.isNotBlank(name)) {
+					accountNames.add(name);
+				}
+			}
+		}
+		if (accountNames.isEmpty() || accountNames.size() > MAX_ACCOUNTS) {
+			eventsResponse.setMessage(String.format("Between 1 and %d Account Names must be given.", MAX_ACCOUNTS));
+			response.getWriter().append(gson.toJson(eventsResponse));
+			return;
+		}
+
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		AsyncContext async = request.startAsync();
+		async.setTimeout(0);
+		EventStream stream = new EventStream(async, accountNames, BUFFER_EVENTS, AccountEvents.getInstance());
+		if (!AccountEvents.getInstance().subscribe(stream)) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			response.setContentType("application/json");
+			eventsResponse.setMessage("Too many subscribers, try again later.");
+			response.getOutputStream().write(gson.toJson(eventsResponse).getBytes("UTF-8"));
+			async.complete();
+			return;
+		}
+		stream.start();
+	}
+
+}
@@ -0,0 +1,17 @@
+package com.revolut.rest;
+
+import com.revolut.beans.ImportReport;
+
+public class AccountImportResponse extends Response {
+
+	private ImportReport report;
+
+	public ImportReport getReport() {
+		return report;
+	}
+
+	public void setReport(ImportReport report) {
+		this.report = report;
+	}
+
+}
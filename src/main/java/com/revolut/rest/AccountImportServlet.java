@@ -0,0 +1,54 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.gson.Gson;
+import com.revolut.beans.ImportReport;
+import com.revolut.service.AccountImporter;
+
+/**
+ * Account Import Servlet
+ * @author josh
+ *
+ */
+public class AccountImportServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	private AccountImporter accountImporter = new AccountImporter();
+
+	/**
+	 * Title : Creates accounts in bulk from newline delimited JSON or CSV
+	 * URL : TransferMoney/AccountImport
+	 * Method : POST
+	 * Headers : Content-Type=[application/x-ndjson or text/csv]
+	 * Data Params : one account per line, {accountName = [string], balance = [numeric], currency = [string, optional]} or accountName,balance
+	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Example: {accountName = "TestAccount1", balance = "100.00"}
+	 * 
+	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		AccountImportResponse importResponse = new AccountImportResponse();
+		Gson gson = new Gson();
+		try {
+			boolean csv = StringUtils.containsIgnoreCase(request.getContentType(), "csv");
+			ImportReport report = accountImporter.importAccounts(request.getReader(), csv);
+			importResponse.setReport(report);
+			importResponse.setStatus(Response.SUCCESS);
+			importResponse.setMessage(String.format("Imported %d accounts, rejected %d", report.getAccepted(), report.getRejected()));
+			response.setStatus(HttpServletResponse.SC_OK);
+		} catch (Exception e) {
+			importResponse.setMessage("The payload was invalid");
+		}
+		response.getWriter().append(gson.toJson(importResponse));
+	}
+
+}
@@ -0,0 +1,17 @@
+package com.revolut.rest;
+
+import java.util.List;
+
+public class AccountSearchResponse extends Response {
+
+	private List<String> accountNames;
+
+	public List<String> getAccountNames() {
+		return accountNames;
+	}
+
+	public void setAccountNames(List<String> accountNames) {
+		this.accountNames = accountNames;
+	}
+
+}
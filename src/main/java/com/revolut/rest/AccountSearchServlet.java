@@ -0,0 +1,65 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.gson.Gson;
+import com.revolut.search.AccountNameIndex;
+
+/**
+ * Account Search Servlet
+ * @author josh
+ *
+ */
+public class AccountSearchServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	private static final int DEFAULT_LIMIT = 10;
+	private static final int MAX_LIMIT = 100;
+
+	private AccountNameIndex nameIndex = AccountNameIndex.getInstance();
+
+	/**
+	 * Title : Returns the names of accounts starting with, or most like, the given text, ignoring case
+	 * URL : TransferMoney/AccountSearch?name=
+	 * Method : GET
+	 * URL Params :  Required: name=[String]
+	 *               Optional: match=[prefix (default) or fuzzy], limit=[numeric, default 10, at most 100]
+	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Example: TransferMoney/AccountSearch?name=testacc&match=prefix&limit=5
+	 * 
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		AccountSearchResponse searchResponse = new AccountSearchResponse();
+		Gson gson = new Gson();
+		try {
+			String name = request.getParameter("name");
+			String match = StringUtils.defaultIfBlank(request.getParameter("match"), "prefix");
+			String limitParam = request.getParameter("limit");
+			int limit = StringUtils.isNotBlank(limitParam) ? Integer.parseInt(limitParam) : DEFAULT_LIMIT;
+			if (!nameIndex.isEnabled()) {
+				searchResponse.setMessage("Account search is not enabled on this server");
+			} else if (StringUtils.isBlank(name) || limit < 1 || limit > MAX_LIMIT
+					|| !(match.equals("prefix") || match.equals("fuzzy"))) {
+				searchResponse.setMessage("The name, match and limit received were not valid");
+			} else {
+				List<String> accountNames = match.equals("prefix") ? nameIndex.prefix(name, limit) : nameIndex.fuzzy(name, limit);
+				searchResponse.setAccountNames(accountNames);
+				searchResponse.setMessage(String.format("%d Accounts found", accountNames.size()));
+				searchResponse.setStatus(Response.SUCCESS);
+				response.setStatus(HttpServletResponse.SC_OK);
+			}
+		} catch (Exception e) {
+			searchResponse.setMessage("The payload was invalid");
+		}
+		response.getWriter().append(gson.toJson(searchResponse));
+	}
+}
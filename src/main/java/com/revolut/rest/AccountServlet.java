@@ -12,7 +12,12 @@ import org.apache.commons.lang3.StringUtils;
 import com.google.gson.Gson;
 import com.revolut.beans.Account;
 import com.revolut.beans.AccountUpdate;
+import com.revolut.bulkhead.Bulkheads;
 import com.revolut.database.AccountDAO;
+import com.revolut.database.AccountVersions;
+import com.revolut.fx.FxRates;
+import com.revolut.tracing.Span;
+import com.revolut.tracing.Tracer;
 
 /**
  * Account Servlet
@@ -29,20 +34,32 @@ public class AccountServlet extends HttpServlet {
 	 * URL : TransferMoney/Account?accountName=
 	 * Method : GET
 	 * URL Params :  Required: accountName=[String]
-	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Headers : Optional: If-None-Match=[ETag from a previous response]
+	 * Response Codes: Success (200 OK), Not Modified (304), Bad Request (400), Service Unavailable (503)
 	 * Example: TransferMoney/Account?accountName=TestAccount1
 	 * 
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
 	 */
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		Bulkheaded.run(Bulkheads.lookups(), response, () -> getAccount(request, response));
+	}
+
+	private void getAccount(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
 		AccountResponse accountResponse = new AccountResponse();
 		Gson gson = new Gson();
 		try {
 			String accountName = request.getParameter("accountName");
 			if (StringUtils.isNotBlank(accountName)) {
+				// Nothing to send if the client already has the current version of the account
+				if (ConditionalGet.notModified(request, response, AccountVersions.accountTag(accountName))) {
+					return;
+				}
 				// Search for account
-				Account account = accountDAO.getAccount(accountName);			
+				Account account;
+				try (Span span = Tracer.span("account.lookup")) {
+					account = accountDAO.getAccount(accountName);
+				}
 				if (account == null) {
 					accountResponse.setMessage(String.format("Unable to find an account matching the name %s", accountName));
 				} else {
@@ -57,16 +74,18 @@ public class AccountServlet extends HttpServlet {
 		} catch (Exception e) {
 			accountResponse.setMessage("The payload was invalid");
 		}
-		response.getWriter().append(gson.toJson(accountResponse));
+		try (Span span = Tracer.span("respond")) {
+			response.getWriter().append(gson.toJson(accountResponse));
+		}
 	}
 
 	/**
-	 * Title : Creates an account with a given name and opening balance
+	 * Title : Creates an account with a given name, opening balance and optionally currency, the base currency if not given
 	 * URL : TransferMoney/Account
 	 * Method : POST
-	 * Data Params : {accountName = [string], balance = [numeric]}
+	 * Data Params : {accountName = [string], balance = [numeric], currency = [string, optional]}
 	 * Response Codes: Success (200 OK), Bad Request (400)
-	 * Example: {accountName = "TestAccount1", balance = "100.00"}
+	 * Example: {accountName = "TestAccount1", balance = "100.00", currency = "EUR"}
 	 * 
 	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
 	 */
@@ -75,15 +94,25 @@ public class AccountServlet extends HttpServlet {
 		AccountResponse accountResponse = new AccountResponse();
 		Gson gson = new Gson();
 		try {
-			Account account = gson.fromJson(request.getReader(), Account.class);
+			Account account;
+			try (Span span = Tracer.span("parse")) {
+				account = gson.fromJson(request.getReader(), Account.class);
+			}
 			String accountName = account != null ? account.getAccountName() : null;
 			BigDecimal initialBalance = account != null ? account.getBalance() : null;
+			String currency = account != null && account.getCurrency() != null ? account.getCurrency() : FxRates.getInstance().getBaseCurrency();
 			// Ensure we have a name and an initial balance
 			if (StringUtils.isNotBlank(accountName) && initialBalance != null) {
 				// Ensure we don't already have an account with this name
-				if (accountDAO.getAccount(accountName) == null) {
-					String status = accountDAO.createAccount(accountName, initialBalance);
+				if (!FxRates.getInstance().getSnapshot().isSupported(currency)) {
+					accountResponse.setMessage(String.format("Currency %s is not supported", currency));
+				} else if (accountDAO.getAccount(accountName) == null) {
+					String status;
+					try (Span span = Tracer.span("account.create")) {
+						status = accountDAO.createAccount(accountName, initialBalance, currency);
+					}
 					if (StringUtils.equals(status, Response.SUCCESS)) {
+						account.setCurrency(currency);
 						accountResponse.setAccount(account);
 						accountResponse.setStatus(Response.SUCCESS);
 						accountResponse.setMessage(String.format("Successfully created account %s", accountName));
@@ -0,0 +1,50 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.revolut.bulkhead.Bulkhead;
+
+/**
+ * Runs a request handler in a bulkhead, answering 503 Service Unavailable with a Retry-After header
+ * when the bulkhead is full
+ * @author josh
+ *
+ */
+final class Bulkheaded {
+
+	private static final int RETRY_AFTER_SECONDS = 1;
+
+	interface Handler {
+		void handle() throws ServletException, IOException;
+	}
+
+	private Bulkheaded() {
+	}
+
+	static void run(Bulkhead bulkhead, HttpServletResponse response, Handler handler)
+			throws ServletException, IOException {
+		try {
+			bulkhead.call(() -> {
+				handler.handle();
+				return null;
+			});
+		} catch (RejectedExecutionException e) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+			Response fullResponse = new Response();
+			fullResponse.setStatus(Response.ERROR);
+			fullResponse.setMessage(String.format("The %s bulkhead is full, retry after %d seconds",
+					bulkhead.getName(), RETRY_AFTER_SECONDS));
+			response.getWriter().append(new Gson().toJson(fullResponse));
+		} catch (ServletException | IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ServletException(e);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.revolut.rest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Helper for answering conditional GET requests
+ * @author josh
+ *
+ */
+public final class ConditionalGet {
+
+	private ConditionalGet() {
+	}
+
+	/**
+	 * Sets the ETag header and, if the request's If-None-Match header matches it, a 304 status.
+	 * Returns true when the response is complete and no body should be written.
+	 * @param request
+	 * @param response
+	 * @param eTag
+	 * @return
+	 */
+	public static boolean notModified(HttpServletRequest request, HttpServletResponse response, String eTag) {
+		response.setHeader("ETag", eTag);
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (StringUtils.isBlank(ifNoneMatch)) {
+			return false;
+		}
+		for (String candidate : StringUtils.split(ifNoneMatch, ',')) {
+			String tag = StringUtils.removeStart(candidate.trim(), "W/");
+			if (StringUtils.equals(tag, eTag) || StringUtils.equals(tag, "*")) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return true;
+			}
+		}
+		return false;
+	}
+}
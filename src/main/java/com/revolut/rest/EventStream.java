@@ -0,0 +1,117 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import com.revolut.events.AccountEvents;
+import com.revolut.events.Subscriber;
+
+/**
+ * An open Server-Sent Events response. Events are written with non blocking output, only while the
+ * container says the connection can take more, the rest wait in the subscriber's buffer until it can.
+ * @author josh
+ *
+ */
+public class EventStream extends Subscriber implements WriteListener, AsyncListener {
+
+	private final AsyncContext async;
+	private final AccountEvents events;
+	private final ServletOutputStream out;
+	private boolean started;
+	private boolean unflushed;
+	private boolean closed;
+
+	public EventStream(AsyncContext async, Collection<String> accountNames, int capacity, AccountEvents events) throws IOException {
+		super(accountNames, capacity);
+		this.async = async;
+		this.events = events;
+		this.out = async.getResponse().getOutputStream();
+		async.addListener(this);
+		// Sent first so the response starts straight away, tells the client how soon to reconnect
+		offer("retry: 3000\n\n");
+	}
+
+	/**
+	 * Starts writing, the container calls onWritePossible once the connection can take data
+	 */
+	public synchronized void start() {
+		started = true;
+		out.setWriteListener(this);
+	}
+
+	@Override
+	protected void send() {
+		write();
+	}
+
+	@Override
+	protected synchronized void close() {
+		if (!closed) {
+			closed = true;
+			async.complete();
+		}
+	}
+
+	private synchronized void write() {
+		if (!started || closed) {
+			return;
+		}
+		try {
+			while (out.isReady()) {
+				String event = poll();
+				if (event == null) {
+					if (!unflushed) {
+						return;
+					}
+					unflushed = false;
+					out.flush();
+					continue;
+				}
+				out.write(event.getBytes(StandardCharsets.UTF_8));
+				unflushed = true;
+			}
+		} catch (IOException e) {
+			events.unsubscribe(this);
+			close();
+		}
+	}
+
+	@Override
+	public void onWritePossible() throws IOException {
+		write();
+	}
+
+	@Override
+	public void onError(Throwable t) {
+		events.unsubscribe(this);
+		close();
+	}
+
+	@Override
+	public void onComplete(AsyncEvent event) throws IOException {
+		events.unsubscribe(this);
+	}
+
+	@Override
+	public void onTimeout(AsyncEvent event) throws IOException {
+		events.unsubscribe(this);
+		close();
+	}
+
+	@Override
+	public void onError(AsyncEvent event) throws IOException {
+		events.unsubscribe(this);
+		close();
+	}
+
+	@Override
+	public void onStartAsync(AsyncEvent event) throws IOException {
+	}
+}
@@ -0,0 +1,47 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.revolut.replication.Replication;
+
+/**
+ * Turns away writes while this server is a follower, only GET requests are served from its copy of the data
+ * @author josh
+ *
+ */
+public class FollowerFilter implements Filter {
+
+	@Override
+	public void init(FilterConfig config) throws ServletException {
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		if (Replication.isFollower() && !"GET".equals(((HttpServletRequest) request).getMethod())) {
+			HttpServletResponse httpResponse = (HttpServletResponse) response;
+			httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			Response followerResponse = new Response();
+			followerResponse.setStatus(Response.ERROR);
+			followerResponse.setMessage(String.format("This server is a read only follower, send changes to %s",
+					Replication.getLeader()));
+			httpResponse.getWriter().append(new Gson().toJson(followerResponse));
+			return;
+		}
+		chain.doFilter(request, response);
+	}
+
+	@Override
+	public void destroy() {
+	}
+}
@@ -0,0 +1,36 @@
+package com.revolut.rest;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+public class FxRateResponse extends Response {
+
+	private String baseCurrency;
+	private Long version;
+	private Map<String, BigDecimal> rates;
+
+	public String getBaseCurrency() {
+		return baseCurrency;
+	}
+
+	public void setBaseCurrency(String baseCurrency) {
+		this.baseCurrency = baseCurrency;
+	}
+
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
+	public Map<String, BigDecimal> getRates() {
+		return rates;
+	}
+
+	public void setRates(Map<String, BigDecimal> rates) {
+		this.rates = rates;
+	}
+
+}
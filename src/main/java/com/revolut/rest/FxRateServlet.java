@@ -0,0 +1,101 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.gson.Gson;
+import com.revolut.beans.FxRateUpdate;
+import com.revolut.fx.FxRates;
+import com.revolut.fx.FxSnapshot;
+
+/**
+ * FX Rate Servlet
+ * @author josh
+ *
+ */
+public class FxRateServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	private FxRates fxRates = FxRates.getInstance();
+
+	/**
+	 * Title : Returns the current exchange rates, each the value of one unit of the currency in the base currency
+	 * URL : TransferMoney/FxRate
+	 * Method : GET
+	 * Response Codes: Success (200 OK)
+	 * Example: TransferMoney/FxRate
+	 * 
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		FxRateResponse rateResponse = new FxRateResponse();
+		Gson gson = new Gson();
+		setRates(rateResponse, fxRates.getSnapshot());
+		rateResponse.setStatus(Response.SUCCESS);
+		rateResponse.setMessage(String.format("%d Rates found", rateResponse.getRates().size()));
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getWriter().append(gson.toJson(rateResponse));
+	}
+
+	/**
+	 * Title : Adds or replaces the exchange rates of the given currencies, leaving the others as they are
+	 * URL : TransferMoney/FxRate
+	 * Method : POST
+	 * Data Params : {rates = {[currency code] = [numeric value of one unit in the base currency], ...}}
+	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Example: {rates = {EUR = "0.8650", USD = "0.7920"}}
+	 * 
+	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		FxRateResponse rateResponse = new FxRateResponse();
+		Gson gson = new Gson();
+		try {
+			FxRateUpdate update = gson.fromJson(request.getReader(), FxRateUpdate.class);
+			Map<String, BigDecimal> rates = update != null ? update.getRates() : null;
+			if (!isValid(rates)) {
+				rateResponse.setMessage(String.format("The rates received were not valid, each must be a positive value "
+						+ "for a three letter currency code other than %s", fxRates.getBaseCurrency()));
+			} else if (StringUtils.equals(fxRates.publish(rates), Response.SUCCESS)) {
+				setRates(rateResponse, fxRates.getSnapshot());
+				rateResponse.setStatus(Response.SUCCESS);
+				rateResponse.setMessage(String.format("Successfully published %d rates", rates.size()));
+				response.setStatus(HttpServletResponse.SC_OK);
+			} else {
+				// A technical error occurred
+				rateResponse.setMessage("Unable to publish the rates");
+			}
+		} catch (Exception e) {
+			rateResponse.setMessage("The payload was invalid");
+		}
+		response.getWriter().append(gson.toJson(rateResponse));
+	}
+
+	private boolean isValid(Map<String, BigDecimal> rates) {
+		if (rates == null || rates.isEmpty()) {
+			return false;
+		}
+		for (Map.Entry<String, BigDecimal> rate : rates.entrySet()) {
+			if (!FxRates.isCurrencyCode(rate.getKey()) || rate.getKey().equals(fxRates.getBaseCurrency())
+					|| rate.getValue() == null || FxRates.toScale(rate.getValue()).signum() <= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void setRates(FxRateResponse rateResponse, FxSnapshot snapshot) {
+		rateResponse.setBaseCurrency(snapshot.getBaseCurrency());
+		rateResponse.setVersion(snapshot.getVersion());
+		rateResponse.setRates(snapshot.getRates());
+	}
+}
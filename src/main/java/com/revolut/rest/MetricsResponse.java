@@ -0,0 +1,17 @@
+package com.revolut.rest;
+
+import java.util.Map;
+
+public class MetricsResponse extends Response {
+
+	private Map<String, Long> metrics;
+
+	public Map<String, Long> getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(Map<String, Long> metrics) {
+		this.metrics = metrics;
+	}
+
+}
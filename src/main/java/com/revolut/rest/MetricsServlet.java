@@ -0,0 +1,40 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.revolut.metrics.Metrics;
+
+/**
+ * Metrics Servlet
+ * @author josh
+ *
+ */
+public class MetricsServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Title : Returns the current value of all registered metrics
+	 * URL : TransferMoney/Metrics
+	 * Method : GET
+	 * Response Codes: Success (200 OK)
+	 * Example: TransferMoney/Metrics
+	 * 
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		MetricsResponse metricsResponse = new MetricsResponse();
+		Gson gson = new Gson();
+		metricsResponse.setMetrics(Metrics.snapshot());
+		metricsResponse.setStatus(Response.SUCCESS);
+		metricsResponse.setMessage(String.format("%d Metrics found", metricsResponse.getMetrics().size()));
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getWriter().append(gson.toJson(metricsResponse));
+	}
+
+}
@@ -0,0 +1,17 @@
+package com.revolut.rest;
+
+import com.revolut.beans.PostingRun;
+
+public class PostingResponse extends Response {
+
+	private PostingRun postingRun;
+
+	public PostingRun getPostingRun() {
+		return postingRun;
+	}
+
+	public void setPostingRun(PostingRun postingRun) {
+		this.postingRun = postingRun;
+	}
+
+}
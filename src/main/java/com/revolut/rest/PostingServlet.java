@@ -0,0 +1,118 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.gson.Gson;
+import com.revolut.beans.Account;
+import com.revolut.beans.PostingRun;
+import com.revolut.database.AccountDAO;
+import com.revolut.database.PostingDAO;
+import com.revolut.posting.PostingEngine;
+import com.revolut.posting.PostingRules;
+
+/**
+ * Posting Servlet
+ * @author josh
+ *
+ */
+public class PostingServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	private AccountDAO accountDAO = new AccountDAO();
+	private PostingDAO postingDAO = new PostingDAO();
+	private PostingEngine postingEngine = PostingEngine.getInstance();
+
+	/**
+	 * Title : Returns a bulk posting run and how far each of its ranges has got
+	 * URL : TransferMoney/Posting?id=
+	 * Method : GET
+	 * URL Params :  Required: id=[numeric]
+	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Example: TransferMoney/Posting?id=1
+	 * 
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		PostingResponse postingResponse = new PostingResponse();
+		Gson gson = new Gson();
+		String id = request.getParameter("id");
+		PostingRun run = StringUtils.isNumeric(id) ? postingDAO.getRun(Long.parseLong(id)) : null;
+		if (run != null) {
+			postingResponse.setPostingRun(run);
+			postingResponse.setStatus(Response.SUCCESS);
+			postingResponse.setMessage(String.format("Posting run %d is %s", run.getId(), run.getStatus()));
+			response.setStatus(HttpServletResponse.SC_OK);
+		} else {
+			postingResponse.setMessage(String.format("No posting run %s exists", id));
+		}
+		response.getWriter().append(gson.toJson(postingResponse));
+	}
+
+	/**
+	 * Title : Starts a bulk posting run over every account in the house account's currency, or resumes a failed run
+	 * URL : TransferMoney/Posting
+	 * Method : POST
+	 * Data Params : {houseAccountName = [string], rule = [fee | interest], parameter = [numeric, the fee or the interest rate]}
+	 *               or {id = [numeric, run to resume]}
+	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Example: {houseAccountName = "FeeIncome", rule = "fee", parameter = "2.50"}
+	 * 
+	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		PostingResponse postingResponse = new PostingResponse();
+		Gson gson = new Gson();
+		try {
+			PostingRun posting = gson.fromJson(request.getReader(), PostingRun.class);
+			if (posting != null && posting.getId() != null) {
+				PostingRun run = postingEngine.resumeRun(posting.getId());
+				if (run != null) {
+					postingResponse.setPostingRun(run);
+					postingResponse.setStatus(Response.SUCCESS);
+					postingResponse.setMessage(String.format("Resumed posting run %d", run.getId()));
+					response.setStatus(HttpServletResponse.SC_OK);
+				} else {
+					postingResponse.setMessage(String.format("No unfinished posting run %d exists", posting.getId()));
+				}
+			} else {
+				String houseAccountName = posting != null ? posting.getHouseAccountName() : null;
+				String rule = posting != null ? posting.getRule() : null;
+				BigDecimal parameter = posting != null ? posting.getParameter() : null;
+				if (StringUtils.isBlank(houseAccountName) || !PostingRules.isRegistered(rule) || parameter == null
+						|| parameter.compareTo(BigDecimal.ZERO) != 1) {
+					postingResponse.setMessage("The house Account Name, rule and parameter received were not valid");
+				} else {
+					Account houseAccount = accountDAO.getAccount(houseAccountName);
+					if (houseAccount == null) {
+						postingResponse.setMessage(String.format("House account with name %s does not exist", houseAccountName));
+					} else {
+						PostingRun run = postingEngine.startRun(houseAccount, rule, parameter);
+						if (run != null) {
+							postingResponse.setPostingRun(run);
+							postingResponse.setStatus(Response.SUCCESS);
+							postingResponse.setMessage(String.format("Started posting run %d over %s accounts", run.getId(),
+									run.getCurrency()));
+							response.setStatus(HttpServletResponse.SC_OK);
+						} else {
+							// A technical error occurred
+							postingResponse.setMessage(String.format("Unable to start a posting run for %s", houseAccountName));
+						}
+					}
+				}
+			}
+		} catch (Exception e) {
+			postingResponse.setMessage("The payload was invalid");
+		}
+		response.getWriter().append(gson.toJson(postingResponse));
+	}
+}
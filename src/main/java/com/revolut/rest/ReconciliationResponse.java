@@ -0,0 +1,17 @@
+package com.revolut.rest;
+
+import com.revolut.beans.ReconciliationReport;
+
+public class ReconciliationResponse extends Response {
+
+	private ReconciliationReport report;
+
+	public ReconciliationReport getReport() {
+		return report;
+	}
+
+	public void setReport(ReconciliationReport report) {
+		this.report = report;
+	}
+
+}
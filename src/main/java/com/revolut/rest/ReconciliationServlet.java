@@ -0,0 +1,71 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.revolut.reconciliation.ReconciliationJob;
+
+/**
+ * Reconciliation Servlet
+ * @author josh
+ *
+ */
+public class ReconciliationServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Title : Returns the progress or result of the latest ledger reconciliation
+	 * URL : TransferMoney/Reconciliation
+	 * Method : GET
+	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Example: TransferMoney/Reconciliation
+	 * 
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		ReconciliationResponse reconciliationResponse = new ReconciliationResponse();
+		Gson gson = new Gson();
+		ReconciliationJob job = ReconciliationJob.getLatest();
+		if (job == null) {
+			reconciliationResponse.setMessage("No reconciliation has been run");
+		} else {
+			reconciliationResponse.setReport(job.getReport());
+			reconciliationResponse.setStatus(Response.SUCCESS);
+			reconciliationResponse.setMessage(String.format("Reconciliation is %s", job.getReport().getState()));
+			response.setStatus(HttpServletResponse.SC_OK);
+		}
+		response.getWriter().append(gson.toJson(reconciliationResponse));
+	}
+
+	/**
+	 * Title : Starts a ledger reconciliation, checking every account balance against its transactions
+	 * URL : TransferMoney/Reconciliation
+	 * Method : POST
+	 * Response Codes: Success (200 OK)
+	 * Example: TransferMoney/Reconciliation
+	 * 
+	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		ReconciliationResponse reconciliationResponse = new ReconciliationResponse();
+		Gson gson = new Gson();
+		ReconciliationJob previous = ReconciliationJob.getLatest();
+		ReconciliationJob job = ReconciliationJob.start();
+		reconciliationResponse.setReport(job.getReport());
+		reconciliationResponse.setStatus(Response.SUCCESS);
+		if (previous == job) {
+			reconciliationResponse.setMessage("A reconciliation is already running");
+		} else {
+			reconciliationResponse.setMessage("Reconciliation started");
+		}
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getWriter().append(gson.toJson(reconciliationResponse));
+	}
+
+}
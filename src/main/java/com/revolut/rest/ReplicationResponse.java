@@ -0,0 +1,53 @@
+package com.revolut.rest;
+
+import java.util.Map;
+
+public class ReplicationResponse extends Response {
+
+	private String role;
+	private String leader;
+	private Boolean connected;
+	private Long journalOffset;
+	private Map<String, Long> followerOffsets;
+
+	public String getRole() {
+		return role;
+	}
+
+	public void setRole(String role) {
+		this.role = role;
+	}
+
+	public String getLeader() {
+		return leader;
+	}
+
+	public void setLeader(String leader) {
+		this.leader = leader;
+	}
+
+	public Boolean getConnected() {
+		return connected;
+	}
+
+	public void setConnected(Boolean connected) {
+		this.connected = connected;
+	}
+
+	public Long getJournalOffset() {
+		return journalOffset;
+	}
+
+	public void setJournalOffset(Long journalOffset) {
+		this.journalOffset = journalOffset;
+	}
+
+	public Map<String, Long> getFollowerOffsets() {
+		return followerOffsets;
+	}
+
+	public void setFollowerOffsets(Map<String, Long> followerOffsets) {
+		this.followerOffsets = followerOffsets;
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.revolut.replication.Journal;
+import com.revolut.replication.Replication;
+
+/**
+ * Replication Servlet
+ * @author josh
+ *
+ */
+public class ReplicationServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Title : Returns this server's replication role, journal offset and how far each follower has applied
+	 * URL : TransferMoney/Replication
+	 * Method : GET
+	 * Response Codes: Success (200 OK)
+	 * Example: TransferMoney/Replication
+	 * 
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		ReplicationResponse replicationResponse = new ReplicationResponse();
+		Gson gson = new Gson();
+		Journal journal = Journal.getInstance();
+		replicationResponse.setRole(Replication.isFollower() ? "follower" : "leader");
+		replicationResponse.setJournalOffset(journal.getEnd());
+		if (Replication.isFollower()) {
+			replicationResponse.setLeader(Replication.getLeader());
+			replicationResponse.setConnected(Replication.isConnected());
+		}
+		Map<String, Long> followerOffsets = new TreeMap<>();
+		for (Map.Entry<Object, Long> follower : journal.getAcknowledgedOffsets().entrySet()) {
+			followerOffsets.put(String.valueOf(follower.getKey()), follower.getValue());
+		}
+		replicationResponse.setFollowerOffsets(followerOffsets);
+		replicationResponse.setStatus(Response.SUCCESS);
+		replicationResponse.setMessage(String.format("Journal at offset %d", journal.getEnd()));
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getWriter().append(gson.toJson(replicationResponse));
+	}
+
+	/**
+	 * Title : Promotes a follower to leader, it stops following and starts accepting writes
+	 * URL : TransferMoney/Replication
+	 * Method : POST
+	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Example: TransferMoney/Replication
+	 * 
+	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		ReplicationResponse replicationResponse = new ReplicationResponse();
+		Gson gson = new Gson();
+		if (Replication.promote()) {
+			replicationResponse.setRole("leader");
+			replicationResponse.setJournalOffset(Journal.getInstance().getEnd());
+			replicationResponse.setStatus(Response.SUCCESS);
+			replicationResponse.setMessage("Promoted to leader");
+			response.setStatus(HttpServletResponse.SC_OK);
+		} else {
+			replicationResponse.setMessage("This server is not a follower");
+		}
+		response.getWriter().append(gson.toJson(replicationResponse));
+	}
+
+}
@@ -3,6 +3,7 @@ package com.revolut.rest;
 public class Response {
 	public static final String SUCCESS = "Success";
 	public static final String ERROR = "Error";
+	public static final String CONFLICT = "Conflict";
 
 	private String status = ERROR;
 	private String message;
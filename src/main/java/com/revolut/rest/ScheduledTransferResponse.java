@@ -0,0 +1,19 @@
+package com.revolut.rest;
+
+import java.util.List;
+
+import com.revolut.beans.ScheduledTransfer;
+
+public class ScheduledTransferResponse extends Response {
+
+	private List<ScheduledTransfer> scheduledTransfers;
+
+	public List<ScheduledTransfer> getScheduledTransfers() {
+		return scheduledTransfers;
+	}
+
+	public void setScheduledTransfers(List<ScheduledTransfer> scheduledTransfers) {
+		this.scheduledTransfers = scheduledTransfers;
+	}
+
+}
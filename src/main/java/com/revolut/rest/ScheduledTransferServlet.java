@@ -0,0 +1,153 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.gson.Gson;
+import com.revolut.beans.Account;
+import com.revolut.beans.ScheduledTransfer;
+import com.revolut.database.AccountDAO;
+import com.revolut.database.ScheduleDAO;
+import com.revolut.schedule.TransferScheduler;
+
+/**
+ * Scheduled Transfer Servlet
+ * @author josh
+ *
+ */
+public class ScheduledTransferServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	private AccountDAO accountDAO = new AccountDAO();
+	private ScheduleDAO scheduleDAO = new ScheduleDAO();
+	private TransferScheduler scheduler = TransferScheduler.getInstance();
+
+	/**
+	 * Title : Returns the scheduled transfers and standing orders paying from or to an account
+	 * URL : TransferMoney/ScheduledTransfer?accountName=
+	 * Method : GET
+	 * URL Params :  Required: accountName=[String]
+	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Example: TransferMoney/ScheduledTransfer?accountName=TestAccount1
+	 * 
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		ScheduledTransferResponse scheduleResponse = new ScheduledTransferResponse();
+		Gson gson = new Gson();
+		String accountName = request.getParameter("accountName");
+		if (StringUtils.isNotBlank(accountName)) {
+			List<ScheduledTransfer> schedules = scheduleDAO.getSchedules(accountName);
+			if (schedules.isEmpty()) {
+				scheduleResponse.setMessage("No scheduled transfers were found for the account");
+			} else {
+				scheduleResponse.setScheduledTransfers(schedules);
+				scheduleResponse.setMessage(String.format("%d Scheduled transfers found", schedules.size()));
+			}
+			scheduleResponse.setStatus(Response.SUCCESS);
+			response.setStatus(HttpServletResponse.SC_OK);
+		} else {
+			scheduleResponse.setMessage("An invalid Account Name was received.");
+		}
+		response.getWriter().append(gson.toJson(scheduleResponse));
+	}
+
+	/**
+	 * Title : Schedules a transfer, made once at nextRun or every intervalSeconds from nextRun
+	 * URL : TransferMoney/ScheduledTransfer
+	 * Method : POST
+	 * Data Params : {fromAccountName = [string], toAccountName = [string], amount = [numeric],
+	 *                nextRun = [milliseconds since the epoch, optional, default now], intervalSeconds = [numeric, optional]}
+	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Example: {fromAccountName = "TestAccount1", toAccountName = "TestAccount2", amount = "10.00", nextRun = 1508457600000, intervalSeconds = 86400}
+	 * 
+	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		ScheduledTransferResponse scheduleResponse = new ScheduledTransferResponse();
+		Gson gson = new Gson();
+		try {
+			ScheduledTransfer schedule = gson.fromJson(request.getReader(), ScheduledTransfer.class);
+			String fromAccountName = schedule != null ? schedule.getFromAccountName() : null;
+			String toAccountName = schedule != null ? schedule.getToAccountName() : null;
+			BigDecimal amount = schedule != null ? schedule.getAmount() : null;
+			long intervalSeconds = schedule != null && schedule.getIntervalSeconds() != null ? schedule.getIntervalSeconds() : 0;
+			if (!StringUtils.isNoneBlank(fromAccountName, toAccountName) || amount == null
+					|| amount.compareTo(BigDecimal.ZERO) != 1 || intervalSeconds < 0) {
+				scheduleResponse.setMessage("The Account Names, amount and interval received were not valid");
+			} else if (StringUtils.equals(fromAccountName, toAccountName)) {
+				scheduleResponse.setMessage("The to and from accounts cannot be the same");
+			} else {
+				Account fromAccount = accountDAO.getAccount(fromAccountName);
+				Account toAccount = accountDAO.getAccount(toAccountName);
+				if (fromAccount == null) {
+					scheduleResponse.setMessage(String.format("From account with name %s does not exist", fromAccountName));
+				} else if (toAccount == null) {
+					scheduleResponse.setMessage(String.format("To account with name %s does not exist", toAccountName));
+				} else {
+					long nextRun = schedule.getNextRun() != null ? schedule.getNextRun() : System.currentTimeMillis();
+					ScheduledTransfer created = scheduleDAO.createSchedule(fromAccount, toAccount,
+							amount.setScale(2, RoundingMode.DOWN), nextRun, intervalSeconds);
+					if (created != null) {
+						scheduler.schedule(created);
+						scheduleResponse.setScheduledTransfers(Collections.singletonList(created));
+						scheduleResponse.setStatus(Response.SUCCESS);
+						scheduleResponse.setMessage(String.format("Successfully scheduled transfer %d from %s to %s",
+								created.getId(), fromAccountName, toAccountName));
+						response.setStatus(HttpServletResponse.SC_OK);
+					} else {
+						// A technical error occurred
+						scheduleResponse.setMessage(String.format("Unable to schedule transfer from %s to %s",
+								fromAccountName, toAccountName));
+					}
+				}
+			}
+		} catch (Exception e) {
+			scheduleResponse.setMessage("The payload was invalid");
+		}
+		response.getWriter().append(gson.toJson(scheduleResponse));
+	}
+
+	/**
+	 * Title : Cancels a scheduled transfer or standing order
+	 * URL : TransferMoney/ScheduledTransfer
+	 * Method : DELETE
+	 * Data Params : {id = [numeric]}
+	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Example: {id = 1}
+	 * 
+	 * @see HttpServlet#doDelete(HttpServletRequest, HttpServletResponse)
+	 */
+	public void doDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		ScheduledTransferResponse scheduleResponse = new ScheduledTransferResponse();
+		Gson gson = new Gson();
+		try {
+			ScheduledTransfer schedule = gson.fromJson(request.getReader(), ScheduledTransfer.class);
+			Long id = schedule != null ? schedule.getId() : null;
+			if (id != null && StringUtils.equals(scheduleDAO.cancelSchedule(id), Response.SUCCESS)) {
+				// The scheduler drops it when its run can't be claimed
+				scheduleResponse.setStatus(Response.SUCCESS);
+				scheduleResponse.setMessage(String.format("Successfully cancelled scheduled transfer %d", id));
+				response.setStatus(HttpServletResponse.SC_OK);
+			} else {
+				scheduleResponse.setMessage(String.format("No active scheduled transfer %s exists", id));
+			}
+		} catch (Exception e) {
+			scheduleResponse.setMessage("The payload was invalid");
+		}
+		response.getWriter().append(gson.toJson(scheduleResponse));
+	}
+}
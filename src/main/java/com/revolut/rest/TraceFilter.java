@@ -0,0 +1,44 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.revolut.tracing.Span;
+import com.revolut.tracing.Tracer;
+
+/**
+ * Starts a trace for sampled requests, or requests sending the X-Trace header, and returns its id in the X-Trace-Id header
+ * @author josh
+ *
+ */
+public class TraceFilter implements Filter {
+
+	@Override
+	public void init(FilterConfig config) throws ServletException {
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		HttpServletRequest httpRequest = (HttpServletRequest) request;
+		try (Span span = Tracer.begin(httpRequest.getMethod() + " " + httpRequest.getServletPath(),
+				httpRequest.getHeader(Tracer.TRACE_HEADER) != null)) {
+			if (span.isRecording()) {
+				((HttpServletResponse) response).setHeader(Tracer.TRACE_ID_HEADER, Tracer.getTraceId());
+			}
+			chain.doFilter(request, response);
+		}
+	}
+
+	@Override
+	public void destroy() {
+	}
+}
@@ -0,0 +1,19 @@
+package com.revolut.rest;
+
+import java.util.List;
+
+import com.revolut.tracing.Trace;
+
+public class TraceResponse extends Response {
+
+	private List<Trace> traces;
+
+	public List<Trace> getTraces() {
+		return traces;
+	}
+
+	public void setTraces(List<Trace> traces) {
+		this.traces = traces;
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.revolut.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.gson.Gson;
+import com.revolut.tracing.Trace;
+import com.revolut.tracing.Tracer;
+
+/**
+ * Trace Servlet
+ * @author josh
+ *
+ */
+public class TraceServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Title : Returns the most recently recorded request traces, newest first
+	 * URL : TransferMoney/Traces
+	 * Method : GET
+	 * URL Params :  Optional: minMillis=[numeric], id=[String]
+	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Example: TransferMoney/Traces?minMillis=50
+	 * 
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		TraceResponse traceResponse = new TraceResponse();
+		Gson gson = new Gson();
+		try {
+			String minMillis = request.getParameter("minMillis");
+			String id = request.getParameter("id");
+			long minMicros = StringUtils.isNotBlank(minMillis) ? TimeUnit.MILLISECONDS.toMicros(Long.parseLong(minMillis)) : 0;
+			List<Trace> traces = new ArrayList<>();
+			for (Trace trace : Tracer.getRecentTraces()) {
+				if (trace.getDurationMicros() >= minMicros && (id == null || id.equals(trace.getId()))) {
+					traces.add(trace);
+				}
+			}
+			traceResponse.setTraces(traces);
+			traceResponse.setStatus(Response.SUCCESS);
+			traceResponse.setMessage(String.format("%d Traces found", traces.size()));
+			response.setStatus(HttpServletResponse.SC_OK);
+		} catch (NumberFormatException e) {
+			traceResponse.setMessage("The minimum duration was not a number");
+		}
+		response.getWriter().append(gson.toJson(traceResponse));
+	}
+
+}
@@ -2,7 +2,6 @@ package com.revolut.rest;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.List;
 
 import javax.servlet.ServletException;
@@ -13,10 +12,16 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.lang3.StringUtils;
 
 import com.google.gson.Gson;
-import com.revolut.beans.Account;
+import com.revolut.admission.Admission;
+import com.revolut.admission.AdmissionController;
 import com.revolut.beans.Transaction;
-import com.revolut.database.AccountDAO;
+import com.revolut.bulkhead.Bulkheads;
+import com.revolut.database.AccountVersions;
 import com.revolut.database.TransactionDAO;
+import com.revolut.service.TransferOutcome;
+import com.revolut.service.TransferService;
+import com.revolut.tracing.Span;
+import com.revolut.tracing.Tracer;
 
 /**
  * Transaction Servlet
@@ -25,21 +30,29 @@ import com.revolut.database.TransactionDAO;
  */
 public class TransactionServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
+	private static final int SC_TOO_MANY_REQUESTS = 429;
 
-	private AccountDAO accountDAO = new AccountDAO();
 	private TransactionDAO transDAO = new TransactionDAO();
+	private TransferService transferService = new TransferService();
+	private AdmissionController admissionController = AdmissionController.getInstance();
 
 	/**
 	 * Title : Transfers an amount from one account to another
 	 * URL : TransferMoney/Transaction
 	 * Method : POST
-	 * Data Params : {fromAccountName = [string], toAccountName= [string], amount = [numeric]}
-	 * Response Codes: Success (200 OK), Bad Request (400)
-	 * Example: {fromAccountName = "TestAccount1", toAccountName = "TestAccount2", amount = "10.00"}
+	 * Data Params : {fromAccountName = [string], toAccountName= [string], amount = [numeric], currency = [string, optional]}
+	 * Response Codes: Success (200 OK), Bad Request (400), Too Many Requests (429), Service Unavailable (503)
+	 * Example: {fromAccountName = "TestAccount1", toAccountName = "TestAccount2", amount = "10.00", currency = "EUR"}
+	 * The amount is in the given currency, or the from account's currency if none is given. Accounts in
+	 * different currencies are debited and credited at the current exchange rates.
 	 * 
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
 	 */
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		Bulkheaded.run(Bulkheads.history(), response, () -> searchTransactions(request, response));
+	}
+
+	private void searchTransactions(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
 		TransactionResponse transResponse = new TransactionResponse();
 		Gson gson = new Gson();
@@ -49,9 +62,16 @@ public class TransactionServlet extends HttpServlet {
 			if (StringUtils.isNoneBlank(fromAccountName, toAccountName)
 					&& StringUtils.equals(fromAccountName, toAccountName)) {
 				transResponse.setMessage("The to and from accounts cannot be the same");
+			} else if (ConditionalGet.notModified(request, response,
+					AccountVersions.transactionTag(fromAccountName, toAccountName))) {
+				// Nothing to send if the client already has the current results
+				return;
 			} else {
 				// Params are valid so lets search for transactions
-				List<Transaction> transactions = transDAO.getAccountTransactions(fromAccountName, toAccountName);
+				List<Transaction> transactions;
+				try (Span span = Tracer.span("transactions.search")) {
+					transactions = transDAO.getAccountTransactions(fromAccountName, toAccountName);
+				}
 				if (transactions.isEmpty()) {
 					transResponse.setMessage("No transactions were found matching the criteria");
 				} else {
@@ -64,7 +84,9 @@ public class TransactionServlet extends HttpServlet {
 		} catch (Exception e) {
 			transResponse.setMessage("The payload was invalid");
 		}
-		response.getWriter().append(gson.toJson(transResponse));
+		try (Span span = Tracer.span("respond")) {
+			response.getWriter().append(gson.toJson(transResponse));
+		}
 	}
 
 	/**
@@ -72,61 +94,57 @@ public class TransactionServlet extends HttpServlet {
 	 * URL : TransferMoney/Transaction
 	 * Method : GET
 	 * URL Params :  Optional: fromAccountName=[String], toAccountName=[String]
-	 * Response Codes: Success (200 OK), Bad Request (400)
+	 * Headers : Optional: If-None-Match=[ETag from a previous response]
+	 * Response Codes: Success (200 OK), Not Modified (304), Bad Request (400), Service Unavailable (503)
 	 * Example: TransferMoney/Transaction?fromAccountName=TestAccount1&toAccountName=TestAccount2 
 	 * 
 	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
 	 */
 	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		Bulkheaded.run(Bulkheads.transfers(), response, () -> transfer(request, response));
+	}
+
+	private void transfer(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
 		TransactionResponse transResponse = new TransactionResponse();
 		Gson gson = new Gson();
 		try {
-			Transaction trans = gson.fromJson(request.getReader(), Transaction.class);
+			Transaction trans;
+			try (Span span = Tracer.span("parse")) {
+				trans = gson.fromJson(request.getReader(), Transaction.class);
+			}
 			String fromAccountName = trans != null ? trans.getFromAccountName() : null;
 			String toAccountName = trans != null ? trans.getToAccountName() : null;
 			BigDecimal amount = trans != null ? trans.getAmount() : null;
-			// Validate params
-			if (StringUtils.isNoneBlank(fromAccountName, toAccountName) && amount != null
-					&& amount.compareTo(BigDecimal.ZERO) == 1) {
-				// Params are OK
-				Account fromAccount = accountDAO.getAccount(fromAccountName);
-				if (fromAccount != null) {
-					// From account exists
-					if (accountDAO.getAccount(toAccountName) != null) {
-						// To account exists
-						// Shave off any more than 2 decimal places
-						amount = amount.setScale(2, RoundingMode.DOWN);
-						if (fromAccount.getBalance().compareTo(amount) == -1) {
-							transResponse.setMessage(String.format(
-									"From account with name %s does not have enough money to perform this transfer", fromAccountName));
-						} else {
-							// From account has enough money to make transfer
-							// Good to go
-							String status = transDAO.doTransfer(fromAccountName, toAccountName, amount);
-							if (StringUtils.equals(status, Response.SUCCESS)) {
-								transResponse.setStatus(Response.SUCCESS);
-								transResponse.setMessage(
-										String.format("Successfully performed transfer from %s to %s", fromAccountName, toAccountName));
-								response.setStatus(HttpServletResponse.SC_OK);
-							} else {
-								transResponse.setMessage(
-										String.format("Unable to performed transfer from %s to %s", fromAccountName, toAccountName));
-							}
-						}
-					} else {
-						transResponse.setMessage(String.format("To account with name %s does not exist", toAccountName));
+			String currency = trans != null ? trans.getCurrency() : null;
+			// Turn away excess load before doing any database work
+			Admission admission;
+			try (Span span = Tracer.span("admission")) {
+				admission = admissionController.tryAdmit(request.getRemoteAddr(), fromAccountName);
+			}
+			if (admission.isAdmitted()) {
+				try (Span span = Tracer.span("transfer")) {
+					TransferOutcome outcome = transferService.transfer(fromAccountName, toAccountName, amount, currency);
+					transResponse.setMessage(outcome.getMessage(fromAccountName, toAccountName));
+					if (outcome == TransferOutcome.SUCCESS) {
+						transResponse.setStatus(Response.SUCCESS);
+						response.setStatus(HttpServletResponse.SC_OK);
 					}
-				} else {
-					transResponse.setMessage(String.format("From account with name %s does not exist", fromAccountName));
+				} finally {
+					admission.release();
 				}
 			} else {
-				transResponse.setMessage("The Account Names and amount received were not valid");
+				response.setStatus(SC_TOO_MANY_REQUESTS);
+				response.setHeader("Retry-After", String.valueOf(admission.getRetryAfterSeconds()));
+				transResponse.setMessage(String.format("Transfer rejected by the %s limit, retry after %d seconds",
+						admission.getReason(), admission.getRetryAfterSeconds()));
 			}
 		} catch (Exception e) {
 			transResponse.setMessage("The payload was invalid");
 		}
-		response.getWriter().append(gson.toJson(transResponse));
+		try (Span span = Tracer.span("respond")) {
+			response.getWriter().append(gson.toJson(transResponse));
+		}
 	}
 
 	/**
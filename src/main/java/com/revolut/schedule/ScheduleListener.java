@@ -0,0 +1,27 @@
+package com.revolut.schedule;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Starts the transfer scheduler with the server unless transfermoney.schedule.enabled is set to false.
+ * transfermoney.schedule.tickMillis : time each bucket of the timing wheel covers (default 100)
+ * transfermoney.schedule.ratePerSecond : most scheduled transfers made a second (default 50)
+ * transfermoney.schedule.batchSize : most scheduled transfers claimed together (default 100)
+ * @author josh
+ *
+ */
+public class ScheduleListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		if (Boolean.parseBoolean(System.getProperty("transfermoney.schedule.enabled", "true"))) {
+			TransferScheduler.getInstance().start();
+		}
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		TransferScheduler.getInstance().stop();
+	}
+}
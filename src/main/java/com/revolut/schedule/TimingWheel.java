@@ -0,0 +1,118 @@
+package com.revolut.schedule;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel. Items are kept in buckets of tickMillis, wheelSize buckets covering one turn of
+ * the wheel. Items due further out go to an overflow wheel whose ticks are a whole turn of this one, created
+ * as needed, and move down a level when the lower wheel's turn reaches them. Adding an item and advancing a
+ * tick cost the same however many items are waiting, rather than growing with them as a sorted queue would.
+ *
+ * Items are given out up to a tick after they are due, never before. Not thread safe, one thread owns the wheel.
+ * @author josh
+ *
+ */
+public class TimingWheel<T> {
+
+	private final long tickMillis;
+	private final int wheelSize;
+	private final long interval;
+	private final ArrayDeque<Entry<T>>[] buckets;
+	private long currentTime;
+	private int size;
+	private TimingWheel<T> overflow;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+		this.tickMillis = tickMillis;
+		this.wheelSize = wheelSize;
+		this.interval = tickMillis * wheelSize;
+		this.buckets = new ArrayDeque[wheelSize];
+		for (int i = 0; i < wheelSize; i++) {
+			buckets[i] = new ArrayDeque<>();
+		}
+		this.currentTime = startMillis - Math.floorMod(startMillis, tickMillis);
+	}
+
+	/**
+	 * Adds an item due at dueMillis, returning false without adding it if it is already due
+	 * @param item
+	 * @param dueMillis
+	 * @return
+	 */
+	public boolean add(T item, long dueMillis) {
+		if (dueMillis < currentTime) {
+			return false;
+		}
+		if (dueMillis < currentTime + interval) {
+			bucket(dueMillis).add(new Entry<>(item, dueMillis));
+			size++;
+			return true;
+		}
+		if (overflow == null) {
+			overflow = new TimingWheel<>(interval, wheelSize, currentTime);
+		}
+		return overflow.add(item, dueMillis);
+	}
+
+	/**
+	 * Moves the wheel on to now, giving every item that has become due to the consumer
+	 * @param now
+	 * @param due
+	 */
+	public void advance(long now, Consumer<T> due) {
+		while (currentTime + tickMillis <= now) {
+			ArrayDeque<Entry<T>> expired = bucket(currentTime);
+			currentTime += tickMillis;
+			drain(expired, entry -> due.accept(entry.item));
+			if (overflow != null) {
+				overflow.cascade(currentTime, this);
+			}
+		}
+	}
+
+	/**
+	 * Moves an overflow wheel on to the lower wheel's time, handing down the items in each bucket it reaches
+	 */
+	private void cascade(long time, TimingWheel<T> lower) {
+		while (currentTime + tickMillis <= time) {
+			currentTime += tickMillis;
+			// Higher levels hand down first, some of their items may belong in the bucket reached here
+			if (overflow != null) {
+				overflow.cascade(currentTime, this);
+			}
+			drain(bucket(currentTime), entry -> lower.add(entry.item, entry.dueMillis));
+		}
+	}
+
+	private void drain(ArrayDeque<Entry<T>> bucket, Consumer<Entry<T>> consumer) {
+		Entry<T> entry;
+		while ((entry = bucket.poll()) != null) {
+			size--;
+			consumer.accept(entry);
+		}
+	}
+
+	private ArrayDeque<Entry<T>> bucket(long time) {
+		return buckets[(int) Math.floorMod(time / tickMillis, (long) wheelSize)];
+	}
+
+	/**
+	 * Returns the number of items waiting in this wheel and its overflow wheels
+	 * @return
+	 */
+	public int size() {
+		return size + (overflow != null ? overflow.size() : 0);
+	}
+
+	private static final class Entry<T> {
+		private final T item;
+		private final long dueMillis;
+
+		private Entry(T item, long dueMillis) {
+			this.item = item;
+			this.dueMillis = dueMillis;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package com.revolut.schedule;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.beans.ScheduledTransfer;
+import com.revolut.database.ScheduleDAO;
+import com.revolut.metrics.Metrics;
+import com.revolut.replication.Replication;
+import com.revolut.service.TransferOutcome;
+import com.revolut.service.TransferService;
+
+/**
+ * Makes scheduled transfers and standing orders when they fall due. Schedules wait in a timing wheel until
+ * due, then join a queue which is worked through in batches at no more than ratePerSecond transfers a second,
+ * so thousands of standing orders due at midnight are spread out instead of all hitting the database at once.
+ * Each batch claims its runs in one database transaction, makes the transfers through the transfer service,
+ * then records their outcomes. Standing orders go back into the wheel for their next run.
+ *
+ * Every active schedule is read when the scheduler starts, runs missed while the server was down are due
+ * straight away and a standing order that missed several runs makes each of them in turn. Followers don't
+ * make scheduled transfers, they receive the leader's schedules and read them once promoted.
+ * @author josh
+ *
+ */
+public class TransferScheduler {
+	private static final Logger logger = Logger.getLogger(TransferScheduler.class.getName());
+
+	private static final int WHEEL_SIZE = 512;
+	private static final long RETRY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+	private static final TransferScheduler instance = load();
+
+	private final ScheduleDAO scheduleDAO;
+	private final TransferService transferService;
+	private final long tickMillis;
+	private final double ratePerSecond;
+	private final int batchSize;
+	private final TimingWheel<ScheduledTransfer> wheel;
+	private final ArrayDeque<ScheduledTransfer> due = new ArrayDeque<>();
+	private final Queue<ScheduledTransfer> added = new ConcurrentLinkedQueue<>();
+	private double credit;
+	private long lastAdvance;
+	private boolean following;
+	private volatile int waiting;
+	private volatile int pending;
+	private ScheduledExecutorService scheduler;
+
+	private final LongAdder executed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	/**
+	 * @param scheduleDAO
+	 * @param transferService
+	 * @param tickMillis time each bucket of the timing wheel covers
+	 * @param ratePerSecond most transfers made a second
+	 * @param batchSize most transfers claimed together
+	 */
+	public TransferScheduler(ScheduleDAO scheduleDAO, TransferService transferService, long tickMillis,
+			double ratePerSecond, int batchSize) {
+		this.scheduleDAO = scheduleDAO;
+		this.transferService = transferService;
+		this.tickMillis = tickMillis;
+		this.ratePerSecond = ratePerSecond;
+		this.batchSize = batchSize;
+		this.lastAdvance = System.currentTimeMillis();
+		this.wheel = new TimingWheel<>(tickMillis, WHEEL_SIZE, lastAdvance);
+	}
+
+	public static TransferScheduler getInstance() {
+		return instance;
+	}
+
+	private static TransferScheduler load() {
+		TransferScheduler scheduler = new TransferScheduler(new ScheduleDAO(), new TransferService(),
+				Long.getLong("transfermoney.schedule.tickMillis", 100),
+				Double.parseDouble(System.getProperty("transfermoney.schedule.ratePerSecond", "50")),
+				Integer.getInteger("transfermoney.schedule.batchSize", 100));
+		Metrics.register("schedule.waiting", () -> scheduler.waiting);
+		Metrics.register("schedule.due", () -> scheduler.pending);
+		Metrics.register("schedule.executed", scheduler.executed::sum);
+		Metrics.register("schedule.failed", scheduler.failed::sum);
+		return scheduler;
+	}
+
+	/**
+	 * Reads every active schedule, unless following, and starts advancing the wheel every tick
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		following = Replication.isFollower();
+		if (!following) {
+			loadSchedules();
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "transfer-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				advance(System.currentTimeMillis());
+			} catch (RuntimeException e) {
+				logger.log(Level.SEVERE, "Exception caught in Transfer Scheduler", e);
+			}
+		}, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Queues every active schedule to be added to the wheel, those already due run on the next advance
+	 */
+	public void loadSchedules() {
+		added.addAll(scheduleDAO.getActiveSchedules());
+	}
+
+	/**
+	 * Adds a schedule just created, it is picked up on the next advance
+	 * @param schedule
+	 */
+	public void schedule(ScheduledTransfer schedule) {
+		added.add(schedule);
+	}
+
+	/**
+	 * Moves the wheel on to now and makes as many due transfers as the rate allows since the last advance
+	 * @param now
+	 */
+	public synchronized void advance(long now) {
+		if (following && !Replication.isFollower()) {
+			// Promoted, the schedules received from the leader are ours to run now
+			loadSchedules();
+		}
+		following = Replication.isFollower();
+		ScheduledTransfer schedule;
+		while ((schedule = added.poll()) != null) {
+			if (!wheel.add(schedule, schedule.getNextRun())) {
+				due.add(schedule);
+			}
+		}
+		wheel.advance(now, due::add);
+		credit = Math.min(credit + ratePerSecond * Math.max(0, now - lastAdvance) / 1000, batchSize);
+		lastAdvance = now;
+		if (!Replication.isFollower()) {
+			while (!due.isEmpty() && credit >= 1) {
+				int count = Math.min(due.size(), (int) credit);
+				List<ScheduledTransfer> batch = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					batch.add(due.poll());
+				}
+				credit -= count;
+				runBatch(batch, now);
+			}
+		}
+		waiting = wheel.size();
+		pending = due.size();
+	}
+
+	private void runBatch(List<ScheduledTransfer> batch, long now) {
+		List<ScheduledTransfer> claimed = scheduleDAO.claimRuns(batch);
+		if (claimed == null) {
+			// Nothing was claimed, try the whole batch again shortly
+			for (ScheduledTransfer schedule : batch) {
+				wheel.add(schedule, now + RETRY_MILLIS);
+			}
+			return;
+		}
+		for (ScheduledTransfer schedule : claimed) {
+			TransferOutcome outcome = transferService.transfer(schedule.getFromAccountId(), schedule.getToAccountId(),
+					schedule.getAmount());
+			schedule.setLastOutcome(outcome.name());
+			if (outcome == TransferOutcome.SUCCESS) {
+				executed.increment();
+			} else {
+				failed.increment();
+				if (outcome == TransferOutcome.FROM_ACCOUNT_NOT_FOUND || outcome == TransferOutcome.TO_ACCOUNT_NOT_FOUND) {
+					// The account has gone, so there is nothing left to pay from or to
+					schedule.setActive(false);
+				}
+			}
+		}
+		scheduleDAO.recordOutcomes(claimed);
+		for (ScheduledTransfer schedule : claimed) {
+			if (Boolean.TRUE.equals(schedule.getActive()) && !wheel.add(schedule, schedule.getNextRun())) {
+				// A standing order catching up on missed runs
+				due.add(schedule);
+			}
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package com.revolut.search;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.database.DBConnection;
+import com.revolut.metrics.Metrics;
+
+/**
+ * In memory index of account names for prefix and fuzzy search, ignoring case. Prefix searches walk a
+ * concurrent skip list of names in order, so finding the first matches costs a log n seek however many
+ * accounts there are. Fuzzy searches look names up by the trigrams they share with the query, padded so
+ * short names and the start and end of a name count, and rank them by how much of the two they share.
+ * Trigrams found in more than transfermoney.search.maxPostings names match too much to be worth counting
+ * and are skipped, unless every trigram of the query is that common.
+ *
+ * Loaded from the ACCOUNT table when first used and kept up to date by every account created, renamed or
+ * deleted. Disabled with transfermoney.search.enabled=false.
+ * @author josh
+ *
+ */
+public class AccountNameIndex {
+	private static final Logger logger = Logger.getLogger(AccountNameIndex.class.getName());
+
+	private static final int GRAM = 3;
+	private static final char SEPARATOR = '\0';
+
+	private static final AccountNameIndex instance = load();
+
+	private final boolean enabled;
+	private final int maxPostings;
+	// Each entry is the lower case name, a separator and the name, so names differing only in case stay apart
+	private final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+	private final Map<String, Set<String>> postings = new ConcurrentHashMap<>();
+	private final LongAdder searches = new LongAdder();
+
+	public AccountNameIndex(boolean enabled, int maxPostings) {
+		this.enabled = enabled;
+		this.maxPostings = maxPostings;
+	}
+
+	public static AccountNameIndex getInstance() {
+		return instance;
+	}
+
+	private static AccountNameIndex load() {
+		AccountNameIndex index = new AccountNameIndex(
+				Boolean.parseBoolean(System.getProperty("transfermoney.search.enabled", "true")),
+				Integer.getInteger("transfermoney.search.maxPostings", 10000));
+		Metrics.register("search.accounts", index.names::size);
+		Metrics.register("search.queries", index.searches::sum);
+		if (index.enabled) {
+			// Read directly, the DAOs keeping the index up to date can't be used until it exists
+			try (Connection con = DBConnection.getConnection(); Statement st = con.createStatement();
+					ResultSet result = st.executeQuery("SELECT ACCOUNTNAME FROM ACCOUNT")) {
+				while (result.next()) {
+					index.add(result.getString("AccountName"));
+				}
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Exception caught in Load Account Name Index", e);
+			}
+		}
+		return index;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * Adds a name for an account just created
+	 * @param accountName
+	 */
+	public void add(String accountName) {
+		if (!enabled || accountName == null) {
+			return;
+		}
+		if (names.add(key(accountName))) {
+			for (String gram : grams(accountName)) {
+				postings.compute(gram, (g, matches) -> {
+					Set<String> updated = matches != null ? matches : ConcurrentHashMap.<String>newKeySet();
+					updated.add(accountName);
+					return updated;
+				});
+			}
+		}
+	}
+
+	/**
+	 * Removes the name of an account deleted
+	 * @param accountName
+	 */
+	public void remove(String accountName) {
+		if (!enabled || accountName == null) {
+			return;
+		}
+		if (names.remove(key(accountName))) {
+			for (String gram : grams(accountName)) {
+				postings.computeIfPresent(gram, (g, matches) -> {
+					matches.remove(accountName);
+					return matches.isEmpty() ? null : matches;
+				});
+			}
+		}
+	}
+
+	public void renamed(String accountName, String newAccountName) {
+		remove(accountName);
+		add(newAccountName);
+	}
+
+	/**
+	 * Returns up to limit names starting with the prefix, ignoring case, in alphabetical order
+	 * @param prefix
+	 * @param limit
+	 * @return
+	 */
+	public List<String> prefix(String prefix, int limit) {
+		searches.increment();
+		String from = prefix.toLowerCase(Locale.ROOT);
+		List<String> matches = new ArrayList<>(Math.min(limit, 64));
+		for (String key : names.tailSet(from)) {
+			if (matches.size() >= limit || !key.startsWith(from)) {
+				break;
+			}
+			matches.add(key.substring(key.indexOf(SEPARATOR) + 1));
+		}
+		return matches;
+	}
+
+	/**
+	 * Returns up to limit names sharing trigrams with the query, most similar first. Names are scored by
+	 * the trigrams shared over the trigrams of either, so closer lengths and more shared letters rank higher.
+	 * @param query
+	 * @param limit
+	 * @return
+	 */
+	public List<String> fuzzy(String query, int limit) {
+		searches.increment();
+		Set<String> queryGrams = grams(query);
+		List<Set<String>> lists = new ArrayList<>(queryGrams.size());
+		for (String gram : queryGrams) {
+			Set<String> matches = postings.get(gram);
+			if (matches != null) {
+				lists.add(matches);
+			}
+		}
+		if (lists.isEmpty()) {
+			return Collections.emptyList();
+		}
+		lists.sort(Comparator.comparingInt(Set::size));
+		Map<String, int[]> shared = new HashMap<>();
+		for (int i = 0; i < lists.size(); i++) {
+			Set<String> matches = lists.get(i);
+			if (i > 0 && matches.size() > maxPostings) {
+				break;
+			}
+			for (String name : matches) {
+				shared.computeIfAbsent(name, n -> new int[1])[0]++;
+			}
+		}
+		PriorityQueue<Match> best = new PriorityQueue<>(limit + 1);
+		for (Map.Entry<String, int[]> entry : shared.entrySet()) {
+			String name = entry.getKey();
+			int common = entry.getValue()[0];
+			// A padded name has a trigram per letter, fewer if some repeat
+			int nameGrams = name.length();
+			best.add(new Match(name, (double) common / (queryGrams.size() + nameGrams - common)));
+			if (best.size() > limit) {
+				best.poll();
+			}
+		}
+		List<String> results = new ArrayList<>(best.size());
+		while (!best.isEmpty()) {
+			results.add(best.poll().name);
+		}
+		Collections.reverse(results);
+		return results;
+	}
+
+	private static String key(String accountName) {
+		return accountName.toLowerCase(Locale.ROOT) + SEPARATOR + accountName;
+	}
+
+	/**
+	 * Returns the distinct trigrams of the lower case name padded with a space either side
+	 */
+	static Set<String> grams(String name) {
+		String padded = " " + name.toLowerCase(Locale.ROOT) + " ";
+		Set<String> grams = new HashSet<>();
+		for (int i = 0; i + GRAM <= padded.length(); i++) {
+			grams.add(padded.substring(i, i + GRAM));
+		}
+		return grams;
+	}
+
+	private static final class Match implements Comparable<Match> {
+		private final String name;
+		private final double score;
+
+		private Match(String name, double score) {
+			this.name = name;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(Match other) {
+			int byScore = Double.compare(score, other.score);
+			// Equal scores keep the alphabetically first name
+			return byScore != 0 ? byScore : other.name.compareTo(name);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package com.revolut.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+import com.google.gson.Gson;
+import com.revolut.beans.Account;
+import com.revolut.beans.AccountUpdate;
+import com.revolut.beans.Transaction;
+import com.revolut.database.DBConnection;
+import com.revolut.metrics.Metrics;
+import com.revolut.rest.AccountResponse;
+import com.revolut.rest.MetricsResponse;
+import com.revolut.rest.TransactionResponse;
+
+/**
+ * Runs the service in an embedded Tomcat, without a WAR or an installed container. Servlets, filters and
+ * listeners are registered in code to match web.xml, and servlets are created at startup rather than on
+ * their first request. Before the connector opens the schema is created, connections are opened into the
+ * pool and the JSON binding of the common beans is exercised. Once started the server requests its own
+ * /Metrics and logs how long after the JVM started that first request was answered.
+ * transfermoney.http.port : port to listen on (default 8080)
+ * transfermoney.http.contextPath : context path the servlets are under (default /TransferMoney)
+ * transfermoney.db.warmConnections : connections opened before starting (default 8)
+ * @author josh
+ *
+ */
+public class EmbeddedServer {
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private static final String[][] SERVLETS = {
+			{ "AccountServlet", "com.revolut.rest.AccountServlet", "/Account" },
+			{ "TransactionServlet", "com.revolut.rest.TransactionServlet", "/Transaction" },
+			{ "MetricsServlet", "com.revolut.rest.MetricsServlet", "/Metrics" },
+			{ "ReconciliationServlet", "com.revolut.rest.ReconciliationServlet", "/Reconciliation" },
+			{ "AccountImportServlet", "com.revolut.rest.AccountImportServlet", "/AccountImport" },
+			{ "TraceServlet", "com.revolut.rest.TraceServlet", "/Traces" },
+			{ "ReplicationServlet", "com.revolut.rest.ReplicationServlet", "/Replication" },
+			{ "AccountEventsServlet", "com.revolut.rest.AccountEventsServlet", "/AccountEvents" },
+			{ "ScheduledTransferServlet", "com.revolut.rest.ScheduledTransferServlet", "/ScheduledTransfer" },
+			{ "AccountSearchServlet", "com.revolut.rest.AccountSearchServlet", "/AccountSearch" },
+			{ "FxRateServlet", "com.revolut.rest.FxRateServlet", "/FxRate" },
+			{ "PostingServlet", "com.revolut.rest.PostingServlet", "/Posting" } };
+
+	private static final String[] ASYNC_SERVLETS = { "AccountEventsServlet" };
+
+	private static final String[][] FILTERS = {
+			{ "TraceFilter", "com.revolut.rest.TraceFilter", "/Account", "/Transaction", "/AccountImport" },
+			{ "FollowerFilter", "com.revolut.rest.FollowerFilter", "/Account", "/Transaction", "/AccountImport",
+					"/ScheduledTransfer", "/FxRate", "/Posting" } };
+
+	private static final String[] LISTENERS = { "com.revolut.replication.ReplicationListener",
+			"com.revolut.nio.TransferServerListener", "com.revolut.tiering.TieringListener",
+			"com.revolut.schedule.ScheduleListener", "com.revolut.posting.PostingListener" };
+
+	// Beans read and written on the busiest requests, bound once so the first request does not pay for it
+	private static final Class<?>[] JSON_TYPES = { Account.class, AccountUpdate.class, Transaction.class,
+			AccountResponse.class, TransactionResponse.class, MetricsResponse.class };
+
+	private final int requestedPort;
+	private final String contextPath;
+	private final int warmConnections;
+
+	private Tomcat tomcat;
+	private volatile long startedMillis;
+	private volatile long firstRequestMillis;
+
+	public EmbeddedServer(int port, String contextPath, int warmConnections) {
+		this.requestedPort = port;
+		this.contextPath = contextPath;
+		this.warmConnections = warmConnections;
+		Metrics.register("server.startedMillis", () -> startedMillis);
+		Metrics.register("server.firstRequestMillis", () -> firstRequestMillis);
+	}
+
+	public static void main(String[] args) throws Exception {
+		EmbeddedServer server = new EmbeddedServer(Integer.getInteger("transfermoney.http.port", 8080),
+				System.getProperty("transfermoney.http.contextPath", "/TransferMoney"),
+				Integer.getInteger("transfermoney.db.warmConnections", 8));
+		server.start();
+		server.await();
+	}
+
+	/**
+	 * Warms the connection pool and JSON binding, starts Tomcat and makes the first request. The warm up
+	 * runs alongside Tomcat initialising its connector, servlets are only loaded once both are done.
+	 * @throws LifecycleException
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public synchronized void start() throws LifecycleException, SQLException, IOException {
+		FutureTask<Integer> warmUp = new FutureTask<>(() -> {
+			int opened = DBConnection.warmUp(warmConnections);
+			warmJson();
+			return opened;
+		});
+		Thread warmUpThread = new Thread(warmUp, "server-warm-up");
+		warmUpThread.setDaemon(true);
+		warmUpThread.start();
+
+		tomcat = new Tomcat();
+		tomcat.setBaseDir(Files.createTempDirectory("transfermoney-tomcat").toString());
+		tomcat.setPort(requestedPort);
+		tomcat.getConnector();
+		Context context = tomcat.addContext(contextPath, null);
+		// Everything is registered below, there is nothing to scan for
+		context.setIgnoreAnnotations(true);
+		addServlets(context);
+		addFilters(context);
+		for (String listener : LISTENERS) {
+			context.addApplicationListener(listener);
+		}
+		tomcat.init();
+		int connections = awaitWarmUp(warmUp);
+		tomcat.start();
+		startedMillis = sinceJvmStart();
+		logger.log(Level.INFO, "Started on port {0} with {1} connections open, {2} ms after the JVM started",
+				new Object[] { String.valueOf(getPort()), connections, startedMillis });
+
+		firstRequest();
+		firstRequestMillis = sinceJvmStart();
+		logger.log(Level.INFO, "First request served {0} ms after the JVM started", firstRequestMillis);
+	}
+
+	/**
+	 * Stops Tomcat, which in turn stops the listeners' background work
+	 * @throws LifecycleException
+	 */
+	public synchronized void stop() throws LifecycleException {
+		if (tomcat == null) {
+			return;
+		}
+		tomcat.stop();
+		tomcat.destroy();
+		tomcat = null;
+	}
+
+	/**
+	 * Blocks until the server is shut down
+	 */
+	public void await() {
+		tomcat.getServer().await();
+	}
+
+	/**
+	 * Returns the port actually bound, useful when started on port 0
+	 * @return
+	 */
+	public int getPort() {
+		return tomcat.getConnector().getLocalPort();
+	}
+
+	public String getContextPath() {
+		return contextPath;
+	}
+
+	/**
+	 * Milliseconds from the JVM starting to the first request being answered, 0 until then
+	 * @return
+	 */
+	public long getFirstRequestMillis() {
+		return firstRequestMillis;
+	}
+
+	private void addServlets(Context context) {
+		for (String[] servlet : SERVLETS) {
+			Wrapper wrapper = Tomcat.addServlet(context, servlet[0], servlet[1]);
+			wrapper.setLoadOnStartup(1);
+			for (String async : ASYNC_SERVLETS) {
+				if (async.equals(servlet[0])) {
+					wrapper.setAsyncSupported(true);
+				}
+			}
+			context.addServletMappingDecoded(servlet[2], servlet[0]);
+		}
+	}
+
+	private void addFilters(Context context) {
+		for (String[] filter : FILTERS) {
+			FilterDef def = new FilterDef();
+			def.setFilterName(filter[0]);
+			def.setFilterClass(filter[1]);
+			context.addFilterDef(def);
+			FilterMap map = new FilterMap();
+			map.setFilterName(filter[0]);
+			for (int i = 2; i < filter.length; i++) {
+				map.addURLPatternDecoded(filter[i]);
+			}
+			context.addFilterMap(map);
+		}
+	}
+
+	private static int awaitWarmUp(FutureTask<Integer> warmUp) throws SQLException {
+		try {
+			return warmUp.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted warming up the connection pool", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			throw new IllegalStateException("Unable to warm up", e.getCause());
+		}
+	}
+
+	private void warmJson() {
+		Gson gson = new Gson();
+		for (Class<?> type : JSON_TYPES) {
+			try {
+				gson.fromJson(gson.toJson(type.newInstance()), type);
+			} catch (InstantiationException | IllegalAccessException e) {
+				logger.log(Level.FINE, "Unable to warm JSON binding of " + type.getName(), e);
+			}
+		}
+	}
+
+	private void firstRequest() throws IOException {
+		URL url = new URL("http", "localhost", getPort(), contextPath + "/Metrics");
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			byte[] buffer = new byte[8192];
+			while (in.read(buffer) >= 0) {
+			}
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				throw new IOException("First request answered " + connection.getResponseCode());
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static long sinceJvmStart() {
+		return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+}
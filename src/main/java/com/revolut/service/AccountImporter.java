@@ -0,0 +1,159 @@
+package com.revolut.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.gson.Gson;
+import com.revolut.beans.Account;
+import com.revolut.beans.ImportReject;
+import com.revolut.beans.ImportReport;
+import com.revolut.database.AccountDAO;
+import com.revolut.fx.FxRates;
+import com.revolut.rest.Response;
+
+/**
+ * Imports accounts streamed as newline delimited JSON, one {accountName, balance, currency} object per line,
+ * or as CSV lines of accountName,balance with an optional header. Accounts with no currency are opened in the base currency. Rows are read in chunks, each
+ * chunk has its names checked against existing accounts in one query and is inserted with
+ * batched statements in one commit. Names repeated within an import are rejected after the first.
+ * Rows are validated as for POST TransferMoney/Account, rejected rows are reported with their line number.
+ * @author josh
+ *
+ */
+public class AccountImporter {
+
+	/** Rejected rows listed in the report, beyond this they are only counted */
+	private static final int MAX_REPORTED = 1000;
+
+	private final AccountDAO accountDAO;
+	private final int chunkSize;
+	private final Gson gson = new Gson();
+
+	public AccountImporter() {
+		this(new AccountDAO(), Integer.getInteger("transfermoney.import.chunkSize", 5000));
+	}
+
+	public AccountImporter(AccountDAO accountDAO, int chunkSize) {
+		this.accountDAO = accountDAO;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Reads and imports every row from the reader
+	 * @param reader
+	 * @param csv true for CSV, false for newline delimited JSON
+	 * @return
+	 * @throws IOException
+	 */
+	public ImportReport importAccounts(BufferedReader reader, boolean csv) throws IOException {
+		ImportReport report = new ImportReport();
+		report.setRejects(new ArrayList<>());
+		Set<String> seen = new HashSet<>();
+		List<Account> chunk = new ArrayList<>(chunkSize);
+		List<Long> chunkLines = new ArrayList<>(chunkSize);
+		long lineNumber = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			if (StringUtils.isBlank(line) || (csv && lineNumber == 1 && StringUtils.startsWithIgnoreCase(line.trim(), "accountName"))) {
+				continue;
+			}
+			Account account = csv ? parseCsv(line) : parseJson(line);
+			String accountName = account != null ? account.getAccountName() : null;
+			if (account == null) {
+				reject(report, lineNumber, null, "The row could not be parsed");
+			} else if (StringUtils.isBlank(accountName) || account.getBalance() == null) {
+				reject(report, lineNumber, accountName, "The Account Name and balance received were not valid");
+			} else if (account.getCurrency() != null && !FxRates.getInstance().getSnapshot().isSupported(account.getCurrency())) {
+				reject(report, lineNumber, accountName, String.format("Currency %s is not supported", account.getCurrency()));
+			} else if (!seen.add(accountName)) {
+				reject(report, lineNumber, accountName, String.format("Account %s appears more than once in the import", accountName));
+			} else {
+				chunk.add(account);
+				chunkLines.add(lineNumber);
+				if (chunk.size() == chunkSize) {
+					flush(report, chunk, chunkLines);
+				}
+			}
+		}
+		flush(report, chunk, chunkLines);
+		return report;
+	}
+
+	private void flush(ImportReport report, List<Account> chunk, List<Long> chunkLines) {
+		if (chunk.isEmpty()) {
+			return;
+		}
+		List<String> accountNames = new ArrayList<>(chunk.size());
+		for (Account account : chunk) {
+			accountNames.add(account.getAccountName());
+		}
+		Set<String> existing = accountDAO.getExistingAccountNames(accountNames);
+		List<Account> accounts = new ArrayList<>(chunk.size());
+		List<Long> lines = new ArrayList<>(chunk.size());
+		for (int i = 0; i < chunk.size(); i++) {
+			String accountName = chunk.get(i).getAccountName();
+			if (existing == null) {
+				reject(report, chunkLines.get(i), accountName, String.format("Unable to create account %s", accountName));
+			} else if (existing.contains(accountName)) {
+				reject(report, chunkLines.get(i), accountName, String.format("An account called %s already exists", accountName));
+			} else {
+				accounts.add(chunk.get(i));
+				lines.add(chunkLines.get(i));
+			}
+		}
+		if (!accounts.isEmpty()) {
+			if (StringUtils.equals(accountDAO.createAccounts(accounts), Response.SUCCESS)) {
+				report.setAccepted(report.getAccepted() + accounts.size());
+			} else {
+				for (int i = 0; i < accounts.size(); i++) {
+					String accountName = accounts.get(i).getAccountName();
+					reject(report, lines.get(i), accountName, String.format("Unable to create account %s", accountName));
+				}
+			}
+		}
+		chunk.clear();
+		chunkLines.clear();
+	}
+
+	private Account parseJson(String line) {
+		try {
+			return gson.fromJson(line, Account.class);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private Account parseCsv(String line) {
+		int comma = line.lastIndexOf(',');
+		if (comma < 0) {
+			return null;
+		}
+		try {
+			Account account = new Account();
+			account.setAccountName(StringUtils.strip(line.substring(0, comma).trim(), "\""));
+			account.setBalance(new BigDecimal(StringUtils.strip(line.substring(comma + 1).trim(), "\"")));
+			return account;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private void reject(ImportReport report, long lineNumber, String accountName, String reason) {
+		report.setRejected(report.getRejected() + 1);
+		if (report.getRejects().size() < MAX_REPORTED) {
+			ImportReject reject = new ImportReject();
+			reject.setLine(lineNumber);
+			reject.setAccountName(accountName);
+			reject.setReason(reason);
+			report.getRejects().add(reject);
+		}
+	}
+}
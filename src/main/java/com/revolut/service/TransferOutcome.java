@@ -0,0 +1,49 @@
+package com.revolut.service;
+
+/**
+ * Result of a transfer attempt. Each outcome carries the compact code used by the
+ * binary protocol and the message returned by the REST api. Messages are formatted
+ * with the from account name as the first argument and the to account name as the second.
+ * @author josh
+ *
+ */
+public enum TransferOutcome {
+	SUCCESS((byte) 0, "Successfully performed transfer from %1$s to %2$s"),
+	INVALID_REQUEST((byte) 1, "The Account Names and amount received were not valid"),
+	FROM_ACCOUNT_NOT_FOUND((byte) 2, "From account with name %1$s does not exist"),
+	TO_ACCOUNT_NOT_FOUND((byte) 3, "To account with name %2$s does not exist"),
+	INSUFFICIENT_FUNDS((byte) 4, "From account with name %1$s does not have enough money to perform this transfer"),
+	FAILED((byte) 5, "Unable to performed transfer from %1$s to %2$s"),
+	LIMIT_EXCEEDED((byte) 6, "From account with name %1$s has reached its transfer limit"),
+	CURRENCY_NOT_SUPPORTED((byte) 7, "No exchange rate is available for a transfer from %1$s to %2$s");
+
+	private final byte code;
+	private final String messageFormat;
+
+	private TransferOutcome(byte code, String messageFormat) {
+		this.code = code;
+		this.messageFormat = messageFormat;
+	}
+
+	public byte getCode() {
+		return code;
+	}
+
+	public String getMessage(String fromAccountName, String toAccountName) {
+		return String.format(messageFormat, fromAccountName, toAccountName);
+	}
+
+	/**
+	 * Returns the outcome matching the given code, or FAILED if the code is unknown
+	 * @param code
+	 * @return
+	 */
+	public static TransferOutcome fromCode(byte code) {
+		for (TransferOutcome outcome : values()) {
+			if (outcome.code == code) {
+				return outcome;
+			}
+		}
+		return FAILED;
+	}
+}
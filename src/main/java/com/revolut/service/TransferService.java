@@ -0,0 +1,281 @@
+package com.revolut.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.revolut.beans.Account;
+import com.revolut.database.AccountDAO;
+import com.revolut.database.TransactionDAO;
+import com.revolut.fx.FxRates;
+import com.revolut.fx.FxSnapshot;
+import com.revolut.limits.TransferLimits;
+import com.revolut.metrics.Metrics;
+import com.revolut.netting.NettingWindow;
+import com.revolut.rest.Response;
+import com.revolut.tracing.Span;
+import com.revolut.tracing.Tracer;
+
+/**
+ * Validates and performs transfers. Shared by the Transaction servlet and the binary
+ * transfer listener so both apply exactly the same checks before reaching the DAO.
+ * Transfers are optimistic, the balance check is made against the account as read and the DAO
+ * only applies the debit if the account's version is unchanged. On a conflict the account is
+ * re-read and the transfer retried after a jittered back off, up to transfermoney.transfer.maxAttempts times.
+ * When transfer limits are set the amount is reserved against them before the DAO is called.
+ * When netting is enabled transfers go through the netting window instead, which checks the balance against
+ * the account's position including transfers not yet applied.
+ * Transfers between accounts in different currencies are converted at the rates in the current FX snapshot, read
+ * once per transfer with no locking. The debit is rounded up and the credit down so conversion never makes money.
+ * @author josh
+ *
+ */
+public class TransferService {
+
+	private static final int MAX_ATTEMPTS = Integer.getInteger("transfermoney.transfer.maxAttempts", 8);
+	private static final long BASE_BACKOFF_MICROS = 500;
+	private static final long MAX_BACKOFF_MICROS = 50_000;
+
+	private static final LongAdder attempts = new LongAdder();
+	private static final LongAdder conflicts = new LongAdder();
+	private static final LongAdder retries = new LongAdder();
+	private static final LongAdder exhausted = new LongAdder();
+	private static final LongAdder converted = new LongAdder();
+
+	static {
+		Metrics.register("transfer.attempts", attempts::sum);
+		Metrics.register("transfer.conflicts", conflicts::sum);
+		Metrics.register("transfer.retries", retries::sum);
+		Metrics.register("transfer.exhausted", exhausted::sum);
+		Metrics.register("transfer.converted", converted::sum);
+	}
+
+	private final AccountDAO accountDAO;
+	private final TransactionDAO transDAO;
+	private final TransferLimits limits;
+	private final NettingWindow netting;
+	private final FxRates fxRates = FxRates.getInstance();
+
+	public TransferService() {
+		this(new AccountDAO(), new TransactionDAO());
+	}
+
+	public TransferService(AccountDAO accountDAO, TransactionDAO transDAO) {
+		this(accountDAO, transDAO, TransferLimits.getInstance());
+	}
+
+	public TransferService(AccountDAO accountDAO, TransactionDAO transDAO, TransferLimits limits) {
+		this(accountDAO, transDAO, limits, NettingWindow.getInstance());
+	}
+
+	public TransferService(AccountDAO accountDAO, TransactionDAO transDAO, TransferLimits limits, NettingWindow netting) {
+		this.accountDAO = accountDAO;
+		this.transDAO = transDAO;
+		this.limits = limits;
+		this.netting = netting;
+	}
+
+	/**
+	 * Transfers an amount in the from account's currency between two accounts identified by name
+	 * @param fromAccountName
+	 * @param toAccountName
+	 * @param amount
+	 * @return
+	 */
+	public TransferOutcome transfer(String fromAccountName, String toAccountName, BigDecimal amount) {
+		return transfer(fromAccountName, toAccountName, amount, null);
+	}
+
+	/**
+	 * Transfers an amount between two accounts identified by name. The amount is in the given currency,
+	 * or the from account's currency if none is given.
+	 * @param fromAccountName
+	 * @param toAccountName
+	 * @param amount
+	 * @param currency
+	 * @return
+	 */
+	public TransferOutcome transfer(String fromAccountName, String toAccountName, BigDecimal amount, String currency) {
+		// Validate params
+		if (!StringUtils.isNoneBlank(fromAccountName, toAccountName) || !isValidAmount(amount)) {
+			return TransferOutcome.INVALID_REQUEST;
+		}
+		Account fromAccount;
+		Account toAccount;
+		try (Span span = Tracer.span("account.lookup")) {
+			fromAccount = accountDAO.getAccount(fromAccountName);
+			toAccount = fromAccount != null ? accountDAO.getAccount(toAccountName) : null;
+		}
+		if (fromAccount == null) {
+			return TransferOutcome.FROM_ACCOUNT_NOT_FOUND;
+		}
+		if (toAccount == null) {
+			return TransferOutcome.TO_ACCOUNT_NOT_FOUND;
+		}
+		return transfer(fromAccount, toAccount, amount, currency);
+	}
+
+	/**
+	 * Transfers an amount in the from account's currency between two accounts identified by id
+	 * @param fromAccountId
+	 * @param toAccountId
+	 * @param amount
+	 * @return
+	 */
+	public TransferOutcome transfer(long fromAccountId, long toAccountId, BigDecimal amount) {
+		if (!isValidAmount(amount)) {
+			return TransferOutcome.INVALID_REQUEST;
+		}
+		Account fromAccount = accountDAO.getAccount(fromAccountId);
+		if (fromAccount == null) {
+			return TransferOutcome.FROM_ACCOUNT_NOT_FOUND;
+		}
+		Account toAccount = accountDAO.getAccount(toAccountId);
+		if (toAccount == null) {
+			return TransferOutcome.TO_ACCOUNT_NOT_FOUND;
+		}
+		return transfer(fromAccount, toAccount, amount, null);
+	}
+
+	private TransferOutcome transfer(Account fromAccount, Account toAccount, BigDecimal amount, String currency) {
+		// Shave off any more than 2 decimal places
+		amount = amount.setScale(2, RoundingMode.DOWN);
+		String fromCurrency = fromAccount.getCurrency();
+		String toCurrency = toAccount.getCurrency();
+		if (currency == null) {
+			currency = fromCurrency;
+		}
+		BigDecimal toAmount = amount;
+		BigDecimal rate = null;
+		if (!StringUtils.equals(currency, fromCurrency) || !StringUtils.equals(currency, toCurrency)) {
+			// Both amounts and the rate recorded come from the one snapshot
+			FxSnapshot rates = fxRates.getSnapshot();
+			BigDecimal fromAmount = rates.convert(amount, currency, fromCurrency, RoundingMode.UP);
+			if (StringUtils.equals(fromCurrency, toCurrency)) {
+				// Only the amount is in another currency, both accounts move by the same amount
+				toAmount = fromAmount;
+			} else {
+				toAmount = rates.convert(amount, currency, toCurrency, RoundingMode.DOWN);
+				rate = rates.getRate(fromCurrency, toCurrency);
+			}
+			if (fromAmount == null || toAmount == null) {
+				return TransferOutcome.CURRENCY_NOT_SUPPORTED;
+			}
+			// Too small to be worth anything once converted
+			if (!isValidAmount(fromAmount) || !isValidAmount(toAmount)) {
+				return TransferOutcome.INVALID_REQUEST;
+			}
+			amount = fromAmount;
+			converted.increment();
+		}
+		// Netted transfers are checked against the account's position instead, its balance plus the net of its
+		// transfers waiting in the window, debits included, and the window only applies a net the balance covers
+		if (!netting.isEnabled() && fromAccount.getBalance().compareTo(amount) == -1) {
+			return TransferOutcome.INSUFFICIENT_FUNDS;
+		}
+		if (!limits.isEnabled()) {
+			return attemptTransfer(fromAccount, toAccount, amount, toAmount, rate);
+		}
+		// Hold the amount against the limits before writing anything, give it back if the transfer doesn't happen
+		long hundredths = amount.unscaledValue().longValue();
+		long reservedAt = System.currentTimeMillis();
+		if (!limits.tryReserve(fromAccount.getId(), hundredths, reservedAt)) {
+			return TransferOutcome.LIMIT_EXCEEDED;
+		}
+		TransferOutcome outcome = attemptTransfer(fromAccount, toAccount, amount, toAmount, rate);
+		if (outcome != TransferOutcome.SUCCESS) {
+			limits.release(fromAccount.getId(), hundredths, reservedAt, System.currentTimeMillis());
+		}
+		return outcome;
+	}
+
+	private TransferOutcome attemptTransfer(Account fromAccount, Account toAccount, BigDecimal amount, BigDecimal toAmount,
+			BigDecimal rate) {
+		if (netting.isEnabled()) {
+			return attemptNettedTransfer(fromAccount, toAccount, amount, toAmount, rate);
+		}
+		for (int attempt = 1;; attempt++) {
+			// From account had enough money when read, the DAO only debits it if that is still the case
+			attempts.increment();
+			String status;
+			try (Span span = Tracer.span("doTransfer")) {
+				status = transDAO.doTransfer(fromAccount, toAccount, amount, toAmount, rate);
+			}
+			if (StringUtils.equals(status, Response.SUCCESS)) {
+				return TransferOutcome.SUCCESS;
+			}
+			if (!StringUtils.equals(status, Response.CONFLICT)) {
+				return TransferOutcome.FAILED;
+			}
+			conflicts.increment();
+			if (attempt >= MAX_ATTEMPTS) {
+				exhausted.increment();
+				return TransferOutcome.FAILED;
+			}
+			boolean slept;
+			try (Span span = Tracer.span("backoff")) {
+				slept = backOff(attempt);
+			}
+			if (!slept) {
+				return TransferOutcome.FAILED;
+			}
+			// Someone else changed the from account, re-read it and check again
+			retries.increment();
+			fromAccount = accountDAO.getAccount(fromAccount.getId());
+			if (fromAccount == null) {
+				return TransferOutcome.FROM_ACCOUNT_NOT_FOUND;
+			}
+			if (fromAccount.getBalance().compareTo(amount) == -1) {
+				return TransferOutcome.INSUFFICIENT_FUNDS;
+			}
+		}
+	}
+
+	private TransferOutcome attemptNettedTransfer(Account fromAccount, Account toAccount, BigDecimal amount, BigDecimal toAmount,
+			BigDecimal rate) {
+		for (int attempt = 1;; attempt++) {
+			attempts.increment();
+			TransferOutcome outcome;
+			try (Span span = Tracer.span("netting")) {
+				outcome = netting.transfer(fromAccount, toAccount, amount, toAmount, rate);
+			}
+			if (outcome != null) {
+				return outcome;
+			}
+			// A window changed the from account since it was read, it has been applied so read the account again
+			conflicts.increment();
+			if (attempt >= MAX_ATTEMPTS) {
+				exhausted.increment();
+				return TransferOutcome.FAILED;
+			}
+			retries.increment();
+			fromAccount = accountDAO.getAccount(fromAccount.getId());
+			if (fromAccount == null) {
+				return TransferOutcome.FROM_ACCOUNT_NOT_FOUND;
+			}
+		}
+	}
+
+	/**
+	 * Sleeps for a random time up to an exponentially growing cap so conflicting transfers spread out.
+	 * Returns false if interrupted.
+	 */
+	private boolean backOff(int attempt) {
+		long capMicros = Math.min(MAX_BACKOFF_MICROS, BASE_BACKOFF_MICROS << Math.min(attempt, 16));
+		try {
+			TimeUnit.MICROSECONDS.sleep(ThreadLocalRandom.current().nextLong(capMicros + 1));
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private boolean isValidAmount(BigDecimal amount) {
+		return amount != null && amount.compareTo(BigDecimal.ZERO) == 1;
+	}
+}
@@ -0,0 +1,156 @@
+package com.revolut.tiering;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.database.TransactionDAO;
+
+/**
+ * The cold tier of transaction history, the set of segment files in the directory given by the
+ * transfermoney.tiering.dir system property. Without that property the store is empty and history
+ * queries only read the TRANSACTION table.
+ *
+ * Segments must be kept with the database they were moved out of, with the default in memory
+ * database the directory should be emptied whenever the server restarts.
+ *
+ * A move writes its segment before deleting its rows from the table, so in between its transactions are
+ * in both. Moves take the write side of a read/write lock, readers that must see each transaction exactly
+ * once take the read side to hold moves off while they read the table and the segments.
+ * @author josh
+ *
+ */
+public class ColdStore {
+	private static final Logger logger = Logger.getLogger(ColdStore.class.getName());
+
+	private static final ColdStore instance = load(System.getProperty("transfermoney.tiering.dir"));
+
+	private final Path directory;
+	private final List<Segment> segments = new CopyOnWriteArrayList<>();
+	private final ReadWriteLock moves = new ReentrantReadWriteLock();
+
+	public ColdStore(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the store configured for this server
+	 * @return
+	 */
+	public static ColdStore getInstance() {
+		return instance;
+	}
+
+	private static ColdStore load(String directory) {
+		if (directory == null) {
+			return new ColdStore(null);
+		}
+		ColdStore store = new ColdStore(Paths.get(directory));
+		try {
+			Files.createDirectories(store.directory);
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(store.directory, "*" + Segment.EXTENSION)) {
+				for (Path file : files) {
+					Segment segment = Segment.open(file);
+					// A move may have stopped after writing the segment but before removing its rows from the table
+					new TransactionDAO().deleteArchivedTransactions(segment.getMinId(), segment.getMaxId(), segment.getMaxTime());
+					store.segments.add(segment);
+				}
+			}
+			logger.log(Level.INFO, "Loaded {0} transaction segments from {1}",
+					new Object[] { store.segments.size(), store.directory });
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Unable to load transaction segments", e);
+		}
+		return store;
+	}
+
+	public boolean isEnabled() {
+		return directory != null;
+	}
+
+	public boolean isEmpty() {
+		return segments.isEmpty();
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public List<Segment> getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Returns the lock held while transactions are moved into the store
+	 * @return
+	 */
+	public Lock getMoveLock() {
+		return moves.writeLock();
+	}
+
+	/**
+	 * Returns the lock that holds off moves, for reading the table and the segments as one ledger
+	 * @return
+	 */
+	public Lock getReadLock() {
+		return moves.readLock();
+	}
+
+	/**
+	 * Writes rows, in id order, to a new segment and makes it visible to queries
+	 * @param rows
+	 * @throws IOException
+	 */
+	public void archive(List<ColdTransaction> rows) throws IOException {
+		segments.add(Segment.open(SegmentWriter.write(directory, rows)));
+	}
+
+	/**
+	 * Returns the cold transactions from and to the given accounts, either of which may be null to match any account
+	 * @param fromAccountId
+	 * @param toAccountId
+	 * @return
+	 */
+	public List<ColdTransaction> find(Long fromAccountId, Long toAccountId) {
+		List<ColdTransaction> found = new ArrayList<>();
+		for (Segment segment : segments) {
+			if ((fromAccountId != null && !segment.containsAccount(fromAccountId))
+					|| (toAccountId != null && !segment.containsAccount(toAccountId))) {
+				continue;
+			}
+			segment.scan(row -> {
+				if ((fromAccountId == null || row.getFromAccountId() == fromAccountId)
+						&& (toAccountId == null || row.getToAccountId() == toAccountId)) {
+					found.add(row);
+				}
+			});
+		}
+		return found;
+	}
+
+	/**
+	 * Returns credits minus debits, in hundredths, held in cold segments for accounts with ids in the range
+	 * @param fromAccountId inclusive
+	 * @param toAccountId exclusive
+	 * @return
+	 */
+	public Map<Long, Long> getNetAmounts(long fromAccountId, long toAccountId) {
+		Map<Long, Long> net = new HashMap<>();
+		for (Segment segment : segments) {
+			segment.addNetAmounts(fromAccountId, toAccountId, net);
+		}
+		return net;
+	}
+}
@@ -0,0 +1,67 @@
+package com.revolut.tiering;
+
+/**
+ * A transaction as stored in a cold segment, by account id with the amounts in hundredths and the rate, if it was
+ * converted, in ten billionths
+ * @author josh
+ *
+ */
+public class ColdTransaction {
+
+	private final long id;
+	private final long fromAccountId;
+	private final long toAccountId;
+	private final long amount;
+	private final long toAmount;
+	private final long rate;
+	private final long transactionTime;
+
+	public ColdTransaction(long id, long fromAccountId, long toAccountId, long amount, long transactionTime) {
+		this(id, fromAccountId, toAccountId, amount, amount, 0, transactionTime);
+	}
+
+	public ColdTransaction(long id, long fromAccountId, long toAccountId, long amount, long toAmount, long rate,
+			long transactionTime) {
+		this.id = id;
+		this.fromAccountId = fromAccountId;
+		this.toAccountId = toAccountId;
+		this.amount = amount;
+		this.toAmount = toAmount;
+		this.rate = rate;
+		this.transactionTime = transactionTime;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public long getFromAccountId() {
+		return fromAccountId;
+	}
+
+	public long getToAccountId() {
+		return toAccountId;
+	}
+
+	public long getAmount() {
+		return amount;
+	}
+
+	/**
+	 * Returns the amount credited to the to account, which differs from the amount debited when it was converted
+	 */
+	public long getToAmount() {
+		return toAmount;
+	}
+
+	/**
+	 * Returns the rate the amount was converted at in ten billionths, 0 if it wasn't converted
+	 */
+	public long getRate() {
+		return rate;
+	}
+
+	public long getTransactionTime() {
+		return transactionTime;
+	}
+}
@@ -0,0 +1,217 @@
+package com.revolut.tiering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Immutable, memory mapped file of old transactions stored column by column.
+ *
+ * Header : magic, format version, row count, account count (ints), min id, max id, min time, max time (longs),
+ *          byte length of each of the seven columns (ints)
+ * Account index : per account id found in the segment, ordered by id, its id, total credits and total debits (longs)
+ * Columns : id (delta from previous), from account id, to account id, amount in hundredths (zigzag), time in
+ *           millis (zigzag delta from previous, the first from 0), amount credited less amount debited in
+ *           hundredths (zigzag, 0 unless converted between currencies), rate converted at in ten billionths
+ *           (0 unless converted), each as variable length integers
+ *
+ * Version 1 segments, written before transfers between currencies, have only the first five columns and
+ * version 2 segments, written before rates were kept, the first six.
+ *
+ * The fixed width account index is searched in place to skip segments that don't mention an account and
+ * gives per account totals without touching the columns. Columns are only decoded for segments that match.
+ * @author josh
+ *
+ */
+public class Segment {
+
+	static final int MAGIC = 0x54584E53;
+	static final int FORMAT_VERSION = 3;
+	static final int COLUMNS = 7;
+	static final int V1_COLUMNS = 5;
+	static final int V2_COLUMNS = 6;
+	static final int HEADER_BYTES = 4 * 4 + 4 * 8 + COLUMNS * 4;
+	static final int INDEX_ENTRY_BYTES = 3 * 8;
+	static final String EXTENSION = ".seg";
+
+	private final Path path;
+	private final MappedByteBuffer buffer;
+	private final int rowCount;
+	private final int accountCount;
+	private final long minId;
+	private final long maxId;
+	private final long maxTime;
+	private final int headerBytes;
+	private final int[] columnOffsets;
+
+	private Segment(Path path, MappedByteBuffer buffer) throws IOException {
+		this.path = path;
+		this.buffer = buffer;
+		int version = buffer.getInt(4);
+		if (buffer.getInt(0) != MAGIC || version < 1 || version > FORMAT_VERSION) {
+			throw new IOException(String.format("%s is not a transaction segment", path));
+		}
+		this.columnOffsets = new int[version == 1 ? V1_COLUMNS : version == 2 ? V2_COLUMNS : COLUMNS];
+		this.headerBytes = 4 * 4 + 4 * 8 + columnOffsets.length * 4;
+		this.rowCount = buffer.getInt(8);
+		this.accountCount = buffer.getInt(12);
+		this.minId = buffer.getLong(16);
+		this.maxId = buffer.getLong(24);
+		this.maxTime = buffer.getLong(40);
+		int offset = headerBytes + accountCount * INDEX_ENTRY_BYTES;
+		for (int column = 0; column < columnOffsets.length; column++) {
+			columnOffsets[column] = offset;
+			offset += buffer.getInt(48 + column * 4);
+		}
+		if (offset != buffer.capacity()) {
+			throw new IOException(String.format("%s is truncated", path));
+		}
+	}
+
+	/**
+	 * Maps an existing segment file
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static Segment open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new Segment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Returns true if the account is the from or to account of any transaction in the segment
+	 * @param accountId
+	 * @return
+	 */
+	public boolean containsAccount(long accountId) {
+		int index = findAccount(accountId);
+		return index < accountCount && accountIdAt(index) == accountId;
+	}
+
+	/**
+	 * Adds credits minus debits in the segment of every account with an id in the range to the totals given
+	 * @param fromAccountId inclusive
+	 * @param toAccountId exclusive
+	 * @param net
+	 */
+	public void addNetAmounts(long fromAccountId, long toAccountId, Map<Long, Long> net) {
+		for (int index = findAccount(fromAccountId); index < accountCount; index++) {
+			long accountId = accountIdAt(index);
+			if (accountId >= toAccountId) {
+				break;
+			}
+			int position = headerBytes + index * INDEX_ENTRY_BYTES;
+			long amount = buffer.getLong(position + 8) - buffer.getLong(position + 16);
+			net.merge(accountId, amount, Long::sum);
+		}
+	}
+
+	/**
+	 * Returns the ids of every account in the segment
+	 * @return
+	 */
+	public long[] getAccountIds() {
+		long[] accountIds = new long[accountCount];
+		for (int index = 0; index < accountCount; index++) {
+			accountIds[index] = accountIdAt(index);
+		}
+		return accountIds;
+	}
+
+	/**
+	 * Decodes every transaction in the segment in id order
+	 * @param visitor
+	 */
+	public void scan(Consumer<ColdTransaction> visitor) {
+		ByteBuffer ids = column(0);
+		ByteBuffer fromIds = column(1);
+		ByteBuffer toIds = column(2);
+		ByteBuffer amounts = column(3);
+		ByteBuffer times = column(4);
+		ByteBuffer conversions = columnOffsets.length > V1_COLUMNS ? column(5) : null;
+		ByteBuffer rates = columnOffsets.length > V2_COLUMNS ? column(6) : null;
+		long id = minId;
+		long time = 0;
+		for (int row = 0; row < rowCount; row++) {
+			id += readVarLong(ids);
+			long fromAccountId = readVarLong(fromIds);
+			long toAccountId = readVarLong(toIds);
+			long amount = unZigZag(readVarLong(amounts));
+			time += unZigZag(readVarLong(times));
+			long toAmount = conversions != null ? amount + unZigZag(readVarLong(conversions)) : amount;
+			long rate = rates != null ? readVarLong(rates) : 0;
+			visitor.accept(new ColdTransaction(id, fromAccountId, toAccountId, amount, toAmount, rate, time));
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public long getMinId() {
+		return minId;
+	}
+
+	public long getMaxId() {
+		return maxId;
+	}
+
+	public long getMaxTime() {
+		return maxTime;
+	}
+
+	private ByteBuffer column(int column) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(columnOffsets[column]);
+		return view;
+	}
+
+	private long accountIdAt(int index) {
+		return buffer.getLong(headerBytes + index * INDEX_ENTRY_BYTES);
+	}
+
+	/**
+	 * Returns the index of the first account with an id not less than the one given
+	 */
+	private int findAccount(long accountId) {
+		int low = 0;
+		int high = accountCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (accountIdAt(middle) < accountId) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static long readVarLong(ByteBuffer in) {
+		long value = 0;
+		int shift = 0;
+		while (true) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+		}
+	}
+}
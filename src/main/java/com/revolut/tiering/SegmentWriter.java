@@ -0,0 +1,112 @@
+package com.revolut.tiering;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes transactions, which must be in id order, to a new segment file. See {@link Segment} for the layout.
+ * The file is written under a temporary name, forced to disk and then moved into place so a
+ * segment is either complete or absent.
+ * @author josh
+ *
+ */
+public class SegmentWriter {
+
+	private SegmentWriter() {
+	}
+
+	public static Path write(Path directory, List<ColdTransaction> rows) throws IOException {
+		ColdTransaction first = rows.get(0);
+		ColdTransaction last = rows.get(rows.size() - 1);
+		ByteArrayOutputStream ids = new ByteArrayOutputStream();
+		ByteArrayOutputStream fromIds = new ByteArrayOutputStream();
+		ByteArrayOutputStream toIds = new ByteArrayOutputStream();
+		ByteArrayOutputStream amounts = new ByteArrayOutputStream();
+		ByteArrayOutputStream times = new ByteArrayOutputStream();
+		ByteArrayOutputStream conversions = new ByteArrayOutputStream();
+		ByteArrayOutputStream rates = new ByteArrayOutputStream();
+		// Per account credits and debits, ordered by account id
+		Map<Long, long[]> totals = new TreeMap<>();
+		long previousId = first.getId();
+		long previousTime = 0;
+		long minTime = Long.MAX_VALUE;
+		long maxTime = Long.MIN_VALUE;
+		for (ColdTransaction row : rows) {
+			writeVarLong(ids, row.getId() - previousId);
+			writeVarLong(fromIds, row.getFromAccountId());
+			writeVarLong(toIds, row.getToAccountId());
+			writeVarLong(amounts, zigZag(row.getAmount()));
+			writeVarLong(times, zigZag(row.getTransactionTime() - previousTime));
+			writeVarLong(conversions, zigZag(row.getToAmount() - row.getAmount()));
+			writeVarLong(rates, row.getRate());
+			previousId = row.getId();
+			previousTime = row.getTransactionTime();
+			minTime = Math.min(minTime, row.getTransactionTime());
+			maxTime = Math.max(maxTime, row.getTransactionTime());
+			totals.computeIfAbsent(row.getToAccountId(), k -> new long[2])[0] += row.getToAmount();
+			totals.computeIfAbsent(row.getFromAccountId(), k -> new long[2])[1] += row.getAmount();
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(Segment.HEADER_BYTES + totals.size() * Segment.INDEX_ENTRY_BYTES);
+		header.putInt(Segment.MAGIC);
+		header.putInt(Segment.FORMAT_VERSION);
+		header.putInt(rows.size());
+		header.putInt(totals.size());
+		header.putLong(first.getId());
+		header.putLong(last.getId());
+		header.putLong(minTime);
+		header.putLong(maxTime);
+		header.putInt(ids.size());
+		header.putInt(fromIds.size());
+		header.putInt(toIds.size());
+		header.putInt(amounts.size());
+		header.putInt(times.size());
+		header.putInt(conversions.size());
+		header.putInt(rates.size());
+		for (Map.Entry<Long, long[]> total : totals.entrySet()) {
+			header.putLong(total.getKey());
+			header.putLong(total.getValue()[0]);
+			header.putLong(total.getValue()[1]);
+		}
+		header.flip();
+
+		Path target = directory.resolve(String.format("segment-%020d-%020d%s", first.getId(), last.getId(), Segment.EXTENSION));
+		Path temp = directory.resolve(target.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			for (ByteArrayOutputStream column : new ByteArrayOutputStream[] { ids, fromIds, toIds, amounts, times, conversions,
+					rates }) {
+				ByteBuffer buffer = ByteBuffer.wrap(column.toByteArray());
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			channel.force(true);
+		}
+		return Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+}
@@ -0,0 +1,49 @@
+package com.revolut.tiering;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import com.revolut.database.TransactionDAO;
+
+/**
+ * Periodically moves old transactions to the cold store when the transfermoney.tiering.dir system property is set.
+ * transfermoney.tiering.ageMinutes : age after which transactions are moved (default 30 days)
+ * transfermoney.tiering.intervalMinutes : time between runs (default 60)
+ * transfermoney.tiering.segmentRows : most transactions written to one segment (default 500000)
+ * @author josh
+ *
+ */
+public class TieringListener implements ServletContextListener {
+
+	private ScheduledExecutorService scheduler;
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		ColdStore coldStore = ColdStore.getInstance();
+		if (!coldStore.isEnabled()) {
+			return;
+		}
+		long ageMinutes = Long.getLong("transfermoney.tiering.ageMinutes", TimeUnit.DAYS.toMinutes(30));
+		long intervalMinutes = Long.getLong("transfermoney.tiering.intervalMinutes", 60);
+		int segmentRows = Integer.getInteger("transfermoney.tiering.segmentRows", 500000);
+		TransactionTiering tiering = new TransactionTiering(coldStore, new TransactionDAO(),
+				TimeUnit.MINUTES.toMillis(ageMinutes), segmentRows);
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "transaction-tiering");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(tiering, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+}
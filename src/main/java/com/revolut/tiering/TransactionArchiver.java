@@ -0,0 +1,14 @@
+package com.revolut.tiering;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Somewhere to durably store transactions before they are removed from the TRANSACTION table
+ * @author josh
+ *
+ */
+public interface TransactionArchiver {
+
+	void archive(List<ColdTransaction> rows) throws IOException;
+}
@@ -0,0 +1,66 @@
+package com.revolut.tiering;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.revolut.database.TransactionDAO;
+
+/**
+ * Moves transactions older than a configured age from the TRANSACTION table into cold segments,
+ * at most segmentRows per segment, until none are left. Each segment is moved under the store's
+ * move lock, so moves wait for a reconciliation in progress.
+ * @author josh
+ *
+ */
+public class TransactionTiering implements Runnable {
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private final ColdStore coldStore;
+	private final TransactionDAO transDAO;
+	private final long ageMillis;
+	private final int segmentRows;
+
+	public TransactionTiering(ColdStore coldStore, TransactionDAO transDAO, long ageMillis, int segmentRows) {
+		this.coldStore = coldStore;
+		this.transDAO = transDAO;
+		this.ageMillis = ageMillis;
+		this.segmentRows = segmentRows;
+	}
+
+	@Override
+	public void run() {
+		Lock moveLock = coldStore.getMoveLock();
+		moveLock.lock();
+		try {
+			// Finish any earlier move that wrote its segment but didn't get to remove the rows from the table
+			for (Segment segment : coldStore.getSegments()) {
+				transDAO.deleteArchivedTransactions(segment.getMinId(), segment.getMaxId(), segment.getMaxTime());
+			}
+		} finally {
+			moveLock.unlock();
+		}
+		Timestamp cutoff = new Timestamp(System.currentTimeMillis() - ageMillis);
+		long start = System.nanoTime();
+		long moved = 0;
+		while (true) {
+			int count;
+			moveLock.lock();
+			try {
+				count = transDAO.archiveTransactions(cutoff, segmentRows, coldStore::archive);
+			} finally {
+				moveLock.unlock();
+			}
+			if (count <= 0) {
+				break;
+			}
+			moved += count;
+		}
+		if (moved > 0) {
+			logger.log(Level.INFO, "Moved {0} transactions before {1} to cold segments in {2} ms", new Object[] {
+					moved, cutoff, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) });
+		}
+	}
+}
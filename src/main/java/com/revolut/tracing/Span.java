@@ -0,0 +1,35 @@
+package com.revolut.tracing;
+
+/**
+ * A timed phase of a sampled request, closed when the phase ends. Spans of requests that
+ * aren't sampled are all the same shared instance whose close does nothing.
+ * @author josh
+ *
+ */
+public class Span implements AutoCloseable {
+
+	static final Span NOOP = new Span(null, -1);
+
+	private final Trace trace;
+	private final int index;
+
+	Span(Trace trace, int index) {
+		this.trace = trace;
+		this.index = index;
+	}
+
+	/**
+	 * Returns true if this span belongs to a sampled request
+	 * @return
+	 */
+	public boolean isRecording() {
+		return trace != null;
+	}
+
+	@Override
+	public void close() {
+		if (trace != null && trace.end(index)) {
+			Tracer.finish(trace);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.revolut.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The spans recorded for one sampled request. Spans are listed in the order they started with their
+ * depth below the root span, times are in microseconds from the start of the request.
+ * A trace is only written by the thread handling the request and is not changed once finished.
+ * @author josh
+ *
+ */
+public class Trace {
+
+	private final String id;
+	private final String name;
+	private final long startTime;
+	private long durationMicros;
+	private final List<SpanRecord> spans = new ArrayList<>();
+	private final transient long startNanos;
+	private transient int depth;
+
+	Trace(String id, String name) {
+		this.id = id;
+		this.name = name;
+		this.startTime = System.currentTimeMillis();
+		this.startNanos = System.nanoTime();
+	}
+
+	int start(String spanName, String detail) {
+		spans.add(new SpanRecord(spanName, detail, depth++, (System.nanoTime() - startNanos) / 1000));
+		return spans.size() - 1;
+	}
+
+	/**
+	 * Ends a span, returning true if it was the root span and the trace is finished
+	 */
+	boolean end(int index) {
+		SpanRecord span = spans.get(index);
+		span.durationMicros = (System.nanoTime() - startNanos) / 1000 - span.startMicros;
+		depth--;
+		if (index == 0) {
+			durationMicros = span.durationMicros;
+			return true;
+		}
+		return false;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getDurationMicros() {
+		return durationMicros;
+	}
+
+	public List<SpanRecord> getSpans() {
+		return spans;
+	}
+
+	public static class SpanRecord {
+		private final String name;
+		private final String detail;
+		private final int depth;
+		private final long startMicros;
+		private long durationMicros;
+
+		private SpanRecord(String name, String detail, int depth, long startMicros) {
+			this.name = name;
+			this.detail = detail;
+			this.depth = depth;
+			this.startMicros = startMicros;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getDetail() {
+			return detail;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		public long getStartMicros() {
+			return startMicros;
+		}
+
+		public long getDurationMicros() {
+			return durationMicros;
+		}
+	}
+}
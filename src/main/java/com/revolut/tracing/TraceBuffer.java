@@ -0,0 +1,42 @@
+package com.revolut.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size ring of the most recently finished traces. Adding never blocks or allocates,
+ * the oldest trace is simply overwritten.
+ * @author josh
+ *
+ */
+public class TraceBuffer {
+
+	private final AtomicReferenceArray<Trace> traces;
+	private final AtomicLong next = new AtomicLong();
+
+	public TraceBuffer(int capacity) {
+		this.traces = new AtomicReferenceArray<>(Math.max(1, capacity));
+	}
+
+	public void add(Trace trace) {
+		traces.set((int) (next.getAndIncrement() % traces.length()), trace);
+	}
+
+	/**
+	 * Returns the traces held, newest first
+	 * @return
+	 */
+	public List<Trace> getTraces() {
+		long last = next.get();
+		List<Trace> recent = new ArrayList<>();
+		for (long i = last - 1; i >= 0 && i >= last - traces.length(); i--) {
+			Trace trace = traces.get((int) (i % traces.length()));
+			if (trace != null) {
+				recent.add(trace);
+			}
+		}
+		return recent;
+	}
+}
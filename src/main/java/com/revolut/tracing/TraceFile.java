@@ -0,0 +1,84 @@
+package com.revolut.tracing;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+
+/**
+ * Appends finished traces to a file, one JSON object per line. Traces are written by a background
+ * thread so request threads never wait on the disk, if it falls behind traces are dropped and counted.
+ * @author josh
+ *
+ */
+public class TraceFile implements Runnable {
+	private static final Logger logger = Logger.getLogger(TraceFile.class.getName());
+
+	private final BlockingQueue<Trace> pending = new ArrayBlockingQueue<>(1024);
+	private final LongAdder dropped = new LongAdder();
+	private final BufferedWriter writer;
+
+	private TraceFile(BufferedWriter writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Opens the file for appending and starts the writer thread, returns null if no file is given or it can't be opened
+	 * @param file
+	 * @return
+	 */
+	static TraceFile open(String file) {
+		if (file == null) {
+			return null;
+		}
+		try {
+			TraceFile traceFile = new TraceFile(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+			Thread thread = new Thread(traceFile, "trace-file");
+			thread.setDaemon(true);
+			thread.start();
+			return traceFile;
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Unable to open trace file " + file, e);
+			return null;
+		}
+	}
+
+	void append(Trace trace) {
+		if (!pending.offer(trace)) {
+			dropped.increment();
+		}
+	}
+
+	long getDropped() {
+		return dropped.sum();
+	}
+
+	@Override
+	public void run() {
+		Gson gson = new Gson();
+		try {
+			while (true) {
+				Trace trace = pending.take();
+				do {
+					writer.write(gson.toJson(trace));
+					writer.newLine();
+				} while ((trace = pending.poll()) != null);
+				writer.flush();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Unable to write trace file", e);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.revolut.tracing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Wraps a JDBC connection so every statement executed and every commit or rollback adds a span to
+ * the current trace. Only connections opened by sampled requests are wrapped.
+ * @author josh
+ *
+ */
+public class TracedConnection implements InvocationHandler {
+
+	private static final int MAX_DETAIL_LENGTH = 200;
+
+	private final Connection connection;
+
+	private TracedConnection(Connection connection) {
+		this.connection = connection;
+	}
+
+	public static Connection wrap(Connection connection) {
+		return (Connection) Proxy.newProxyInstance(TracedConnection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new TracedConnection(connection));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (name.equals("commit") || name.equals("rollback")) {
+			try (Span span = Tracer.span("jdbc " + name)) {
+				return call(connection, method, args);
+			}
+		}
+		Object result = call(connection, method, args);
+		if (name.equals("prepareStatement") && result instanceof PreparedStatement) {
+			return Proxy.newProxyInstance(TracedConnection.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, new TracedStatement(result, (String) args[0]));
+		}
+		if (name.equals("createStatement") && result instanceof Statement) {
+			return Proxy.newProxyInstance(TracedConnection.class.getClassLoader(),
+					new Class<?>[] { Statement.class }, new TracedStatement(result, null));
+		}
+		return result;
+	}
+
+	private static Object call(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Names a statement by its verb and table, e.g. UPDATE ACCOUNT, so spans for the same statement group together
+	 */
+	static String describe(String sql) {
+		String[] words = sql.trim().split("\\s+");
+		String verb = words[0].toUpperCase();
+		for (int i = 0; i < words.length - 1; i++) {
+			String word = words[i].toUpperCase();
+			if ((word.equals("FROM") || word.equals("INTO") || (i == 0 && verb.equals("UPDATE")))
+					&& !words[i + 1].startsWith("(")) {
+				return verb + " " + words[i + 1].toUpperCase();
+			}
+		}
+		return verb;
+	}
+
+	private static class TracedStatement implements InvocationHandler {
+		private final Object statement;
+		private final String sql;
+
+		private TracedStatement(Object statement, String sql) {
+			this.statement = statement;
+			this.sql = sql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (!method.getName().startsWith("execute")) {
+				return call(statement, method, args);
+			}
+			String text = sql != null ? sql : args != null && args.length > 0 ? String.valueOf(args[0]) : "";
+			String detail = text.length() > MAX_DETAIL_LENGTH ? text.substring(0, MAX_DETAIL_LENGTH) : text;
+			try (Span span = Tracer.span("jdbc " + describe(text), detail)) {
+				return call(statement, method, args);
+			}
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.revolut.tracing;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.revolut.metrics.Metrics;
+
+/**
+ * Sampled request tracing. One request in transfermoney.tracing.sampleEvery (default 100, 0 to only trace
+ * requests asking for it) starts a trace which is held by the handling thread, phases and JDBC
+ * statements run by that thread add spans to it. When a request isn't sampled every span is a shared
+ * no op, so instrumented code costs a thread local read.
+ *
+ * Finished traces are kept in a ring of the last transfermoney.tracing.bufferSize (default 256) and,
+ * if transfermoney.tracing.file is set, appended to that file.
+ * @author josh
+ *
+ */
+public final class Tracer {
+
+	/**
+	 * Request header which forces a request to be traced whatever the sample rate
+	 */
+	public static final String TRACE_HEADER = "X-Trace";
+	/**
+	 * Response header carrying the id of the trace recorded for a request
+	 */
+	public static final String TRACE_ID_HEADER = "X-Trace-Id";
+
+	private static final int SAMPLE_EVERY = Integer.getInteger("transfermoney.tracing.sampleEvery", 100);
+
+	private static final ThreadLocal<Trace> current = new ThreadLocal<>();
+	private static final AtomicLong ids = new AtomicLong();
+	private static final TraceBuffer buffer = new TraceBuffer(Integer.getInteger("transfermoney.tracing.bufferSize", 256));
+	private static final TraceFile file = TraceFile.open(System.getProperty("transfermoney.tracing.file"));
+	private static final LongAdder sampled = new LongAdder();
+
+	static {
+		Metrics.register("tracing.sampled", sampled::sum);
+		if (file != null) {
+			Metrics.register("tracing.file.dropped", file::getDropped);
+		}
+	}
+
+	private Tracer() {
+	}
+
+	/**
+	 * Starts a trace for a request if it is sampled or forced, returning its root span. Within a trace
+	 * already started this is the same as {@link #span(String)}.
+	 * @param name
+	 * @param force
+	 * @return
+	 */
+	public static Span begin(String name, boolean force) {
+		Trace trace = current.get();
+		if (trace == null) {
+			if (!force && (SAMPLE_EVERY <= 0 || ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) != 0)) {
+				return Span.NOOP;
+			}
+			trace = new Trace(Long.toHexString(System.currentTimeMillis()) + "-" + ids.incrementAndGet(), name);
+			current.set(trace);
+			sampled.increment();
+		}
+		return new Span(trace, trace.start(name, null));
+	}
+
+	/**
+	 * Starts a span within the current thread's trace
+	 * @param name
+	 * @return
+	 */
+	public static Span span(String name) {
+		return span(name, null);
+	}
+
+	/**
+	 * Starts a span within the current thread's trace, with detail such as the SQL being run
+	 * @param name
+	 * @param detail
+	 * @return
+	 */
+	public static Span span(String name, String detail) {
+		Trace trace = current.get();
+		if (trace == null) {
+			return Span.NOOP;
+		}
+		return new Span(trace, trace.start(name, detail));
+	}
+
+	/**
+	 * Returns true if the current thread is handling a sampled request
+	 * @return
+	 */
+	public static boolean isActive() {
+		return current.get() != null;
+	}
+
+	/**
+	 * Returns the id of the current thread's trace, or null if its request isn't sampled
+	 * @return
+	 */
+	public static String getTraceId() {
+		Trace trace = current.get();
+		return trace != null ? trace.getId() : null;
+	}
+
+	/**
+	 * Wraps a task so it runs within the current thread's trace, for work handed to another thread
+	 * while this one waits for it. Only one thread writes to the trace at a time.
+	 * @param task
+	 * @return
+	 */
+	public static <T> Callable<T> carry(Callable<T> task) {
+		Trace trace = current.get();
+		if (trace == null) {
+			return task;
+		}
+		return () -> {
+			Trace previous = current.get();
+			current.set(trace);
+			try {
+				return task.call();
+			} finally {
+				if (previous == null) {
+					current.remove();
+				} else {
+					current.set(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the most recently finished traces, newest first
+	 * @return
+	 */
+	public static List<Trace> getRecentTraces() {
+		return buffer.getTraces();
+	}
+
+	static void finish(Trace trace) {
+		current.remove();
+		buffer.add(trace);
+		if (file != null) {
+			file.append(trace);
+		}
+	}
+}
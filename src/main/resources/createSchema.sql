@@ -3,14 +3,56 @@ SET FOREIGN_KEY_CHECKS = 0;
 
      CREATE TABLE IF NOT EXISTS ACCOUNT (Id NUMERIC(19,0) PRIMARY KEY AUTO_INCREMENT,
 		AccountName varchar(255),
-		Balance DECIMAL(20,2));
+		Balance DECIMAL(20,2),
+		OpeningBalance DECIMAL(20,2),
+		Version BIGINT DEFAULT 0 NOT NULL,
+		Currency VARCHAR(3) DEFAULT 'GBP' NOT NULL);
+
+	 CREATE INDEX IF NOT EXISTS IDX_AccountName ON ACCOUNT(AccountName);
 		
 	 CREATE TABLE IF NOT EXISTS TRANSACTION (Id NUMERIC(19,0) PRIMARY KEY AUTO_INCREMENT,
 		toAccountId NUMERIC(19,0),
 		fromAccountId NUMERIC(19,0),
 		Amount DECIMAL(20,2),
+		ToAmount DECIMAL(20,2),
+		Rate DECIMAL(20,10),
 		TransactionDate TIMESTAMP,
 		CONSTRAINT FK_toAccountId FOREIGN KEY (toAccountId)	REFERENCES ACCOUNT(Id),
 		CONSTRAINT FK_fromAccountId FOREIGN KEY (fromAccountId)	REFERENCES ACCOUNT(Id));
 		
+	 CREATE TABLE IF NOT EXISTS SCHEDULED_TRANSFER (Id NUMERIC(19,0) PRIMARY KEY AUTO_INCREMENT,
+		toAccountId NUMERIC(19,0),
+		fromAccountId NUMERIC(19,0),
+		Amount DECIMAL(20,2),
+		NextRun TIMESTAMP,
+		IntervalSeconds BIGINT DEFAULT 0 NOT NULL,
+		Runs BIGINT DEFAULT 0 NOT NULL,
+		LastOutcome varchar(32),
+		Active BOOLEAN DEFAULT TRUE NOT NULL);
+
+	 CREATE INDEX IF NOT EXISTS IDX_ScheduledNextRun ON SCHEDULED_TRANSFER(Active, NextRun);
+		
+	 CREATE TABLE IF NOT EXISTS FX_RATE (Currency VARCHAR(3) PRIMARY KEY,
+		Rate DECIMAL(20,10) NOT NULL);
+		
+	 CREATE TABLE IF NOT EXISTS POSTING_RUN (Id NUMERIC(19,0) PRIMARY KEY AUTO_INCREMENT,
+		HouseAccountId NUMERIC(19,0),
+		Currency VARCHAR(3) NOT NULL,
+		Rule varchar(32) NOT NULL,
+		Parameter DECIMAL(20,10),
+		Status varchar(16) NOT NULL,
+		Started TIMESTAMP,
+		Finished TIMESTAMP,
+		CONSTRAINT FK_houseAccountId FOREIGN KEY (HouseAccountId) REFERENCES ACCOUNT(Id));
+		
+	 CREATE TABLE IF NOT EXISTS POSTING_RANGE (RunId NUMERIC(19,0),
+		FirstAccountId NUMERIC(19,0),
+		LastAccountId NUMERIC(19,0),
+		Checkpoint NUMERIC(19,0),
+		Posted BIGINT DEFAULT 0 NOT NULL,
+		Skipped BIGINT DEFAULT 0 NOT NULL,
+		Total DECIMAL(20,2) DEFAULT 0 NOT NULL,
+		PRIMARY KEY (RunId, FirstAccountId),
+		CONSTRAINT FK_runId FOREIGN KEY (RunId) REFERENCES POSTING_RUN(Id));
+		
  SET FOREIGN_KEY_CHECKS = 1;
\ No newline at end of file
@@ -0,0 +1,138 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.revolut.database.AccountDAO;
+import com.revolut.events.AccountEvents;
+import com.revolut.events.Subscriber;
+import com.revolut.service.TransferOutcome;
+import com.revolut.service.TransferService;
+
+/**
+ * Class to test pushing account changes to subscribers
+ * @author josh
+ *
+ */
+public class AccountEventsTest {
+
+	private final AccountDAO accountDAO = new AccountDAO();
+
+	@Test
+	public void testEvents() throws Exception {
+		accountDAO.createAccount("EventsAccount1", new BigDecimal("10.00"));
+		accountDAO.createAccount("EventsAccount2", new BigDecimal("0.00"));
+		AccountEvents events = AccountEvents.getInstance();
+		TestSubscriber subscriber = new TestSubscriber(Arrays.asList("EventsAccount1"), 16);
+		assertTrue(events.subscribe(subscriber));
+		try {
+			String snapshot = subscriber.next();
+			assertTrue(snapshot, snapshot.startsWith("event: balance\ndata: {"));
+			assertTrue(snapshot, snapshot.contains("\"accountName\":\"EventsAccount1\",\"balance\":10.00"));
+			assertTrue(snapshot.endsWith("\n\n"));
+
+			assertEquals(TransferOutcome.SUCCESS, new TransferService().transfer("EventsAccount1", "EventsAccount2", new BigDecimal("4.00")));
+			assertTrue(subscriber.next().contains("\"balance\":6.00"));
+
+			accountDAO.updateAccount("EventsAccount1", "EventsAccount1Renamed");
+			String renamed = subscriber.next();
+			assertTrue(renamed, renamed.startsWith("event: renamed\n"));
+			assertTrue(renamed, renamed.contains("\"newAccountName\":\"EventsAccount1Renamed\""));
+			// Still following the account under its new name
+			assertEquals(TransferOutcome.SUCCESS, new TransferService().transfer("EventsAccount2", "EventsAccount1Renamed", new BigDecimal("1.00")));
+			String balance = subscriber.next();
+			assertTrue(balance, balance.contains("\"accountName\":\"EventsAccount1Renamed\",\"balance\":7.00"));
+		} finally {
+			events.unsubscribe(subscriber);
+		}
+	}
+
+	@Test
+	public void testDeleteEvent() throws Exception {
+		accountDAO.createAccount("EventsAccount5", new BigDecimal("1.00"));
+		AccountEvents events = AccountEvents.getInstance();
+		TestSubscriber subscriber = new TestSubscriber(Arrays.asList("EventsAccount5"), 16);
+		assertTrue(events.subscribe(subscriber));
+		try {
+			assertTrue(subscriber.next().startsWith("event: balance\n"));
+			accountDAO.deleteAccount("EventsAccount5");
+			String deleted = subscriber.next();
+			assertEquals("event: deleted\ndata: {\"accountName\":\"EventsAccount5\"}\n\n", deleted);
+			assertTrue(subscriber.getAccountNames().isEmpty());
+		} finally {
+			events.unsubscribe(subscriber);
+		}
+	}
+
+	@Test
+	public void testSlowSubscriberDropped() throws Exception {
+		accountDAO.createAccount("EventsAccount3", new BigDecimal("100.00"));
+		accountDAO.createAccount("EventsAccount4", new BigDecimal("0.00"));
+		AccountEvents events = AccountEvents.getInstance();
+		// Never reads, its buffer of 2 fills with the snapshot and the first changes
+		TestSubscriber slow = new TestSubscriber(Arrays.asList("EventsAccount3"), 2) {
+			@Override
+			protected void send() {
+			}
+		};
+		TestSubscriber fast = new TestSubscriber(Arrays.asList("EventsAccount3"), 16);
+		assertTrue(events.subscribe(slow));
+		assertTrue(events.subscribe(fast));
+		try {
+			TransferService transferService = new TransferService();
+			for (int i = 1; i <= 5; i++) {
+				assertEquals(TransferOutcome.SUCCESS, transferService.transfer("EventsAccount3", "EventsAccount4", new BigDecimal("1.00")));
+				// Wait for each change to be dispatched so none are folded together
+				String event;
+				do {
+					event = fast.next();
+				} while (!event.contains("\"balance\":" + (100 - i) + ".00"));
+			}
+			assertTrue("Slow subscriber closed", slow.closed.await(5, TimeUnit.SECONDS));
+			assertFalse(fast.closed.await(0, TimeUnit.SECONDS));
+		} finally {
+			events.unsubscribe(slow);
+			events.unsubscribe(fast);
+		}
+	}
+
+	private static class TestSubscriber extends Subscriber {
+		private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		private final CountDownLatch closed = new CountDownLatch(1);
+
+		private TestSubscriber(Collection<String> accountNames, int capacity) {
+			super(accountNames, capacity);
+		}
+
+		private String next() throws InterruptedException {
+			String event = received.poll(5, TimeUnit.SECONDS);
+			assertNotNull("No event received", event);
+			return event;
+		}
+
+		@Override
+		protected void send() {
+			String event;
+			while ((event = poll()) != null) {
+				received.add(event);
+			}
+		}
+
+		@Override
+		protected void close() {
+			closed.countDown();
+		}
+	}
+}
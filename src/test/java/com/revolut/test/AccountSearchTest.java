@@ -0,0 +1,88 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.revolut.beans.Account;
+import com.revolut.database.AccountDAO;
+import com.revolut.rest.AccountSearchResponse;
+import com.revolut.rest.AccountSearchServlet;
+import com.revolut.rest.Response;
+import com.revolut.search.AccountNameIndex;
+
+/**
+ * Class to test searching account names by prefix and by similarity
+ * @author josh
+ *
+ */
+public class AccountSearchTest {
+
+	private final AccountDAO accountDAO = new AccountDAO();
+
+	@Test
+	public void testIndexFollowsAccountChanges() throws Exception {
+		accountDAO.createAccount("SearchAccountAlpha", new BigDecimal("1.00"));
+		accountDAO.createAccount("SearchAccountAlbum", new BigDecimal("1.00"));
+		accountDAO.createAccount("SearchAccountBeta", new BigDecimal("1.00"));
+		accountDAO.createAccounts(Arrays.asList(account("SearchBulk1"), account("SearchBulk2")));
+		assertEquals(Response.SUCCESS, accountDAO.updateAccount("SearchAccountBeta", "SearchAccountGamma"));
+		assertEquals(Response.SUCCESS, accountDAO.deleteAccount("SearchAccountAlbum"));
+
+		AccountNameIndex index = AccountNameIndex.getInstance();
+		assertEquals(Arrays.asList("SearchAccountAlpha", "SearchAccountGamma"), index.prefix("searchaccount", 10));
+		assertEquals(Arrays.asList("SearchBulk1"), index.prefix("SEARCHBULK", 1));
+		assertEquals(Arrays.asList("SearchBulk1", "SearchBulk2"), index.prefix("SearchBulk", 10));
+
+		// The same through the servlet
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getParameter("name")).thenReturn("searchaccountg");
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		StringWriter sw = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(sw));
+		new AccountSearchServlet().doGet(request, response);
+		AccountSearchResponse searchResponse = new Gson().fromJson(sw.toString(), AccountSearchResponse.class);
+		assertEquals(Response.SUCCESS, searchResponse.getStatus());
+		assertEquals(Arrays.asList("SearchAccountGamma"), searchResponse.getAccountNames());
+	}
+
+	@Test
+	public void testFuzzyRanking() {
+		AccountNameIndex index = new AccountNameIndex(true, 10000);
+		for (String name : new String[] { "Jonathan Smith", "Jon Smyth", "Joan Smithers", "Alice Jones", "Bob" }) {
+			index.add(name);
+		}
+		List<String> matches = index.fuzzy("jonathon smith", 3);
+		assertEquals(3, matches.size());
+		assertEquals("Jonathan Smith", matches.get(0));
+		assertTrue(matches.contains("Joan Smithers"));
+		assertEquals(Arrays.asList("Bob"), index.fuzzy("bob", 10));
+		assertTrue(index.fuzzy("zzz", 10).isEmpty());
+
+		index.renamed("Jonathan Smith", "Jonathan Smithson");
+		assertEquals("Jonathan Smithson", index.fuzzy("jonathan smith", 1).get(0));
+		index.remove("Bob");
+		assertTrue(index.fuzzy("bob", 10).isEmpty());
+		assertEquals(4, index.size());
+	}
+
+	private static Account account(String name) {
+		Account account = new Account();
+		account.setAccountName(name);
+		account.setBalance(new BigDecimal("1.00"));
+		return account;
+	}
+}
@@ -0,0 +1,116 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.revolut.beans.Account;
+import com.revolut.database.AccountTable;
+
+/**
+ * Class to test the off heap account table
+ * @author josh
+ *
+ */
+public class AccountTableTest {
+
+	@Test
+	public void testPutAndGet() {
+		AccountTable table = new AccountTable(true, 16);
+		table.put(account(1, "Alice", "10.50", 0));
+		table.put(account(2, "Bob", "0.00", 0));
+		assertEquals(2L, (long) table.get("Bob").getId());
+		assertTrue(new BigDecimal("10.50").compareTo(table.get(1).getBalance()) == 0);
+		assertNull(table.get("Carol"));
+		assertNull(table.get(3));
+
+		// Only newer versions are taken, whatever order they arrive in
+		table.put(account(1, "Alice", "5.50", 2));
+		table.put(account(1, "Alice", "8.00", 1));
+		Account alice = table.get("Alice");
+		assertTrue(new BigDecimal("5.50").compareTo(alice.getBalance()) == 0);
+		assertEquals(2L, (long) alice.getVersion());
+
+		table.put(account(1, "Alicia", "5.50", 3));
+		assertNull(table.get("Alice"));
+		assertEquals("Alicia", table.get(1).getAccountName());
+
+		// A deleted account isn't brought back by an older copy of its row
+		table.remove(2);
+		table.put(account(2, "Bob", "0.00", 0));
+		assertNull(table.get("Bob"));
+		assertNull(table.get(2));
+		table.put(account(4, "Bob", "1.00", 0));
+		assertEquals(4L, (long) table.get("Bob").getId());
+	}
+
+	@Test
+	public void testGrowth() {
+		AccountTable table = new AccountTable(true, 16);
+		int accounts = 100_000;
+		for (int i = 0; i < accounts; i++) {
+			table.put(account(i * 7 + 1, "GrowthAccount" + i, "1.00", 0));
+		}
+		for (int i = 0; i < accounts; i += 997) {
+			assertEquals("GrowthAccount" + i, table.get(i * 7 + 1).getAccountName());
+			assertEquals(i * 7 + 1, (long) table.get("GrowthAccount" + i).getId());
+		}
+		assertEquals(accounts, table.size());
+	}
+
+	@Test
+	public void testConcurrentReadsSeeWholeRecords() throws Exception {
+		AccountTable table = new AccountTable(true, 16);
+		table.put(account(1, "Concurrent", "0.00", 0));
+		AtomicBoolean running = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> readers = new ArrayList<>();
+			for (int r = 0; r < 3; r++) {
+				readers.add(executor.submit(() -> {
+					while (running.get()) {
+						Account account = table.get("Concurrent");
+						assertNotNull(account);
+						// Every version written has a balance of the version in whole units
+						assertEquals(BigDecimal.valueOf(account.getVersion()), account.getBalance().stripTrailingZeros().setScale(0));
+					}
+				}));
+			}
+			for (int version = 1; version <= 100_000; version++) {
+				table.put(account(1, "Concurrent", String.valueOf(version), version));
+				// New accounts make the indexes grow under the readers
+				if (version % 10 == 0) {
+					table.put(account(version + 1, "Other" + version, "0.00", 0));
+				}
+			}
+			running.set(false);
+			for (Future<?> reader : readers) {
+				reader.get(10, TimeUnit.SECONDS);
+			}
+		} finally {
+			running.set(false);
+			executor.shutdownNow();
+		}
+	}
+
+	private Account account(long id, String name, String balance, long version) {
+		Account account = new Account();
+		account.setId(id);
+		account.setAccountName(name);
+		account.setBalance(new BigDecimal(balance));
+		account.setVersion(version);
+		return account;
+	}
+}
@@ -0,0 +1,80 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.revolut.admission.Admission;
+import com.revolut.admission.AdmissionController;
+import com.revolut.admission.ConcurrencyLimit;
+import com.revolut.admission.TokenBucket;
+
+/**
+ * Class to test transfer admission control
+ * @author josh
+ *
+ */
+public class AdmissionControllerTest {
+
+	@Test
+	public void testTokenBucket() {
+		// 10 per second with a burst of 2
+		TokenBucket bucket = new TokenBucket(10, 2, 0);
+		assertEquals(0, bucket.tryAcquire(0));
+		assertEquals(0, bucket.tryAcquire(0));
+		// Third token is only available after 100ms
+		assertEquals(100_000_000L, bucket.tryAcquire(0));
+		assertEquals(0, bucket.tryAcquire(100_000_000L));
+		assertFalse(bucket.isIdle(100_000_000L));
+		assertTrue(bucket.isIdle(1_000_000_000L));
+	}
+
+	@Test
+	public void testAccountRateLimit() {
+		AdmissionController controller = new AdmissionController(1, 3, 0, 0, new ConcurrencyLimit(100, 1, 100));
+		for (int i = 0; i < 3; i++) {
+			Admission admission = controller.tryAdmit("client", "Busy");
+			assertTrue(admission.isAdmitted());
+			admission.release();
+		}
+		Admission rejected = controller.tryAdmit("client", "Busy");
+		assertFalse(rejected.isAdmitted());
+		assertEquals(AdmissionController.ACCOUNT_RATE, rejected.getReason());
+		assertTrue(rejected.getRetryAfterSeconds() >= 1);
+
+		// Other accounts are unaffected
+		assertTrue(controller.tryAdmit("client", "Quiet").isAdmitted());
+	}
+
+	@Test
+	public void testConcurrencyLimit() {
+		AdmissionController controller = new AdmissionController(0, 0, 0, 0, new ConcurrencyLimit(1, 1, 1));
+		Admission first = controller.tryAdmit("client", "Account");
+		assertTrue(first.isAdmitted());
+		Admission second = controller.tryAdmit("client", "Account");
+		assertFalse(second.isAdmitted());
+		assertEquals(AdmissionController.CONCURRENCY, second.getReason());
+		first.release();
+		assertTrue(controller.tryAdmit("client", "Account").isAdmitted());
+	}
+
+	@Test
+	public void testRejectedForConcurrencyKeepsTokens() {
+		ConcurrencyLimit limit = new ConcurrencyLimit(1, 1, 1);
+		AdmissionController controller = new AdmissionController(1, 1, 0, 0, limit);
+		Admission first = controller.tryAdmit("client", "Busy");
+		assertTrue(first.isAdmitted());
+		// Turned away for concurrency before taking Quiet's only token
+		assertEquals(AdmissionController.CONCURRENCY, controller.tryAdmit("client", "Quiet").getReason());
+		first.release();
+		Admission quiet = controller.tryAdmit("client", "Quiet");
+		assertTrue(quiet.isAdmitted());
+		quiet.release();
+
+		// Turned away for its rate, the transfer gives its slot back
+		assertEquals(AdmissionController.ACCOUNT_RATE, controller.tryAdmit("client", "Busy").getReason());
+		assertEquals(0, limit.getInFlight());
+	}
+}
@@ -0,0 +1,87 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.revolut.beans.Account;
+import com.revolut.database.AccountDAO;
+import com.revolut.nio.TransferClient;
+import com.revolut.nio.TransferServer;
+import com.revolut.service.TransferOutcome;
+import com.revolut.service.TransferService;
+
+/**
+ * Class to test the binary transfer listener
+ * @author josh
+ *
+ */
+public class BinaryTransferTest {
+
+	private AccountDAO accountDAO = new AccountDAO();
+	private TransferServer server;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new TransferServer(new TransferService(), 0, 4, 16);
+		server.start();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop();
+	}
+
+	@Test
+	public void testPipelinedTransfers() throws Exception {
+		Account from = createAccount("BinaryAccount1", "100.00");
+		Account to = createAccount("BinaryAccount2", "0.00");
+
+		try (TransferClient client = new TransferClient("localhost", server.getPort(), 8)) {
+			// More transfers than the window and the server in flight limit so both have to cycle
+			List<CompletableFuture<TransferOutcome>> futures = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				futures.add(client.transfer(from.getId(), to.getId(), new BigDecimal("1.50")));
+			}
+			for (CompletableFuture<TransferOutcome> future : futures) {
+				assertEquals(TransferOutcome.SUCCESS, future.get(30, TimeUnit.SECONDS));
+			}
+		}
+
+		assertTrue(new BigDecimal("40.00").compareTo(accountDAO.getAccount("BinaryAccount1").getBalance()) == 0);
+		assertTrue(new BigDecimal("60.00").compareTo(accountDAO.getAccount("BinaryAccount2").getBalance()) == 0);
+	}
+
+	@Test
+	public void testTransferErrors() throws Exception {
+		Account from = createAccount("BinaryAccount3", "10.00");
+		Account to = createAccount("BinaryAccount4", "10.00");
+
+		try (TransferClient client = new TransferClient("localhost", server.getPort(), 8)) {
+			assertEquals(TransferOutcome.INSUFFICIENT_FUNDS,
+					client.transfer(from.getId(), to.getId(), new BigDecimal("11.00")).get(30, TimeUnit.SECONDS));
+			assertEquals(TransferOutcome.INVALID_REQUEST,
+					client.transfer(from.getId(), to.getId(), new BigDecimal("-1.00")).get(30, TimeUnit.SECONDS));
+			assertEquals(TransferOutcome.FROM_ACCOUNT_NOT_FOUND,
+					client.transfer(-1, to.getId(), new BigDecimal("1.00")).get(30, TimeUnit.SECONDS));
+			assertEquals(TransferOutcome.TO_ACCOUNT_NOT_FOUND,
+					client.transfer(from.getId(), -1, new BigDecimal("1.00")).get(30, TimeUnit.SECONDS));
+		}
+
+		assertTrue(new BigDecimal("10.00").compareTo(accountDAO.getAccount("BinaryAccount3").getBalance()) == 0);
+	}
+
+	private Account createAccount(String accountName, String initialBalance) {
+		accountDAO.createAccount(accountName, new BigDecimal(initialBalance));
+		return accountDAO.getAccount(accountName);
+	}
+}
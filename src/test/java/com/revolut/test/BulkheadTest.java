@@ -0,0 +1,142 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.revolut.bulkhead.Bulkhead;
+import com.revolut.bulkhead.PriorityPermits;
+import com.revolut.database.DBConnection;
+
+/**
+ * Class to test bulkhead isolation, rejection and connection priority
+ * @author josh
+ *
+ */
+public class BulkheadTest {
+
+	@Test
+	public void testFullBulkheadRejects() throws Exception {
+		Bulkhead bulkhead = new Bulkhead("test", 0, 1, 1, 1, 100, new PriorityPermits(1, 1));
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService callers = Executors.newCachedThreadPool();
+		try {
+			Future<String> running = callers.submit(() -> bulkhead.call(() -> {
+				release.await();
+				return "running";
+			}));
+			waitFor(() -> bulkhead.getActive() == 1, running);
+			Future<String> queued = callers.submit(() -> bulkhead.call(() -> "queued"));
+			waitFor(() -> bulkhead.getQueued() == 1, queued);
+			try {
+				// One thread busy and one task queued, so this one is turned away without waiting
+				bulkhead.call(() -> "rejected");
+				fail("The full bulkhead should reject work");
+			} catch (RejectedExecutionException e) {
+				// expected
+			}
+			release.countDown();
+			assertEquals("running", running.get(10, TimeUnit.SECONDS));
+			assertEquals("queued", queued.get(10, TimeUnit.SECONDS));
+			assertEquals("Work runs again once the bulkhead drains", "after", bulkhead.call(() -> "after"));
+		} finally {
+			release.countDown();
+			callers.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testConnectionQuota() throws Exception {
+		Bulkhead bulkhead = new Bulkhead("quota", 0, 2, 2, 1, 100, new PriorityPermits(4, 1));
+		CountDownLatch opened = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService callers = Executors.newCachedThreadPool();
+		try {
+			Future<Boolean> holder = callers.submit(() -> bulkhead.call(() -> {
+				try (Connection connection = DBConnection.getConnection()) {
+					// A second connection on the same thread doesn't count against the quota again
+					try (Connection nested = DBConnection.getConnection()) {
+						opened.countDown();
+						release.await();
+						return !nested.isClosed();
+					}
+				}
+			}));
+			assertTrue(opened.await(10, TimeUnit.SECONDS));
+			try {
+				bulkhead.call(() -> DBConnection.getConnection());
+				fail("The quota is held by the other thread");
+			} catch (SQLException e) {
+				// expected
+			}
+			release.countDown();
+			assertTrue(holder.get(10, TimeUnit.SECONDS));
+			assertTrue("The quota is given back when the connections close", bulkhead.call(() -> {
+				try (Connection connection = DBConnection.getConnection()) {
+					return !connection.isClosed();
+				}
+			}));
+		} finally {
+			release.countDown();
+			callers.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSharedPermitsByPriority() throws Exception {
+		PriorityPermits permits = new PriorityPermits(1, 3);
+		assertTrue(permits.acquire(2, 0));
+		List<Integer> order = new CopyOnWriteArrayList<>();
+		ExecutorService waiters = Executors.newCachedThreadPool();
+		try {
+			Future<?> low = waiters.submit(() -> take(permits, 2, order));
+			Thread.sleep(50);
+			Future<?> high = waiters.submit(() -> take(permits, 0, order));
+			Thread.sleep(50);
+			assertFalse("Nothing is free to take yet", permits.acquire(1, 0));
+
+			// The permit released goes to the higher priority waiter even though it asked last
+			permits.release();
+			high.get(10, TimeUnit.SECONDS);
+			low.get(10, TimeUnit.SECONDS);
+			assertEquals(0, order.get(0).intValue());
+			assertEquals(2, order.get(1).intValue());
+			assertEquals(1, permits.getAvailable());
+		} finally {
+			waiters.shutdownNow();
+		}
+	}
+
+	private static Void take(PriorityPermits permits, int priority, List<Integer> order) throws Exception {
+		assertTrue(permits.acquire(priority, 10000));
+		order.add(priority);
+		Thread.sleep(20);
+		permits.release();
+		return null;
+	}
+
+	private interface Condition {
+		boolean test() throws Exception;
+	}
+
+	private static void waitFor(Condition condition, Future<?> task) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!condition.test() && !task.isDone() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.revolut.beans.BalanceMismatch;
+import com.revolut.beans.Transaction;
+import com.revolut.database.AccountDAO;
+import com.revolut.database.FxRateDAO;
+import com.revolut.database.ReconciliationDAO;
+import com.revolut.database.TransactionDAO;
+import com.revolut.fx.FxRates;
+import com.revolut.fx.FxSnapshot;
+import com.revolut.rest.FxRateResponse;
+import com.revolut.rest.FxRateServlet;
+import com.revolut.rest.Response;
+import com.revolut.service.TransferOutcome;
+import com.revolut.service.TransferService;
+
+/**
+ * Class to test transfers between accounts in different currencies
+ * @author josh
+ *
+ */
+public class CurrencyTest {
+
+	private final AccountDAO accountDAO = new AccountDAO();
+	private final TransactionDAO transDAO = new TransactionDAO();
+
+	@Test
+	public void testConvertedTransfer() throws Exception {
+		FxRateResponse published = postRates("{\"rates\": {\"EUR\": \"0.85\", \"USD\": \"0.80\"}}");
+		assertEquals(Response.SUCCESS, published.getStatus());
+		assertEquals("GBP", published.getBaseCurrency());
+		assertTrue(new BigDecimal("0.85").compareTo(published.getRates().get("EUR")) == 0);
+		assertEquals(Response.ERROR, postRates("{\"rates\": {\"GBP\": \"2.00\"}}").getStatus());
+		assertEquals(Response.ERROR, postRates("{\"rates\": {\"eur\": \"-1\"}}").getStatus());
+
+		accountDAO.createAccount("FxAccount1", new BigDecimal("100.00"));
+		accountDAO.createAccount("FxAccount2", new BigDecimal("0.00"), "EUR");
+		assertEquals("EUR", accountDAO.getAccount("FxAccount2").getCurrency());
+		TransferService transferService = new TransferService();
+		// 10.00 GBP is 11.7647... EUR, the credit is rounded down
+		assertEquals(TransferOutcome.SUCCESS, transferService.transfer("FxAccount1", "FxAccount2", new BigDecimal("10.00")));
+		// 5.00 EUR is 4.25 GBP
+		assertEquals(TransferOutcome.SUCCESS, transferService.transfer("FxAccount1", "FxAccount2", new BigDecimal("5.00"), "EUR"));
+		assertEquals(TransferOutcome.CURRENCY_NOT_SUPPORTED,
+				transferService.transfer("FxAccount1", "FxAccount2", new BigDecimal("5.00"), "CHF"));
+		assertEquals(TransferOutcome.INVALID_REQUEST, transferService.transfer("FxAccount2", "FxAccount1", new BigDecimal("0.01")));
+
+		assertTrue(new BigDecimal("85.75").compareTo(accountDAO.getAccount("FxAccount1").getBalance()) == 0);
+		assertTrue(new BigDecimal("16.76").compareTo(accountDAO.getAccount("FxAccount2").getBalance()) == 0);
+
+		// Both legs and the rate are recorded
+		List<Transaction> transactions = transDAO.getAccountTransactions("FxAccount1", "FxAccount2");
+		assertEquals(2, transactions.size());
+		Transaction first = transactions.get(0);
+		assertTrue(new BigDecimal("10.00").compareTo(first.getAmount()) == 0);
+		assertEquals("GBP", first.getCurrency());
+		assertTrue(new BigDecimal("11.76").compareTo(first.getToAmount()) == 0);
+		assertEquals("EUR", first.getToCurrency());
+		assertTrue(new BigDecimal("1.1764705882").compareTo(first.getRate()) == 0);
+		assertTrue(new BigDecimal("4.25").compareTo(transactions.get(1).getAmount()) == 0);
+		assertTrue(new BigDecimal("5.00").compareTo(transactions.get(1).getToAmount()) == 0);
+
+		// Balances still add up from the recorded amounts
+		List<BalanceMismatch> mismatches = new ArrayList<>();
+		long fromId = accountDAO.getAccount("FxAccount1").getId();
+		long toId = accountDAO.getAccount("FxAccount2").getId();
+		new ReconciliationDAO().checkAccounts(Math.min(fromId, toId), Math.max(fromId, toId) + 1, Collections.emptyMap(), mismatches::add);
+		assertTrue(mismatches.isEmpty());
+	}
+
+	@Test
+	public void testPublishingReplacesSnapshot() {
+		FxRates fxRates = new FxRates(new FxRateDAO(), "GBP", Collections.singletonMap("EUR", new BigDecimal("0.8")));
+		FxSnapshot before = fxRates.getSnapshot();
+		assertTrue(new BigDecimal("1.25").compareTo(before.getRate("GBP", "EUR")) == 0);
+		assertNull(before.getRate("GBP", "USD"));
+
+		fxRates.apply(Collections.singletonMap("USD", new BigDecimal("0.5")));
+		FxSnapshot after = fxRates.getSnapshot();
+		assertNotSame(before, after);
+		assertEquals(1, after.getVersion());
+		// Readers holding the old snapshot still see the old rates
+		assertNull(before.getRate("GBP", "USD"));
+		assertTrue(new BigDecimal("1.6").compareTo(after.getRate("EUR", "USD")) == 0);
+		assertTrue(new BigDecimal("12.50").compareTo(after.convert(new BigDecimal("10.00"), "GBP", "EUR", RoundingMode.DOWN)) == 0);
+		assertEquals(3, after.getRates().size());
+	}
+
+	private FxRateResponse postRates(String body) throws Exception {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getReader()).thenReturn(new BufferedReader(new StringReader(body)));
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		StringWriter sw = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(sw));
+		new FxRateServlet().doPost(request, response);
+		return new Gson().fromJson(sw.toString(), FxRateResponse.class);
+	}
+}
@@ -0,0 +1,70 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.revolut.database.AccountDAO;
+import com.revolut.rest.AccountResponse;
+import com.revolut.rest.MetricsResponse;
+import com.revolut.rest.Response;
+import com.revolut.server.EmbeddedServer;
+
+/**
+ * Class to test the service running in the embedded launcher
+ * @author josh
+ *
+ */
+public class EmbeddedServerTest {
+
+	@Test
+	public void testEmbeddedServerServesRequests() throws Exception {
+		new AccountDAO().createAccount("Embedded1", new BigDecimal("12.50"));
+
+		EmbeddedServer server = new EmbeddedServer(0, "/TransferMoney", 4);
+		server.start();
+		try {
+			assertTrue(server.getFirstRequestMillis() > 0);
+
+			Gson gson = new Gson();
+			AccountResponse account = gson.fromJson(get(server, "/Account?accountName=Embedded1"),
+					AccountResponse.class);
+			assertEquals(Response.SUCCESS, account.getStatus());
+			assertEquals(new BigDecimal("12.50"), account.getAccount().getBalance());
+
+			MetricsResponse metrics = gson.fromJson(get(server, "/Metrics"), MetricsResponse.class);
+			assertTrue(metrics.getMetrics().containsKey("db.connections.active"));
+			assertEquals(Long.valueOf(server.getFirstRequestMillis()),
+					metrics.getMetrics().get("server.firstRequestMillis"));
+		} finally {
+			server.stop();
+		}
+	}
+
+	private String get(EmbeddedServer server, String path) throws IOException {
+		URL url = new URL("http", "localhost", server.getPort(), server.getContextPath() + path);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				body.write(buffer, 0, read);
+			}
+			return new String(body.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
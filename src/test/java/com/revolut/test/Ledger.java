@@ -0,0 +1,59 @@
+package com.revolut.test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+
+import com.revolut.beans.BalanceMismatch;
+import com.revolut.beans.ReconciliationReport;
+import com.revolut.database.DBConnection;
+
+/**
+ * Changes the ledger behind the DAOs' backs and checks what reconciliation made of it, for the tests of
+ * reconciliation and tiering
+ * @author josh
+ *
+ */
+final class Ledger {
+
+	private Ledger() {
+	}
+
+	static boolean isReported(ReconciliationReport report, Long accountId) {
+		for (BalanceMismatch mismatch : report.getMismatches()) {
+			if (mismatch.getAccountId().equals(accountId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static void setBalance(long accountId, BigDecimal balance) throws Exception {
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("UPDATE ACCOUNT SET BALANCE = ? WHERE ID = ?")) {
+			ps.setBigDecimal(1, balance);
+			ps.setLong(2, accountId);
+			ps.executeUpdate();
+		}
+	}
+
+	static void insertTransaction(long fromId, long toId, BigDecimal amount, Timestamp time) throws Exception {
+		insertTransaction(fromId, toId, amount, null, null, time);
+	}
+
+	static void insertTransaction(long fromId, long toId, BigDecimal amount, BigDecimal toAmount, BigDecimal rate, Timestamp time)
+			throws Exception {
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement(
+						"INSERT INTO TRANSACTION (FROMACCOUNTID, TOACCOUNTID, AMOUNT, TOAMOUNT, RATE, TRANSACTIONDATE) VALUES (?, ?, ?, ?, ?, ?)")) {
+			ps.setLong(1, fromId);
+			ps.setLong(2, toId);
+			ps.setBigDecimal(3, amount);
+			ps.setBigDecimal(4, toAmount);
+			ps.setBigDecimal(5, rate);
+			ps.setTimestamp(6, time);
+			ps.executeUpdate();
+		}
+	}
+}
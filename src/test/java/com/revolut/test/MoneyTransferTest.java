@@ -1,7 +1,10 @@
 package com.revolut.test;
 
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.BufferedReader;
@@ -9,19 +12,30 @@ import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import com.google.gson.Gson;
+import com.revolut.rest.AccountImportResponse;
+import com.revolut.rest.AccountImportServlet;
 import com.revolut.rest.AccountResponse;
 import com.revolut.rest.AccountServlet;
 import com.revolut.rest.Response;
 import com.revolut.rest.TransactionResponse;
 import com.revolut.rest.TransactionServlet;
+import com.revolut.service.TransferOutcome;
+import com.revolut.service.TransferService;
 
 /**
  * Class to test MoneyTransfer servlets
@@ -33,6 +47,7 @@ public class MoneyTransferTest {
 	private Gson gson = new Gson();
 	private AccountServlet accountServlet = new AccountServlet();
 	private TransactionServlet transServlet = new TransactionServlet();
+	private AccountImportServlet accountImportServlet = new AccountImportServlet();
 
 	@Test
 	public void testCreateAccount() throws Exception {
@@ -171,6 +186,125 @@ public class MoneyTransferTest {
 		assertTrue(StringUtils.equals("The Account Names and amount received were not valid", invalidAmount.getMessage()));		
 	}
 
+	@Test
+	public void testConditionalGetAccount() throws Exception {
+		createAccount("TestAccount13", "10.00");
+		createAccount("TestAccount14", "10.00");
+
+		// First request returns the account and its ETag
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		StringWriter sw = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(sw));
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getParameter("accountName")).thenReturn("TestAccount13");
+		accountServlet.doGet(request, response);
+		ArgumentCaptor<String> eTag = ArgumentCaptor.forClass(String.class);
+		verify(response).setHeader(eq("ETag"), eTag.capture());
+		assertTrue(StringUtils.isNotBlank(sw.toString()));
+
+		// Asking again with the ETag returns 304 and no body
+		response = mock(HttpServletResponse.class);
+		sw = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(sw));
+		when(request.getHeader("If-None-Match")).thenReturn(eTag.getValue());
+		accountServlet.doGet(request, response);
+		verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		assertTrue(sw.toString().isEmpty());
+
+		// A transfer changes the account so the full body comes back
+		doTransfer("TestAccount13", "TestAccount14", "1.00");
+		response = mock(HttpServletResponse.class);
+		sw = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(sw));
+		accountServlet.doGet(request, response);
+		verify(response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		AccountResponse accountResponse = gson.fromJson(sw.toString(), AccountResponse.class);
+		assertTrue(new BigDecimal("9.00").compareTo(accountResponse.getAccount().getBalance()) == 0);
+	}
+
+	@Test
+	public void testConditionalGetDeletedAccount() throws Exception {
+		createAccount("TestAccount21", "10.00");
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getParameter("accountName")).thenReturn("TestAccount21");
+		accountServlet.doGet(request, response);
+		ArgumentCaptor<String> eTag = ArgumentCaptor.forClass(String.class);
+		verify(response).setHeader(eq("ETag"), eTag.capture());
+
+		// Once deleted the ETag no longer matches and the account is reported missing
+		deleteAccount("TestAccount21");
+		response = mock(HttpServletResponse.class);
+		StringWriter sw = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(sw));
+		when(request.getHeader("If-None-Match")).thenReturn(eTag.getValue());
+		accountServlet.doGet(request, response);
+		verify(response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		AccountResponse accountResponse = gson.fromJson(sw.toString(), AccountResponse.class);
+		assertTrue(StringUtils.equals(String.format("Unable to find an account matching the name %s", "TestAccount21"),
+				accountResponse.getMessage()));
+	}
+
+	@Test
+	public void testConcurrentTransfersNeverOverdraw() throws Exception {
+		createAccount("TestAccount15", "100.00");
+		createAccount("TestAccount16", "0.00");
+		TransferService transferService = new TransferService();
+
+		// 20 concurrent transfers of 10 from an account holding 100, only 10 can succeed
+		ExecutorService executor = Executors.newFixedThreadPool(20);
+		List<Future<TransferOutcome>> outcomes = new ArrayList<>();
+		try {
+			for (int i = 0; i < 20; i++) {
+				outcomes.add(executor.submit(() -> transferService.transfer("TestAccount15", "TestAccount16", new BigDecimal("10.00"))));
+			}
+			int succeeded = 0;
+			for (Future<TransferOutcome> outcome : outcomes) {
+				if (outcome.get(30, TimeUnit.SECONDS) == TransferOutcome.SUCCESS) {
+					succeeded++;
+				}
+			}
+			assertTrue(String.format("Expected at most 10 transfers to succeed but %d did", succeeded), succeeded <= 10);
+			AccountResponse from = getAccount("TestAccount15");
+			AccountResponse to = getAccount("TestAccount16");
+			assertTrue(from.getAccount().getBalance().signum() >= 0);
+			assertTrue(new BigDecimal(10 * succeeded).compareTo(to.getAccount().getBalance()) == 0);
+			assertTrue(new BigDecimal("100.00").compareTo(from.getAccount().getBalance().add(to.getAccount().getBalance())) == 0);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testImportAccounts() throws Exception {
+		createAccount("TestAccount17", "10.00");
+
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(request.getContentType()).thenReturn("text/csv");
+		when(request.getReader()).thenReturn(new BufferedReader(new StringReader(
+				"accountName,balance\nTestAccount18,20.00\nTestAccount19,30.00\nTestAccount18,40.00\nTestAccount17,50.00\nTestAccount20,abc\n")));
+		StringWriter sw = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(sw));
+
+		accountImportServlet.doPost(request, response);
+		AccountImportResponse importResponse = gson.fromJson(sw.toString(), AccountImportResponse.class);
+
+		// Validate
+		assertTrue(StringUtils.equals(Response.SUCCESS, importResponse.getStatus()));
+		assertTrue(importResponse.getReport().getAccepted() == 2);
+		assertTrue(importResponse.getReport().getRejected() == 3);
+		// Rows are rejected as they are read, except existing names which are found when their chunk is written
+		assertTrue(importResponse.getReport().getRejects().get(0).getLine() == 4);
+		assertTrue(importResponse.getReport().getRejects().get(1).getLine() == 6);
+		assertTrue(importResponse.getReport().getRejects().get(2).getLine() == 5);
+		assertTrue(StringUtils.equals("An account called TestAccount17 already exists",
+				importResponse.getReport().getRejects().get(2).getReason()));
+		assertTrue(new BigDecimal("20.00").compareTo(getAccount("TestAccount18").getAccount().getBalance()) == 0);
+		assertTrue(new BigDecimal("30.00").compareTo(getAccount("TestAccount19").getAccount().getBalance()) == 0);
+	}
+
 	private void createAccount(String accountName, String initialBalance) throws Exception {
 		HttpServletRequest request = mock(HttpServletRequest.class);
 		HttpServletResponse response = mock(HttpServletResponse.class);
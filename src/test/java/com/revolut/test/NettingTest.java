@@ -0,0 +1,166 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.revolut.beans.Account;
+import com.revolut.database.AccountDAO;
+import com.revolut.database.TransactionDAO;
+import com.revolut.limits.TransferLimits;
+import com.revolut.netting.NettingWindow;
+import com.revolut.service.TransferOutcome;
+import com.revolut.service.TransferService;
+
+/**
+ * Class to test netting transfers within a window
+ * @author josh
+ *
+ */
+public class NettingTest {
+
+	private final AccountDAO accountDAO = new AccountDAO();
+	private final TransactionDAO transDAO = new TransactionDAO();
+
+	@Test
+	public void testMutualTransfersNetted() throws Exception {
+		accountDAO.createAccount("NettingAccount1", new BigDecimal("10.00"));
+		accountDAO.createAccount("NettingAccount2", new BigDecimal("0.00"));
+		long version1 = accountDAO.getAccount("NettingAccount1").getVersion();
+		// Not started, the window is only applied when the test says so
+		NettingWindow netting = new NettingWindow(transDAO, TimeUnit.MINUTES.toMillis(1));
+		TransferService transferService = new TransferService(accountDAO, transDAO, new TransferLimits(Long.MAX_VALUE, Long.MAX_VALUE), netting);
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			List<Future<TransferOutcome>> outcomes = new ArrayList<>();
+			outcomes.add(transfer(executor, transferService, "NettingAccount1", "NettingAccount2", "10.00", netting, 1));
+			// Only possible because of the credit waiting in the window
+			outcomes.add(transfer(executor, transferService, "NettingAccount2", "NettingAccount1", "10.00", netting, 2));
+			outcomes.add(transfer(executor, transferService, "NettingAccount1", "NettingAccount2", "5.00", netting, 3));
+			assertEquals("Overdraft checked against the position", TransferOutcome.INSUFFICIENT_FUNDS,
+					transferService.transfer("NettingAccount1", "NettingAccount2", new BigDecimal("5.01")));
+
+			netting.apply();
+			for (Future<TransferOutcome> outcome : outcomes) {
+				assertEquals(TransferOutcome.SUCCESS, outcome.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Account account1 = accountDAO.getAccount("NettingAccount1");
+		assertTrue(new BigDecimal("5.00").compareTo(account1.getBalance()) == 0);
+		assertTrue(new BigDecimal("5.00").compareTo(accountDAO.getAccount("NettingAccount2").getBalance()) == 0);
+		assertEquals("One balance update for the window", version1 + 1, (long) account1.getVersion());
+		assertEquals("Every transfer is recorded", 3, transDAO.getAccountTransactions("NettingAccount1", null).size()
+				+ transDAO.getAccountTransactions("NettingAccount2", null).size());
+	}
+
+	@Test
+	public void testStaleAccountRetried() throws Exception {
+		accountDAO.createAccount("NettingAccount3", new BigDecimal("10.00"));
+		accountDAO.createAccount("NettingAccount4", new BigDecimal("0.00"));
+		Account stale = accountDAO.getAccount("NettingAccount3");
+		NettingWindow netting = new NettingWindow(transDAO, 20);
+		netting.start();
+		try {
+			assertEquals(TransferOutcome.SUCCESS, netting.transfer(stale, accountDAO.getAccount("NettingAccount4"), new BigDecimal("10.00")));
+			// Read before the window emptied it, the account would otherwise look like it still had 10.00
+			assertNull(netting.transfer(stale, accountDAO.getAccount("NettingAccount4"), new BigDecimal("10.00")));
+			TransferService transferService = new TransferService(accountDAO, transDAO, new TransferLimits(Long.MAX_VALUE, Long.MAX_VALUE), netting);
+			assertEquals(TransferOutcome.INSUFFICIENT_FUNDS, transferService.transfer("NettingAccount3", "NettingAccount4", new BigDecimal("10.00")));
+			assertEquals(TransferOutcome.SUCCESS, transferService.transfer("NettingAccount4", "NettingAccount3", new BigDecimal("4.00")));
+		} finally {
+			netting.stop();
+		}
+		assertTrue(new BigDecimal("4.00").compareTo(accountDAO.getAccount("NettingAccount3").getBalance()) == 0);
+		assertTrue(new BigDecimal("6.00").compareTo(accountDAO.getAccount("NettingAccount4").getBalance()) == 0);
+	}
+
+	@Test
+	public void testConcurrentNettedTransfers() throws Exception {
+		accountDAO.createAccount("NettingAccount5", new BigDecimal("50.00"));
+		accountDAO.createAccount("NettingAccount6", new BigDecimal("50.00"));
+		NettingWindow netting = new NettingWindow(transDAO, 5);
+		netting.start();
+		TransferService transferService = new TransferService(accountDAO, transDAO, new TransferLimits(Long.MAX_VALUE, Long.MAX_VALUE), netting);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		int succeeded = 0;
+		try {
+			List<Future<TransferOutcome>> outcomes = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				String from = i % 2 == 0 ? "NettingAccount5" : "NettingAccount6";
+				String to = i % 2 == 0 ? "NettingAccount6" : "NettingAccount5";
+				outcomes.add(executor.submit(() -> transferService.transfer(from, to, new BigDecimal("7.00"))));
+			}
+			for (Future<TransferOutcome> outcome : outcomes) {
+				TransferOutcome result = outcome.get(30, TimeUnit.SECONDS);
+				assertTrue(result == TransferOutcome.SUCCESS || result == TransferOutcome.INSUFFICIENT_FUNDS);
+				succeeded += result == TransferOutcome.SUCCESS ? 1 : 0;
+			}
+		} finally {
+			executor.shutdownNow();
+			netting.stop();
+		}
+		BigDecimal balance5 = accountDAO.getAccount("NettingAccount5").getBalance();
+		BigDecimal balance6 = accountDAO.getAccount("NettingAccount6").getBalance();
+		assertTrue(new BigDecimal("100.00").compareTo(balance5.add(balance6)) == 0);
+		assertTrue(balance5.signum() >= 0 && balance6.signum() >= 0);
+		assertEquals(succeeded, transDAO.getAccountTransactions("NettingAccount5", null).size()
+				+ transDAO.getAccountTransactions("NettingAccount6", null).size());
+	}
+
+	@Test
+	public void testOverdrawnAccountDroppedFromWindow() throws Exception {
+		accountDAO.createAccount("NettingAccount7", new BigDecimal("10.00"));
+		accountDAO.createAccount("NettingAccount8", new BigDecimal("10.00"));
+		accountDAO.createAccount("NettingAccount9", new BigDecimal("0.00"));
+		NettingWindow netting = new NettingWindow(transDAO, TimeUnit.MINUTES.toMillis(1));
+		TransferService transferService = new TransferService(accountDAO, transDAO, new TransferLimits(Long.MAX_VALUE, Long.MAX_VALUE), netting);
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			Future<TransferOutcome> overdrawn = transfer(executor, transferService, "NettingAccount7", "NettingAccount9", "10.00", netting, 1);
+			Future<TransferOutcome> covered = transfer(executor, transferService, "NettingAccount8", "NettingAccount9", "10.00", netting, 2);
+			// Spent outside the window after its transfer was accepted
+			Ledger.setBalance(accountDAO.getAccount("NettingAccount7").getId(), new BigDecimal("5.00"));
+
+			netting.apply();
+			assertEquals(TransferOutcome.FAILED, overdrawn.get(10, TimeUnit.SECONDS));
+			assertEquals(TransferOutcome.SUCCESS, covered.get(10, TimeUnit.SECONDS));
+
+			// The failed transfer no longer counts against the account's position
+			Future<TransferOutcome> retried = transfer(executor, transferService, "NettingAccount7", "NettingAccount9", "5.00", netting, 1);
+			netting.apply();
+			assertEquals(TransferOutcome.SUCCESS, retried.get(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		assertTrue(BigDecimal.ZERO.compareTo(accountDAO.getAccount("NettingAccount7").getBalance()) == 0);
+		assertTrue(BigDecimal.ZERO.compareTo(accountDAO.getAccount("NettingAccount8").getBalance()) == 0);
+		assertTrue(new BigDecimal("15.00").compareTo(accountDAO.getAccount("NettingAccount9").getBalance()) == 0);
+		assertEquals(1, transDAO.getAccountTransactions("NettingAccount7", null).size());
+	}
+
+	/**
+	 * Starts a transfer on another thread and waits until it is waiting in the window
+	 */
+	private Future<TransferOutcome> transfer(ExecutorService executor, TransferService transferService, String from, String to,
+			String amount, NettingWindow netting, int waiting) throws InterruptedException {
+		Future<TransferOutcome> outcome = executor.submit(() -> transferService.transfer(from, to, new BigDecimal(amount)));
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (netting.getWaiting() < waiting && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(waiting, netting.getWaiting());
+		return outcome;
+	}
+}
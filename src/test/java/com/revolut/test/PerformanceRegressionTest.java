@@ -0,0 +1,378 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.revolut.database.AccountDAO;
+import com.revolut.database.AccountVersions;
+import com.revolut.rest.AccountServlet;
+import com.revolut.rest.MetricsServlet;
+import com.revolut.rest.TransactionServlet;
+import com.revolut.service.TransferService;
+
+/**
+ * Guards against changes that add garbage or latency to request handling. Each endpoint is driven
+ * in process and after a warm up the bytes allocated by the calling and bulkhead threads and the
+ * median time per request are compared with performance-baseline.properties. A test fails when either
+ * exceeds its baseline by more than the margin given as a fraction by the transfermoney.perf.allocationMargin
+ * (default 0.25) and transfermoney.perf.latencyMargin (default 2.0) system properties. Latency is also
+ * allowed transfermoney.perf.latencySlackMicros (default 50) so the fastest requests don't fail on timer noise.
+ *
+ * To refresh the baseline after an intended change run with -Dtransfermoney.perf.record=[file] and check
+ * in the file written.
+ * @author josh
+ *
+ */
+public class PerformanceRegressionTest {
+
+	private static final int WARMUP = Integer.getInteger("transfermoney.perf.warmup", 2000);
+	private static final int ITERATIONS = Integer.getInteger("transfermoney.perf.iterations", 2000);
+	private static final double ALLOCATION_MARGIN = Double.parseDouble(System.getProperty("transfermoney.perf.allocationMargin", "0.25"));
+	private static final double LATENCY_MARGIN = Double.parseDouble(System.getProperty("transfermoney.perf.latencyMargin", "2.0"));
+	private static final long LATENCY_SLACK_MICROS = Long.getLong("transfermoney.perf.latencySlackMicros", 50);
+	private static final String RECORD_FILE = System.getProperty("transfermoney.perf.record");
+
+	// Transfers are spread over enough accounts and client addresses to stay inside the admission limits
+	private static final int TRANSFER_ACCOUNTS = 128;
+
+	private static final Properties baseline = new Properties();
+	private static final Map<String, Long> measured = new HashMap<>();
+	private static com.sun.management.ThreadMXBean threadBean;
+
+	private AccountServlet accountServlet = new AccountServlet();
+	private TransactionServlet transServlet = new TransactionServlet();
+	private MetricsServlet metricsServlet = new MetricsServlet();
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		try (InputStream in = PerformanceRegressionTest.class.getResourceAsStream("/performance-baseline.properties")) {
+			assertNotNull("performance-baseline.properties is missing", in);
+			baseline.load(in);
+		}
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+			threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			if (threadBean.isThreadAllocatedMemorySupported()) {
+				threadBean.setThreadAllocatedMemoryEnabled(true);
+			}
+		}
+		AccountDAO accountDAO = new AccountDAO();
+		accountDAO.createAccount("PerfAccount", new BigDecimal("100.00"));
+		accountDAO.createAccount("PerfHistory1", new BigDecimal("100.00"));
+		accountDAO.createAccount("PerfHistory2", new BigDecimal("100.00"));
+		accountDAO.createAccount("PerfSink", new BigDecimal("0.00"));
+		for (int i = 0; i < TRANSFER_ACCOUNTS; i++) {
+			accountDAO.createAccount("PerfSource" + i, new BigDecimal("1000.00"));
+		}
+		TransferService transferService = new TransferService();
+		for (int i = 0; i < 10; i++) {
+			transferService.transfer("PerfHistory1", "PerfHistory2", new BigDecimal("1.00"));
+		}
+	}
+
+	@Test
+	public void testGetAccount() throws Exception {
+		StubRequest request = new StubRequest("GET", null);
+		request.parameters.put("accountName", "PerfAccount");
+		StubResponse response = new StubResponse();
+		measure("account.get", () -> {
+			response.clear();
+			accountServlet.doGet(request, response);
+			assertEquals(HttpServletResponse.SC_OK, response.status);
+		});
+	}
+
+	@Test
+	public void testGetAccountNotModified() throws Exception {
+		StubRequest request = new StubRequest("GET", null);
+		request.parameters.put("accountName", "PerfAccount");
+		request.headers.put("If-None-Match", AccountVersions.accountTag("PerfAccount"));
+		StubResponse response = new StubResponse();
+		measure("account.get.notModified", () -> {
+			response.clear();
+			accountServlet.doGet(request, response);
+			assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.status);
+		});
+	}
+
+	@Test
+	public void testPostExistingAccount() throws Exception {
+		// An existing name so every request parses, looks up and answers the same way
+		StubRequest request = new StubRequest("POST", "{\"accountName\":\"PerfAccount\",\"balance\":\"10.00\"}");
+		StubResponse response = new StubResponse();
+		measure("account.post.existing", () -> {
+			request.rewind();
+			response.clear();
+			accountServlet.doPost(request, response);
+			assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.status);
+		});
+	}
+
+	@Test
+	public void testPostTransaction() throws Exception {
+		StubRequest[] requests = new StubRequest[TRANSFER_ACCOUNTS];
+		for (int i = 0; i < requests.length; i++) {
+			requests[i] = new StubRequest("POST",
+					"{\"fromAccountName\":\"PerfSource" + i + "\",\"toAccountName\":\"PerfSink\",\"amount\":\"0.01\"}");
+			requests[i].remoteAddr = "10.0.0." + i;
+		}
+		StubResponse response = new StubResponse();
+		int[] next = new int[1];
+		measure("transaction.post", () -> {
+			StubRequest request = requests[next[0]++ % requests.length];
+			request.rewind();
+			response.clear();
+			transServlet.doPost(request, response);
+			assertEquals(HttpServletResponse.SC_OK, response.status);
+		});
+	}
+
+	@Test
+	public void testGetTransactions() throws Exception {
+		StubRequest request = new StubRequest("GET", null);
+		request.parameters.put("fromAccountName", "PerfHistory1");
+		request.parameters.put("toAccountName", "PerfHistory2");
+		StubResponse response = new StubResponse();
+		measure("transaction.get", () -> {
+			response.clear();
+			transServlet.doGet(request, response);
+			assertEquals(HttpServletResponse.SC_OK, response.status);
+		});
+	}
+
+	@Test
+	public void testGetMetrics() throws Exception {
+		StubRequest request = new StubRequest("GET", null);
+		StubResponse response = new StubResponse();
+		measure("metrics.get", () -> {
+			response.clear();
+			metricsServlet.doGet(request, response);
+			assertEquals(HttpServletResponse.SC_OK, response.status);
+		});
+	}
+
+	private void measure(String name, ServletCall call) throws Exception {
+		for (int i = 0; i < WARMUP; i++) {
+			call.run();
+		}
+		long[] nanos = new long[ITERATIONS];
+		// Handlers run on the bulkheads' threads, already started by the warm up, while this thread waits for them
+		long[] threadIds = handlerThreadIds();
+		boolean countAllocations = threadBean != null && threadBean.isThreadAllocatedMemoryEnabled();
+		long[] allocatedBefore = countAllocations ? threadBean.getThreadAllocatedBytes(threadIds) : null;
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.nanoTime();
+			call.run();
+			nanos[i] = System.nanoTime() - start;
+		}
+		long allocated = countAllocations ? allocatedSince(threadIds, allocatedBefore) : 0;
+		Arrays.sort(nanos);
+		long medianMicros = nanos[ITERATIONS / 2] / 1000;
+		long p99Micros = nanos[ITERATIONS * 99 / 100] / 1000;
+		System.out.println(String.format("%s : %d bytes per request, median %d us, p99 %d us", name,
+				countAllocations ? allocated / ITERATIONS : -1, medianMicros, p99Micros));
+		long bytesPerRequest = allocated / ITERATIONS;
+		record(name + ".micros", medianMicros);
+		if (countAllocations) {
+			record(name + ".bytes", bytesPerRequest);
+		}
+		check(name + ".micros", medianMicros, LATENCY_MARGIN, LATENCY_SLACK_MICROS);
+		assumeTrue("Thread allocation counters are not available", countAllocations);
+		check(name + ".bytes", bytesPerRequest, ALLOCATION_MARGIN, 0);
+	}
+
+	/**
+	 * Returns the ids of this thread and of every bulkhead thread
+	 */
+	private static long[] handlerThreadIds() {
+		List<Long> ids = new ArrayList<>();
+		ids.add(Thread.currentThread().getId());
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("bulkhead-")) {
+				ids.add(thread.getId());
+			}
+		}
+		return ids.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	/**
+	 * Totals what the threads allocated since the counts given, leaving out any thread that has ended since
+	 */
+	private static long allocatedSince(long[] threadIds, long[] allocatedBefore) {
+		long[] allocatedAfter = threadBean.getThreadAllocatedBytes(threadIds);
+		long allocated = 0;
+		for (int i = 0; i < threadIds.length; i++) {
+			if (allocatedBefore[i] >= 0 && allocatedAfter[i] >= 0) {
+				allocated += allocatedAfter[i] - allocatedBefore[i];
+			}
+		}
+		return allocated;
+	}
+
+	private void check(String key, long value, double margin, long slack) {
+		String expected = baseline.getProperty(key);
+		assertNotNull(String.format("No baseline for %s, measured %d", key, value), expected);
+		long limit = (long) (Long.parseLong(expected) * (1 + margin)) + slack;
+		assertTrue(String.format("%s of %d exceeds baseline %s by more than %.0f%%", key, value, expected, margin * 100),
+				value <= limit);
+	}
+
+	private static synchronized void record(String key, long value) throws IOException {
+		if (RECORD_FILE == null) {
+			return;
+		}
+		measured.put(key, value);
+		List<String> lines = new ArrayList<>();
+		lines.add("# Bytes allocated and median microseconds per request for each endpoint driven by PerformanceRegressionTest.");
+		lines.add("# Recorded with -Dtransfermoney.perf.record=[file], re-record and check in when a change is meant to move them.");
+		measured.entrySet().stream().sorted(Map.Entry.comparingByKey())
+				.forEach(entry -> lines.add(entry.getKey() + "=" + entry.getValue()));
+		Files.write(Paths.get(RECORD_FILE), lines);
+	}
+
+	private interface ServletCall {
+		void run() throws ServletException, IOException;
+	}
+
+	/**
+	 * Returns default values for every method, the stubs below override what the servlets use
+	 */
+	private static <T> T unsupported(Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+			Class<?> returnType = method.getReturnType();
+			if (returnType == boolean.class) {
+				return false;
+			}
+			if (returnType == int.class) {
+				return 0;
+			}
+			if (returnType == long.class) {
+				return 0L;
+			}
+			return null;
+		}));
+	}
+
+	/**
+	 * Request whose body is read from the start again after rewind, so the harness allocates nothing per request
+	 */
+	private static class StubRequest extends HttpServletRequestWrapper {
+		private final String method;
+		private final BufferedReader reader;
+		private final Map<String, String> parameters = new HashMap<>();
+		private final Map<String, String> headers = new HashMap<>();
+		private String remoteAddr = "127.0.0.1";
+
+		private StubRequest(String method, String body) throws IOException {
+			super(unsupported(HttpServletRequest.class));
+			this.method = method;
+			this.reader = body != null ? new BufferedReader(new StringReader(body)) : null;
+			if (reader != null) {
+				reader.mark(body.length() + 1);
+			}
+		}
+
+		private void rewind() throws IOException {
+			reader.reset();
+		}
+
+		@Override
+		public String getMethod() {
+			return method;
+		}
+
+		@Override
+		public BufferedReader getReader() {
+			return reader;
+		}
+
+		@Override
+		public String getParameter(String name) {
+			return parameters.get(name);
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return headers.get(name);
+		}
+
+		@Override
+		public String getRemoteAddr() {
+			return remoteAddr;
+		}
+	}
+
+	/**
+	 * Response which discards its body and remembers its status
+	 */
+	private static class StubResponse extends HttpServletResponseWrapper {
+		private final PrintWriter writer = new PrintWriter(new Writer() {
+			@Override
+			public void write(char[] buffer, int offset, int length) {
+			}
+
+			@Override
+			public void write(String text, int offset, int length) {
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		private int status;
+
+		private StubResponse() {
+			super(unsupported(HttpServletResponse.class));
+		}
+
+		private void clear() {
+			status = 0;
+		}
+
+		@Override
+		public void setStatus(int status) {
+			this.status = status;
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+		}
+
+		@Override
+		public PrintWriter getWriter() {
+			return writer;
+		}
+	}
+}
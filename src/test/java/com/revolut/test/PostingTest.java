@@ -0,0 +1,171 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.revolut.beans.Account;
+import com.revolut.beans.PostingRange;
+import com.revolut.beans.PostingRun;
+import com.revolut.database.AccountDAO;
+import com.revolut.database.PostingDAO;
+import com.revolut.database.TransactionDAO;
+import com.revolut.posting.PostingEngine;
+import com.revolut.posting.PostingRules;
+import com.revolut.rest.Response;
+import com.revolut.service.TransferService;
+
+/**
+ * Class to test bulk fee and interest postings
+ * @author josh
+ *
+ */
+public class PostingTest {
+
+	private final AccountDAO accountDAO = new AccountDAO();
+	private final TransactionDAO transDAO = new TransactionDAO();
+	private final PostingDAO postingDAO = new PostingDAO();
+
+	@Test
+	public void testFeeRunPostsEveryAccountOnce() throws Exception {
+		// Accounts in a currency no other test uses, so the run only reaches these
+		accountDAO.createAccount("PostingHouse1", new BigDecimal("0.00"), "SEK");
+		for (int i = 1; i <= 7; i++) {
+			accountDAO.createAccount("Posting" + i, new BigDecimal(i == 3 ? "1.00" : "10.00"), "SEK");
+		}
+
+		PostingEngine engine = new PostingEngine(postingDAO, 3, 2, 8);
+		engine.start();
+		try {
+			PostingRun run = engine.startRun(accountDAO.getAccount("PostingHouse1"), "fee", new BigDecimal("2.50"));
+			assertNotNull(run);
+			assertEquals(3, run.getRanges().size());
+			assertEquals(PostingRun.COMPLETE, engine.await(run.getId(), 30, TimeUnit.SECONDS));
+		} finally {
+			engine.stop();
+		}
+
+		for (int i = 1; i <= 7; i++) {
+			String name = "Posting" + i;
+			// The account that couldn't cover the fee is left alone
+			assertEquals(new BigDecimal(i == 3 ? "1.00" : "7.50"), accountDAO.getAccount(name).getBalance());
+			assertEquals(i == 3 ? 0 : 1, transDAO.getAccountTransactions(name, "PostingHouse1").size());
+		}
+		assertEquals(new BigDecimal("15.00"), accountDAO.getAccount("PostingHouse1").getBalance());
+		PostingRun run = postingDAO.getRuns(PostingRun.COMPLETE).stream()
+				.filter(completed -> "PostingHouse1".equals(completed.getHouseAccountName())).findFirst().get();
+		assertEquals(6, run.getPosted().longValue());
+		assertEquals(1, run.getSkipped().longValue());
+		assertEquals(new BigDecimal("-15.00"), run.getTotal());
+		assertNotNull(run.getFinished());
+	}
+
+	@Test
+	public void testHouseAccountAmongChunk() throws Exception {
+		accountDAO.createAccount("Posting16", new BigDecimal("10.00"), "PLN");
+		accountDAO.createAccount("PostingHouse4", new BigDecimal("0.00"), "PLN");
+		accountDAO.createAccount("Posting17", new BigDecimal("10.00"), "PLN");
+		Account house = accountDAO.getAccount("PostingHouse4");
+
+		// The house account's id falls inside the chunk, it is locked once in its place and not charged
+		PostingRun run = postingDAO.createRun(house, "fee", new BigDecimal("2.50"), 1);
+		PostingRange range = run.getRanges().get(0);
+		assertEquals(Response.SUCCESS, postingDAO.postChunk(run, range, PostingRules.create("fee", new BigDecimal("2.50")), 10));
+		assertEquals(2, range.getPosted().longValue());
+		assertEquals(new BigDecimal("7.50"), accountDAO.getAccount("Posting16").getBalance());
+		assertEquals(new BigDecimal("7.50"), accountDAO.getAccount("Posting17").getBalance());
+		assertEquals(new BigDecimal("5.00"), accountDAO.getAccount("PostingHouse4").getBalance());
+	}
+
+	@Test
+	public void testInterestRunResumedAlongsideTransfers() throws Exception {
+		accountDAO.createAccount("PostingHouse2", new BigDecimal("1000.00"), "NOK");
+		for (int i = 8; i <= 13; i++) {
+			accountDAO.createAccount("Posting" + i, new BigDecimal("100.00"), "NOK");
+		}
+		Account house = accountDAO.getAccount("PostingHouse2");
+
+		// A run that stopped after posting its first chunk
+		PostingRun run = postingDAO.createRun(house, "interest", new BigDecimal("0.01"), 2);
+		PostingRange first = run.getRanges().get(0);
+		assertEquals(Response.SUCCESS, postingDAO.postChunk(run, first, PostingRules.create("interest", new BigDecimal("0.01")), 1));
+		assertEquals(1, first.getPosted().longValue());
+		assertEquals(new BigDecimal("101.00"), accountDAO.getAccount("Posting8").getBalance());
+
+		// Transfers keep changing balances while the rest of the run is posted
+		TransferService transferService = new TransferService();
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread transfers = new Thread(() -> {
+			while (running.get()) {
+				transferService.transfer("Posting9", "Posting10", new BigDecimal("1.00"));
+				transferService.transfer("Posting10", "Posting9", new BigDecimal("1.00"));
+			}
+		});
+		transfers.start();
+		PostingEngine engine = new PostingEngine(postingDAO, 2, 1, 8);
+		try {
+			engine.start();
+			assertEquals(PostingRun.COMPLETE, engine.await(run.getId(), 30, TimeUnit.SECONDS));
+		} finally {
+			running.set(false);
+			transfers.join();
+			engine.stop();
+		}
+
+		// Every account was paid exactly once and no money was made or lost
+		BigDecimal total = accountDAO.getAccount("PostingHouse2").getBalance();
+		for (int i = 8; i <= 13; i++) {
+			String name = "Posting" + i;
+			assertEquals(1, transDAO.getAccountTransactions("PostingHouse2", name).size());
+			total = total.add(accountDAO.getAccount(name).getBalance());
+		}
+		assertEquals(new BigDecimal("1600.00"), total);
+		PostingRun resumed = postingDAO.getRun(run.getId());
+		assertEquals(6, resumed.getPosted().longValue());
+		assertEquals(new BigDecimal("1000.00").subtract(resumed.getTotal()), accountDAO.getAccount("PostingHouse2").getBalance());
+		assertTrue(resumed.getTotal().compareTo(new BigDecimal("5.98")) >= 0);
+	}
+
+	@Test
+	public void testHouseAccountWithinRangeLeftOut() throws Exception {
+		// Push account ids past the range of cached Long values
+		List<Account> padding = new ArrayList<>();
+		for (int i = 0; i < 130; i++) {
+			Account account = new Account();
+			account.setAccountName("PostingPadding" + i);
+			account.setBalance(new BigDecimal("0.00"));
+			account.setCurrency("ISK");
+			padding.add(account);
+		}
+		assertEquals(Response.SUCCESS, accountDAO.createAccounts(padding));
+		accountDAO.createAccount("Posting14", new BigDecimal("100.00"), "DKK");
+		accountDAO.createAccount("PostingHouse3", new BigDecimal("1000.00"), "DKK");
+		accountDAO.createAccount("Posting15", new BigDecimal("100.00"), "DKK");
+		Account house = accountDAO.getAccount("PostingHouse3");
+		assertTrue(house.getId() > 127);
+
+		PostingEngine engine = new PostingEngine(postingDAO, 1, 10, 8);
+		engine.start();
+		try {
+			PostingRun run = engine.startRun(house, "interest", new BigDecimal("0.01"));
+			assertEquals(PostingRun.COMPLETE, engine.await(run.getId(), 30, TimeUnit.SECONDS));
+			PostingRun posted = postingDAO.getRun(run.getId());
+			assertEquals(2, posted.getPosted().longValue());
+			assertEquals(new BigDecimal("2.00"), posted.getTotal());
+		} finally {
+			engine.stop();
+		}
+		assertEquals(new BigDecimal("998.00"), accountDAO.getAccount("PostingHouse3").getBalance());
+		assertEquals(0, transDAO.getAccountTransactions("PostingHouse3", "PostingHouse3").size());
+		assertEquals(new BigDecimal("101.00"), accountDAO.getAccount("Posting14").getBalance());
+		assertEquals(new BigDecimal("101.00"), accountDAO.getAccount("Posting15").getBalance());
+	}
+}
@@ -0,0 +1,86 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.revolut.beans.Account;
+import com.revolut.beans.BalanceMismatch;
+import com.revolut.beans.ReconciliationReport;
+import com.revolut.database.AccountDAO;
+import com.revolut.database.ReconciliationDAO;
+import com.revolut.database.TransactionDAO;
+import com.revolut.reconciliation.ReconciliationJob;
+import com.revolut.service.TransferOutcome;
+import com.revolut.service.TransferService;
+import com.revolut.tiering.ColdStore;
+
+/**
+ * Class to test ledger reconciliation
+ * @author josh
+ *
+ */
+public class ReconciliationTest {
+
+	private AccountDAO accountDAO = new AccountDAO();
+	private TransferService transferService = new TransferService();
+
+	@Test
+	public void testReconciliation() throws Exception {
+		accountDAO.createAccount("ReconcileAccount1", new BigDecimal("100.00"));
+		accountDAO.createAccount("ReconcileAccount2", new BigDecimal("50.00"));
+		assertEquals(TransferOutcome.SUCCESS, transferService.transfer("ReconcileAccount1", "ReconcileAccount2", new BigDecimal("30.00")));
+		assertEquals(TransferOutcome.SUCCESS, transferService.transfer("ReconcileAccount2", "ReconcileAccount1", new BigDecimal("5.00")));
+		Account account = accountDAO.getAccount("ReconcileAccount1");
+
+		// Small pages so the ranges are split across several tasks
+		ReconciliationReport clean = new ReconciliationJob(new ReconciliationDAO(), ColdStore.getInstance(), 4, 2).run();
+		assertEquals(ReconciliationReport.COMPLETE, clean.getState());
+		assertTrue(clean.getAccountsChecked() >= 2);
+		assertTrue(clean.getTransactionsChecked() >= 2);
+		assertFalse(Ledger.isReported(clean, account.getId()));
+
+		// Change a balance behind the ledger's back
+		Ledger.setBalance(account.getId(), new BigDecimal("1000.00"));
+		try {
+			ReconciliationReport broken = new ReconciliationJob(new ReconciliationDAO(), ColdStore.getInstance(), 4, 2).run();
+			assertEquals(ReconciliationReport.COMPLETE, broken.getState());
+			assertTrue(Ledger.isReported(broken, account.getId()));
+			for (BalanceMismatch mismatch : broken.getMismatches()) {
+				if (mismatch.getAccountId().equals(account.getId())) {
+					assertTrue(new BigDecimal("75.00").compareTo(mismatch.getExpectedBalance()) == 0);
+				}
+			}
+		} finally {
+			Ledger.setBalance(account.getId(), new BigDecimal("75.00"));
+		}
+	}
+
+	@Test
+	public void testOrphanedColdTransaction() throws Exception {
+		accountDAO.createAccount("ReconcileAccount3", new BigDecimal("100.00"));
+		accountDAO.createAccount("ReconcileAccount4", new BigDecimal("0.00"));
+		long account3 = accountDAO.getAccount("ReconcileAccount3").getId();
+		long account4 = accountDAO.getAccount("ReconcileAccount4").getId();
+		Ledger.insertTransaction(account3, account4, new BigDecimal("20.00"), Timestamp.valueOf("2001-03-01 10:00:00"));
+		Ledger.setBalance(account3, new BigDecimal("80.00"));
+		ColdStore coldStore = new ColdStore(Files.createTempDirectory("segments"));
+		assertEquals(1, new TransactionDAO().archiveTransactions(Timestamp.valueOf("2002-01-01 00:00:00"), 1000, coldStore::archive));
+		long transactionId = coldStore.find(account3, account4).get(0).getId();
+
+		// The foreign key keeps this from happening in the table, only moved transactions can lose an account
+		accountDAO.deleteAccount("ReconcileAccount4");
+		ReconciliationReport report = new ReconciliationJob(new ReconciliationDAO(), coldStore, 4, 2).run();
+		assertEquals(ReconciliationReport.COMPLETE, report.getState());
+		assertEquals(1, report.getOrphanCount());
+		assertEquals(Collections.singletonList(transactionId), report.getOrphanedTransactionIds());
+		assertFalse(Ledger.isReported(report, account3));
+	}
+}
@@ -0,0 +1,402 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.revolut.beans.Account;
+import com.revolut.beans.PostingRange;
+import com.revolut.beans.PostingRun;
+import com.revolut.beans.ScheduledTransfer;
+import com.revolut.beans.Transaction;
+import com.revolut.database.AccountDAO;
+import com.revolut.database.DBConnection;
+import com.revolut.database.PostingDAO;
+import com.revolut.database.ReplicaDAO;
+import com.revolut.database.ScheduleDAO;
+import com.revolut.database.TransactionDAO;
+import com.revolut.replication.FollowerClient;
+import com.revolut.replication.Journal;
+import com.revolut.replication.JournalApplier;
+import com.revolut.replication.JournalEvent;
+import com.revolut.replication.LeaderServer;
+
+/**
+ * Class to test journal replication between a leader and a follower
+ * @author josh
+ *
+ */
+public class ReplicationTest {
+
+	private AccountDAO accountDAO = new AccountDAO();
+	private TransactionDAO transDAO = new TransactionDAO();
+
+	@Test
+	public void testFollowAndCatchUp() throws Exception {
+		Journal leaderJournal = new Journal(true, true, 1, 5000);
+		LeaderServer leader = new LeaderServer(leaderJournal, 0);
+		leader.start();
+		try {
+			append(leaderJournal, JournalEvent.accountCreated(1, "Alice", new BigDecimal("100.00")));
+			append(leaderJournal, JournalEvent.accountCreated(2, "Bob", new BigDecimal("0.00")));
+			append(leaderJournal, JournalEvent.transfer(1, 1, "Alice", 2, "Bob", new BigDecimal("10.50"), 1000L));
+			append(leaderJournal, JournalEvent.accountCreated(3, "Carol", new BigDecimal("0.00"), "EUR"));
+			append(leaderJournal, JournalEvent.ratesPublished(Collections.singletonMap("EUR", new BigDecimal("0.8500000000"))));
+			append(leaderJournal, JournalEvent.transfer(2, 1, "Alice", 3, "Carol", new BigDecimal("8.50"), new BigDecimal("10.00"),
+					new BigDecimal("1.1764705882"), 2000L));
+			PostingRun run = new PostingRun();
+			run.setId(1L);
+			run.setHouseAccountId(2L);
+			run.setCurrency("GBP");
+			run.setRule("fee");
+			run.setParameter(new BigDecimal("2.50"));
+			run.setStarted(3000L);
+			run.setRanges(Collections.singletonList(range(1, 1, 1, 0, 0, "0.00")));
+			append(leaderJournal, JournalEvent.concat(JournalEvent.transfer(3, 1, "Alice", 2, "Bob", new BigDecimal("2.50"), 3000L),
+					JournalEvent.postingRunCreated(run), JournalEvent.postingCheckpoint(1, range(1, 1, 1, 1, 0, "2.50"))));
+			append(leaderJournal, JournalEvent.postingRunStatus(1, PostingRun.COMPLETE, 4000L));
+			ScheduledTransfer schedule = schedule(1, 5000L, true);
+			schedule.setFromAccountId(1);
+			schedule.setToAccountId(2);
+			schedule.setAmount(new BigDecimal("1.00"));
+			schedule.setIntervalSeconds(60L);
+			append(leaderJournal, JournalEvent.scheduleCreated(schedule));
+			append(leaderJournal, JournalEvent.scheduleRunsClaimed(Collections.singletonList(schedule(1, 65000L, true))));
+			ScheduledTransfer outcome = schedule(1, null, true);
+			outcome.setLastOutcome("SUCCESS");
+			append(leaderJournal, JournalEvent.scheduleOutcomes(Collections.singletonList(outcome)));
+			append(leaderJournal, JournalEvent.scheduleCancelled(1));
+
+			Journal followerJournal = new Journal(true, false, 0, 0);
+			RecordingApplier applier = new RecordingApplier();
+			FollowerClient follower = new FollowerClient("localhost", leader.getPort(), followerJournal, applier, 50);
+			follower.start();
+			awaitApplied(applier, 14);
+			assertTrue("Follower should acknowledge what it applied",
+					leaderJournal.awaitAcknowledged(leaderJournal.getEnd(), 5000));
+			follower.stop();
+
+			// Changes made while the follower is away are picked up from where it stopped
+			append(leaderJournal, JournalEvent.accountRenamed("Bob", "Robert"));
+			append(leaderJournal, JournalEvent.accountDeleted("Alice"));
+			assertFalse("Nobody is following to acknowledge", leaderJournal.awaitAcknowledged(leaderJournal.getEnd(), 50));
+			FollowerClient resumed = new FollowerClient("localhost", leader.getPort(), followerJournal, applier, 50);
+			resumed.start();
+			awaitApplied(applier, 16);
+			resumed.stop();
+
+			assertEquals(Arrays.asList("created 1 Alice 100.00 null", "created 2 Bob 0.00 null", "transfer 1 1 2 10.50 null null 1000",
+					"created 3 Carol 0.00 EUR", "rates {EUR=0.8500000000}", "transfer 2 1 3 8.50 10.00 1.1764705882 2000",
+					"transfer 3 1 2 2.50 null null 3000", "run 1 2 GBP fee 2.50 3000 [1-1 at 0]", "checkpoint 1 1 at 1 1 0 2.50",
+					"status 1 Complete 4000", "schedule 1 1 2 1.00 5000 60", "claimed 1 65000 true", "outcome 1 SUCCESS true",
+					"cancelled 1",
+					"renamed Bob Robert", "deleted Alice"), applier.applied);
+			assertEquals(leaderJournal.getEnd(), followerJournal.getEnd());
+		} finally {
+			leader.stop();
+		}
+	}
+
+	@Test
+	public void testApplyToDatabase() throws Exception {
+		// Ids a little past those already given out, as they would arrive from a leader
+		long accountId = maxId("ACCOUNT") + 10;
+		long transactionId = maxId("TRANSACTION") + 10;
+		ReplicaDAO replicaDAO = new ReplicaDAO();
+		replicaDAO.accountCreated(accountId, "ReplicaAccount1", new BigDecimal("100.00"), null);
+		replicaDAO.accountCreated(accountId + 1, "ReplicaAccount2", new BigDecimal("5.00"), null);
+		replicaDAO.transfer(transactionId, accountId, "ReplicaAccount1", accountId + 1, "ReplicaAccount2", new BigDecimal("20.00"),
+				null, null, System.currentTimeMillis());
+		replicaDAO.accountRenamed("ReplicaAccount2", "ReplicaAccount3");
+
+		Account from = accountDAO.getAccount("ReplicaAccount1");
+		Account to = accountDAO.getAccount("ReplicaAccount3");
+		assertEquals(Long.valueOf(accountId), from.getId());
+		assertTrue(new BigDecimal("80.00").compareTo(from.getBalance()) == 0);
+		assertTrue(new BigDecimal("25.00").compareTo(to.getBalance()) == 0);
+		List<Transaction> transactions = transDAO.getAccountTransactions("ReplicaAccount1", "ReplicaAccount3");
+		assertEquals(1, transactions.size());
+		assertEquals(Long.valueOf(transactionId), transactions.get(0).getId());
+	}
+
+	@Test
+	public void testApplyPostingRunToDatabase() throws Exception {
+		long accountId = maxId("ACCOUNT") + 20;
+		long runId = maxId("POSTING_RUN") + 10;
+		ReplicaDAO replicaDAO = new ReplicaDAO();
+		replicaDAO.accountCreated(accountId, "ReplicaHouse1", new BigDecimal("0.00"), "JPY");
+		replicaDAO.accountCreated(accountId + 1, "ReplicaPosting1", new BigDecimal("10.00"), "JPY");
+		PostingRun run = new PostingRun();
+		run.setId(runId);
+		run.setHouseAccountId(accountId);
+		run.setCurrency("JPY");
+		run.setRule("fee");
+		run.setParameter(new BigDecimal("1.00"));
+		run.setStatus(PostingRun.RUNNING);
+		run.setStarted(System.currentTimeMillis());
+		run.setRanges(Collections.singletonList(range(accountId + 1, accountId + 1, accountId, 0, 0, "0.00")));
+		replicaDAO.postingRunCreated(run);
+		replicaDAO.postingCheckpoint(runId, range(accountId + 1, accountId + 1, accountId + 1, 1, 0, "-1.00"));
+
+		// A promoted follower finds the run where the leader left it
+		PostingRun applied = new PostingDAO().getRun(runId);
+		assertEquals("ReplicaHouse1", applied.getHouseAccountName());
+		assertEquals(PostingRun.RUNNING, applied.getStatus());
+		assertTrue(applied.getRanges().get(0).isFinished());
+		assertEquals(1, applied.getPosted().longValue());
+		assertEquals(new BigDecimal("-1.00"), applied.getTotal());
+
+		replicaDAO.postingRunStatus(runId, PostingRun.COMPLETE, System.currentTimeMillis());
+		assertEquals(1, new PostingDAO().getRuns(PostingRun.COMPLETE).stream().filter(complete -> complete.getId() == runId).count());
+	}
+
+	@Test
+	public void testApplySchedulesToDatabase() throws Exception {
+		long accountId = maxId("ACCOUNT") + 30;
+		long scheduleId = maxId("SCHEDULED_TRANSFER") + 10;
+		ReplicaDAO replicaDAO = new ReplicaDAO();
+		replicaDAO.accountCreated(accountId, "ReplicaSchedule1", new BigDecimal("100.00"), null);
+		replicaDAO.accountCreated(accountId + 1, "ReplicaSchedule2", new BigDecimal("0.00"), null);
+		long nextRun = System.currentTimeMillis() + 60000;
+		ScheduledTransfer schedule = schedule(scheduleId, nextRun, true);
+		schedule.setFromAccountId(accountId);
+		schedule.setToAccountId(accountId + 1);
+		schedule.setAmount(new BigDecimal("5.00"));
+		schedule.setIntervalSeconds(3600L);
+		replicaDAO.scheduleCreated(schedule);
+		replicaDAO.scheduleRunsClaimed(Collections.singletonList(schedule(scheduleId, nextRun + 3600000, true)));
+		ScheduledTransfer outcome = schedule(scheduleId, null, true);
+		outcome.setLastOutcome("SUCCESS");
+		replicaDAO.scheduleOutcomes(Collections.singletonList(outcome));
+
+		// A promoted follower has the standing order as the leader left it
+		ScheduleDAO scheduleDAO = new ScheduleDAO();
+		ScheduledTransfer applied = scheduleDAO.getSchedules("ReplicaSchedule1").get(0);
+		assertEquals(Long.valueOf(scheduleId), applied.getId());
+		assertEquals("ReplicaSchedule2", applied.getToAccountName());
+		assertEquals(Long.valueOf(nextRun + 3600000), applied.getNextRun());
+		assertEquals(Long.valueOf(1), applied.getRuns());
+		assertEquals("SUCCESS", applied.getLastOutcome());
+		assertTrue(scheduleDAO.getActiveSchedules().stream().anyMatch(active -> active.getId() == scheduleId));
+
+		replicaDAO.scheduleCancelled(scheduleId);
+		assertFalse(scheduleDAO.getSchedules("ReplicaSchedule1").get(0).getActive());
+	}
+
+	@Test
+	public void testJournalKeepsCommitOrder() throws Exception {
+		Journal journal = new Journal(true, false, 0, 0);
+		CountDownLatch committing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread slow = new Thread(() -> {
+			try {
+				journal.commit(connection(() -> {
+					committing.countDown();
+					release.await();
+					return null;
+				}), new byte[] { 1, 1 });
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		slow.start();
+		assertTrue(committing.await(5, TimeUnit.SECONDS));
+
+		// Placed behind a commit still in progress, a failed commit gives up its place and the next waits its turn
+		try {
+			journal.commit(connection(() -> {
+				throw new SQLException("Commit failed");
+			}), new byte[] { 2 });
+			fail("Expected the commit to fail");
+		} catch (SQLException e) {
+			assertEquals("Commit failed", e.getMessage());
+		}
+		journal.commit(connection(() -> null), new byte[] { 3, 3, 3 });
+		assertEquals(0, journal.getEnd());
+
+		release.countDown();
+		slow.join(5000);
+		byte[] buffer = new byte[16];
+		assertEquals(5, journal.read(0, buffer, 0));
+		assertArrayEquals(new byte[] { 1, 1, 3, 3, 3 }, Arrays.copyOf(buffer, 5));
+	}
+
+	@Test
+	public void testJournalDropsOldChunks() throws Exception {
+		int chunkBytes = 1 << 20;
+		byte[] bytes = new byte[chunkBytes / 4];
+		Journal bounded = new Journal(true, false, 0, 0, chunkBytes);
+		for (int i = 0; i < 12; i++) {
+			append(bounded, bytes);
+		}
+		assertEquals(3L * chunkBytes, bounded.getEnd());
+		assertEquals(2L * chunkBytes, bounded.getStart());
+		assertEquals(bytes.length, bounded.read(bounded.getStart(), bytes, 0));
+		try {
+			bounded.read(0, bytes, 0);
+			fail("Expected the offset to have been dropped");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("dropped"));
+		}
+
+		// Only what every follower has acknowledged is dropped from an unbounded journal
+		Journal journal = new Journal(true, false, 0, 0);
+		for (int i = 0; i < 12; i++) {
+			append(journal, bytes);
+		}
+		journal.acknowledge("follower2", chunkBytes + 10);
+		journal.acknowledge("follower1", 2L * chunkBytes + 10);
+		assertEquals(chunkBytes, journal.getStart());
+		journal.removeFollower("follower2");
+		journal.acknowledge("follower1", 3L * chunkBytes);
+		assertEquals(3L * chunkBytes, journal.getStart());
+		append(journal, bytes);
+		assertEquals(bytes.length, journal.read(3L * chunkBytes, bytes, 0));
+	}
+
+	/**
+	 * Returns a connection whose commit runs the given code and which does nothing else
+	 */
+	private static Connection connection(Callable<Void> commit) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+				(proxy, method, args) -> "commit".equals(method.getName()) ? commit.call() : null);
+	}
+
+	private static ScheduledTransfer schedule(long id, Long nextRun, boolean active) {
+		ScheduledTransfer schedule = new ScheduledTransfer();
+		schedule.setId(id);
+		schedule.setNextRun(nextRun);
+		schedule.setActive(active);
+		return schedule;
+	}
+
+	private static PostingRange range(long firstAccountId, long lastAccountId, long checkpoint, long posted, long skipped,
+			String total) {
+		PostingRange range = new PostingRange();
+		range.setFirstAccountId(firstAccountId);
+		range.setLastAccountId(lastAccountId);
+		range.setCheckpoint(checkpoint);
+		range.setPosted(posted);
+		range.setSkipped(skipped);
+		range.setTotal(new BigDecimal(total));
+		return range;
+	}
+
+	private long maxId(String table) throws Exception {
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement("SELECT COALESCE(MAX(ID), 0) FROM " + table);
+				ResultSet result = ps.executeQuery()) {
+			result.next();
+			return result.getLong(1);
+		}
+	}
+
+	private void append(Journal journal, byte[] entry) {
+		journal.append(entry, 0, entry.length);
+	}
+
+	private void awaitApplied(RecordingApplier applier, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (applier.applied.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, applier.applied.size());
+	}
+
+	private static class RecordingApplier implements JournalApplier {
+		private final List<String> applied = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void accountCreated(long accountId, String accountName, BigDecimal balance, String currency) {
+			applied.add(String.format("created %d %s %s %s", accountId, accountName, balance, currency));
+		}
+
+		@Override
+		public void accountRenamed(String accountName, String newAccountName) {
+			applied.add(String.format("renamed %s %s", accountName, newAccountName));
+		}
+
+		@Override
+		public void accountDeleted(String accountName) {
+			applied.add(String.format("deleted %s", accountName));
+		}
+
+		@Override
+		public void transfer(long transactionId, long fromAccountId, String fromAccountName, long toAccountId,
+				String toAccountName, BigDecimal amount, BigDecimal toAmount, BigDecimal rate, long transactionTime) {
+			applied.add(String.format("transfer %d %d %d %s %s %s %d", transactionId, fromAccountId, toAccountId, amount, toAmount,
+					rate, transactionTime));
+		}
+
+		@Override
+		public void ratesPublished(Map<String, BigDecimal> rates) {
+			applied.add(String.format("rates %s", rates));
+		}
+
+		@Override
+		public void postingRunCreated(PostingRun run) {
+			StringBuilder ranges = new StringBuilder();
+			for (PostingRange range : run.getRanges()) {
+				ranges.append(ranges.length() > 0 ? ", " : "").append(String.format("%d-%d at %d", range.getFirstAccountId(),
+						range.getLastAccountId(), range.getCheckpoint()));
+			}
+			applied.add(String.format("run %d %d %s %s %s %d [%s]", run.getId(), run.getHouseAccountId(), run.getCurrency(),
+					run.getRule(), run.getParameter(), run.getStarted(), ranges));
+		}
+
+		@Override
+		public void postingRunStatus(long runId, String status, Long finished) {
+			applied.add(String.format("status %d %s %d", runId, status, finished));
+		}
+
+		@Override
+		public void postingCheckpoint(long runId, PostingRange range) {
+			applied.add(String.format("checkpoint %d %d at %d %d %d %s", runId, range.getFirstAccountId(), range.getCheckpoint(),
+					range.getPosted(), range.getSkipped(), range.getTotal()));
+		}
+
+		@Override
+		public void scheduleCreated(ScheduledTransfer schedule) {
+			applied.add(String.format("schedule %d %d %d %s %d %d", schedule.getId(), schedule.getFromAccountId(),
+					schedule.getToAccountId(), schedule.getAmount(), schedule.getNextRun(), schedule.getIntervalSeconds()));
+		}
+
+		@Override
+		public void scheduleCancelled(long scheduleId) {
+			applied.add(String.format("cancelled %d", scheduleId));
+		}
+
+		@Override
+		public void scheduleRunsClaimed(List<ScheduledTransfer> schedules) {
+			for (ScheduledTransfer schedule : schedules) {
+				applied.add(String.format("claimed %d %d %s", schedule.getId(), schedule.getNextRun(), schedule.getActive()));
+			}
+		}
+
+		@Override
+		public void scheduleOutcomes(List<ScheduledTransfer> schedules) {
+			for (ScheduledTransfer schedule : schedules) {
+				applied.add(String.format("outcome %d %s %s", schedule.getId(), schedule.getLastOutcome(), schedule.getActive()));
+			}
+		}
+	}
+}
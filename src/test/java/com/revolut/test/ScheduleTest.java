@@ -0,0 +1,159 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.revolut.beans.Account;
+import com.revolut.beans.ScheduledTransfer;
+import com.revolut.database.AccountDAO;
+import com.revolut.database.ScheduleDAO;
+import com.revolut.replication.Journal;
+import com.revolut.rest.Response;
+import com.revolut.schedule.TimingWheel;
+import com.revolut.schedule.TransferScheduler;
+import com.revolut.service.TransferService;
+
+/**
+ * Class to test the timing wheel and scheduled transfers
+ * @author josh
+ *
+ */
+public class ScheduleTest {
+
+	private final AccountDAO accountDAO = new AccountDAO();
+	private final ScheduleDAO scheduleDAO = new ScheduleDAO();
+
+	@Test
+	public void testTimingWheelLevels() {
+		// 8 buckets of 10ms, so items beyond 80ms and 640ms go to overflow wheels
+		TimingWheel<Long> wheel = new TimingWheel<>(10, 8, 1000);
+		long[] dues = { 1000, 1005, 1079, 1080, 1333, 1640, 1999, 4321 };
+		for (long due : dues) {
+			assertTrue(wheel.add(due, due));
+		}
+		assertFalse("Already due", wheel.add(999L, 999));
+		assertEquals(dues.length, wheel.size());
+
+		List<Long> fired = new ArrayList<>();
+		for (long now = 1000; now <= 5000; now++) {
+			long time = now;
+			wheel.advance(now, due -> {
+				assertTrue("Never early", due <= time);
+				assertTrue("At most a tick late", time - due <= 10);
+				fired.add(due);
+			});
+		}
+		assertEquals(dues.length, fired.size());
+		for (int i = 0; i < dues.length; i++) {
+			assertEquals(dues[i], fired.get(i).longValue());
+		}
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testMissedRunsCaughtUp() {
+		accountDAO.createAccount("ScheduleAccount1", new BigDecimal("100.00"));
+		accountDAO.createAccount("ScheduleAccount2", new BigDecimal("0.00"));
+		Account from = accountDAO.getAccount("ScheduleAccount1");
+		Account to = accountDAO.getAccount("ScheduleAccount2");
+		// A daily standing order which missed two runs while the server was down
+		long firstRun = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2) + TimeUnit.MINUTES.toMillis(1);
+		ScheduledTransfer created = scheduleDAO.createSchedule(from, to, new BigDecimal("10.00"), firstRun,
+				TimeUnit.DAYS.toSeconds(1));
+
+		TransferScheduler scheduler = new TransferScheduler(scheduleDAO, new TransferService(), 10, 1000, 100);
+		scheduler.loadSchedules();
+		long now = System.currentTimeMillis() + 1000;
+		scheduler.advance(now);
+		assertEquals(new BigDecimal("80.00"), accountDAO.getAccount("ScheduleAccount1").getBalance());
+		assertEquals(new BigDecimal("20.00"), accountDAO.getAccount("ScheduleAccount2").getBalance());
+		ScheduledTransfer schedule = find(scheduleDAO.getSchedules("ScheduleAccount1"), created.getId());
+		assertEquals(2, schedule.getRuns().longValue());
+		assertEquals("SUCCESS", schedule.getLastOutcome());
+		assertEquals(firstRun + TimeUnit.DAYS.toMillis(2), schedule.getNextRun().longValue());
+
+		// The next run is made when it falls due
+		scheduler.advance(now + TimeUnit.MINUTES.toMillis(1));
+		assertEquals(new BigDecimal("70.00"), accountDAO.getAccount("ScheduleAccount1").getBalance());
+		assertEquals(3, find(scheduleDAO.getSchedules("ScheduleAccount2"), created.getId()).getRuns().longValue());
+	}
+
+	@Test
+	public void testDueTransfersSmoothed() {
+		accountDAO.createAccount("ScheduleAccount3", new BigDecimal("100.00"));
+		accountDAO.createAccount("ScheduleAccount4", new BigDecimal("0.00"));
+		Account from = accountDAO.getAccount("ScheduleAccount3");
+		Account to = accountDAO.getAccount("ScheduleAccount4");
+		long start = System.currentTimeMillis();
+		TransferScheduler scheduler = new TransferScheduler(scheduleDAO, new TransferService(), 10, 2, 10);
+		for (int i = 0; i < 6; i++) {
+			scheduler.schedule(scheduleDAO.createSchedule(from, to, new BigDecimal("1.00"), start - 1000, 0));
+		}
+		ScheduledTransfer cancelled = scheduleDAO.getSchedules("ScheduleAccount3").get(5);
+		assertEquals(Response.SUCCESS, scheduleDAO.cancelSchedule(cancelled.getId()));
+
+		// Two transfers a second however many are due
+		scheduler.advance(start + 1100);
+		assertEquals(new BigDecimal("2.00"), accountDAO.getAccount("ScheduleAccount4").getBalance());
+		scheduler.advance(start + 2100);
+		assertEquals(new BigDecimal("4.00"), accountDAO.getAccount("ScheduleAccount4").getBalance());
+		scheduler.advance(start + 3100);
+		scheduler.advance(start + 4100);
+		assertEquals("The cancelled transfer isn't made", new BigDecimal("5.00"),
+				accountDAO.getAccount("ScheduleAccount4").getBalance());
+		for (ScheduledTransfer schedule : scheduleDAO.getSchedules("ScheduleAccount3")) {
+			assertFalse("Transfers made once are finished", schedule.getActive());
+			assertEquals(schedule.getId().equals(cancelled.getId()) ? 0 : 1, schedule.getRuns().longValue());
+		}
+	}
+
+	@Test
+	public void testCancelledScheduleJournaled() {
+		accountDAO.createAccount("ScheduleAccount5", new BigDecimal("100.00"));
+		accountDAO.createAccount("ScheduleAccount6", new BigDecimal("0.00"));
+		Account from = accountDAO.getAccount("ScheduleAccount5");
+		Account to = accountDAO.getAccount("ScheduleAccount6");
+		Journal journal = new Journal(true, false, 0, 0);
+		ScheduleDAO journaledDAO = new ScheduleDAO(journal);
+		ScheduledTransfer created = journaledDAO.createSchedule(from, to, new BigDecimal("1.00"), System.currentTimeMillis() - 1000, 0);
+		assertEquals(Response.SUCCESS, journaledDAO.cancelSchedule(created.getId()));
+		long end = journal.getEnd();
+		assertTrue(end > 0);
+
+		// Nothing left to claim, which is not an error, and nothing more is journaled
+		List<ScheduledTransfer> claimed = journaledDAO.claimRuns(Collections.singletonList(created));
+		assertNotNull(claimed);
+		assertTrue(claimed.isEmpty());
+		assertEquals(Response.SUCCESS, journaledDAO.recordOutcomes(claimed));
+		assertEquals(end, journal.getEnd());
+
+		TransferScheduler scheduler = new TransferScheduler(journaledDAO, new TransferService(), 10, 1000, 100);
+		scheduler.schedule(created);
+		long now = System.currentTimeMillis();
+		scheduler.advance(now);
+		// Had the claim failed the schedule would be back in the wheel to be tried again
+		scheduler.advance(now + TimeUnit.SECONDS.toMillis(10));
+		assertEquals(new BigDecimal("0.00"), accountDAO.getAccount("ScheduleAccount6").getBalance());
+		assertEquals(end, journal.getEnd());
+		assertEquals(0, find(scheduleDAO.getSchedules("ScheduleAccount5"), created.getId()).getRuns().longValue());
+	}
+
+	private static ScheduledTransfer find(List<ScheduledTransfer> schedules, long id) {
+		for (ScheduledTransfer schedule : schedules) {
+			if (schedule.getId() == id) {
+				return schedule;
+			}
+		}
+		throw new AssertionError("No schedule " + id);
+	}
+}
@@ -0,0 +1,67 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.revolut.database.SingleFlight;
+
+/**
+ * Class to test lookup coalescing
+ * @author josh
+ *
+ */
+public class SingleFlightTest {
+
+	@Test
+	public void testConcurrentLookupsShareOneLoad() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<>("test.singleflight");
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(() -> singleFlight.execute("key", () -> {
+					loads.incrementAndGet();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return "value";
+				})));
+			}
+			// Hold the load open until every other caller has joined it
+			long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+			while (singleFlight.getCollapsed() < 7 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			release.countDown();
+			for (Future<String> result : results) {
+				assertEquals("value", result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, loads.get());
+		assertEquals(8, singleFlight.getCalls());
+		assertEquals(7, singleFlight.getCollapsed());
+
+		// Once complete the key is forgotten and the next call loads again
+		singleFlight.execute("key", () -> {
+			loads.incrementAndGet();
+			return "value";
+		});
+		assertEquals(2, loads.get());
+	}
+}
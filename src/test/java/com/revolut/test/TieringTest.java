@@ -0,0 +1,146 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.revolut.beans.ReconciliationReport;
+import com.revolut.beans.Transaction;
+import com.revolut.database.AccountDAO;
+import com.revolut.database.DBConnection;
+import com.revolut.database.ReconciliationDAO;
+import com.revolut.database.TransactionDAO;
+import com.revolut.reconciliation.ReconciliationJob;
+import com.revolut.tiering.ColdStore;
+import com.revolut.tiering.ColdTransaction;
+import com.revolut.tiering.Segment;
+import com.revolut.tiering.TransactionTiering;
+
+/**
+ * Class to test moving old transactions to cold segments
+ * @author josh
+ *
+ */
+public class TieringTest {
+
+	private AccountDAO accountDAO = new AccountDAO();
+	private TransactionDAO transDAO = new TransactionDAO();
+
+	@Test
+	public void testArchiveTransactions() throws Exception {
+		accountDAO.createAccount("TierAccount1", new BigDecimal("100.00"));
+		accountDAO.createAccount("TierAccount2", new BigDecimal("0.00"));
+		long account1 = accountDAO.getAccount("TierAccount1").getId();
+		long account2 = accountDAO.getAccount("TierAccount2").getId();
+
+		// History from long before anything the other tests write
+		Timestamp time1 = Timestamp.valueOf("2001-01-01 10:00:00");
+		Timestamp time2 = Timestamp.valueOf("2001-01-02 09:30:00");
+		Ledger.insertTransaction(account1, account2, new BigDecimal("10.00"), time1);
+		Ledger.insertTransaction(account2, account1, new BigDecimal("2.50"), time2);
+		Ledger.setBalance(account1, new BigDecimal("92.50"));
+		Ledger.setBalance(account2, new BigDecimal("7.50"));
+
+		Path directory = Files.createTempDirectory("segments");
+		ColdStore coldStore = new ColdStore(directory);
+		assertEquals(2, transDAO.archiveTransactions(Timestamp.valueOf("2002-01-01 00:00:00"), 1000, coldStore::archive));
+		assertEquals(0, transDAO.archiveTransactions(Timestamp.valueOf("2002-01-01 00:00:00"), 1000, coldStore::archive));
+		assertEquals(0, countTransactions(account1));
+
+		assertEquals(1, coldStore.getSegments().size());
+		Segment segment = Segment.open(coldStore.getSegments().get(0).getPath());
+		assertEquals(2, segment.getRowCount());
+		assertTrue(segment.containsAccount(account1));
+		assertEquals(time2.getTime(), segment.getMaxTime());
+
+		List<ColdTransaction> found = coldStore.find(account1, account2);
+		assertEquals(1, found.size());
+		assertEquals(1000, found.get(0).getAmount());
+		assertEquals(time1.getTime(), found.get(0).getTransactionTime());
+		assertEquals(2, coldStore.find(null, null).size());
+
+		Map<Long, Long> net = coldStore.getNetAmounts(account1, account2 + 1);
+		assertEquals(Long.valueOf(-750), net.get(account1));
+		assertEquals(Long.valueOf(750), net.get(account2));
+
+		// Balances only agree with the ledger once the cold history is counted
+		ReconciliationReport withCold = new ReconciliationJob(new ReconciliationDAO(), coldStore, 4, 2).run();
+		assertFalse(Ledger.isReported(withCold, account1));
+		assertFalse(Ledger.isReported(withCold, account2));
+		ReconciliationReport withoutCold = new ReconciliationJob(new ReconciliationDAO(), new ColdStore(null), 4, 2).run();
+		assertTrue(Ledger.isReported(withoutCold, account1));
+		assertTrue(Ledger.isReported(withoutCold, account2));
+	}
+
+	@Test
+	public void testMovesWaitForReaders() throws Exception {
+		ColdStore coldStore = new ColdStore(Files.createTempDirectory("segments"));
+		// Nothing is old enough to move, each attempt still takes the move lock
+		Thread tiering = new Thread(new TransactionTiering(coldStore, transDAO, TimeUnit.DAYS.toMillis(365 * 100), 1000));
+		coldStore.getReadLock().lock();
+		try {
+			tiering.start();
+			tiering.join(200);
+			assertTrue("Move ran during a reconciliation", tiering.isAlive());
+		} finally {
+			coldStore.getReadLock().unlock();
+		}
+		tiering.join(5000);
+		assertFalse(tiering.isAlive());
+	}
+
+	@Test
+	public void testArchiveConvertedTransfer() throws Exception {
+		accountDAO.createAccount("TierAccount3", new BigDecimal("100.00"));
+		accountDAO.createAccount("TierAccount4", new BigDecimal("0.00"), "EUR");
+		long account3 = accountDAO.getAccount("TierAccount3").getId();
+		long account4 = accountDAO.getAccount("TierAccount4").getId();
+		Ledger.insertTransaction(account3, account4, new BigDecimal("10.00"), new BigDecimal("11.76"), new BigDecimal("1.1764705882"),
+				Timestamp.valueOf("2001-02-01 10:00:00"));
+		Ledger.setBalance(account3, new BigDecimal("90.00"));
+		Ledger.setBalance(account4, new BigDecimal("11.76"));
+
+		ColdStore coldStore = new ColdStore(Files.createTempDirectory("segments"));
+		assertEquals(1, transDAO.archiveTransactions(Timestamp.valueOf("2002-01-01 00:00:00"), 1000, coldStore::archive));
+		ColdTransaction cold = coldStore.find(account3, account4).get(0);
+		assertEquals(1000, cold.getAmount());
+		assertEquals(1176, cold.getToAmount());
+		assertEquals(11764705882L, cold.getRate());
+
+		// Read back from the cold store as it was made
+		List<Transaction> transactions = new TransactionDAO(coldStore).getAccountTransactions("TierAccount3", "TierAccount4");
+		assertEquals(1, transactions.size());
+		Transaction trans = transactions.get(0);
+		assertEquals(new BigDecimal("10.00"), trans.getAmount());
+		assertEquals("GBP", trans.getCurrency());
+		assertEquals(new BigDecimal("11.76"), trans.getToAmount());
+		assertEquals("EUR", trans.getToCurrency());
+		assertEquals(new BigDecimal("1.1764705882"), trans.getRate());
+	}
+
+	private int countTransactions(long accountId) throws Exception {
+		try (Connection con = DBConnection.getConnection();
+				PreparedStatement ps = con.prepareStatement(
+						"SELECT COUNT(*) FROM TRANSACTION WHERE FROMACCOUNTID = ? OR TOACCOUNTID = ?")) {
+			ps.setLong(1, accountId);
+			ps.setLong(2, accountId);
+			try (ResultSet result = ps.executeQuery()) {
+				result.next();
+				return result.getInt(1);
+			}
+		}
+	}
+}
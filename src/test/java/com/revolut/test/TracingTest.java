@@ -0,0 +1,102 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.revolut.database.AccountDAO;
+import com.revolut.rest.TraceFilter;
+import com.revolut.rest.TransactionServlet;
+import com.revolut.tracing.Span;
+import com.revolut.tracing.Trace;
+import com.revolut.tracing.Tracer;
+
+/**
+ * Class to test request tracing
+ * @author josh
+ *
+ */
+public class TracingTest {
+
+	private AccountDAO accountDAO = new AccountDAO();
+	private TraceFilter traceFilter = new TraceFilter();
+	private TransactionServlet transServlet = new TransactionServlet();
+
+	@Test
+	public void testTracedTransfer() throws Exception {
+		accountDAO.createAccount("TraceAccount1", new BigDecimal("100.00"));
+		accountDAO.createAccount("TraceAccount2", new BigDecimal("0.00"));
+
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(request.getMethod()).thenReturn("POST");
+		when(request.getServletPath()).thenReturn("/Transaction");
+		when(request.getHeader(Tracer.TRACE_HEADER)).thenReturn("1");
+		when(request.getRemoteAddr()).thenReturn("127.0.0.1");
+		when(request.getReader()).thenReturn(new BufferedReader(new StringReader(
+				"{\"fromAccountName\":\"TraceAccount1\",\"toAccountName\":\"TraceAccount2\",\"amount\":\"10.00\"}")));
+		when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+		traceFilter.doFilter(request, response,
+				(req, res) -> transServlet.doPost((HttpServletRequest) req, (HttpServletResponse) res));
+		assertFalse("Trace should end with the request", Tracer.isActive());
+
+		ArgumentCaptor<String> traceId = ArgumentCaptor.forClass(String.class);
+		verify(response).setHeader(eq(Tracer.TRACE_ID_HEADER), traceId.capture());
+		Trace trace = null;
+		for (Trace recent : Tracer.getRecentTraces()) {
+			if (recent.getId().equals(traceId.getValue())) {
+				trace = recent;
+			}
+		}
+		assertNotNull("Trace was not recorded", trace);
+		assertEquals("POST /Transaction", trace.getName());
+		assertEquals(0, trace.getSpans().get(0).getDepth());
+		assertEquals(trace.getDurationMicros(), trace.getSpans().get(0).getDurationMicros());
+
+		Set<String> names = new HashSet<>();
+		for (Trace.SpanRecord span : trace.getSpans()) {
+			names.add(span.getName());
+			if (span != trace.getSpans().get(0)) {
+				assertTrue(span.getDepth() > 0);
+			}
+		}
+		assertTrue(names.contains("parse"));
+		assertTrue(names.contains("admission"));
+		assertTrue(names.contains("transfer"));
+		assertTrue(names.contains("account.lookup"));
+		assertTrue(names.contains("doTransfer"));
+		assertTrue(names.contains("jdbc connect"));
+		assertTrue(names.contains("jdbc UPDATE ACCOUNT"));
+		assertTrue(names.contains("jdbc INSERT TRANSACTION"));
+		assertTrue(names.contains("jdbc commit"));
+		assertTrue(names.contains("respond"));
+	}
+
+	@Test
+	public void testUntracedSpans() {
+		try (Span span = Tracer.span("untraced")) {
+			assertFalse(span.isRecording());
+			assertFalse(Tracer.isActive());
+		}
+	}
+}
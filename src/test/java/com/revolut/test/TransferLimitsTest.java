@@ -0,0 +1,73 @@
+package com.revolut.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.revolut.database.AccountDAO;
+import com.revolut.database.TransactionDAO;
+import com.revolut.limits.SlidingWindow;
+import com.revolut.limits.TransferLimits;
+import com.revolut.service.TransferOutcome;
+import com.revolut.service.TransferService;
+
+/**
+ * Class to test per account transfer limits
+ * @author josh
+ *
+ */
+public class TransferLimitsTest {
+
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+	@Test
+	public void testSlidingWindow() {
+		SlidingWindow window = new SlidingWindow(HOUR, 12);
+		window.add(0, 0, 100);
+		window.add(10 * MINUTE, 10 * MINUTE, 50);
+		assertEquals(150, window.getTotal(59 * MINUTE));
+		// The first bucket has left the hour, the second hasn't
+		assertEquals(50, window.getTotal(60 * MINUTE));
+		assertEquals(0, window.getTotal(75 * MINUTE));
+		// Amounts older than the window are ignored, amounts within it land in their own bucket
+		window.add(3 * HOUR, HOUR, 10);
+		window.add(3 * HOUR, 3 * HOUR - 30 * MINUTE, 20);
+		assertEquals(20, window.getTotal(3 * HOUR));
+		assertTrue(window.isEmpty(4 * HOUR));
+	}
+
+	@Test
+	public void testReserveAndRelease() {
+		TransferLimits limits = new TransferLimits(5000, 7000);
+		long now = 10 * HOUR;
+		assertTrue(limits.tryReserve(1, 3000, now));
+		assertFalse("Over the hourly limit", limits.tryReserve(1, 3000, now + MINUTE));
+		assertTrue("Other accounts have their own limits", limits.tryReserve(2, 5000, now));
+		limits.release(1, 3000, now, now + MINUTE);
+		assertTrue(limits.tryReserve(1, 5000, now + MINUTE));
+		assertTrue(limits.tryReserve(1, 2000, now + 2 * HOUR));
+		assertFalse("Over the daily limit", limits.tryReserve(1, 100, now + 3 * HOUR));
+		assertEquals(7000, limits.getTotals(1, now + 3 * HOUR)[1]);
+		assertTrue(limits.tryReserve(1, 100, now + 26 * HOUR));
+	}
+
+	@Test
+	public void testLimitedTransfers() {
+		AccountDAO accountDAO = new AccountDAO();
+		accountDAO.createAccount("LimitAccount1", new BigDecimal("100.00"));
+		accountDAO.createAccount("LimitAccount2", new BigDecimal("0.00"));
+		TransferService transferService = new TransferService(accountDAO, new TransactionDAO(), new TransferLimits(5000, Long.MAX_VALUE));
+		assertEquals(TransferOutcome.SUCCESS, transferService.transfer("LimitAccount1", "LimitAccount2", new BigDecimal("30.00")));
+		assertEquals(TransferOutcome.LIMIT_EXCEEDED, transferService.transfer("LimitAccount1", "LimitAccount2", new BigDecimal("30.00")));
+		assertEquals(TransferOutcome.SUCCESS, transferService.transfer("LimitAccount1", "LimitAccount2", new BigDecimal("20.00")));
+		assertTrue(new BigDecimal("50.00").compareTo(accountDAO.getAccount("LimitAccount1").getBalance()) == 0);
+		// Money coming in doesn't count against the receiving account
+		assertEquals(TransferOutcome.SUCCESS, transferService.transfer("LimitAccount2", "LimitAccount1", new BigDecimal("50.00")));
+	}
+}